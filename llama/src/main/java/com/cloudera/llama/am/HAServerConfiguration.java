@@ -48,6 +48,47 @@ public class HAServerConfiguration implements Configurable {
     return conf.getBoolean(HA_ENABLED, false);
   }
 
+  /** Prepare the LlamaAM while in standby to reduce failover time */
+  public static final String HOT_STANDBY = KEY_PREFIX + "hot-standby";
+  public static final boolean HOT_STANDBY_DEFAULT = false;
+
+  public boolean isHotStandby() {
+    return conf.getBoolean(HOT_STANDBY, HOT_STANDBY_DEFAULT);
+  }
+
+  /**
+   * All Llamas are active, each queue is handled by the Llama holding its
+   * lease in ZooKeeper.
+   */
+  public static final String ACTIVE_ACTIVE = KEY_PREFIX + "active-active";
+  public static final boolean ACTIVE_ACTIVE_DEFAULT = false;
+
+  public boolean isActiveActive() {
+    return conf.getBoolean(ACTIVE_ACTIVE, ACTIVE_ACTIVE_DEFAULT);
+  }
+
+  public static final String QUEUE_REBALANCE_INTERVAL_MS = KEY_PREFIX +
+      "queue-rebalance-interval-ms";
+  public static final long QUEUE_REBALANCE_INTERVAL_MS_DEFAULT = 30 * 1000;
+
+  public long getQueueRebalanceInterval() {
+    return conf.getLong(QUEUE_REBALANCE_INTERVAL_MS,
+        QUEUE_REBALANCE_INTERVAL_MS_DEFAULT);
+  }
+
+  /**
+   * Interval of the fencing znode reads done as a safety net, fencing is
+   * detected through a watch on the znode.
+   */
+  public static final String FENCING_CHECK_INTERVAL_MS = KEY_PREFIX +
+      "fencing-check-interval-ms";
+  public static final long FENCING_CHECK_INTERVAL_MS_DEFAULT = 60 * 1000;
+
+  public long getFencingCheckInterval() {
+    return conf.getLong(FENCING_CHECK_INTERVAL_MS,
+        FENCING_CHECK_INTERVAL_MS_DEFAULT);
+  }
+
   /** ZK configs */
   public static final String ZK_PREFIX = KEY_PREFIX + "zk-";
 
@@ -75,6 +116,14 @@ public class HAServerConfiguration implements Configurable {
     return getZkBase() + "/fencing";
   }
 
+  public String getQueueLeasesZNode() throws LlamaException {
+    return getZkBase() + "/queue-leases";
+  }
+
+  public String getMembersZNode() throws LlamaException {
+    return getZkBase() + "/members";
+  }
+
   /** ZK quorum */
   public static final String ZK_QUORUM = ZK_PREFIX + "quorum";
 
@@ -19,15 +19,19 @@ package com.cloudera.llama.am;
 
 import com.cloudera.llama.am.api.AsyncLlamaAMListener;
 import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.am.yarn.YarnRMConnector;
 import com.cloudera.llama.server.ClientInfo;
 import com.cloudera.llama.server.ClientNotificationService;
+import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.server.NodeMapper;
 import com.cloudera.llama.server.Security;
 import com.cloudera.llama.server.ThriftEndPoint;
 import com.cloudera.llama.server.ThriftServer;
 import com.cloudera.llama.thrift.LlamaAMAdminService;
 import com.cloudera.llama.thrift.LlamaAMService;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.JmxReporter;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.jmx.JMXJsonServlet;
@@ -45,6 +49,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.security.SecureRandom;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class LlamaAMServer extends
@@ -70,6 +75,35 @@ public class LlamaAMServer extends
 
   private JmxReporter reporter;
   private Server httpServer;
+  private Context httpContext;
+
+  /**
+   * The registry is recreated on every {@link #prepare()}, in HA the HTTP
+   * server outlives it and is rebound to the new one.
+   */
+  @Override
+  protected synchronized void startMetrics() {
+    MetricUtil.setReservoirPrecisionBits(
+        getServerConf().getMetricsReservoirPrecisionBits());
+    super.startMetrics();
+    bindMetricRegistry();
+  }
+
+  @Override
+  protected synchronized void stopMetrics() {
+    super.stopMetrics();
+    bindMetricRegistry();
+  }
+
+  private void bindMetricRegistry() {
+    if (restData != null) {
+      restData.setMetricRegistry(getMetricRegistry());
+    }
+    if (httpContext != null) {
+      httpContext.setAttribute(OpenMetricsServlet.METRIC_REGISTRY,
+          getMetricRegistry());
+    }
+  }
 
   protected void startJMX() {
     reporter = JmxReporter.forRegistry(getMetricRegistry()).build();
@@ -95,7 +129,9 @@ public class LlamaAMServer extends
       return;
     }
 
-    restData = new RestData(this);
+    restData = new RestData(this,
+        getServerConf().getHttpChangesBufferSize());
+    restData.start(getServerConf().getHttpSnapshotRefreshInterval());
     httpServer = new Server();
     QueuedThreadPool qtp = new QueuedThreadPool(JETTY_MAX_THREADS);
     qtp.setName("llama-jetty");
@@ -119,6 +155,13 @@ public class LlamaAMServer extends
         getServerConf().getLoggerServletReadOnly());
     context.addServlet(LlamaJsonServlet.class, LlamaJsonServlet.BIND_PATH);
     context.setAttribute(LlamaJsonServlet.REST_DATA, restData);
+    // changes subscribers must leave HTTP threads for the other requests
+    context.setAttribute(LlamaJsonServlet.CHANGES_MAX_SUBSCRIBERS,
+        Math.min(getServerConf().getHttpChangesMaxSubscribers(),
+            JETTY_MAX_THREADS / 2));
+    context.addServlet(OpenMetricsServlet.class, OpenMetricsServlet.PATH);
+    httpContext = context;
+    bindMetricRegistry();
     httpServer.addHandler(context);
 
     try {
@@ -136,6 +179,7 @@ public class LlamaAMServer extends
   }
 
   private void stopHttpServer() {
+    restData.stop();
     try {
       httpServer.stop();
     } catch (Throwable ex) {
@@ -143,8 +187,12 @@ public class LlamaAMServer extends
     }
   }
 
+  /**
+   * Creates the LlamaAM and the services it needs without registering with
+   * YARN nor opening the Thrift ports, for a hot standby to activate fast.
+   */
   @Override
-  protected void startService() {
+  protected void prepareService() {
     startHttpServer();
     try {
       Security.loginToHadoop(getServerConf());
@@ -191,33 +239,83 @@ public class LlamaAMServer extends
           ThriftEndPoint.getServerPort(getServerConf()));
       getConf().set(YarnRMConnector.ADVERTISED_TRACKING_URL_KEY,
           getHttpLlamaUI());
+      ReservationTracer tracer = new ReservationTracer(getConf());
+      tracer.setMetricRegistry(getMetricRegistry());
+      tracer.start();
+      ReservationTracer.setTracer(tracer);
       llamaAm = LlamaAM.create(getConf());
-      asyncListener = new AsyncLlamaAMListener(restData);
+      asyncListener = new AsyncLlamaAMListener(getConf(), restData);
       asyncListener.setMetricRegistry(getMetricRegistry());
       asyncListener.start();
       llamaAm.addListener(asyncListener);
       llamaAm.setMetricRegistry(getMetricRegistry());
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  protected void startService() {
+    try {
+      // set at activation, the sequence generator uses the time as epoch
+      UUID.setGenerator(createIdGenerator(getConf()));
       llamaAm.start();
     } catch (Exception ex) {
       throw new RuntimeException(ex);
     }
   }
 
+  static UUID.Generator createIdGenerator(Configuration conf) {
+    String name = conf.get(LlamaAM.ID_GENERATOR_KEY,
+        LlamaAM.ID_GENERATOR_DEFAULT).trim().toLowerCase();
+    UUID.Generator generator;
+    if (name.equals("random")) {
+      generator = UUID.THREAD_RANDOM;
+    } else if (name.equals("secure")) {
+      generator = UUID.SECURE;
+    } else if (name.equals("sequence")) {
+      int nodeId = conf.getInt(LlamaAM.ID_GENERATOR_NODE_ID_KEY,
+          new SecureRandom().nextInt());
+      // the activation time as epoch makes IDs unique across HA failovers
+      generator = new UUID.SequenceGenerator(nodeId,
+          System.currentTimeMillis());
+    } else {
+      throw new IllegalArgumentException(FastFormat.format(
+          "Invalid '{}' value '{}', it must be 'random', 'secure' or " +
+              "'sequence'", LlamaAM.ID_GENERATOR_KEY, name));
+    }
+    LOG.info("ID generator: {}", name);
+    return generator;
+  }
+
   @Override
   protected void stopService() {
     llamaAm.stop();
+  }
+
+  @Override
+  protected void unprepareService() {
     llamaAm = null;
 
-    asyncListener.stop();
-    asyncListener = null;
+    if (asyncListener != null) {
+      asyncListener.stop();
+      asyncListener = null;
+    }
 
-    allocsLoader.stop();
-    allocsLoader = null;
+    ReservationTracer.getTracer().stop();
+    ReservationTracer.setTracer(ReservationTracer.DISABLED);
+
+    if (allocsLoader != null) {
+      allocsLoader.stop();
+      allocsLoader = null;
+    }
 
     allocConf = null;
 
-    clientNotificationService.stop();
-    clientNotificationService = null;
+    if (clientNotificationService != null) {
+      clientNotificationService.stop();
+      clientNotificationService = null;
+    }
 
     nodeMapper = null;
   }
@@ -21,6 +21,7 @@ import com.cloudera.llama.am.api.Expansion;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.NodeInfo;
 import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.server.ClientNotificationService;
 import com.cloudera.llama.server.NodeMapper;
 import com.cloudera.llama.server.TypeUtils;
@@ -29,15 +30,20 @@ import com.cloudera.llama.thrift.TLlamaAMGetNodesRequest;
 import com.cloudera.llama.thrift.TLlamaAMGetNodesResponse;
 import com.cloudera.llama.thrift.TLlamaAMRegisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMRegisterResponse;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMReleaseRequest;
 import com.cloudera.llama.thrift.TLlamaAMReleaseResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationResponse;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterResponse;
 import com.cloudera.llama.thrift.TNetworkAddress;
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import com.cloudera.llama.thrift.TUniqueId;
 import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
@@ -53,7 +59,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class LlamaAMServiceImpl implements LlamaAMService.Iface {
@@ -83,10 +93,16 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
     try {
       UUID clientId = TypeUtils.toUUID(request.getClient_id());
       TNetworkAddress tAddress = request.getNotification_callback_service();
+      TNotificationProtocol protocol =
+          clientNotificationService.negotiateProtocol(
+              request.getNotification_protocol());
       UUID handle = clientNotificationService.register(clientId,
-          tAddress.getHostname(), tAddress.getPort());
+          tAddress.getHostname(), tAddress.getPort(), protocol);
       response.setStatus(TypeUtils.OK);
       response.setAm_handle(TypeUtils.toTUniqueId(handle));
+      if (request.isSetNotification_protocol()) {
+        response.setNotification_protocol(protocol);
+      }
     } catch (Throwable ex) {
       LOG.warn("Register() error: {}", ex.toString(), ex);
       response.setStatus(TypeUtils.createError(ex));
@@ -115,13 +131,16 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
   public TLlamaAMReservationResponse Reserve(TLlamaAMReservationRequest request)
       throws TException {
     TLlamaAMReservationResponse response = new TLlamaAMReservationResponse();
+    ReservationTracer tracer = ReservationTracer.getTracer();
+    UUID reservationId = null;
     try {
       TUniqueId reservation_id = request.getReservation_id();
       if (null == reservation_id) {
         throw new LlamaException(ErrorCode.RESERVATION_NO_ID_PROVIDED);
       }
 
-      UUID reservationId = TypeUtils.toUUID(reservation_id);
+      reservationId = TypeUtils.toUUID(reservation_id);
+      tracer.start(reservationId);
       UUID handle = TypeUtils.toUUID(request.getAm_handle());
       clientNotificationService.validateHandle(handle);
 
@@ -129,6 +148,7 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
       checkAccess(request.getUser(), queue, request.getQueue());
 
       Reservation reservation = TypeUtils.toReservation(request, nodeMapper, queue);
+      tracer.mark(reservationId, ReservationTracer.Stage.PLACED);
       llamaAM.reserve(reservationId, reservation);
 
       response.setReservation_id(TypeUtils.toTUniqueId(reservationId));
@@ -136,10 +156,131 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
     } catch (Throwable ex) {
       LOG.warn("Reserve() error: {}", ex.toString(), ex);
       response.setStatus(TypeUtils.createError(ex));
+      if (reservationId != null) {
+        tracer.discard(reservationId);
+      }
     }
     return response;
   }
   
+  @Override
+  public TLlamaAMReserveBatchResponse ReserveBatch(
+      TLlamaAMReserveBatchRequest request) throws TException {
+    TLlamaAMReserveBatchResponse response = new TLlamaAMReserveBatchResponse();
+    ReservationTracer tracer = ReservationTracer.getTracer();
+    try {
+      UUID handle = TypeUtils.toUUID(request.getAm_handle());
+      clientNotificationService.validateHandle(handle);
+
+      List<TLlamaAMReservationResponse> responses =
+          new ArrayList<TLlamaAMReservationResponse>();
+      Map<UUID, Reservation> reservations =
+          new LinkedHashMap<UUID, Reservation>();
+      Map<UUID, TLlamaAMReservationResponse> placed =
+          new HashMap<UUID, TLlamaAMReservationResponse>();
+      Map<List<String>, QueueAssignment> queues =
+          new HashMap<List<String>, QueueAssignment>();
+      for (TLlamaAMReservationRequest item : request.getReservations()) {
+        TLlamaAMReservationResponse itemResponse =
+            new TLlamaAMReservationResponse();
+        responses.add(itemResponse);
+        try {
+          TUniqueId reservation_id = item.getReservation_id();
+          if (null == reservation_id) {
+            throw new LlamaException(ErrorCode.RESERVATION_NO_ID_PROVIDED);
+          }
+          UUID reservationId = TypeUtils.toUUID(reservation_id);
+          UUID itemHandle = TypeUtils.toUUID(item.getAm_handle());
+          if (!handle.equals(itemHandle)) {
+            throw new LlamaException(
+                ErrorCode.RESERVATION_BATCH_HANDLE_MISMATCH, reservationId,
+                itemHandle, handle);
+          }
+          if (reservations.containsKey(reservationId)) {
+            throw new LlamaException(
+                ErrorCode.RESERVATION_BATCH_DUPLICATE_ID, reservationId);
+          }
+          tracer.start(reservationId);
+          String queue = assignToQueue(item, queues);
+          reservations.put(reservationId,
+              TypeUtils.toReservation(item, nodeMapper, queue));
+          placed.put(reservationId, itemResponse);
+          tracer.mark(reservationId, ReservationTracer.Stage.PLACED);
+        } catch (Throwable ex) {
+          LOG.warn("ReserveBatch() error: {}", ex.toString(), ex);
+          itemResponse.setStatus(TypeUtils.createError(ex));
+        }
+      }
+
+      Map<UUID, LlamaException> errors = (reservations.isEmpty())
+          ? new HashMap<UUID, LlamaException>()
+          : llamaAM.reserve(reservations);
+      for (Map.Entry<UUID, TLlamaAMReservationResponse> entry :
+          placed.entrySet()) {
+        LlamaException ex = errors.get(entry.getKey());
+        if (ex == null) {
+          entry.getValue().setReservation_id(
+              TypeUtils.toTUniqueId(entry.getKey()));
+          entry.getValue().setStatus(TypeUtils.OK);
+        } else {
+          LOG.warn("ReserveBatch() error: {}", ex.toString(), ex);
+          entry.getValue().setStatus(TypeUtils.createError(ex));
+          tracer.discard(entry.getKey());
+        }
+      }
+      response.setResponses(responses);
+      response.setStatus(TypeUtils.OK);
+    } catch (Throwable ex) {
+      LOG.warn("ReserveBatch() error: {}", ex.toString(), ex);
+      response.setStatus(TypeUtils.createError(ex));
+    }
+    return response;
+  }
+
+  /**
+   * Outcome of assigning a user asking for a queue, either the assigned queue
+   * or the error of the assignment or of the access check.
+   */
+  private static class QueueAssignment {
+    private final String queue;
+    private final LlamaException error;
+
+    QueueAssignment(String queue, LlamaException error) {
+      this.queue = queue;
+      this.error = error;
+    }
+
+    String getQueue() throws LlamaException {
+      if (error != null) {
+        throw error;
+      }
+      return queue;
+    }
+  }
+
+  /**
+   * Assign reservation to a queue and check the user has access to it,
+   * the outcome is remembered in the given map for other reservations of the
+   * same user asking for the same queue.
+   */
+  private String assignToQueue(TLlamaAMReservationRequest request,
+      Map<List<String>, QueueAssignment> queues) throws LlamaException {
+    List<String> key = Arrays.asList(request.getUser(),
+        (request.isSetQueue()) ? request.getQueue() : null);
+    QueueAssignment assignment = queues.get(key);
+    if (assignment == null) {
+      try {
+        String queue = assignToQueue(request);
+        checkAccess(request.getUser(), queue, request.getQueue());
+        assignment = new QueueAssignment(queue, null);
+      } catch (LlamaException ex) {
+        assignment = new QueueAssignment(null, ex);
+      }
+      queues.put(key, assignment);
+    }
+    return assignment.getQueue();
+  }
+
   /**
    * Assign reservation to a queue based on the placement policy specified
    * in the alloc conf
@@ -221,6 +362,7 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
       UUID handle = TypeUtils.toUUID(request.getAm_handle());
       clientNotificationService.validateHandle(handle);
       UUID reservationId = TypeUtils.toUUID(request.getReservation_id());
+      ReservationTracer.getTracer().discard(reservationId);
       llamaAM.releaseReservation(handle, reservationId, false);
       response.setStatus(TypeUtils.OK);
     } catch (Throwable ex) {
@@ -230,6 +372,43 @@ public class LlamaAMServiceImpl implements LlamaAMService.Iface {
     return response;
   }
 
+  @Override
+  public TLlamaAMReleaseBatchResponse ReleaseBatch(
+      TLlamaAMReleaseBatchRequest request) throws TException {
+    TLlamaAMReleaseBatchResponse response = new TLlamaAMReleaseBatchResponse();
+    try {
+      UUID handle = TypeUtils.toUUID(request.getAm_handle());
+      clientNotificationService.validateHandle(handle);
+      List<UUID> reservationIds = new ArrayList<UUID>();
+      for (TUniqueId reservationId : request.getReservation_ids()) {
+        UUID id = TypeUtils.toUUID(reservationId);
+        reservationIds.add(id);
+        ReservationTracer.getTracer().discard(id);
+      }
+      Map<UUID, LlamaException> errors = llamaAM.releaseReservations(handle,
+          reservationIds, false);
+      List<TLlamaAMReleaseResponse> responses =
+          new ArrayList<TLlamaAMReleaseResponse>();
+      for (UUID reservationId : reservationIds) {
+        TLlamaAMReleaseResponse itemResponse = new TLlamaAMReleaseResponse();
+        LlamaException ex = errors.get(reservationId);
+        if (ex == null) {
+          itemResponse.setStatus(TypeUtils.OK);
+        } else {
+          LOG.warn("ReleaseBatch() error: {}", ex.toString(), ex);
+          itemResponse.setStatus(TypeUtils.createError(ex));
+        }
+        responses.add(itemResponse);
+      }
+      response.setResponses(responses);
+      response.setStatus(TypeUtils.OK);
+    } catch (Throwable ex) {
+      LOG.warn("ReleaseBatch() error: {}", ex.toString(), ex);
+      response.setStatus(TypeUtils.createError(ex));
+    }
+    return response;
+  }
+
   @Override
   public TLlamaAMGetNodesResponse GetNodes(TLlamaAMGetNodesRequest request)
       throws TException {
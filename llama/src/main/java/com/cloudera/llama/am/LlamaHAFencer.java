@@ -21,10 +21,15 @@ import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.hadoop.util.ZKUtil;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.ACL;
@@ -37,6 +42,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Fencer to make sure a single Llama is Active.
@@ -44,9 +50,12 @@ import java.util.List;
  * Fencing is achieved through Zookeeper ACLs on a particular znode
  * (say, fencingZNode). When transitioning to Active,
  * a Llama claims exclusive read-access to this znode and fences other Llamas
- * falsely assuming Active role. Also, each Active Llama runs a thread that
- * tries to read this znode in a loop; when another Llama takes over,
- * this read fails and the monitoring Llama gives up the Active role.
+ * falsely assuming Active role, then it touches the znode data. Each Active
+ * Llama keeps a watch on this znode and re-reads it when the watch fires or
+ * the ZooKeeper connection is lost or re-established; when another Llama
+ * takes over, this read fails and the monitoring Llama gives up the Active
+ * role. The znode is also read every
+ * {@link HAServerConfiguration#FENCING_CHECK_INTERVAL_MS} as a safety net.
  */
 public class LlamaHAFencer {
   private static final Logger LOG =
@@ -79,7 +88,7 @@ public class LlamaHAFencer {
       throws Exception {
     this.server = server;
     this.conf = conf;
-    this.checkingInterval = conf.getZKTimeout() / 5;
+    this.checkingInterval = conf.getFencingCheckInterval();
 
     // ZK related initialization
     zkQuorum = conf.getZkQuorum();
@@ -124,15 +133,16 @@ public class LlamaHAFencer {
     LOG.info("Created fencer.");
   }
 
-  public void startFenceChecker() {
+  public synchronized void startFenceChecker() {
     checker = new FenceChecker();
+    client.getConnectionStateListenable().addListener(checker);
     checker.start();
     LOG.info("Started Fence Checker.");
   }
 
-  public void stopFenceChecker() {
+  public synchronized void stopFenceChecker() {
     if (checker != null) {
-      checker.interrupt();
+      checker.shutdown();
       // checker.join() is not required. Worst case,
       // it will stop when it gets fenced.
       checker = null;
@@ -140,10 +150,22 @@ public class LlamaHAFencer {
     }
   }
 
+  public void close() {
+    stopFenceChecker();
+    client.close();
+  }
+
   public void fenceOthers() throws Exception {
     LOG.info("Fencing any other Llamas assuming Active role...");
     updateZKAuthsIfRequired();
     client.setACL().withACL(exclusiveReadAccessACLs).forPath(fencingPath);
+    try {
+      // setting the ACL does not trigger watches, changing the data does.
+      client.setData().forPath(fencingPath, fencingUsername.getBytes());
+    } catch (KeeperException.NoAuthException ex) {
+      LOG.warn("No write access to '{}', other Llamas will detect they " +
+          "have been fenced on their next periodic check", fencingPath);
+    }
     LOG.info("Done fencing other Llamas.");
   }
 
@@ -152,7 +174,7 @@ public class LlamaHAFencer {
    * underlying ZK Client is updated. This needs to be called before creating
    * the {@link #fencingPath} and in the call to {@link #fenceOthers}.
    */
-  private void updateZKAuthsIfRequired() throws Exception {
+  private synchronized void updateZKAuthsIfRequired() throws Exception {
     long latestZkClientIndex = client.getZookeeperClient().getInstanceIndex();
     assert (latestZkClientIndex >= zkClientIndex);
 
@@ -185,24 +207,89 @@ public class LlamaHAFencer {
     return acls;
   }
 
-  private class FenceChecker extends Thread {
-    public void run() {
-      // Keep checking if this instance got fenced
-      while (true) {
+  private class FenceChecker extends Thread implements CuratorWatcher,
+      ConnectionStateListener {
+    private final AtomicBoolean watching = new AtomicBoolean();
+    private volatile boolean stopped;
+    private boolean signaled; // protected by this
+
+    public FenceChecker() {
+      super("llama-fence-checker");
+      setDaemon(true);
+    }
+
+    private synchronized void signal() {
+      signaled = true;
+      notifyAll();
+    }
+
+    void shutdown() {
+      stopped = true;
+      interrupt();
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+      // connection events do not remove the watch unless the session expired
+      if (event.getType() != Watcher.Event.EventType.None ||
+          event.getState() == Watcher.Event.KeeperState.Expired) {
+        watching.set(false);
+        signal();
+      }
+    }
+
+    @Override
+    public void stateChanged(CuratorFramework client, ConnectionState state) {
+      if (state == ConnectionState.LOST ||
+          state == ConnectionState.RECONNECTED) {
+        LOG.info("Fencing znode connection {}, checking fencing", state);
+        signal();
+      }
+    }
+
+    private void check() throws Exception {
+      updateZKAuthsIfRequired();
+      if (watching.compareAndSet(false, true)) {
         try {
-          client.getData().forPath(fencingPath);
-          Thread.sleep(checkingInterval);
-        } catch (InterruptedException e) {
+          client.getData().usingWatcher(this).forPath(fencingPath);
+        } catch (Exception ex) {
+          watching.set(false);
+          throw ex;
+        }
+      } else {
+        client.getData().forPath(fencingPath);
+      }
+    }
+
+    public void run() {
+      boolean fenced = false;
+      // Check if this instance got fenced on every watch or connection
+      // event, or on every checking interval if there are none.
+      try {
+        while (!stopped) {
+          check();
+          synchronized (this) {
+            if (!signaled && !stopped) {
+              wait(checkingInterval);
+            }
+            signaled = false;
+          }
+        }
+      } catch (InterruptedException e) {
+        if (!stopped) {
           LOG.error("Interrupted!", e);
-          break;
-        } catch (Exception e) {
-          LOG.error("Potentially fenced!", e);
-          break;
+          fenced = true;
         }
+      } catch (Exception e) {
+        LOG.error("Potentially fenced!", e);
+        fenced = true;
       }
+      client.getConnectionStateListenable().removeListener(this);
 
-      // Fenced or interrupted. Forego active status immediately.
-      server.foregoActive(0);
+      if (fenced && !stopped) {
+        // Fenced or interrupted. Forego active status immediately.
+        server.foregoActive(0);
+      }
     }
   }
 }
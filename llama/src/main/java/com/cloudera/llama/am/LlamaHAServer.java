@@ -17,6 +17,12 @@
  */
 package com.cloudera.llama.am;
 
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.QueueOwnership;
+import com.cloudera.llama.server.MetricUtil;
+import com.cloudera.llama.server.ThriftEndPoint;
+import com.cloudera.llama.util.Clock;
+import com.codahale.metrics.Gauge;
 import org.apache.hadoop.ha.ActiveStandbyElector;
 import org.apache.hadoop.ha.ServiceFailedException;
 import org.apache.hadoop.net.NetUtils;
@@ -30,18 +36,42 @@ public class LlamaHAServer extends LlamaAMServer
   private static final Logger LOG =
       LoggerFactory.getLogger(LlamaHAServer.class);
 
+  public static final String LAST_ACTIVATION_LATENCY_GAUGE =
+      LlamaAM.METRIC_PREFIX + "ha.last-activation-latency.gauge";
+
+  // kept here, every prepare() recreates the metric registry
+  private volatile long lastActivationLatency = -1;
+
   private ActiveStandbyElector elector;
 
   // Unique identifier for leader election
   private final byte[] localNodeBytes;
   private boolean active = false; // protected by object-wide lock
   LlamaHAFencer fencer;
+  ZKQueueOwnership queueOwnership;
+  private boolean hotStandby = false; // protected by object-wide lock
+  private boolean stopping = false; // protected by object-wide lock
 
   public LlamaHAServer() {
     localNodeBytes = (NetUtils.getHostname() + "__" +
         new SecureRandom().nextLong()).getBytes();
   }
 
+  /**
+   * Registers the activation latency gauge on every new registry.
+   */
+  @Override
+  protected synchronized void startMetrics() {
+    super.startMetrics();
+    MetricUtil.registerGauge(getMetricRegistry(),
+        LAST_ACTIVATION_LATENCY_GAUGE, new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return lastActivationLatency;
+          }
+        });
+  }
+
   @Override
   public void start() {
     HAServerConfiguration conf = new HAServerConfiguration();
@@ -49,9 +79,33 @@ public class LlamaHAServer extends LlamaAMServer
 
     if (!conf.isHAEnabled()) {
       transitionToActive();
+    } else if (conf.isActiveActive()) {
+      // all Llamas are active, each one handling the queues it owns
+      try {
+        queueOwnership = new ZKQueueOwnership(conf,
+            ThriftEndPoint.getServerAddress(getServerConf()),
+            ThriftEndPoint.getServerPort(getServerConf()));
+        queueOwnership.start();
+        QueueOwnership.setOwnership(queueOwnership);
+        LOG.info("Active-active, queue ownership as '{}'",
+            queueOwnership.getAddress());
+      } catch (Exception e) {
+        LOG.error("HA active-active is enabled, but couldn't start queue " +
+            "ownership", e);
+        this.shutdown(1);
+        return;
+      }
+      transitionToActive();
     } else {
       startHttpServer();
 
+      synchronized (this) {
+        hotStandby = conf.isHotStandby();
+        if (hotStandby) {
+          prepareStandby();
+        }
+      }
+
       try {
         elector = new ActiveStandbyElector(conf.getZkQuorum(),
             (int) conf.getZKTimeout(), conf.getElectorZNode(),
@@ -74,11 +128,26 @@ public class LlamaHAServer extends LlamaAMServer
 
   @Override
   public void stop() {
+    synchronized (this) {
+      stopping = true;
+    }
     if (elector != null) {
       elector.quitElection(false);
       elector.terminateConnection();
     }
     transitionToStandby();
+    synchronized (this) {
+      if (isPrepared()) {
+        super.stop();
+      }
+    }
+    if (fencer != null) {
+      fencer.close();
+    }
+    if (queueOwnership != null) {
+      QueueOwnership.setOwnership(QueueOwnership.ALL);
+      queueOwnership.stop();
+    }
   }
 
   @Override
@@ -125,8 +194,28 @@ public class LlamaHAServer extends LlamaAMServer
     }
   }
 
+  /**
+   * A hot standby does all the initialization not visible outside of the
+   * process before becoming active, then activating only registers with Yarn
+   * and opens the Thrift ports.
+   */
+  private synchronized void prepareStandby() {
+    if (hotStandby && !stopping && !isPrepared()) {
+      try {
+        prepare();
+        LOG.info("Hot standby prepared");
+      } catch (Exception ex) {
+        LOG.warn("Could not prepare hot standby, it will be done on " +
+            "activation: {}", ex.toString(), ex);
+        super.stop();
+      }
+    }
+  }
+
   private synchronized void transitionToActive() {
     if (!active) {
+      long start = Clock.currentTimeMillis();
+      boolean prepared = isPrepared();
       if (fencer != null) {
         try {
           fencer.fenceOthers();
@@ -138,6 +227,10 @@ public class LlamaHAServer extends LlamaAMServer
       }
       super.start();
       active = true;
+      long latency = Clock.currentTimeMillis() - start;
+      lastActivationLatency = latency;
+      LOG.info("Transitioned to active in {}ms, prepared '{}'", latency,
+          prepared);
     } else {
       LOG.info("Asked to transition to active, when already in active mode.");
     }
@@ -150,6 +243,7 @@ public class LlamaHAServer extends LlamaAMServer
         fencer.stopFenceChecker();
       }
       active = false;
+      prepareStandby();
     } else {
       LOG.info("Asked to transition to standby, when already in standby mode.");
     }
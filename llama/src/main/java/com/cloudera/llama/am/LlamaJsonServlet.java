@@ -17,6 +17,8 @@
  */
 package com.cloudera.llama.am;
 
+import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.util.Clock;
 import com.cloudera.llama.util.UUID;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.ObjectWriter;
@@ -28,14 +30,22 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
 
 public class LlamaJsonServlet extends HttpServlet {
   private static final Logger LOG =
       LoggerFactory.getLogger(LlamaJsonServlet.class);
 
   public static final String REST_DATA = "llama.rest.data";
+  public static final String CHANGES_MAX_SUBSCRIBERS =
+      "llama.rest.changes.max.subscribers";
 
   public static final String PATH = "/json";
   public static final String BIND_PATH = PATH + "/*";
@@ -51,6 +61,24 @@ public class LlamaJsonServlet extends HttpServlet {
   public static final String HANDLE = V1 + "/handle/";
   public static final String NODE = V1 + "/node/";
   public static final String QUEUE = V1 + "/queue/";
+  public static final String CHANGES = V1 + "/changes";
+  public static final String TRACE = V1 + "/trace/";
+
+  public static final String STATUS_PARAM = "status";
+  public static final String QUEUE_PARAM = "queue";
+  public static final String USER_PARAM = "user";
+  public static final String MIN_AGE_PARAM = "minAgeMs";
+  public static final String MAX_AGE_PARAM = "maxAgeMs";
+  public static final String CURSOR_PARAM = "cursor";
+  public static final String LIMIT_PARAM = "limit";
+  public static final String FIELDS_PARAM = "fields";
+  public static final String PRETTY_PARAM = "pretty";
+  public static final String SINCE_PARAM = "since";
+  public static final String TIMEOUT_PARAM = "timeoutMs";
+
+  public static final long CHANGES_TIMEOUT_DEFAULT = 30 * 1000;
+  public static final long CHANGES_TIMEOUT_MAX = 5 * 60 * 1000;
+  public static final int CHANGES_MAX_SUBSCRIBERS_DEFAULT = 10;
 
   private static final Map REST_API = new LinkedHashMap();
 
@@ -62,15 +90,39 @@ public class LlamaJsonServlet extends HttpServlet {
     urls.put("handle", HANDLE + "<?>");
     urls.put("node", NODE + "<?>");
     urls.put("reservation", RESERVATION + "<?>");
+    urls.put("changes", CHANGES);
+    urls.put("trace", TRACE + "<?>");
+    Map params = new LinkedHashMap();
+    params.put(STATUS_PARAM, "comma separated reservation statuses");
+    params.put(QUEUE_PARAM, "reservation queue");
+    params.put(USER_PARAM, "reservation user");
+    params.put(MIN_AGE_PARAM, "minimum reservation age in milliseconds");
+    params.put(MAX_AGE_PARAM, "maximum reservation age in milliseconds");
+    params.put(CURSOR_PARAM, "'" + RestData.NEXT_CURSOR +
+        "' of the previous page");
+    params.put(LIMIT_PARAM, "maximum number of reservations per page");
+    params.put(FIELDS_PARAM, "comma separated reservation fields to write");
+    params.put(PRETTY_PARAM, "pretty print the response, default false");
+    params.put(SINCE_PARAM, "changes: last sequence seen, if missing or too " +
+        "old a snapshot to resync from is returned");
+    params.put(TIMEOUT_PARAM, "changes: milliseconds to wait for changes, " +
+        "for server-sent events (Accept: text/event-stream) how long to " +
+        "stream before closing, default " + CHANGES_TIMEOUT_DEFAULT);
     REST_API.put(RestData.REST_VERSION_KEY, RestData.REST_VERSION_VALUE);
     REST_API.put("urls", urls);
+    REST_API.put("params", params);
   }
 
   private static final String APPLICATION_JSON_MIME = "application/json";
   private static final String TEXT_PLAIN_MIME = "text/plain";
+  private static final String TEXT_EVENT_STREAM_MIME = "text/event-stream";
+  private static final String GZIP = "gzip";
+  private static final String LAST_EVENT_ID = "Last-Event-ID";
 
   private RestData restData;
   private ObjectWriter jsonWriter;
+  // permits for requests holding an HTTP thread while waiting for changes
+  private Semaphore subscribers;
 
   @Override
   public void init() throws ServletException {
@@ -80,50 +132,231 @@ public class LlamaJsonServlet extends HttpServlet {
     }
     ObjectMapper mapper = new ObjectMapper();
     jsonWriter = mapper.defaultPrettyPrintingWriter();
+    Integer maxSubscribers = (Integer) getServletContext().getAttribute(
+        CHANGES_MAX_SUBSCRIBERS);
+    subscribers = new Semaphore((maxSubscribers != null)
+        ? maxSubscribers : CHANGES_MAX_SUBSCRIBERS_DEFAULT);
   }
 
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
     resp.setContentType(APPLICATION_JSON_MIME);
+    resp.setCharacterEncoding("UTF-8");
     resp.setStatus(HttpServletResponse.SC_OK);
     String requestType = req.getPathInfo();
     requestType =  (requestType != null) ? requestType.toLowerCase() : ROOT;
+    if (requestType.equals(ROOT)) {
+      resp.sendRedirect(V1_PATH);
+      return;
+    }
+    String accept = req.getHeader("Accept");
+    boolean stream = requestType.equals(CHANGES) && accept != null &&
+        accept.contains(TEXT_EVENT_STREAM_MIME);
+    boolean subscriber = requestType.equals(CHANGES) &&
+        (stream || isWaitingForChanges(req));
+    if (subscriber && !subscribers.tryAcquire()) {
+      LOG.warn("Rejecting '{}', too many changes subscribers",
+          getFullUrl(req));
+      resp.setContentType(TEXT_PLAIN_MIME);
+      resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      resp.getWriter().println("TOO MANY SUBSCRIBERS");
+      return;
+    }
     try {
-      if (requestType.equals(ROOT)) {
-        resp.sendRedirect(V1_PATH);
-      } else if (requestType.equals(V1) || requestType.equals(V1 + "/")) {
-        jsonWriter.writeValue(resp.getWriter(), REST_API);
-      } else if (requestType.equals(SUMMARY)) {
-        restData.writeSummaryAsJson(resp.getWriter());
-      } else if (requestType.equals(ALL)) {
-        restData.writeAllAsJson(resp.getWriter());
-      } else if (requestType.startsWith(RESERVATION)) {
-        UUID id = UUID.fromString(requestType.substring(RESERVATION.length()));
-        restData.writeReservationAsJson(id, resp.getWriter());
-      } else if (requestType.startsWith(HANDLE)) {
-        UUID id = UUID.fromString(requestType.substring(HANDLE.length()));
-        restData.writeHandleReservationsAsJson(id, resp.getWriter());
-      } else if (requestType.startsWith(NODE)) {
-        String node = requestType.substring(NODE.length());
-        restData.writeNodeResourcesAsJson(node, resp.getWriter());
-      } else if (requestType.startsWith(QUEUE)) {
-        String queue = requestType.substring(QUEUE.length());
-        restData.writeQueueReservationsAsJson(queue, resp.getWriter());
+      if (stream) {
+        streamChanges(req, resp);
       } else {
-        throw new Exception();
+        writeJson(req, resp, requestType);
+      }
+    } finally {
+      if (subscriber) {
+        subscribers.release();
+      }
+    }
+  }
+
+  private void writeJson(HttpServletRequest req, HttpServletResponse resp,
+      String requestType) throws IOException {
+    GZIPOutputStream gzip = null;
+    Writer out;
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains(GZIP)) {
+      resp.setHeader("Content-Encoding", GZIP);
+      gzip = new GZIPOutputStream(resp.getOutputStream());
+      out = new OutputStreamWriter(gzip, "UTF-8");
+    } else {
+      out = resp.getWriter();
+    }
+    try {
+      if (requestType.equals(V1) || requestType.equals(V1 + "/")) {
+        jsonWriter.writeValue(out, REST_API);
+      } else {
+        RestData.Query query = createQuery(req);
+        if (requestType.equals(SUMMARY)) {
+          restData.writeSummaryAsJson(query, out);
+        } else if (requestType.equals(ALL)) {
+          restData.writeAllAsJson(query, out);
+        } else if (requestType.startsWith(RESERVATION)) {
+          UUID id = UUID.fromString(requestType.substring(
+              RESERVATION.length()));
+          restData.writeReservationAsJson(query, id, out);
+        } else if (requestType.startsWith(HANDLE)) {
+          UUID id = UUID.fromString(requestType.substring(HANDLE.length()));
+          restData.writeHandleReservationsAsJson(query, id, out);
+        } else if (requestType.startsWith(NODE)) {
+          String node = requestType.substring(NODE.length());
+          restData.writeNodeResourcesAsJson(query, node, out);
+        } else if (requestType.startsWith(QUEUE)) {
+          String queue = requestType.substring(QUEUE.length());
+          restData.writeQueueReservationsAsJson(query, queue, out);
+        } else if (requestType.startsWith(TRACE)) {
+          UUID id = UUID.fromString(requestType.substring(TRACE.length()));
+          restData.writeTraceAsJson(query, id, out);
+        } else if (requestType.equals(CHANGES)) {
+          restData.writeChangesAsJson(query, getSince(req),
+              getTimeout(req), out);
+        } else {
+          throw new Exception();
+        }
       }
     } catch (RestData.NotFoundException ex) {
       resp.setContentType(TEXT_PLAIN_MIME);
       resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-      resp.getWriter().println("NOT FOUND");
+      out.write("NOT FOUND\n");
     } catch (Throwable ex) {
       LOG.warn("Error while processing '{}', {}", getFullUrl(req),
           ex.toString(), ex);
       resp.setContentType(TEXT_PLAIN_MIME);
       resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-      resp.getWriter().println("BAD REQUEST");
+      out.write("BAD REQUEST\n");
+    } finally {
+      if (gzip != null) {
+        out.close();
+      } else {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Streams changes as server-sent events, the event ID is the change
+   * sequence so a reconnecting EventSource resumes from its Last-Event-ID.
+   * The stream is closed after the timeout to release the HTTP thread.
+   */
+  private void streamChanges(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    try {
+      RestData.Query query = createQuery(req);
+      long since = getSince(req);
+      if (req.getHeader(LAST_EVENT_ID) != null) {
+        since = Long.parseLong(req.getHeader(LAST_EVENT_ID));
+      }
+      long timeout = getTimeout(req);
+      resp.setContentType(TEXT_EVENT_STREAM_MIME);
+      resp.setHeader("Cache-Control", "no-cache");
+      Writer out = resp.getWriter();
+      long streamUntil = Clock.currentTimeMillis() + timeout;
+      long wait = timeout;
+      while (wait > 0) {
+        RestData.Changes changes = restData.getChanges(since, wait);
+        if (changes.isResync()) {
+          writeEvent(out, RestData.RESYNC_KEY, changes.sequence, query,
+              restData.createChangesData(changes));
+        } else {
+          for (Map<String, Object> change : changes.changes) {
+            writeEvent(out, (String) change.get(RestData.CHANGE_TYPE_KEY),
+                (Long) change.get(RestData.SEQUENCE_KEY), query, change);
+          }
+        }
+        out.flush();
+        resp.flushBuffer();
+        since = changes.sequence;
+        wait = streamUntil - Clock.currentTimeMillis();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (Throwable ex) {
+      LOG.warn("Error while streaming '{}', {}", getFullUrl(req),
+          ex.toString(), ex);
+      if (!resp.isCommitted()) {
+        resp.setContentType(TEXT_PLAIN_MIME);
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        resp.getWriter().println("BAD REQUEST");
+      }
+    }
+  }
+
+  private void writeEvent(Writer out, String event, long id,
+      RestData.Query query, Object data) throws IOException {
+    out.write("id: " + id + "\n");
+    out.write("event: " + event + "\n");
+    out.write("data: ");
+    restData.writeValueAsJson(query, data, out);
+    out.write("\n\n");
+  }
+
+  // a malformed timeout counts as waiting, the request fails later anyway
+  private static boolean isWaitingForChanges(HttpServletRequest req) {
+    try {
+      return getTimeout(req) > 0;
+    } catch (NumberFormatException ex) {
+      return true;
+    }
+  }
+
+  private static long getSince(HttpServletRequest req) {
+    String value = req.getParameter(SINCE_PARAM);
+    return (value != null) ? Long.parseLong(value) : -1;
+  }
+
+  private static long getTimeout(HttpServletRequest req) {
+    String value = req.getParameter(TIMEOUT_PARAM);
+    long timeout = (value != null) ? Long.parseLong(value)
+                                   : CHANGES_TIMEOUT_DEFAULT;
+    return Math.max(0, Math.min(timeout, CHANGES_TIMEOUT_MAX));
+  }
+
+  static RestData.Query createQuery(HttpServletRequest req) {
+    RestData.Query query = new RestData.Query();
+    String param = req.getParameter(STATUS_PARAM);
+    if (param != null) {
+      query.statuses = EnumSet.noneOf(PlacedReservation.Status.class);
+      for (String status : param.split(",")) {
+        query.statuses.add(PlacedReservation.Status.valueOf(
+            status.trim().toUpperCase()));
+      }
+    }
+    query.queue = req.getParameter(QUEUE_PARAM);
+    query.user = req.getParameter(USER_PARAM);
+    param = req.getParameter(MIN_AGE_PARAM);
+    if (param != null) {
+      query.minAge = Long.parseLong(param);
+    }
+    param = req.getParameter(MAX_AGE_PARAM);
+    if (param != null) {
+      query.maxAge = Long.parseLong(param);
+    }
+    param = req.getParameter(CURSOR_PARAM);
+    if (param != null) {
+      query.cursor = UUID.fromString(param);
+    }
+    param = req.getParameter(LIMIT_PARAM);
+    if (param != null) {
+      query.limit = Integer.parseInt(param);
+      if (query.limit <= 0) {
+        throw new IllegalArgumentException(LIMIT_PARAM + " must be positive");
+      }
+    }
+    param = req.getParameter(FIELDS_PARAM);
+    if (param != null) {
+      query.fields = new HashSet<String>();
+      for (String field : param.split(",")) {
+        query.fields.add(field.trim());
+      }
     }
+    query.pretty = Boolean.parseBoolean(req.getParameter(PRETTY_PARAM));
+    return query;
   }
 
   @Override
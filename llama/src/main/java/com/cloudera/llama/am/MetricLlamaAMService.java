@@ -25,12 +25,16 @@ import com.cloudera.llama.thrift.TLlamaAMGetNodesRequest;
 import com.cloudera.llama.thrift.TLlamaAMGetNodesResponse;
 import com.cloudera.llama.thrift.TLlamaAMRegisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMRegisterResponse;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMReleaseRequest;
 import com.cloudera.llama.thrift.TLlamaAMReleaseResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationResponse;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterResponse;
 import com.cloudera.llama.thrift.TStatus;
@@ -57,6 +61,10 @@ public class MetricLlamaAMService implements LlamaAMService.Iface {
       "release-call.timer";
   private static final String GET_NODES_TIMER = METRIC_PREFIX +
       "getNodes-call.timer";
+  private static final String RESERVE_BATCH_TIMER = METRIC_PREFIX +
+      "reserveBatch-call.timer";
+  private static final String RELEASE_BATCH_TIMER = METRIC_PREFIX +
+      "releaseBatch-call.timer";
   private static final String RESERVE_METER = METRIC_PREFIX +
       "reserve-call.meter";
   private static final String EXPAND_METER = METRIC_PREFIX +
@@ -66,7 +74,8 @@ public class MetricLlamaAMService implements LlamaAMService.Iface {
 
   public static final List<String> METRIC_KEYS = Arrays.asList(
       REGISTER_TIMER, UNREGISTER_TIMER, RESERVE_TIMER, RELEASE_TIMER,
-      GET_NODES_TIMER, RESERVE_METER, RELEASE_METER);
+      GET_NODES_TIMER, RESERVE_BATCH_TIMER, RELEASE_BATCH_TIMER,
+      RESERVE_METER, RELEASE_METER);
 
   public static void registerMetric(MetricRegistry metricRegistry) {
     if (metricRegistry != null) {
@@ -75,6 +84,8 @@ public class MetricLlamaAMService implements LlamaAMService.Iface {
       MetricUtil.registerTimer(metricRegistry, RESERVE_TIMER);
       MetricUtil.registerTimer(metricRegistry, RELEASE_TIMER);
       MetricUtil.registerTimer(metricRegistry, GET_NODES_TIMER);
+      MetricUtil.registerTimer(metricRegistry, RESERVE_BATCH_TIMER);
+      MetricUtil.registerTimer(metricRegistry, RELEASE_BATCH_TIMER);
       MetricUtil.registerMeter(metricRegistry, RESERVE_METER);
       MetricUtil.registerMeter(metricRegistry, RELEASE_METER);
     }
@@ -183,6 +194,42 @@ public class MetricLlamaAMService implements LlamaAMService.Iface {
     }
   }
 
+  @Override
+  public TLlamaAMReserveBatchResponse ReserveBatch(
+      TLlamaAMReserveBatchRequest request) throws TException {
+    TLlamaAMReserveBatchResponse response = null;
+    long time = System.currentTimeMillis();
+    try {
+      response = service.ReserveBatch(request);
+      return response;
+    } finally {
+      time = System.currentTimeMillis() - time;
+      Object logContext = (response != null) ?
+        new LogContext(response.getStatus(), request.getAm_handle()) : null;
+      MetricUtil.time(metricRegistry, RESERVE_BATCH_TIMER, time, logContext);
+      MetricUtil.meter(metricRegistry, RESERVE_METER,
+          request.getReservationsSize());
+    }
+  }
+
+  @Override
+  public TLlamaAMReleaseBatchResponse ReleaseBatch(
+      TLlamaAMReleaseBatchRequest request) throws TException {
+    TLlamaAMReleaseBatchResponse response = null;
+    long time = System.currentTimeMillis();
+    try {
+      response = service.ReleaseBatch(request);
+      return response;
+    } finally {
+      time = System.currentTimeMillis() - time;
+      Object logContext = (response != null) ?
+        new LogContext(response.getStatus(), request.getAm_handle()) : null;
+      MetricUtil.time(metricRegistry, RELEASE_BATCH_TIMER, time, logContext);
+      MetricUtil.meter(metricRegistry, RELEASE_METER,
+          request.getReservation_idsSize());
+    }
+  }
+
   @Override
   public TLlamaAMGetNodesResponse GetNodes(TLlamaAMGetNodesRequest request)
       throws TException {
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am;
+
+import com.cloudera.llama.server.OpenMetrics;
+import com.codahale.metrics.MetricRegistry;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+public class OpenMetricsServlet extends HttpServlet {
+  public static final String METRIC_REGISTRY = "llama.metric.registry";
+
+  public static final String PATH = "/metrics";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    // looked up on every request, the server rebinds it on every prepare
+    MetricRegistry metricRegistry = (MetricRegistry)
+        getServletContext().getAttribute(METRIC_REGISTRY);
+    if (metricRegistry == null) {
+      resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+          "Metrics not available");
+    } else {
+      resp.setStatus(HttpServletResponse.SC_OK);
+      resp.setContentType(OpenMetrics.CONTENT_TYPE);
+      OpenMetrics.write(metricRegistry, resp.getWriter());
+    }
+  }
+
+  @Override
+  protected void doTrace(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+}
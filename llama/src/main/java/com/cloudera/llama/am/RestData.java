@@ -17,14 +17,22 @@
  */
 package com.cloudera.llama.am;
 
+import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.LlamaAMEvent;
-import com.cloudera.llama.am.api.LlamaAMListener;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.ReservationTracer;
+import com.cloudera.llama.am.api.StatefulLlamaAMListener;
+import com.cloudera.llama.am.impl.PlacedReservationImpl;
 import com.cloudera.llama.server.ClientInfo;
 import com.cloudera.llama.server.ClientNotificationService;
+import com.cloudera.llama.server.MetricUtil;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.NamedThreadFactory;
 import com.cloudera.llama.util.UUID;
 import com.cloudera.llama.util.VersionInfo;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.Version;
@@ -43,19 +51,37 @@ import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class RestData implements LlamaAMListener,
+/**
+ * Keeps the state exposed by the Llama JSON REST API.
+ * <p/>
+ * Events update the live state under a lock. JSON is written from immutable
+ * snapshots of the live state without holding any lock. Once started, a
+ * background thread takes a new snapshot, coalescing all changes since the
+ * previous one, every refresh interval and readers use the latest one without
+ * touching the lock. If not started, the snapshot is taken the first time JSON
+ * is requested after a change. Taking a snapshot only holds the lock for a
+ * shallow copy of the live state, the copy is indexed without it, slow HTTP
+ * clients never delay event processing.
+ */
+public class RestData implements StatefulLlamaAMListener,
     ClientNotificationService.Listener {
 
   private static Logger LOG = LoggerFactory.getLogger(RestData.class);
@@ -88,6 +114,7 @@ public class RestData implements LlamaAMListener,
   static final String QUEUE_DATA = "queueData";
   static final String HANDLE_DATA = "handleData";
   static final String NODE_DATA = "nodeData";
+  static final String TRACE_DATA = "traceData";
 
   static final String COUNT = "count";
   static final String RESERVATIONS = "reservations";
@@ -101,12 +128,210 @@ public class RestData implements LlamaAMListener,
   static final String QUEUE = "queue";
   static final String NODE = "node";
 
+  private static final String SNAPSHOT_AGE_GAUGE = LlamaAM.METRIC_PREFIX +
+      "rest-data.snapshot-age.gauge";
+
+  public static final List<String> METRIC_KEYS =
+      Arrays.asList(SNAPSHOT_AGE_GAUGE);
+
+  /**
+   * Immutable copy of the live state, JSON is written from it.
+   */
+  static class Snapshot {
+    final long version;
+    final Map<UUID, PlacedReservation> reservationsMap;
+    final Map<UUID, List<PlacedReservation>> handleReservationsMap;
+    final Map<String, List<PlacedReservation>> queueReservationsMap;
+    final Map<String, List<PlacedReservation>> nodeReservationsMap;
+    final Map<UUID, ClientInfo> clientInfoMap;
+    final Set<UUID> hasBeenBackedOff;
+
+    private Snapshot(long version, List<PlacedReservation> reservations,
+        Map<UUID, ClientInfo> clientInfos, Set<UUID> backedOff) {
+      this.version = version;
+      Map<UUID, PlacedReservation> reservationsById =
+          new LinkedHashMap<UUID, PlacedReservation>();
+      Map<UUID, List<PlacedReservation>> byHandle =
+          new LinkedHashMap<UUID, List<PlacedReservation>>();
+      Map<String, List<PlacedReservation>> byQueue =
+          new TreeMap<String, List<PlacedReservation>>();
+      Map<String, List<PlacedReservation>> byNode =
+          new TreeMap<String, List<PlacedReservation>>();
+      for (PlacedReservation reservation : reservations) {
+        reservationsById.put(reservation.getReservationId(), reservation);
+        addToMapList(byHandle, reservation.getHandle(), reservation);
+        addToMapList(byQueue, reservation.getQueue(), reservation);
+        // once a resource has an actual location it is indexed under it
+        for (PlacedResource resource : reservation.getPlacedResources()) {
+          addToMapList(byNode, (resource.getLocation() != null)
+              ? resource.getLocation() : resource.getLocationAsk(),
+              reservation);
+        }
+      }
+      reservationsMap = Collections.unmodifiableMap(reservationsById);
+      handleReservationsMap = unmodifiable(byHandle);
+      queueReservationsMap = unmodifiable(byQueue);
+      nodeReservationsMap = unmodifiable(byNode);
+      clientInfoMap = Collections.unmodifiableMap(clientInfos);
+      hasBeenBackedOff = Collections.unmodifiableSet(backedOff);
+    }
+
+    private static <K> void addToMapList(Map<K, List<PlacedReservation>> map,
+        K key, PlacedReservation reservation) {
+      List<PlacedReservation> list = map.get(key);
+      if (list == null) {
+        list = new ArrayList<PlacedReservation>();
+        map.put(key, list);
+      }
+      list.add(reservation);
+    }
+
+    private static <K> Map<K, List<PlacedReservation>> unmodifiable(
+        Map<K, List<PlacedReservation>> map) {
+      for (Map.Entry<K, List<PlacedReservation>> entry : map.entrySet()) {
+        entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      }
+      return Collections.unmodifiableMap(map);
+    }
+  }
+
+  static final String NEXT_CURSOR = "nextCursor";
+
+  static final String CHANGES_DATA = "changes";
+  static final String SEQUENCE_KEY = "sequence";
+  static final String RESYNC_KEY = "resync";
+  static final String SNAPSHOT_KEY = "snapshot";
+  static final String CHANGE_TYPE_KEY = "type";
+  static final String REGISTER_CHANGE = "register";
+  static final String UNREGISTER_CHANGE = "unregister";
+  static final String EVENT_CHANGE = "event";
+  static final String RESOURCES = "resources";
+  static final String HANDLE_KEY = "handle";
+
+  public static final int CHANGES_BUFFER_SIZE_DEFAULT = 1000;
+
+  /**
+   * Changes after a sequence number. If the subscriber fell behind the
+   * buffered changes, or does not have a sequence number yet, the changes are
+   * replaced by a snapshot it has to resync from.
+   */
+  static class Changes {
+    final long sequence;
+    final Snapshot snapshot;
+    final List<Map<String, Object>> changes;
+
+    Changes(long sequence, Snapshot snapshot,
+        List<Map<String, Object>> changes) {
+      this.sequence = sequence;
+      this.snapshot = snapshot;
+      this.changes = changes;
+    }
+
+    boolean isResync() {
+      return snapshot != null;
+    }
+  }
+
+  /**
+   * Selection, pagination and projection of the reservations written as JSON.
+   * <p/>
+   * Pagination is cursor based, the cursor is the ID of the last reservation
+   * of the previous page and it is returned as {@link #NEXT_CURSOR} when there
+   * are more reservations. If the cursor reservation is gone the listing has
+   * to be restarted.
+   */
+  static class Query {
+    Set<PlacedReservation.Status> statuses;
+    String queue;
+    String user;
+    long minAge = -1;
+    long maxAge = -1;
+    UUID cursor;
+    int limit = -1;
+    Set<String> fields;
+    boolean pretty;
+
+    boolean isSelective() {
+      return statuses != null || queue != null || user != null ||
+          minAge >= 0 || maxAge >= 0 || cursor != null || limit >= 0;
+    }
+
+    boolean accept(PlacedReservation reservation, long now) {
+      long age = now - reservation.getPlacedOn();
+      return (statuses == null || statuses.contains(reservation.getStatus()))
+          && (queue == null || queue.equals(reservation.getQueue()))
+          && (user == null || user.equals(reservation.getUser()))
+          && (minAge < 0 || age >= minAge)
+          && (maxAge < 0 || age <= maxAge);
+    }
+
+    Page select(Collection<PlacedReservation> reservations) {
+      long now = Clock.currentTimeMillis();
+      Page page = new Page();
+      boolean found = cursor == null;
+      for (PlacedReservation reservation : reservations) {
+        if (!found) {
+          found = reservation.getReservationId().equals(cursor);
+        } else if (accept(reservation, now)) {
+          if (limit >= 0 && page.reservations.size() == limit) {
+            page.nextCursor = page.reservations.get(limit - 1)
+                .getReservationId();
+            break;
+          }
+          page.reservations.add(reservation);
+        }
+      }
+      if (!found) {
+        throw new IllegalArgumentException("Unknown cursor " + cursor);
+      }
+      return page;
+    }
+  }
+
+  static class Page {
+    final List<PlacedReservation> reservations =
+        new ArrayList<PlacedReservation>();
+    UUID nextCursor;
+
+    Map<UUID, PlacedReservation> asMap() {
+      Map<UUID, PlacedReservation> map =
+          new LinkedHashMap<UUID, PlacedReservation>();
+      for (PlacedReservation reservation : reservations) {
+        map.put(reservation.getReservationId(), reservation);
+      }
+      return map;
+    }
+  }
+
+  // snapshot being serialized by the current thread, used by the serializers
+  private static final ThreadLocal<Snapshot> SERIALIZING =
+      new ThreadLocal<Snapshot>();
+
+  // reservation fields to write, NULL means all
+  private static final ThreadLocal<Set<String>> FIELDS =
+      new ThreadLocal<Set<String>>();
+
+  private static boolean include(Set<String> fields, String field) {
+    return fields == null || fields.contains(field);
+  }
+
   private final ObjectMapper jsonMapper;
-  private final ReadWriteLock lock;
+  private final Object lock;
+  // the version is the sequence number of the last change
+  private long version;
+  private final int changesBufferSize;
+  private final LinkedList<Map<String, Object>> changes;
+  private long changedSince;
+  private volatile Snapshot snapshot;
+  private volatile ScheduledExecutorService refresher;
   private final Map<UUID, PlacedReservation> reservationsMap;
-  private final Map<UUID, List<PlacedReservation>> handleReservationsMap;
-  private final Map<String, List<PlacedReservation>> queueReservationsMap;
-  private final Map<String, List<PlacedReservation>> nodeReservationsMap;
+  // reservation IDs of each handle, to drop them when the client unregisters,
+  // snapshots build their own indexes
+  private final Map<UUID, Set<UUID>> handleReservationsMap;
+  // latest state of the resources of the live reservations, resource changes
+  // are folded into their reservations when taking a snapshot
+  private final Map<UUID, PlacedResource> resourcesMap;
+  private final Set<UUID> resourcesChanged;
   private final Map<UUID, ClientInfo> clientInfoMap;
   private final Set<UUID> hasBeenBackedOff;
   private final LlamaAMServer llamaAMServer;
@@ -125,51 +350,216 @@ public class RestData implements LlamaAMListener,
   }
 
   public RestData(LlamaAMServer llamaAMServer) {
+    this(llamaAMServer, CHANGES_BUFFER_SIZE_DEFAULT);
+  }
+
+  public RestData(LlamaAMServer llamaAMServer, int changesBufferSize) {
     jsonMapper = createJsonMapper();
-    lock = new ReentrantReadWriteLock(true);
+    lock = new Object();
+    this.changesBufferSize = changesBufferSize;
+    changes = new LinkedList<Map<String, Object>>();
     reservationsMap = new LinkedHashMap<UUID, PlacedReservation>();
-    handleReservationsMap = new LinkedHashMap<UUID, List<PlacedReservation>>();
-    queueReservationsMap = new TreeMap<String, List<PlacedReservation>>();
-    nodeReservationsMap = new TreeMap<String, List<PlacedReservation>>();
+    handleReservationsMap = new LinkedHashMap<UUID, Set<UUID>>();
+    resourcesMap = new HashMap<UUID, PlacedResource>();
+    resourcesChanged = new HashSet<UUID>();
     clientInfoMap = new LinkedHashMap<UUID, ClientInfo>();
     hasBeenBackedOff = new HashSet<UUID>();
     this.llamaAMServer = llamaAMServer;
+    snapshot = new Snapshot(0, new ArrayList<PlacedReservation>(),
+        new LinkedHashMap<UUID, ClientInfo>(), new HashSet<UUID>());
+  }
+
+  /**
+   * Starts taking snapshots in the background every given interval, from then
+   * on readers get the latest snapshot, which may be up to the interval
+   * behind the live state. A non positive interval keeps taking snapshots on
+   * demand.
+   */
+  public synchronized void start(long refreshInterval) {
+    if (refreshInterval > 0 && refresher == null) {
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(
+              new NamedThreadFactory("llama-rest-snapshot"));
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            takeSnapshot();
+          } catch (Throwable ex) {
+            LOG.warn("Error taking REST snapshot, {}", ex.toString(), ex);
+          }
+        }
+      }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+      refresher = executor;
+    }
+  }
+
+  public synchronized void stop() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  public void setMetricRegistry(MetricRegistry metricRegistry) {
+    MetricUtil.registerGauge(metricRegistry, SNAPSHOT_AGE_GAUGE,
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return getSnapshotAge();
+          }
+        });
+  }
+
+  /**
+   * Returns how many milliseconds the current snapshot is behind the live
+   * state, zero if it reflects all changes.
+   */
+  long getSnapshotAge() {
+    synchronized (lock) {
+      return (changedSince == 0) ? 0
+          : Clock.currentTimeMillis() - changedSince;
+    }
+  }
+
+  private static Map<String, Object> createChange(String type, String key,
+      Object value) {
+    Map<String, Object> change = new LinkedHashMap<String, Object>();
+    change.put(SEQUENCE_KEY, null);
+    change.put(CHANGE_TYPE_KEY, type);
+    change.put(key, value);
+    return change;
+  }
+
+  // must be called holding the lock
+  private void changed(Map<String, Object> change) {
+    version++;
+    if (changedSince == 0) {
+      changedSince = Clock.currentTimeMillis();
+    }
+    change.put(SEQUENCE_KEY, version);
+    changes.addLast(change);
+    if (changes.size() > changesBufferSize) {
+      changes.removeFirst();
+    }
+    lock.notifyAll();
+  }
+
+  /**
+   * Returns the changes after the given sequence number, waiting up to the
+   * timeout for changes if there are none.
+   *
+   * @param since sequence number of the last change seen by the subscriber,
+   * a negative value to start from a snapshot.
+   * @param timeout milliseconds to wait for changes, zero returns
+   * immediately.
+   */
+  Changes getChanges(long since, long timeout) throws InterruptedException {
+    long waitUntil = Clock.currentTimeMillis() + timeout;
+    List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+    long sequence;
+    boolean resync = false;
+    synchronized (lock) {
+      long oldest = (changes.isEmpty()) ? version + 1
+                                        : (Long) changes.getFirst().get(
+                                            SEQUENCE_KEY);
+      // a sequence ahead of ours comes from a previous server
+      if (since < 0 || since + 1 < oldest || since > version) {
+        resync = true;
+      } else {
+        long wait = waitUntil - Clock.currentTimeMillis();
+        while (version == since && wait > 0) {
+          lock.wait(wait);
+          wait = waitUntil - Clock.currentTimeMillis();
+        }
+        if (version > since) {
+          // changes older than since may have been evicted while waiting
+          for (Map<String, Object> change : changes) {
+            if ((Long) change.get(SEQUENCE_KEY) > since) {
+              list.add(change);
+            }
+          }
+          resync = list.isEmpty() ||
+              (Long) list.get(0).get(SEQUENCE_KEY) != since + 1;
+        }
+      }
+      sequence = version;
+    }
+    if (resync) {
+      // the snapshot is taken or fetched without holding the lock
+      Snapshot snapshot = getSnapshot();
+      list.clear();
+      return new Changes(snapshot.version, snapshot, list);
+    }
+    return new Changes(sequence, null, list);
+  }
+
+  Snapshot getSnapshot() {
+    return (refresher != null) ? snapshot : takeSnapshot();
+  }
+
+  /**
+   * Takes a new snapshot if there were changes since the current one. The live
+   * state is copied holding the lock, the copy is indexed without it.
+   */
+  Snapshot takeSnapshot() {
+    long copyVersion;
+    List<PlacedReservation> reservations;
+    Map<UUID, ClientInfo> clientInfos;
+    Set<UUID> backedOff;
+    synchronized (lock) {
+      Snapshot current = snapshot;
+      if (current.version == version) {
+        return current;
+      }
+      copyVersion = version;
+      foldResourceChanges();
+      reservations = new ArrayList<PlacedReservation>(reservationsMap.values());
+      clientInfos = new LinkedHashMap<UUID, ClientInfo>(clientInfoMap);
+      backedOff = new HashSet<UUID>(hasBeenBackedOff);
+      changedSince = 0;
+    }
+    Snapshot newSnapshot = new Snapshot(copyVersion, reservations,
+        clientInfos, backedOff);
+    synchronized (lock) {
+      // a concurrent reader may have published a newer one meanwhile
+      if (snapshot.version < newSnapshot.version) {
+        snapshot = newSnapshot;
+      }
+      return snapshot;
+    }
   }
 
   public void onRegister(ClientInfo clientInfo) {
-    lock.writeLock().lock();
-    try {
+    synchronized (lock) {
       clientInfoMap.put(clientInfo.getHandle(), clientInfo);
-    } finally {
-      lock.writeLock().unlock();
+      changed(createChange(REGISTER_CHANGE, CLIENT_INFO,
+          new ClientInfoImpl(clientInfo, 0)));
     }
   }
 
   public void onUnregister(ClientInfo clientInfo) {
-    lock.writeLock().lock();
-    try {
+    synchronized (lock) {
       if (clientInfoMap.remove(clientInfo.getHandle()) != null) {
-        List<PlacedReservation> list =
-            new ArrayList<PlacedReservation>(reservationsMap.values());
+        Set<UUID> ids = handleReservationsMap.get(clientInfo.getHandle());
         int count = 0;
-        for (PlacedReservation reservation : list) {
-          if (reservation.getHandle().equals(clientInfo.getHandle())) {
-            delete(reservation, true);
+        if (ids != null) {
+          for (UUID id : new ArrayList<UUID>(ids)) {
+            delete(reservationsMap.get(id), true);
             count++;
           }
         }
         LOG.debug("onUnregister({}), dropped '{}' reservations",
             clientInfo.getHandle(), count);
+        changed(createChange(UNREGISTER_CHANGE, HANDLE_KEY,
+            clientInfo.getHandle()));
       }
-    } finally {
-      lock.writeLock().unlock();
     }
   }
 
   @Override
   public void onEvent(LlamaAMEvent event) {
-    lock.writeLock().lock();
-    try {
+    synchronized (lock) {
       for (PlacedReservation reservation : event.getReservationChanges()) {
         LOG.debug("onEvent({})", reservation);
         if (verifyHandle(reservation)) {
@@ -196,8 +586,11 @@ public class RestData implements LlamaAMListener,
         LOG.debug("onEvent({})", resource);
         update(resource);
       }
-    } finally {
-      lock.writeLock().unlock();
+      Map<String, Object> change = createChange(EVENT_CHANGE, RESERVATIONS,
+          new ArrayList<PlacedReservation>(event.getReservationChanges()));
+      change.put(RESOURCES,
+          new ArrayList<PlacedResource>(event.getResourceChanges()));
+      changed(change);
     }
   }
 
@@ -205,168 +598,95 @@ public class RestData implements LlamaAMListener,
     return clientInfoMap.containsKey(reservation.getHandle());
   }
 
-  private <K,V> void addToMapList(Map<K, List<V>> map, K key, V value) {
-    List<V> list = map.get(key);
-    if (list == null) {
-      list = new ArrayList<V>();
-      map.put(key, list);
+  private <K> void addToMapSet(Map<K, Set<UUID>> map, K key, UUID id) {
+    Set<UUID> set = map.get(key);
+    if (set == null) {
+      set = new LinkedHashSet<UUID>();
+      map.put(key, set);
     }
-    list.add(value);
+    set.add(id);
   }
 
-  private void add(PlacedReservation reservation) {
-    reservationsMap.put(reservation.getReservationId(), reservation);
-    addToMapList(handleReservationsMap, reservation.getHandle(), reservation);
-    addToMapList(queueReservationsMap, reservation.getQueue(), reservation);
-    for (PlacedResource resource : reservation.getPlacedResources()) {
-      addToMapList(nodeReservationsMap, resource.getLocationAsk(), reservation);
+  private <K> boolean deleteFromMapSet(Map<K, Set<UUID>> map, K key, UUID id) {
+    boolean deleted = false;
+    Set<UUID> set = map.get(key);
+    if (set != null) {
+      deleted = set.remove(id);
+      if (set.isEmpty()) {
+        map.remove(key);
+      }
     }
+    return deleted;
   }
 
-  private <K, V> void updateToMapList(Map<K, List<V>> map, K key, V value,
-      String msg) {
-    List<V> list = map.get(key);
-    if (list != null) {
-      int index = list.indexOf(value);
-      if (index >= 0) {
-        list.set(index, value);
-      } else {
-        LOG.error("RestData update inconsistency, key '{}' not found in {}",
-            key, msg);
-      }
-    } else {
-      LOG.error("RestData update inconsistency, value '{}' not found in {}",
-          value, msg);
-    }
-  }
-
-  private void updateResource( PlacedResource resource, 
-      PlacedReservation reservation) {
-    boolean actualLocation = false;
-    List<PlacedReservation> list = 
-        nodeReservationsMap.get(resource.getLocationAsk());
-    if (list == null) {
-      list = nodeReservationsMap.get(resource.getLocation());
-      actualLocation = true;
-    }
-    if (list != null) {
-      int index = list.indexOf(reservation);
-      if (index >= 0) {
-        PlacedReservation oldReservation = list.get(index);
-        PlacedResource oldResource = null;
-        List<PlacedResource> oldResources = oldReservation.getPlacedResources();
-        for (int i = 0; oldResource == null && i < oldResources.size(); i++) {
-          if (oldResources.get(i).getResourceId().
-              equals(resource.getResourceId())) {
-            oldResource = oldResources.get(i);
-          }
-        }
-        if (oldResource == null) {
-          LOG.error("RestData update inconsistency resource '{}' not found " +
-              "in nodeReservations", resource);
-        } else {
-          if (actualLocation || 
-              resource.getLocation() == null ||
-              oldResource.getLocationAsk().equals(resource.getLocation())) {
-            list.set(index, reservation);
-          } else {
-            list.remove(index);
-            if (list.isEmpty()) {
-              nodeReservationsMap.remove(resource.getLocationAsk());
-            }
-            list = nodeReservationsMap.get(resource.getLocation());
-            if (list == null) {
-              list = new ArrayList<PlacedReservation>();
-              nodeReservationsMap.put(resource.getLocation(), list);
-            }
-            list.add(reservation);
-          }
-        }
-      } else {
-        LOG.error("RestData update inconsistency, key '{}' not found " +
-            "in nodeReservations", reservation.getReservationId());
-      }
-    } else {
-      LOG.error("RestData update inconsistency, value '{}' not found " +
-            "in nodeReservations", reservation);
+  private void add(PlacedReservation reservation) {
+    UUID reservationId = reservation.getReservationId();
+    reservationsMap.put(reservationId, reservation);
+    addToMapSet(handleReservationsMap, reservation.getHandle(), reservationId);
+    for (PlacedResource resource : reservation.getPlacedResources()) {
+      resourcesMap.put(resource.getResourceId(), resource);
     }
   }
 
   private void update(PlacedReservation reservation) {
-    reservationsMap.put(reservation.getReservationId(), reservation);
-    updateToMapList(handleReservationsMap, reservation.getHandle(), reservation,
-        "handleReservationsMap");
-    updateToMapList(queueReservationsMap, reservation.getQueue(), reservation,
-        "queueReservationsMap");
+    if (reservationsMap.put(reservation.getReservationId(), reservation) ==
+        null) {
+      LOG.error("RestData update inconsistency, reservation '{}' not found",
+          reservation.getReservationId());
+    }
+    // the reservation carries the latest state of all its resources
+    resourcesChanged.remove(reservation.getReservationId());
     for (PlacedResource resource : reservation.getPlacedResources()) {
-      updateResource(resource, reservation);
+      resourcesMap.put(resource.getResourceId(), resource);
     }
   }
 
   private void update(PlacedResource resource) {
-    PlacedReservation reservation = reservationsMap.get(resource.getReservationId());
-    if (reservation != null) {
-      int idx = reservation.getPlacedResources().indexOf(resource);
-      if (idx > -1) {
-        reservation.getPlacedResources().set(idx, resource);
-        updateResource(resource, reservation);
-      } else{
+    if (reservationsMap.containsKey(resource.getReservationId())) {
+      if (resourcesMap.containsKey(resource.getResourceId())) {
+        resourcesMap.put(resource.getResourceId(), resource);
+        resourcesChanged.add(resource.getReservationId());
+      } else {
         LOG.error("RestData update inconsistency, resource '{}' not found " +
-            "in reservation '{}'", resource, reservation);
+            "in reservation '{}'", resource, resource.getReservationId());
       }
     }
   }
 
-  private <K, V> boolean deleteFromMapList(Map<K, List<V>> map, K key, V value) {
-    boolean deleted = true;
-    List<V> list = map.get(key);
-    if (list != null) {
-      int index = list.indexOf(value);
-      if (index >= 0) {
-        list.remove(index);
-      } else {
-        deleted = false;
+  // reservations are shared with snapshots, changed ones are replaced by
+  // views holding the latest state of their resources
+  private void foldResourceChanges() {
+    for (UUID reservationId : resourcesChanged) {
+      PlacedReservation reservation = reservationsMap.get(reservationId);
+      List<PlacedResource> resources = new ArrayList<PlacedResource>(
+          reservation.getPlacedResources().size());
+      for (PlacedResource resource : reservation.getPlacedResources()) {
+        resources.add(resourcesMap.get(resource.getResourceId()));
       }
-      if (list.isEmpty()) {
-        map.remove(key);
-      }
-    } else {
-      deleted = false;
+      reservationsMap.put(reservationId,
+          PlacedReservationImpl.view(reservation, resources));
     }
-    return deleted;
+    resourcesChanged.clear();
   }
 
   private void delete(PlacedReservation reservation, boolean log) {
-    reservationsMap.remove(reservation.getReservationId());
-    if (!deleteFromMapList(handleReservationsMap, reservation.getHandle(),
-        reservation)) {
+    UUID reservationId = reservation.getReservationId();
+    reservationsMap.remove(reservationId);
+    resourcesChanged.remove(reservationId);
+    if (!deleteFromMapSet(handleReservationsMap, reservation.getHandle(),
+        reservationId)) {
       if (log) {
         LOG.warn(
             "RestData delete inconsistency, reservation '{}' not found in handle",
             reservation);
       }
     }
-    if (!deleteFromMapList(queueReservationsMap, reservation.getQueue(),
-        reservation)) {
-      if (log) {
-        LOG.warn(
-            "RestData delete inconsistency, reservation '{}' not found in queue",
-            reservation);
-      }
-    }
     for (PlacedResource resource : reservation.getPlacedResources()) {
-      boolean deleted = deleteFromMapList(nodeReservationsMap,
-          resource.getLocationAsk(), reservation);
-      if (resource.getLocation() != null) {
-        deleted = deleteFromMapList(nodeReservationsMap,
-            resource.getLocation(), reservation) || deleted;
-      }
-      if (!deleted) {
+      if (resourcesMap.remove(resource.getResourceId()) == null) {
         if (log) {
           LOG.warn(
-              "RestData delete inconsistency, reservation '{}' not found in " +
-                  "location nor actualLocation",
-              reservation);
+              "RestData delete inconsistency, resource '{}' of reservation " +
+                  "'{}' not found", resource.getResourceId(), reservationId);
         }
       }
     }
@@ -429,18 +749,44 @@ public class RestData implements LlamaAMListener,
     public void serialize(PlacedReservation value, JsonGenerator jgen,
         SerializerProvider provider)
         throws IOException {
+      Set<String> fields = FIELDS.get();
       jgen.writeStartObject();
       jgen.writeObjectField("reservationId", value.getReservationId());
-      jgen.writeObjectField("expansionOfId", value.getExpansionOf());
-      jgen.writeStringField("placedOn", formatDateTime(value.getPlacedOn()));
-      jgen.writeObjectField("handle", value.getHandle());
-      jgen.writeStringField("queue", value.getQueue());
-      jgen.writeBooleanField("gang", value.isGang());
-      jgen.writeBooleanField("queued", value.isQueued());
-      jgen.writeStringField("status", value.getStatus().toString());
-      jgen.writeBooleanField("hasBeenBackedOff",
-          hasBeenBackedOff.contains(value.getReservationId()));
-      jgen.writeObjectField("resources", value.getResources());
+      if (include(fields, "expansionOfId")) {
+        jgen.writeObjectField("expansionOfId", value.getExpansionOf());
+      }
+      if (include(fields, "placedOn")) {
+        jgen.writeStringField("placedOn", formatDateTime(value.getPlacedOn()));
+      }
+      if (include(fields, "handle")) {
+        jgen.writeObjectField("handle", value.getHandle());
+      }
+      if (include(fields, "user")) {
+        jgen.writeStringField("user", value.getUser());
+      }
+      if (include(fields, "queue")) {
+        jgen.writeStringField("queue", value.getQueue());
+      }
+      if (include(fields, "gang")) {
+        jgen.writeBooleanField("gang", value.isGang());
+      }
+      if (include(fields, "priority")) {
+        jgen.writeStringField("priority", value.getPriority().toString());
+      }
+      if (include(fields, "queued")) {
+        jgen.writeBooleanField("queued", value.isQueued());
+      }
+      if (include(fields, "status")) {
+        jgen.writeStringField("status", value.getStatus().toString());
+      }
+      if (include(fields, "hasBeenBackedOff")) {
+        jgen.writeBooleanField("hasBeenBackedOff",
+            SERIALIZING.get().hasBeenBackedOff.contains(
+                value.getReservationId()));
+      }
+      if (include(fields, "resources")) {
+        jgen.writeObjectField("resources", value.getResources());
+      }
       jgen.writeEndObject();
     }
 
@@ -503,14 +849,38 @@ public class RestData implements LlamaAMListener,
     }
   }
 
-  @SuppressWarnings("unchecked")
   void writeAsJson(String payloadType, Object obj, Writer out)
       throws IOException, NotFoundException {
+    writeAsJson(getSnapshot(), new Query(), payloadType, obj, null, out);
+  }
+
+  /**
+   * Streams the JSON straight to the writer using a generator, compact unless
+   * the query asks for pretty printing.
+   */
+  void writeAsJson(Snapshot snapshot, Query query, String payloadType,
+      Object obj, UUID nextCursor, Writer out)
+      throws IOException, NotFoundException {
     if (obj != null) {
-      Map map = new LinkedHashMap();
-      map.put(REST_VERSION_KEY, REST_VERSION_VALUE);
-      map.put(payloadType, obj);
-      jsonMapper.defaultPrettyPrintingWriter().writeValue(out, map);
+      JsonGenerator jgen = jsonMapper.getJsonFactory().createJsonGenerator(out);
+      if (query.pretty) {
+        jgen.useDefaultPrettyPrinter();
+      }
+      SERIALIZING.set(snapshot);
+      FIELDS.set(query.fields);
+      try {
+        jgen.writeStartObject();
+        jgen.writeStringField(REST_VERSION_KEY, REST_VERSION_VALUE);
+        jgen.writeObjectField(payloadType, obj);
+        if (nextCursor != null) {
+          jgen.writeObjectField(NEXT_CURSOR, nextCursor);
+        }
+        jgen.writeEndObject();
+        jgen.flush();
+      } finally {
+        FIELDS.remove();
+        SERIALIZING.remove();
+      }
     } else {
       throw new NotFoundException();
     }
@@ -557,15 +927,16 @@ public class RestData implements LlamaAMListener,
     }
   }
 
-  private List<ClientInfoImpl> createClientInfoSummary() {
+  private List<ClientInfoImpl> createClientInfoSummary(Snapshot snapshot) {
     Map<UUID, Integer> summary = new LinkedHashMap<UUID, Integer>();
     for (Map.Entry<UUID, List<PlacedReservation>> entry :
-        handleReservationsMap.entrySet()) {
+        snapshot.handleReservationsMap.entrySet()) {
       summary.put(entry.getKey(), entry.getValue().size());
     }
     List<ClientInfoImpl> list = new ArrayList<ClientInfoImpl>(
-        clientInfoMap.size());
-    for (Map.Entry<UUID, ClientInfo> entry : clientInfoMap.entrySet()) {
+        snapshot.clientInfoMap.size());
+    for (Map.Entry<UUID, ClientInfo> entry :
+        snapshot.clientInfoMap.entrySet()) {
       Integer count = summary.get(entry.getKey());
       count = (count != null) ? count : 0;
       list.add(new ClientInfoImpl(entry.getValue(), count));
@@ -573,141 +944,224 @@ public class RestData implements LlamaAMListener,
     return list;
   }
 
-  @SuppressWarnings("unchecked")
+  Map<String, Object> createChangesData(Changes changes) {
+    Map<String, Object> data = new LinkedHashMap<String, Object>();
+    data.put(SEQUENCE_KEY, changes.sequence);
+    data.put(RESYNC_KEY, changes.isResync());
+    if (changes.isResync()) {
+      Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+      snapshot.put(RESERVATIONS, changes.snapshot.reservationsMap);
+      snapshot.put(CLIENT_INFOS, createClientInfoSummary(changes.snapshot));
+      data.put(SNAPSHOT_KEY, snapshot);
+    } else {
+      data.put(CHANGES_DATA, changes.changes);
+    }
+    return data;
+  }
+
+  public void writeChangesAsJson(Query query, long since, long timeout,
+      Writer out) throws IOException, NotFoundException, InterruptedException {
+    Changes changes = getChanges(since, timeout);
+    writeAsJson(getSnapshot(), query, CHANGES_DATA, createChangesData(changes),
+        null, out);
+  }
+
+  /**
+   * Writes a value as compact single line JSON, without the REST version
+   * envelope, used for server-sent events.
+   */
+  void writeValueAsJson(Query query, Object value, Writer out)
+      throws IOException {
+    JsonGenerator jgen = jsonMapper.getJsonFactory().createJsonGenerator(out);
+    SERIALIZING.set(getSnapshot());
+    FIELDS.set(query.fields);
+    try {
+      jgen.writeObject(value);
+      jgen.flush();
+    } finally {
+      FIELDS.remove();
+      SERIALIZING.remove();
+    }
+  }
+
   public void writeSummaryAsJson(Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      Map summary = new LinkedHashMap();
-      summary.put(VERSION_INFO_KEY, VERSION_INFO);
-      summary.put(RESERVATIONS_COUNT_KEY, reservationsMap.size());
-      summary.put(QUEUES_SUMMARY_KEY, createMapSummaryList(QUEUE,
-          queueReservationsMap));
-      summary.put(CLIENTS_SUMMARY_KEY, createClientInfoSummary());
-      summary.put(NODES_SUMMARY_KEY, createMapSummaryList(NODE,
-          nodeReservationsMap));
-      if (llamaAMServer != null) {
-        if (llamaAMServer instanceof LlamaHAServer) {
-          // HA enabled
-          summary.put(HA_SERVER_STATUS,
-              ((LlamaHAServer) llamaAMServer).isActive() ? "active" : "standby");
-        } else {
-          // HA disabled
-          summary.put(HA_SERVER_STATUS, "active");
-        }
+    writeSummaryAsJson(new Query(), out);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void writeSummaryAsJson(Query query, Writer out)
+      throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    Map summary = new LinkedHashMap();
+    summary.put(VERSION_INFO_KEY, VERSION_INFO);
+    summary.put(RESERVATIONS_COUNT_KEY, snapshot.reservationsMap.size());
+    summary.put(QUEUES_SUMMARY_KEY, createMapSummaryList(QUEUE,
+        snapshot.queueReservationsMap));
+    summary.put(CLIENTS_SUMMARY_KEY, createClientInfoSummary(snapshot));
+    summary.put(NODES_SUMMARY_KEY, createMapSummaryList(NODE,
+        snapshot.nodeReservationsMap));
+    if (llamaAMServer != null) {
+      if (llamaAMServer instanceof LlamaHAServer) {
+        // HA enabled
+        summary.put(HA_SERVER_STATUS,
+            ((LlamaHAServer) llamaAMServer).isActive() ? "active" : "standby");
+      } else {
+        // HA disabled
+        summary.put(HA_SERVER_STATUS, "active");
       }
-      writeAsJson(SUMMARY_DATA, summary, out);
-    } finally {
-      lock.readLock().unlock();
     }
+    writeAsJson(snapshot, query, SUMMARY_DATA, summary, null, out);
   }
 
+  // if selected is not NULL only the selected reservations are referenced
   @SuppressWarnings("unchecked")
   private <K> Map<K, List<UUID>> createCrossRef(Map<K, List<PlacedReservation>>
-      map) {
+      map, Set<UUID> selected) {
     Map<K, List<UUID>> crossRef = new LinkedHashMap<K, List<UUID>>();
     for (Map.Entry<K, List<PlacedReservation>> entry : map.entrySet()) {
       K key = entry.getKey();
-      List<UUID> list = crossRef.get(key);
-      if (list == null) {
-        list = new ArrayList<UUID>();
-        crossRef.put(key, list);
-      }
+      List<UUID> list = null;
       for (PlacedReservation value : entry.getValue()) {
-        list.add(value.getReservationId());
+        if (selected == null || selected.contains(value.getReservationId())) {
+          if (list == null) {
+            list = new ArrayList<UUID>();
+            crossRef.put(key, list);
+          }
+          list.add(value.getReservationId());
+        }
       }
     }
     return crossRef;
   }
 
-  @SuppressWarnings("unchecked")
   public void writeAllAsJson(Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      Map all = new LinkedHashMap();
-      all.put(VERSION_INFO_KEY, VERSION_INFO);
-      all.put(RESERVATIONS, reservationsMap);
-      all.put(CLIENT_INFOS, createClientInfoSummary());
-      all.put(QUEUES_CROSSREF, createCrossRef(queueReservationsMap));
-      all.put(HANDLES_CROSSREF, createCrossRef(handleReservationsMap));
-      all.put(NODES_CROSSREF, createCrossRef(nodeReservationsMap));
-      if (llamaAMServer != null) {
-        if (llamaAMServer instanceof LlamaHAServer) {
-          // HA enabled
-          all.put(HA_SERVER_STATUS,
-              ((LlamaHAServer) llamaAMServer).isActive() ? "active" : "standby");
-        } else {
-          // HA disabled
-          all.put(HA_SERVER_STATUS, "active");
-        }
+    writeAllAsJson(new Query(), out);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void writeAllAsJson(Query query, Writer out)
+      throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    Map all = new LinkedHashMap();
+    all.put(VERSION_INFO_KEY, VERSION_INFO);
+    Map<UUID, PlacedReservation> reservations;
+    Set<UUID> selected;
+    UUID nextCursor;
+    if (query.isSelective()) {
+      Page page = query.select(snapshot.reservationsMap.values());
+      reservations = page.asMap();
+      selected = reservations.keySet();
+      nextCursor = page.nextCursor;
+    } else {
+      reservations = snapshot.reservationsMap;
+      selected = null;
+      nextCursor = null;
+    }
+    all.put(RESERVATIONS, reservations);
+    all.put(CLIENT_INFOS, createClientInfoSummary(snapshot));
+    all.put(QUEUES_CROSSREF, createCrossRef(snapshot.queueReservationsMap,
+        selected));
+    all.put(HANDLES_CROSSREF, createCrossRef(snapshot.handleReservationsMap,
+        selected));
+    all.put(NODES_CROSSREF, createCrossRef(snapshot.nodeReservationsMap,
+        selected));
+    if (llamaAMServer != null) {
+      if (llamaAMServer instanceof LlamaHAServer) {
+        // HA enabled
+        all.put(HA_SERVER_STATUS,
+            ((LlamaHAServer) llamaAMServer).isActive() ? "active" : "standby");
+      } else {
+        // HA disabled
+        all.put(HA_SERVER_STATUS, "active");
       }
-      writeAsJson(ALL_DATA, all, out);
-    } finally {
-      lock.readLock().unlock();
     }
+    writeAsJson(snapshot, query, ALL_DATA, all, nextCursor, out);
   }
 
   public void writeReservationAsJson(UUID reservationId, Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      PlacedReservation r = reservationsMap.get(reservationId);
-      if (r == null) {
-        throw new NotFoundException();
-      }
-      writeAsJson(RESERVATION_DATA, r, out);
-    } finally {
-      lock.readLock().unlock();
+    writeReservationAsJson(new Query(), reservationId, out);
+  }
+
+  public void writeReservationAsJson(Query query, UUID reservationId,
+      Writer out) throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    PlacedReservation r = snapshot.reservationsMap.get(reservationId);
+    if (r == null) {
+      throw new NotFoundException();
     }
+    writeAsJson(snapshot, query, RESERVATION_DATA, r, null, out);
+  }
+
+  /**
+   * Writes the lifecycle trace of a reservation, only sampled reservations
+   * in flight or recently notified have one.
+   */
+  public void writeTraceAsJson(Query query, UUID reservationId, Writer out)
+      throws IOException, NotFoundException {
+    ReservationTracer.Trace trace =
+        ReservationTracer.getTracer().getTrace(reservationId);
+    // the trace is looked up directly, it does not need a snapshot
+    writeAsJson(null, query, TRACE_DATA,
+        (trace != null) ? trace.toMap() : null, null, out);
   }
 
-  @SuppressWarnings("unchecked")
   public void writeHandleReservationsAsJson(UUID handle, Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      ClientInfo ci = clientInfoMap.get(handle);
-      if (ci == null) {
-        throw new NotFoundException();
-      }
-      List<PlacedReservation> prs = handleReservationsMap.get(handle);
-      prs = (prs != null) ? prs : Collections.EMPTY_LIST;
-      Map map = new LinkedHashMap();
-      map.put(CLIENT_INFO, ci);
-      map.put(RESERVATIONS, prs);
-      writeAsJson(HANDLE_DATA, map, out);
-    } finally {
-      lock.readLock().unlock();
+    writeHandleReservationsAsJson(new Query(), handle, out);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void writeHandleReservationsAsJson(Query query, UUID handle,
+      Writer out) throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    ClientInfo ci = snapshot.clientInfoMap.get(handle);
+    if (ci == null) {
+      throw new NotFoundException();
     }
+    List<PlacedReservation> prs = snapshot.handleReservationsMap.get(handle);
+    prs = (prs != null) ? prs : Collections.EMPTY_LIST;
+    Page page = query.select(prs);
+    Map map = new LinkedHashMap();
+    map.put(CLIENT_INFO, ci);
+    map.put(RESERVATIONS, page.reservations);
+    writeAsJson(snapshot, query, HANDLE_DATA, map, page.nextCursor, out);
   }
 
   public void writeQueueReservationsAsJson(String queue, Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      List<PlacedReservation> l = queueReservationsMap.get(queue);
-      if (l == null) {
-        throw new NotFoundException();
-      }
-      writeAsJson(QUEUE_DATA, l, out);
-    } finally {
-      lock.readLock().unlock();
+    writeQueueReservationsAsJson(new Query(), queue, out);
+  }
+
+  public void writeQueueReservationsAsJson(Query query, String queue,
+      Writer out) throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    List<PlacedReservation> l = snapshot.queueReservationsMap.get(queue);
+    if (l == null) {
+      throw new NotFoundException();
     }
+    Page page = query.select(l);
+    writeAsJson(snapshot, query, QUEUE_DATA, page.reservations,
+        page.nextCursor, out);
   }
 
   public void writeNodeResourcesAsJson(String node, Writer out)
       throws IOException, NotFoundException {
-    lock.readLock().lock();
-    try {
-      List<PlacedReservation> l = nodeReservationsMap.get(node);
-      if (l == null) {
-        throw new NotFoundException();
-      }
-      writeAsJson(NODE_DATA, l, out);
-    } finally {
-      lock.readLock().unlock();
+    writeNodeResourcesAsJson(new Query(), node, out);
+  }
+
+  public void writeNodeResourcesAsJson(Query query, String node, Writer out)
+      throws IOException, NotFoundException {
+    Snapshot snapshot = getSnapshot();
+    List<PlacedReservation> l = snapshot.nodeReservationsMap.get(node);
+    if (l == null) {
+      throw new NotFoundException();
     }
+    Page page = query.select(l);
+    writeAsJson(snapshot, query, NODE_DATA, page.reservations,
+        page.nextCursor, out);
   }
 
   private static final String ISO8601_UTC_MASK = "yyyy-MM-dd'T'HH:mm'Z'";
@@ -0,0 +1,440 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am;
+
+import com.cloudera.llama.am.api.QueueOwnership;
+import com.cloudera.llama.am.api.QueueRedirectException;
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.NamedThreadFactory;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.hadoop.util.ZKUtil;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QueueOwnership} sharding queues across active Llamas through
+ * ZooKeeper.
+ * <p/>
+ * Each Llama registers an ephemeral znode with its Thrift address under
+ * {@link HAServerConfiguration#getMembersZNode()}. The owner of a queue holds
+ * an ephemeral lease znode under
+ * {@link HAServerConfiguration#getQueueLeasesZNode()}, whose data is the
+ * owner address. A queue without lease is acquired by its preferred owner,
+ * chosen among the members by rendezvous hashing so that all Llamas agree on
+ * it and only the queues of the Llamas joining or leaving move. Other Llamas
+ * redirect the reservations of the queue to the owner or the preferred owner.
+ * <p/>
+ * When the members change, and every rebalance interval, idle queues whose
+ * preferred owner is another Llama are released. While the ZooKeeper
+ * connection is suspended or lost no queue is acquired. If it is lost all
+ * queues are released, as their leases may be taken by other Llamas. On
+ * reconnection the queues whose lease is not held anymore are released
+ * before joining again.
+ */
+public class ZKQueueOwnership extends QueueOwnership
+    implements ConnectionStateListener, CuratorWatcher {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(ZKQueueOwnership.class);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int MAX_RETRIES = 3;
+  private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+
+  private final HAServerConfiguration conf;
+  private final String address;
+  private final String leasesPath;
+  private final String membersPath;
+  private final List<ACL> acls;
+  private final long rebalanceInterval;
+  private final CuratorFramework client;
+  private final Set<String> owned;
+  private volatile List<String> members;
+  // set when the ZooKeeper connection is suspended or lost until joining
+  // again, guarded by the owned set
+  private boolean lost;
+  private ScheduledExecutorService scheduler;
+  private long zkClientIndex = -1;
+
+  public ZKQueueOwnership(HAServerConfiguration conf, String host, int port)
+      throws LlamaException {
+    this.conf = conf;
+    address = host + ":" + port;
+    leasesPath = conf.getQueueLeasesZNode();
+    membersPath = conf.getMembersZNode();
+    acls = conf.getZkAcls();
+    rebalanceInterval = conf.getQueueRebalanceInterval();
+    int zkTimeout = (int) conf.getZKTimeout();
+    client = CuratorFrameworkFactory.builder()
+        .connectString(conf.getZkQuorum())
+        .connectionTimeoutMs(zkTimeout)
+        .sessionTimeoutMs(zkTimeout)
+        .retryPolicy(new ExponentialBackoffRetry(1000, MAX_RETRIES))
+        .build();
+    owned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    members = Collections.singletonList(address);
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public synchronized void start() throws Exception {
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("llama-queue-ownership"));
+    client.start();
+    updateZKAuthsIfRequired();
+    client.getConnectionStateListenable().addListener(this);
+    for (String path : new String[]{leasesPath, membersPath}) {
+      try {
+        client.create().creatingParentsIfNeeded().withMode(
+            CreateMode.PERSISTENT).withACL(acls).forPath(path);
+      } catch (KeeperException.NodeExistsException ex) {
+        // Ignore.
+      }
+    }
+    try {
+      join();
+    } catch (Exception ex) {
+      stop();
+      throw ex;
+    }
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        rebalance();
+      }
+    }, rebalanceInterval, rebalanceInterval, TimeUnit.MILLISECONDS);
+    LOG.info("Started queue ownership for '{}'", address);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    client.getConnectionStateListenable().removeListener(this);
+    // closing the session deletes the member znode and the leases
+    client.close();
+    owned.clear();
+    LOG.info("Stopped queue ownership for '{}'", address);
+  }
+
+  private synchronized void updateZKAuthsIfRequired() throws Exception {
+    long latestZkClientIndex = client.getZookeeperClient().getInstanceIndex();
+    if (latestZkClientIndex > zkClientIndex) {
+      zkClientIndex = latestZkClientIndex;
+      ZooKeeper zkClient = client.getZookeeperClient().getZooKeeper();
+      for (ZKUtil.ZKAuthInfo zkAuth : conf.getZkAuths()) {
+        zkClient.addAuthInfo(zkAuth.getScheme(), zkAuth.getAuth());
+      }
+    }
+  }
+
+  private void join() throws Exception {
+    String path = membersPath + "/" + address;
+    try {
+      client.create().withMode(CreateMode.EPHEMERAL).withACL(acls)
+          .forPath(path);
+    } catch (KeeperException.NodeExistsException ex) {
+      // ours if the session survived a reconnection, otherwise another Llama
+      // with the same address or a previous session not expired yet, whose
+      // member znode must not be taken over.
+      Stat stat = client.checkExists().forPath(path);
+      long session = client.getZookeeperClient().getZooKeeper().getSessionId();
+      if (stat == null || stat.getEphemeralOwner() != session) {
+        throw new IllegalStateException(FastFormat.format(
+            "Member znode '{}' held by another ZooKeeper session", path));
+      }
+    }
+    synchronized (owned) {
+      lost = false;
+    }
+    refreshMembers();
+  }
+
+  private void refreshMembers() throws Exception {
+    List<String> list = new ArrayList<String>(
+        client.getChildren().usingWatcher(this).forPath(membersPath));
+    Collections.sort(list);
+    if (!list.contains(address)) {
+      list.add(address);
+    }
+    members = Collections.unmodifiableList(list);
+    LOG.info("Llama members: {}", members);
+  }
+
+  List<String> getMembers() {
+    return members;
+  }
+
+  Set<String> getOwnedQueues() {
+    return Collections.unmodifiableSet(owned);
+  }
+
+  static long score(String queue, String member) {
+    long h = queue.hashCode() * 0x9E3779B97F4A7C15L + member.hashCode();
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  static String getPreferredOwner(String queue, List<String> members) {
+    String preferred = null;
+    long best = Long.MIN_VALUE;
+    for (String member : members) {
+      long score = score(queue, member);
+      if (preferred == null || score > best) {
+        preferred = member;
+        best = score;
+      }
+    }
+    return preferred;
+  }
+
+  private QueueRedirectException redirect(String queue, String owner) {
+    int index = owner.lastIndexOf(':');
+    return new QueueRedirectException(queue, owner.substring(0, index),
+        Integer.parseInt(owner.substring(index + 1)));
+  }
+
+  private String getLeasePath(String queue) {
+    return leasesPath + "/" + queue;
+  }
+
+  private String getOwner(String queue) throws Exception {
+    try {
+      return new String(client.getData().forPath(getLeasePath(queue)), UTF8);
+    } catch (KeeperException.NoNodeException ex) {
+      return null;
+    }
+  }
+
+  // the lease is held if it was created by this Llama in the current session
+  private boolean holdsLease(String queue) throws Exception {
+    try {
+      Stat stat = new Stat();
+      byte[] owner = client.getData().storingStatIn(stat)
+          .forPath(getLeasePath(queue));
+      long session = client.getZookeeperClient().getZooKeeper().getSessionId();
+      return address.equals(new String(owner, UTF8)) &&
+          stat.getEphemeralOwner() == session;
+    } catch (KeeperException.NoNodeException ex) {
+      return false;
+    }
+  }
+
+  private boolean createLease(String queue) throws Exception {
+    try {
+      client.create().withMode(CreateMode.EPHEMERAL).withACL(acls)
+          .forPath(getLeasePath(queue), address.getBytes(UTF8));
+      return true;
+    } catch (KeeperException.NodeExistsException ex) {
+      return false;
+    }
+  }
+
+  @Override
+  public void acquire(String queue) throws LlamaException {
+    synchronized (owned) {
+      if (lost) {
+        throw new LlamaException(ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE, queue);
+      }
+      if (owned.contains(queue)) {
+        return;
+      }
+    }
+    try {
+      for (int i = 0; i < MAX_ACQUIRE_ATTEMPTS; i++) {
+        String owner = getOwner(queue);
+        if (owner == null) {
+          owner = getPreferredOwner(queue, members);
+          if (owner.equals(address) && createLease(queue)) {
+            owner = address;
+            LOG.info("Acquired queue '{}'", queue);
+          } else if (owner.equals(address)) {
+            // another Llama got the lease in between, look it up again
+            continue;
+          }
+        }
+        if (owner.equals(address)) {
+          synchronized (owned) {
+            if (lost) {
+              // the lease was of the lost session
+              throw new LlamaException(ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE,
+                  queue);
+            }
+            owned.add(queue);
+          }
+          return;
+        }
+        throw redirect(queue, owner);
+      }
+    } catch (LlamaException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new LlamaException(ex, ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE,
+          queue);
+    }
+    throw new LlamaException(ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE, queue);
+  }
+
+  @Override
+  public void release(String queue) {
+    if (owned.remove(queue)) {
+      try {
+        if (address.equals(getOwner(queue))) {
+          client.delete().forPath(getLeasePath(queue));
+        }
+        LOG.info("Released queue '{}'", queue);
+      } catch (KeeperException.NoNodeException ex) {
+        // Ignore.
+      } catch (Exception ex) {
+        LOG.warn("Could not release lease of queue '{}': {}", queue,
+            ex.toString(), ex);
+      }
+    }
+  }
+
+  void rebalance() {
+    Listener listener = getListener();
+    List<String> current = members;
+    for (String queue : new ArrayList<String>(owned)) {
+      if (!getPreferredOwner(queue, current).equals(address) &&
+          listener != null && listener.releaseQueue(queue, false)) {
+        LOG.info("Rebalancing queue '{}' to '{}'", queue,
+            getPreferredOwner(queue, current));
+        release(queue);
+      }
+    }
+  }
+
+  private void releaseAll() {
+    List<String> queues;
+    synchronized (owned) {
+      queues = new ArrayList<String>(owned);
+      owned.clear();
+    }
+    Listener listener = getListener();
+    if (listener != null) {
+      for (String queue : queues) {
+        listener.releaseQueue(queue, true);
+      }
+    }
+  }
+
+  void lost() {
+    synchronized (owned) {
+      lost = true;
+    }
+  }
+
+  // leases may have expired with the session or been deleted while
+  // disconnected, queues are not acquired until the owned ones are verified
+  void rejoin() throws Exception {
+    updateZKAuthsIfRequired();
+    Listener listener = getListener();
+    for (String queue : new ArrayList<String>(owned)) {
+      if (!holdsLease(queue) && owned.remove(queue)) {
+        LOG.warn("Lease of queue '{}' not held anymore, releasing it", queue);
+        if (listener != null) {
+          listener.releaseQueue(queue, true);
+        }
+      }
+    }
+    join();
+  }
+
+  private synchronized void schedule(Runnable runnable) {
+    if (scheduler != null) {
+      scheduler.execute(runnable);
+    }
+  }
+
+  @Override
+  public void process(WatchedEvent event) {
+    if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+      schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            refreshMembers();
+            rebalance();
+          } catch (Exception ex) {
+            LOG.warn("Could not refresh Llama members: {}", ex.toString(),
+                ex);
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public void stateChanged(CuratorFramework client, ConnectionState state) {
+    if (state == ConnectionState.SUSPENDED) {
+      LOG.warn("ZooKeeper connection suspended, not acquiring queues");
+      lost();
+    } else if (state == ConnectionState.LOST) {
+      LOG.warn("ZooKeeper connection lost, releasing all queues");
+      lost();
+      schedule(new Runnable() {
+        @Override
+        public void run() {
+          releaseAll();
+        }
+      });
+    } else if (state == ConnectionState.RECONNECTED) {
+      schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            rejoin();
+          } catch (Exception ex) {
+            LOG.warn("Could not rejoin Llama members: {}", ex.toString(), ex);
+          }
+        }
+      });
+    }
+  }
+
+}
@@ -20,34 +20,126 @@ package com.cloudera.llama.am.api;
 import com.cloudera.llama.am.impl.LlamaAMEventImpl;
 import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.util.ParamChecker;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Dispatches events to a listener from its own thread.
+ * <p/>
+ * The dispatcher thread blocks until there are events and dispatches them
+ * right away, merging the events already queued up to the batch size. If a
+ * batch delay is configured the dispatcher waits up to that long to fill the
+ * batch. The queue is bounded, when full the overflow policy applies.
+ * <p/>
+ * Dropped events are never replayed, a {@link StatefulLlamaAMListener} only
+ * supports the {@link OverflowPolicy#BLOCK} policy.
+ */
 public class AsyncLlamaAMListener implements LlamaAMListener {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(AsyncLlamaAMListener.class);
 
   private final static String QUEUE_GAUGE = LlamaAM.METRIC_PREFIX +
       "async-listener.queue.gauge";
 
-  private static final int DISPATCH_INTERVAL_MS = 50;
+  private final static String QUEUE_WAIT_HISTOGRAM = LlamaAM.METRIC_PREFIX +
+      "async-listener.queue-wait.histogram";
+
+  private final static String BATCH_SIZE_HISTOGRAM = LlamaAM.METRIC_PREFIX +
+      "async-listener.batch-size.histogram";
+
+  private final static String DROPPED_METER = LlamaAM.METRIC_PREFIX +
+      "async-listener.dropped.meter";
+
+  public static final List<String> METRIC_KEYS = Arrays.asList(QUEUE_GAUGE,
+      QUEUE_WAIT_HISTOGRAM, BATCH_SIZE_HISTOGRAM, DROPPED_METER);
+
+  /**
+   * What to do with an event when the queue is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * the producer waits for room in the queue, no event is lost. The
+     * producer is a LlamaAM thread, often holding the LlamaAM lock, a slow
+     * listener back-pressures the LlamaAM.
+     */
+    BLOCK,
+    /** the new event is dropped, not for stateful listeners. */
+    DROP_NEWEST,
+    /**
+     * the oldest queued event is dropped to make room for the new one, not
+     * for stateful listeners.
+     */
+    DROP_OLDEST
+  }
 
-  private static final int DISPATCH_BATCH_SIZE = 500;
+  public static final String QUEUE_CAPACITY_KEY = LlamaAM.PREFIX_KEY +
+      "async.listener.queue.capacity";
+  public static final int QUEUE_CAPACITY_DEFAULT = 100000;
+
+  public static final String OVERFLOW_POLICY_KEY = LlamaAM.PREFIX_KEY +
+      "async.listener.overflow.policy";
+  public static final String OVERFLOW_POLICY_DEFAULT =
+      OverflowPolicy.BLOCK.toString();
+
+  public static final String BATCH_SIZE_KEY = LlamaAM.PREFIX_KEY +
+      "async.listener.batch.size";
+  public static final int BATCH_SIZE_DEFAULT = 500;
+
+  public static final String BATCH_DELAY_MS_KEY = LlamaAM.PREFIX_KEY +
+      "async.listener.batch.delay.ms";
+  public static final long BATCH_DELAY_MS_DEFAULT = 0;
+
+  private static class Entry {
+    private final LlamaAMEvent event;
+    private final long queuedOn;
+
+    private Entry(LlamaAMEvent event) {
+      this.event = event;
+      queuedOn = Clock.currentTimeMillis();
+    }
+  }
 
   private final LlamaAMListener listener;
-  private final BlockingQueue<LlamaAMEvent> changes;
+  private final BlockingQueue<Entry> changes;
+  private final OverflowPolicy overflowPolicy;
+  private final int batchSize;
+  private final long batchDelay;
   private final Thread processorThread;
+  private volatile MetricRegistry metricRegistry;
   private volatile boolean running;
 
   public AsyncLlamaAMListener(LlamaAMListener listener) {
+    this(new Configuration(false), listener);
+  }
+
+  public AsyncLlamaAMListener(Configuration conf, LlamaAMListener listener) {
     this.listener = ParamChecker.notNull(listener, "listener");
-    changes = new LinkedBlockingQueue<LlamaAMEvent>();
+    changes = new LinkedBlockingQueue<Entry>(
+        conf.getInt(QUEUE_CAPACITY_KEY, QUEUE_CAPACITY_DEFAULT));
+    overflowPolicy = OverflowPolicy.valueOf(conf.get(OVERFLOW_POLICY_KEY,
+        OVERFLOW_POLICY_DEFAULT).trim().toUpperCase());
+    if (listener instanceof StatefulLlamaAMListener &&
+        overflowPolicy != OverflowPolicy.BLOCK) {
+      throw new IllegalArgumentException(FastFormat.format(
+          "Listener '{}' tracks the LlamaAM state, '{}' must be '{}'",
+          listener.getClass().getSimpleName(), OVERFLOW_POLICY_KEY,
+          OverflowPolicy.BLOCK));
+    }
+    batchSize = conf.getInt(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT);
+    ParamChecker.greaterThan(batchSize, 0, BATCH_SIZE_KEY);
+    batchDelay = conf.getLong(BATCH_DELAY_MS_KEY, BATCH_DELAY_MS_DEFAULT);
     processorThread = new Thread(new AsyncDispatcher(),
         "llama-am-async-listener");
     processorThread.setDaemon(true);
@@ -62,7 +154,11 @@ public class AsyncLlamaAMListener implements LlamaAMListener {
               return changes.size();
             }
           });
+      MetricUtil.registerHistogram(metricRegistry, QUEUE_WAIT_HISTOGRAM);
+      MetricUtil.registerHistogram(metricRegistry, BATCH_SIZE_HISTOGRAM);
+      MetricUtil.registerMeter(metricRegistry, DROPPED_METER);
     }
+    this.metricRegistry = metricRegistry;
   }
 
   public void start() {
@@ -80,24 +176,74 @@ public class AsyncLlamaAMListener implements LlamaAMListener {
 
   @Override
   public void onEvent(LlamaAMEvent event) {
-    changes.add(event);
+    Entry entry = new Entry(event);
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          changes.put(entry);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          dropped(entry);
+        }
+        break;
+      case DROP_NEWEST:
+        if (!changes.offer(entry)) {
+          dropped(entry);
+        }
+        break;
+      case DROP_OLDEST:
+        while (!changes.offer(entry)) {
+          Entry oldest = changes.poll();
+          if (oldest != null) {
+            dropped(oldest);
+          }
+        }
+        break;
+    }
+  }
+
+  private void dropped(Entry entry) {
+    LOG.warn("Async listener queue full, dropping event queued on '{}'",
+        entry.queuedOn);
+    MetricUtil.meter(metricRegistry, DROPPED_METER, 1);
   }
 
   private class AsyncDispatcher implements Runnable {
     @Override
     public void run() {
       try {
-        List<LlamaAMEvent> list = new ArrayList<LlamaAMEvent>();
+        List<Entry> list = new ArrayList<Entry>();
+        List<LlamaAMEvent> events = new ArrayList<LlamaAMEvent>();
         while (running) {
-          Clock.sleep(DISPATCH_INTERVAL_MS);
-          if (changes.peek() != null) {
-            changes.drainTo(list, DISPATCH_BATCH_SIZE);
-            while (!list.isEmpty()) {
-              listener.onEvent(LlamaAMEventImpl.merge(list));
-              list.clear();
-              changes.drainTo(list, DISPATCH_BATCH_SIZE);
+          list.add(changes.take());
+          changes.drainTo(list, batchSize - list.size());
+          long fillUntil = Clock.currentTimeMillis() + batchDelay;
+          long wait = batchDelay;
+          while (list.size() < batchSize && wait > 0) {
+            Entry entry = changes.poll(wait, TimeUnit.MILLISECONDS);
+            if (entry == null) {
+              break;
             }
+            list.add(entry);
+            changes.drainTo(list, batchSize - list.size());
+            wait = fillUntil - Clock.currentTimeMillis();
+          }
+          long now = Clock.currentTimeMillis();
+          MetricRegistry mr = metricRegistry;
+          for (Entry entry : list) {
+            MetricUtil.update(mr, QUEUE_WAIT_HISTOGRAM, now - entry.queuedOn);
+            events.add(entry.event);
+          }
+          MetricUtil.update(mr, BATCH_SIZE_HISTOGRAM, list.size());
+          try {
+            listener.onEvent((events.size() == 1)
+                             ? events.get(0) : LlamaAMEventImpl.merge(events));
+          } catch (RuntimeException ex) {
+            LOG.error("Error dispatching '{}' events: {}", events.size(),
+                ex.toString(), ex);
           }
+          list.clear();
+          events.clear();
         }
       } catch (InterruptedException ex) {
         //NOP
@@ -30,6 +30,7 @@ import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.MetricRegistry;
 import org.apache.hadoop.conf.Configuration;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -72,6 +73,10 @@ public abstract class LlamaAM {
   public static final String CORE_QUEUES_KEY = PREFIX_KEY +
       "core.queues";
 
+  public static final String CORE_QUEUES_REGISTRATION_THREADS_KEY =
+      PREFIX_KEY + "core.queues.registration.threads";
+  public static final int CORE_QUEUES_REGISTRATION_THREADS_DEFAULT = 8;
+
   public static final String GANG_ANTI_DEADLOCK_ENABLED_KEY = PREFIX_KEY +
       "gang.anti.deadlock.enabled";
   public static final boolean GANG_ANTI_DEADLOCK_ENABLED_DEFAULT = true;
@@ -94,6 +99,16 @@ public abstract class LlamaAM {
       PREFIX_KEY + "gang.anti.deadlock.backoff.max.delay.ms";
   public static final long GANG_ANTI_DEADLOCK_BACKOFF_MAX_DELAY_DEFAULT = 30000;
 
+  public static final String GANG_SPECULATIVE_RESOURCES_KEY =
+      PREFIX_KEY + "gang.speculative.resources";
+  public static final int GANG_SPECULATIVE_RESOURCES_DEFAULT = 0;
+
+  public static final String ID_GENERATOR_KEY = PREFIX_KEY + "id.generator";
+  public static final String ID_GENERATOR_DEFAULT = "random";
+
+  public static final String ID_GENERATOR_NODE_ID_KEY =
+      PREFIX_KEY + "id.generator.node.id";
+
   public static final String CACHING_ENABLED_KEY =
       PREFIX_KEY + "cache.enabled";
   public static final boolean CACHING_ENABLED_DEFAULT = true;
@@ -118,6 +133,10 @@ public abstract class LlamaAM {
       PREFIX_KEY + "resource.normalizing.standard.vcores";
   public static final int NORMALIZING_SIZE_VCORES_DEFAULT = 1;
 
+  public static final String FAULT_INJECTION_ENABLED_KEY =
+      PREFIX_KEY + "fault.injection.enabled";
+  public static final boolean FAULT_INJECTION_ENABLED_DEFAULT = false;
+
   public static final String EVICTION_POLICY_CLASS_KEY =
       PREFIX_KEY + "cache.eviction.policy.class";
   public static final Class EVICTION_POLICY_CLASS_DEFAULT =
@@ -251,6 +270,34 @@ public abstract class LlamaAM {
     return id;
   }
 
+  /**
+   * Places a batch of reservations in the <code>LlamaAM</code>.
+   * <p/>
+   * An error placing one of the reservations does not affect the placement of
+   * the other reservations in the batch.
+   * <p/>
+   * This method delegates to the {@link #reserve(UUID, Reservation)} method,
+   * implementations can override it to process the batch in one pass.
+   *
+   * @param reservations the reservations to place keyed by their UUID.
+   * @return the errors of the reservations that could not be placed keyed by
+   * their UUID. If all reservations were placed an empty map is returned.
+   * @throws LlamaException thrown if the batch could not be processed.
+   */
+  public Map<UUID, LlamaException> reserve(Map<UUID, Reservation> reservations)
+      throws LlamaException {
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+      try {
+        reserve(entry.getKey(), entry.getValue());
+      } catch (LlamaException ex) {
+        errors.put(entry.getKey(), ex);
+      }
+    }
+    return errors;
+  }
+
   /**
    * Places an expansion for a reservation in the <code>LlamaAM</code>.
    * <p/>
@@ -321,6 +368,39 @@ public abstract class LlamaAM {
       UUID reservationId, boolean doNotCache)
       throws LlamaException;
 
+  /**
+   * Releases a batch of placed reservations or expansions.
+   * <p/>
+   * An error releasing one of the reservations does not affect the release of
+   * the other reservations in the batch. Unknown reservations are ignored.
+   * <p/>
+   * This method delegates to the {@link #releaseReservation(UUID, UUID,
+   * boolean)} method, implementations can override it to process the batch in
+   * one pass.
+   *
+   * @param handle handle used to place the reservations.
+   * @param reservationIds the UUIDs of the placed reservations or expansions to
+   * release.
+   * @param doNotCache indicates if the resources of the reservations or
+   * expansions being released should be cached  (if caching is enabled) or not.
+   * @return the errors of the reservations that could not be released keyed by
+   * their UUID. If all reservations were released an empty map is returned.
+   * @throws LlamaException thrown if the batch could not be processed.
+   */
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    for (UUID reservationId : reservationIds) {
+      try {
+        releaseReservation(handle, reservationId, doNotCache);
+      } catch (LlamaException ex) {
+        errors.put(reservationId, ex);
+      }
+    }
+    return errors;
+  }
+
   /**
    * Releases all placed reservations associated with the given handle.
    *
@@ -76,6 +76,8 @@ public interface PlacedResource extends Resource {
 
   public String getQueue();
 
+  public Reservation.Priority getPriority();
+
   public long getAllocatedOn();
 
   public String getLocation();
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.api;
+
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.ParamChecker;
+
+/**
+ * Decides which Llama handles the reservations of a queue when several
+ * Llamas are active at the same time.
+ * <p/>
+ * Before creating the AM of a queue the LlamaAM acquires the queue, if
+ * another Llama owns it a {@link QueueRedirectException} with the address of
+ * the owner is thrown and the client is expected to retry the reservation
+ * there. An ownership implementation may take a queue back, to rebalance or
+ * because it lost its lease, asking the {@link Listener} to release it.
+ * <p/>
+ * The default, {@link #ALL}, owns every queue.
+ */
+public abstract class QueueOwnership {
+
+  public interface Listener {
+
+    /**
+     * Releases the AM of a queue no longer owned.
+     *
+     * @param queue queue to release.
+     * @param force if the queue must be released even if it has reservations.
+     * @return if the queue was released.
+     */
+    public boolean releaseQueue(String queue, boolean force);
+  }
+
+  public static final QueueOwnership ALL = new QueueOwnership() {
+    @Override
+    public boolean isExclusive() {
+      return true;
+    }
+
+    @Override
+    public void acquire(String queue) {
+    }
+
+    @Override
+    public void release(String queue) {
+    }
+  };
+
+  private static volatile QueueOwnership ownership = ALL;
+
+  public static void setOwnership(QueueOwnership ownership) {
+    QueueOwnership.ownership = ParamChecker.notNull(ownership, "ownership");
+  }
+
+  public static QueueOwnership getOwnership() {
+    return ownership;
+  }
+
+  private volatile Listener listener;
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  protected Listener getListener() {
+    return listener;
+  }
+
+  /**
+   * Returns if this Llama is the only one handling reservations. Only then it
+   * may delete all the Llama applications in YARN at startup, otherwise they
+   * may belong to other Llamas.
+   */
+  public boolean isExclusive() {
+    return false;
+  }
+
+  /**
+   * Acquires a queue, it is a NOP if the queue is already owned.
+   *
+   * @throws QueueRedirectException if another Llama owns the queue.
+   * @throws LlamaException if the ownership of the queue cannot be
+   * determined.
+   */
+  public abstract void acquire(String queue) throws LlamaException;
+
+  /**
+   * Gives up a queue, the AM of the queue has been stopped already.
+   */
+  public abstract void release(String queue);
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.api;
+
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.LlamaException;
+
+/**
+ * Thrown when a reservation is for a queue owned by another Llama, the
+ * client should retry with the Llama at the owner address.
+ */
+public class QueueRedirectException extends LlamaException {
+  private final String ownerHost;
+  private final int ownerPort;
+
+  public QueueRedirectException(String queue, String ownerHost,
+      int ownerPort) {
+    super(ErrorCode.QUEUE_OWNED_BY_OTHER_LLAMA, queue, ownerHost, ownerPort);
+    this.ownerHost = ownerHost;
+    this.ownerPort = ownerPort;
+  }
+
+  public String getOwnerHost() {
+    return ownerHost;
+  }
+
+  public int getOwnerPort() {
+    return ownerPort;
+  }
+
+}
@@ -32,6 +32,10 @@ import java.util.List;
  * A gang reservation is a reservation that must be fulfilled at once, without
  * incremental/partial fulfillment.
  * <p/>
+ * The {@link Priority} of a reservation is used to favor latency sensitive
+ * (i.e. interactive) reservations over batch reservations within a queue. If
+ * not set, a reservation has {@link Priority#NORMAL} priority.
+ * <p/>
  * A <code>Reservation</code> must have at least one {@link Resource}.
  * <p/>
  * Once a <code>Reservation</code> is reserved, it will have a matching
@@ -49,6 +53,13 @@ import java.util.List;
  */
 public interface Reservation {
 
+  /**
+   * Priority classes of a reservation, from highest to lowest.
+   */
+  public enum Priority {
+    HIGH, NORMAL, LOW
+  }
+
   /**
    * Builder for {@link Reservation} instances.
    * <p/>
@@ -75,6 +86,8 @@ public interface Reservation {
 
     public Builder setGang(boolean gang);
 
+    public Builder setPriority(Priority priority);
+
     public Reservation build();
 
   }
@@ -89,4 +102,6 @@ public interface Reservation {
 
   public boolean isGang();
 
+  public Priority getPriority();
+
 }
@@ -0,0 +1,474 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.api;
+
+import com.cloudera.llama.am.spi.RMAttachments;
+import com.cloudera.llama.server.MetricUtil;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.NamedThreadFactory;
+import com.cloudera.llama.util.ParamChecker;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traces a sample of reservations through their lifecycle.
+ * <p/>
+ * The layers handling a reservation mark the {@link Stage} boundaries as the
+ * reservation goes through them. When the client is notified of the
+ * allocation the trace is complete, the latency of each {@link Phase} is
+ * recorded in a per queue histogram and the trace is kept in a bounded list
+ * of recent traces for the REST API.
+ * <p/>
+ * Only the configured fraction of reservations is traced, for reservations
+ * not sampled a mark is a lookup in an (usually empty) map. The number of
+ * traces in flight is bounded, traces of reservations released or lost
+ * before their allocation was notified expire, in the background once
+ * {@link #start()}ed and whenever the traces in flight reach the bound.
+ */
+public class ReservationTracer {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(ReservationTracer.class);
+
+  public static final String SAMPLING_RATE_KEY = LlamaAM.PREFIX_KEY +
+      "trace.sampling.rate";
+  public static final float SAMPLING_RATE_DEFAULT = 0.01f;
+
+  public static final String MAX_IN_FLIGHT_KEY = LlamaAM.PREFIX_KEY +
+      "trace.max.in.flight";
+  public static final int MAX_IN_FLIGHT_DEFAULT = 10000;
+
+  public static final String COMPLETED_SIZE_KEY = LlamaAM.PREFIX_KEY +
+      "trace.completed.size";
+  public static final int COMPLETED_SIZE_DEFAULT = 1000;
+
+  public static final String EXPIRATION_MS_KEY = LlamaAM.PREFIX_KEY +
+      "trace.expiration.ms";
+  public static final long EXPIRATION_MS_DEFAULT = 10 * 60 * 1000;
+
+  private static final String METRIC_PREFIX = LlamaAM.METRIC_PREFIX +
+      "reservation-trace.";
+
+  private static final String PHASE_HISTOGRAM_TEMPLATE = METRIC_PREFIX +
+      "{}-latency[{}].histogram";
+
+  /**
+   * Metric key templates, the <code>{}</code> are the phase and the queue.
+   */
+  public static final List<String> METRIC_TEMPLATE_KEYS = Arrays.asList(
+      PHASE_HISTOGRAM_TEMPLATE);
+
+  /**
+   * Lifecycle boundaries of a reservation, in order.
+   */
+  public enum Stage {
+    /** the reservation request has been received. */
+    RECEIVED,
+    /** the queue has been assigned and the ACLs checked. */
+    PLACED,
+    /** the reservation has been admitted by its queue, after throttling. */
+    ADMITTED,
+    /** the resources have been requested to the resource manager. */
+    REQUESTED,
+    /** all the resources of the reservation have been allocated. */
+    ALLOCATED,
+    /** the client has been notified of the allocation. */
+    NOTIFIED
+  }
+
+  /**
+   * Latency breakdown of a traced reservation.
+   */
+  public enum Phase {
+    PLACEMENT("placement"),
+    THROTTLE("throttle"),
+    RM_REQUEST("rm-request"),
+    BACKOFF("backoff"),
+    ALLOCATION("allocation"),
+    CONTAINER_START("container-start"),
+    NOTIFICATION("notification"),
+    TOTAL("total");
+
+    private final String metricName;
+
+    private Phase(String metricName) {
+      this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+      return metricName;
+    }
+  }
+
+  /**
+   * {@link com.cloudera.llama.am.spi.RMResource} attachment used by
+   * connectors to report container start latency on traced resources.
+   */
+  public static final RMAttachments.Slot<Trace> TRACE_SLOT =
+      RMAttachments.slot("llama.reservation.trace", Trace.class);
+
+  public static final ReservationTracer DISABLED = new ReservationTracer(
+      0, 0, 0, 0);
+
+  private static volatile ReservationTracer tracer = DISABLED;
+
+  public static void setTracer(ReservationTracer tracer) {
+    ReservationTracer.tracer = ParamChecker.notNull(tracer, "tracer");
+  }
+
+  public static ReservationTracer getTracer() {
+    return tracer;
+  }
+
+  public class Trace {
+    private final UUID reservationId;
+    private final long[] stamps = new long[Stage.values().length];
+    private String queue;
+    private long backOffStart = -1;
+    private long backOff;
+    private long containerStart = -1;
+    private boolean complete;
+
+    private Trace(UUID reservationId, long now) {
+      this.reservationId = reservationId;
+      Arrays.fill(stamps, -1);
+      stamps[Stage.RECEIVED.ordinal()] = now;
+    }
+
+    public UUID getReservationId() {
+      return reservationId;
+    }
+
+    public synchronized void setQueue(String queue) {
+      this.queue = queue;
+    }
+
+    public synchronized void mark(Stage stage) {
+      long now = Clock.currentTimeMillis();
+      if (stage == Stage.ADMITTED && backOffStart >= 0) {
+        backOff += now - backOffStart;
+        backOffStart = -1;
+      }
+      if (stamps[stage.ordinal()] == -1) {
+        stamps[stage.ordinal()] = now;
+      }
+    }
+
+    public synchronized void backedOff() {
+      backOffStart = Clock.currentTimeMillis();
+    }
+
+    /**
+     * Reports the latency of starting the container of one of the resources,
+     * the trace keeps the slowest.
+     */
+    public void containerStarted(long latency) {
+      String q;
+      synchronized (this) {
+        containerStart = Math.max(containerStart, latency);
+        q = queue;
+      }
+      if (q != null) {
+        record(q, Phase.CONTAINER_START, latency);
+      }
+    }
+
+    private long elapsed(Stage from, Stage to) {
+      long start = stamps[from.ordinal()];
+      long end = stamps[to.ordinal()];
+      return (start >= 0 && end >= 0) ? Math.max(0, end - start) : -1;
+    }
+
+    /**
+     * Returns the latency of a phase, <code>-1</code> if not known yet.
+     */
+    public synchronized long getLatency(Phase phase) {
+      long latency;
+      switch (phase) {
+        case PLACEMENT:
+          latency = elapsed(Stage.RECEIVED, Stage.PLACED);
+          break;
+        case THROTTLE:
+          latency = elapsed(Stage.PLACED, Stage.ADMITTED);
+          break;
+        case RM_REQUEST:
+          latency = elapsed(Stage.ADMITTED, Stage.REQUESTED);
+          break;
+        case BACKOFF:
+          latency = backOff;
+          break;
+        case ALLOCATION:
+          latency = elapsed(Stage.REQUESTED, Stage.ALLOCATED);
+          latency = (latency >= 0) ? Math.max(0, latency - backOff) : -1;
+          break;
+        case CONTAINER_START:
+          latency = containerStart;
+          break;
+        case NOTIFICATION:
+          latency = elapsed(Stage.ALLOCATED, Stage.NOTIFIED);
+          break;
+        case TOTAL:
+          latency = elapsed(Stage.RECEIVED, Stage.NOTIFIED);
+          break;
+        default:
+          throw new IllegalArgumentException(phase.toString());
+      }
+      return latency;
+    }
+
+    public synchronized Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("reservationId", reservationId);
+      map.put("queue", queue);
+      map.put("complete", complete);
+      Map<String, Object> stages = new LinkedHashMap<String, Object>();
+      for (Stage stage : Stage.values()) {
+        if (stamps[stage.ordinal()] >= 0) {
+          stages.put(stage.toString(), stamps[stage.ordinal()]);
+        }
+      }
+      map.put("stages", stages);
+      Map<String, Object> phases = new LinkedHashMap<String, Object>();
+      for (Phase phase : Phase.values()) {
+        long latency = getLatency(phase);
+        if (latency >= 0) {
+          phases.put(phase.getMetricName(), latency);
+        }
+      }
+      map.put("phases", phases);
+      return map;
+    }
+
+    @Override
+    public String toString() {
+      return FastFormat.format("Trace[reservationId:{} {}]", reservationId,
+          toMap());
+    }
+  }
+
+  private final float samplingRate;
+  private final int maxInFlight;
+  private final long expiration;
+  private final ConcurrentMap<UUID, Trace> inFlight;
+  private final Map<UUID, Trace> completed;
+  private final ConcurrentMap<String, Boolean> registeredQueues;
+  private volatile MetricRegistry metricRegistry;
+  private ScheduledExecutorService expirer;
+
+  public ReservationTracer(Configuration conf) {
+    this(conf.getFloat(SAMPLING_RATE_KEY, SAMPLING_RATE_DEFAULT),
+        conf.getInt(MAX_IN_FLIGHT_KEY, MAX_IN_FLIGHT_DEFAULT),
+        conf.getInt(COMPLETED_SIZE_KEY, COMPLETED_SIZE_DEFAULT),
+        conf.getLong(EXPIRATION_MS_KEY, EXPIRATION_MS_DEFAULT));
+  }
+
+  private ReservationTracer(float samplingRate, int maxInFlight,
+      final int completedSize, long expiration) {
+    this.samplingRate = samplingRate;
+    this.maxInFlight = maxInFlight;
+    this.expiration = expiration;
+    inFlight = new ConcurrentHashMap<UUID, Trace>();
+    completed = new LinkedHashMap<UUID, Trace>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, Trace> eldest) {
+        return size() > completedSize;
+      }
+    };
+    registeredQueues = new ConcurrentHashMap<String, Boolean>();
+  }
+
+  public void setMetricRegistry(MetricRegistry metricRegistry) {
+    this.metricRegistry = metricRegistry;
+  }
+
+  public boolean isEnabled() {
+    return samplingRate > 0;
+  }
+
+  /**
+   * Starts expiring traces in the background, every tenth of the expiration
+   * time.
+   */
+  public synchronized void start() {
+    if (isEnabled() && expirer == null) {
+      long interval = Math.max(1, expiration / 10);
+      ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(
+              new NamedThreadFactory("llama-trace-expirer"));
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            expire(Clock.currentTimeMillis());
+          } catch (Throwable ex) {
+            LOG.warn("Error expiring traces, {}", ex.toString(), ex);
+          }
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+      expirer = executor;
+    }
+  }
+
+  public synchronized void stop() {
+    if (expirer != null) {
+      expirer.shutdownNow();
+      expirer = null;
+    }
+  }
+
+  /**
+   * Starts tracing a reservation if it is sampled, returns the trace or
+   * <code>NULL</code> if the reservation is not traced.
+   */
+  public Trace start(UUID reservationId) {
+    Trace trace = null;
+    if (samplingRate > 0 &&
+        ThreadLocalRandom.current().nextFloat() < samplingRate) {
+      long now = Clock.currentTimeMillis();
+      if (inFlight.size() >= maxInFlight) {
+        expire(now);
+      }
+      if (inFlight.size() < maxInFlight) {
+        trace = new Trace(reservationId, now);
+        inFlight.put(reservationId, trace);
+      }
+    }
+    return trace;
+  }
+
+  void expire(long now) {
+    Iterator<Trace> it = inFlight.values().iterator();
+    while (it.hasNext()) {
+      Trace trace = it.next();
+      synchronized (trace) {
+        if (now - trace.stamps[Stage.RECEIVED.ordinal()] > expiration) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the trace of a reservation in flight, <code>NULL</code> if the
+   * reservation is not traced.
+   */
+  public Trace get(UUID reservationId) {
+    return (inFlight.isEmpty()) ? null : inFlight.get(reservationId);
+  }
+
+  /**
+   * Returns the trace of a reservation in flight or recently completed,
+   * <code>NULL</code> if not available.
+   */
+  public Trace getTrace(UUID reservationId) {
+    Trace trace = inFlight.get(reservationId);
+    if (trace == null) {
+      synchronized (completed) {
+        trace = completed.get(reservationId);
+      }
+    }
+    return trace;
+  }
+
+  public Trace mark(UUID reservationId, Stage stage) {
+    Trace trace = get(reservationId);
+    if (trace != null) {
+      if (stage == Stage.NOTIFIED) {
+        complete(trace);
+      } else {
+        trace.mark(stage);
+      }
+    }
+    return trace;
+  }
+
+  public void backedOff(UUID reservationId) {
+    Trace trace = get(reservationId);
+    if (trace != null) {
+      trace.backedOff();
+    }
+  }
+
+  /**
+   * Stops tracing a reservation which will not be notified as allocated.
+   */
+  public void discard(UUID reservationId) {
+    if (!inFlight.isEmpty()) {
+      inFlight.remove(reservationId);
+    }
+  }
+
+  private void complete(Trace trace) {
+    if (inFlight.remove(trace.getReservationId()) != null) {
+      String queue;
+      long[] latencies = new long[Phase.values().length];
+      synchronized (trace) {
+        trace.mark(Stage.NOTIFIED);
+        trace.complete = true;
+        queue = trace.queue;
+        for (Phase phase : Phase.values()) {
+          latencies[phase.ordinal()] = trace.getLatency(phase);
+        }
+      }
+      synchronized (completed) {
+        completed.put(trace.getReservationId(), trace);
+      }
+      if (queue != null) {
+        for (Phase phase : Phase.values()) {
+          // container start latencies are recorded as they are reported
+          if (phase != Phase.CONTAINER_START &&
+              latencies[phase.ordinal()] >= 0) {
+            record(queue, phase, latencies[phase.ordinal()]);
+          }
+        }
+      }
+    }
+  }
+
+  static String getHistogramKey(Phase phase, String queue) {
+    return FastFormat.format(PHASE_HISTOGRAM_TEMPLATE, phase.getMetricName(),
+        queue);
+  }
+
+  private void record(String queue, Phase phase, long latency) {
+    MetricRegistry mr = metricRegistry;
+    if (mr != null) {
+      if (registeredQueues.putIfAbsent(queue, Boolean.TRUE) == null) {
+        for (Phase p : Phase.values()) {
+          MetricUtil.registerHistogram(mr, getHistogramKey(p, queue));
+        }
+      }
+      MetricUtil.update(mr, getHistogramKey(phase, queue), latency);
+    }
+  }
+}
@@ -20,6 +20,7 @@ package com.cloudera.llama.am.cache;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.NodeInfo;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.am.impl.PlacedResourceImpl;
 import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.util.LlamaException;
@@ -247,6 +248,10 @@ public class CacheRMConnector implements RMConnector,
 
         if (!doNotCache) {
           if (resource.getRmResourceId() != null) {
+            // the trace is of the released reservation, it must not follow
+            // the resource to the cache nor to a pending entry
+            resource.getRmData().set(ReservationTracer.TRACE_SLOT, null);
+
             // Find an existing pending entry that can be satisfied with this resource.
             Entry pendingEntry = pending.findAndRemove(resource);
 
@@ -17,14 +17,14 @@
  */
 package com.cloudera.llama.am.cache;
 
+import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.am.spi.RMResource;
 import com.cloudera.llama.am.spi.RMEvent;
 import com.cloudera.llama.util.Clock;
 import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.util.UUID;
 
-import java.util.Map;
-
 public class Entry implements Comparable<Entry>, CacheRMResource {
   private final UUID id;
   private final long cachedOn;
@@ -32,25 +32,27 @@ public class Entry implements Comparable<Entry>, CacheRMResource {
   private final String location;
   private final int cpuVCores;
   private final int memoryMbs;
-  private final Map<String, Object> rmData;
+  private final RMAttachments rmData;
+  private final Reservation.Priority priority;
   private volatile boolean valid;
 
   public static Entry createStoreEntry(RMResource resource) {
     return new Entry(resource.getResourceId(), resource.getRmResourceId(),
         resource.getRmData(), resource.getLocationAsk(),
-        resource.getCpuVCoresAsk(), resource.getMemoryMbsAsk());
+        resource.getCpuVCoresAsk(), resource.getMemoryMbsAsk(),
+        resource.getPriority());
   }
 
   public static Entry createCacheEntry(RMResource resource) {
     return new Entry(UUID.randomUUID(), resource.getRmResourceId(),
         resource.getRmData(), resource.getLocation(), resource.getCpuVCores(),
-        resource.getMemoryMbs());
+        resource.getMemoryMbs(), null);
   }
 
   public static Entry createCacheEntry(RMEvent rmEvent) {
     return new Entry(UUID.randomUUID(), rmEvent.getRmResourceId(),
         rmEvent.getRmData(), rmEvent.getLocation(), rmEvent.getCpuVCores(),
-        rmEvent.getMemoryMbs());
+        rmEvent.getMemoryMbs(), null);
   }
 
   // used internally by ResourceStore
@@ -62,10 +64,12 @@ public class Entry implements Comparable<Entry>, CacheRMResource {
     this.cpuVCores = cpuVCores;
     this.memoryMbs = memoryMbs;
     rmData = null;
+    priority = Reservation.Priority.NORMAL;
   }
 
-  private Entry(UUID id, Object rmResourceId, Map<String, Object> rmData,
-      String location, int cpuVCores, int memoryMbs) {
+  private Entry(UUID id, Object rmResourceId, RMAttachments rmData,
+      String location, int cpuVCores, int memoryMbs,
+      Reservation.Priority priority) {
     this.id = id;
     this.cachedOn = Clock.currentTimeMillis();
     this.rmResourceId = rmResourceId;
@@ -73,6 +77,7 @@ public class Entry implements Comparable<Entry>, CacheRMResource {
     this.cpuVCores = cpuVCores;
     this.memoryMbs = memoryMbs;
     this.rmData = rmData;
+    this.priority = (priority != null) ? priority : Reservation.Priority.NORMAL;
   }
 
   void setValid(boolean valid) {
@@ -135,10 +140,15 @@ public class Entry implements Comparable<Entry>, CacheRMResource {
   }
 
   @Override
-  public Map<String, Object> getRmData() {
+  public RMAttachments getRmData() {
     return rmData;
   }
 
+  @Override
+  public Reservation.Priority getPriority() {
+    return priority;
+  }
+
   @Override
   public void setRmResourceId(Object rmResourceId) {
     throw new UnsupportedOperationException();
@@ -149,12 +159,14 @@ public class Entry implements Comparable<Entry>, CacheRMResource {
   }
 
   private static final String TO_STRING = "ResourceCache [id: {} " +
-      "cachedOn: {} rmResourceId: {} location: {} cpuVCores: {} memoryMbs: {}]";
+      "cachedOn: {} rmResourceId: {} location: {} cpuVCores: {} memoryMbs: {} " +
+      "priority: {}]";
 
   @Override
   public String toString() {
     return FastFormat.format(TO_STRING, getResourceId(), getCachedOn(),
-        getRmResourceId(), getLocation(), getCpuVCores(), getMemoryMbs());
+        getRmResourceId(), getLocation(), getCpuVCores(), getMemoryMbs(),
+        getPriority());
   }
 
 }
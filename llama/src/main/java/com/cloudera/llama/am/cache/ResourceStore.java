@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -125,13 +126,27 @@ public class ResourceStore {
       throw new IllegalArgumentException("Cannot add entries which have both cpu and memory");
     }
     if (entry.getCpuVCores() > 0) {
-      entries[VCORE_LIST].add(entry);
+      insertByPriority(entries[VCORE_LIST], entry);
     }
     if (entry.getMemoryMbs() > 0) {
-      entries[MEM_LIST].add(entry);
+      insertByPriority(entries[MEM_LIST], entry);
     }
   }
 
+  // keeps the list sorted by priority and FIFO within the same priority, so
+  // removeEntry() hands out the oldest entry of the highest priority first.
+  // Walks from the tail as most entries have the same priority.
+  private void insertByPriority(List<Entry> list, Entry entry) {
+    ListIterator<Entry> it = list.listIterator(list.size());
+    while (it.hasPrevious()) {
+      if (it.previous().getPriority().compareTo(entry.getPriority()) <= 0) {
+        it.next();
+        break;
+      }
+    }
+    it.add(entry);
+  }
+
   private Entry removeEntry(List<Entry>[] entries, Entry entry) {
     if (entries != null) {
       if (entry.getCpuVCores() > 0 && entries[0].size() > 0) {
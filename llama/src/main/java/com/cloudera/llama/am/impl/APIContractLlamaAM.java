@@ -32,6 +32,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * The <code>APIContractLlamaAM</code> is a wrapper that enforces precondition
@@ -144,6 +145,20 @@ public class APIContractLlamaAM extends LlamaAM {
     llamaAM.reserve(reservationId, reservation);
   }
 
+  @Override
+  public Map<UUID, LlamaException> reserve(Map<UUID, Reservation> reservations)
+      throws LlamaException {
+    LOG.trace("reserve({})", reservations.keySet());
+
+    checkIsRunning();
+    ParamChecker.notNull(reservations, "reservations");
+    for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+      ParamChecker.notNull(entry.getKey(), "reservationId");
+      ParamChecker.notNull(entry.getValue(), "reservation");
+    }
+    return llamaAM.reserve(reservations);
+  }
+
   @Override
   public void expand(UUID expansionId, Expansion expansion)
       throws LlamaException {
@@ -178,6 +193,16 @@ public class APIContractLlamaAM extends LlamaAM {
     return pr;
   }
 
+  @Override
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    LOG.trace("releaseReservations({}, {})", reservationIds, doNotCache);
+    checkIsRunning();
+    ParamChecker.notNulls(reservationIds, "reservationIds");
+    ParamChecker.notNull(handle, "handle");
+    return llamaAM.releaseReservations(handle, reservationIds, doNotCache);
+  }
+
   @Override
   public List<PlacedReservation> releaseReservationsForHandle(UUID handle,
       boolean doNotCache)
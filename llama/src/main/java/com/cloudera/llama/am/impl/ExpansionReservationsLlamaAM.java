@@ -35,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -131,6 +132,29 @@ public class ExpansionReservationsLlamaAM extends LlamaAMImpl
     am.reserve(reservationId, reservation);
   }
 
+  @Override
+  public Map<UUID, LlamaException> reserve(Map<UUID, Reservation> reservations)
+      throws LlamaException {
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    Map<UUID, Reservation> checked = new LinkedHashMap<UUID, Reservation>();
+    // nodes are fetched once for the whole batch
+    Map<String, NodeInfo> nodes = _getNodes();
+    for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+      try {
+        checkAndUpdateCapacity(entry.getKey(), null,
+            entry.getValue().getResources(), nodes);
+        checked.put(entry.getKey(), entry.getValue());
+      } catch (LlamaException ex) {
+        errors.put(entry.getKey(), ex);
+      }
+    }
+    if (!checked.isEmpty()) {
+      errors.putAll(am.reserve(checked));
+    }
+    return errors;
+  }
+
   private synchronized  void checkAndUpdateCapacity(UUID reservationId,
                    UUID expansionId,
                    List<Resource> askResources,
@@ -327,6 +351,19 @@ public class ExpansionReservationsLlamaAM extends LlamaAMImpl
     return am.releaseReservation(handle, reservationId, doNotCache);
   }
 
+  @Override
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    for (UUID reservationId : reservationIds) {
+      PlacedReservation reservation = am.getReservation(reservationId);
+      if (reservation != null) {
+        releaseReservationAndExpansions(reservation, doNotCache);
+      }
+    }
+    LOG.debug("Releasing reservations '{}'", reservationIds);
+    return am.releaseReservations(handle, reservationIds, doNotCache);
+  }
+
   @Override
   public List<PlacedReservation> releaseReservationsForHandle(UUID handle,
       boolean doNotCache) throws LlamaException {
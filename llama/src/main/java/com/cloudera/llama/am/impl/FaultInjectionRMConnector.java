@@ -0,0 +1,496 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.NodeInfo;
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.am.spi.RMEvent;
+import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.server.MetricUtil;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.NamedThreadFactory;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>RMConnector</code> decorator that injects faults into the wrapped
+ * connector to observe how the Llama stack degrades and recovers when the
+ * resource manager misbehaves.
+ * <p/>
+ * The following faults can be injected:
+ * <ul>
+ * <li>latency on the <code>register()</code>, <code>reserve()</code>,
+ * <code>release()</code> and <code>getNodes()</code> calls, drawn from a
+ * FIXED, UNIFORM or EXPONENTIAL distribution with a configured mean.</li>
+ * <li>errors on the same calls, with a configured probability.</li>
+ * <li>delayed delivery of RM events, as seen on slow <code>allocate()</code>
+ * heartbeats. Event order is preserved.</li>
+ * <li>allocations turned into LOST resources, as seen on NM container start
+ * failures.</li>
+ * <li>periodic storms of LOST or PREEMPTED events for a fraction of the
+ * allocated resources.</li>
+ * <li>a <code>stoppedByRM()</code> callback after a configured time.</li>
+ * </ul>
+ * Faults are injected only within a time window relative to the start of the
+ * connector. The decorator is enabled with
+ * {@link LlamaAM#FAULT_INJECTION_ENABLED_KEY}.
+ */
+public class FaultInjectionRMConnector implements RMConnector, RMListener {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(FaultInjectionRMConnector.class);
+
+  public static final String PREFIX_KEY = LlamaAM.PREFIX_KEY +
+      "fault.injection.";
+
+  public enum Distribution {FIXED, UNIFORM, EXPONENTIAL}
+
+  public static final String LATENCY_DISTRIBUTION_KEY = PREFIX_KEY +
+      "latency.distribution";
+  public static final String LATENCY_DISTRIBUTION_DEFAULT = "EXPONENTIAL";
+
+  public static final String REGISTER_LATENCY_MS_KEY = PREFIX_KEY +
+      "register.latency.ms";
+  public static final String RESERVE_LATENCY_MS_KEY = PREFIX_KEY +
+      "reserve.latency.ms";
+  public static final String RELEASE_LATENCY_MS_KEY = PREFIX_KEY +
+      "release.latency.ms";
+  public static final String GET_NODES_LATENCY_MS_KEY = PREFIX_KEY +
+      "getnodes.latency.ms";
+  public static final long LATENCY_MS_DEFAULT = 0;
+
+  public static final String REGISTER_ERROR_RATE_KEY = PREFIX_KEY +
+      "register.error.rate";
+  public static final String RESERVE_ERROR_RATE_KEY = PREFIX_KEY +
+      "reserve.error.rate";
+  public static final String RELEASE_ERROR_RATE_KEY = PREFIX_KEY +
+      "release.error.rate";
+  public static final String GET_NODES_ERROR_RATE_KEY = PREFIX_KEY +
+      "getnodes.error.rate";
+  public static final float ERROR_RATE_DEFAULT = 0;
+
+  public static final String EVENTS_DELAY_MS_KEY = PREFIX_KEY +
+      "events.delay.ms";
+  public static final long EVENTS_DELAY_MS_DEFAULT = 0;
+
+  public static final String ALLOCATION_LOST_RATE_KEY = PREFIX_KEY +
+      "allocation.lost.rate";
+  public static final float ALLOCATION_LOST_RATE_DEFAULT = 0;
+
+  public static final String STORM_INTERVAL_MS_KEY = PREFIX_KEY +
+      "storm.interval.ms";
+  public static final long STORM_INTERVAL_MS_DEFAULT = 0;
+
+  public static final String STORM_FRACTION_KEY = PREFIX_KEY +
+      "storm.fraction";
+  public static final float STORM_FRACTION_DEFAULT = 0.5f;
+
+  public static final String STORM_STATUS_KEY = PREFIX_KEY + "storm.status";
+  public static final String STORM_STATUS_DEFAULT = "LOST";
+
+  public static final String STOPPED_BY_RM_AFTER_MS_KEY = PREFIX_KEY +
+      "stopped.by.rm.after.ms";
+  public static final long STOPPED_BY_RM_AFTER_MS_DEFAULT = 0;
+
+  public static final String WINDOW_START_MS_KEY = PREFIX_KEY +
+      "window.start.ms";
+  public static final long WINDOW_START_MS_DEFAULT = 0;
+
+  public static final String WINDOW_DURATION_MS_KEY = PREFIX_KEY +
+      "window.duration.ms";
+  public static final long WINDOW_DURATION_MS_DEFAULT = 0;
+
+  public static final String SEED_KEY = PREFIX_KEY + "seed";
+  public static final long SEED_DEFAULT = 0;
+
+  private static final String METRIC_PREFIX = LlamaAM.METRIC_PREFIX +
+      "fault.injection.";
+
+  public static final String DELAYS_METER = METRIC_PREFIX + "delays.meter";
+  public static final String ERRORS_METER = METRIC_PREFIX + "errors.meter";
+  public static final String EVENTS_METER = METRIC_PREFIX + "events.meter";
+
+  public static final List<String> METRIC_KEYS = Arrays.asList(
+      DELAYS_METER, ERRORS_METER, EVENTS_METER);
+
+  static final String REGISTER = "register";
+  static final String RESERVE = "reserve";
+  static final String RELEASE = "release";
+  static final String GET_NODES = "getNodes";
+
+  private final RMConnector connector;
+  private RMListener listener;
+  private MetricRegistry metricRegistry;
+
+  private final Distribution distribution;
+  private final long registerLatency;
+  private final long reserveLatency;
+  private final long releaseLatency;
+  private final long getNodesLatency;
+  private final float registerErrorRate;
+  private final float reserveErrorRate;
+  private final float releaseErrorRate;
+  private final float getNodesErrorRate;
+  private final long eventsDelay;
+  private final float allocationLostRate;
+  private final long stormInterval;
+  private final float stormFraction;
+  private final PlacedResource.Status stormStatus;
+  private final long stoppedByRMAfter;
+  private final long windowStart;
+  private final long windowDuration;
+  private final Random random;
+
+  // allocated resources seen by the listener, resource ID to RM resource ID
+  private final Map<UUID, Object> allocated;
+  private ScheduledExecutorService scheduler;
+  private long startTime;
+  private long lastDeliveryTime;
+  private int pendingDeliveries;
+
+  public FaultInjectionRMConnector(Configuration conf, RMConnector connector) {
+    this.connector = connector;
+    connector.setRMListener(this);
+    distribution = Distribution.valueOf(conf.get(LATENCY_DISTRIBUTION_KEY,
+        LATENCY_DISTRIBUTION_DEFAULT).trim().toUpperCase());
+    registerLatency = conf.getLong(REGISTER_LATENCY_MS_KEY,
+        LATENCY_MS_DEFAULT);
+    reserveLatency = conf.getLong(RESERVE_LATENCY_MS_KEY, LATENCY_MS_DEFAULT);
+    releaseLatency = conf.getLong(RELEASE_LATENCY_MS_KEY, LATENCY_MS_DEFAULT);
+    getNodesLatency = conf.getLong(GET_NODES_LATENCY_MS_KEY,
+        LATENCY_MS_DEFAULT);
+    registerErrorRate = conf.getFloat(REGISTER_ERROR_RATE_KEY,
+        ERROR_RATE_DEFAULT);
+    reserveErrorRate = conf.getFloat(RESERVE_ERROR_RATE_KEY,
+        ERROR_RATE_DEFAULT);
+    releaseErrorRate = conf.getFloat(RELEASE_ERROR_RATE_KEY,
+        ERROR_RATE_DEFAULT);
+    getNodesErrorRate = conf.getFloat(GET_NODES_ERROR_RATE_KEY,
+        ERROR_RATE_DEFAULT);
+    eventsDelay = conf.getLong(EVENTS_DELAY_MS_KEY, EVENTS_DELAY_MS_DEFAULT);
+    allocationLostRate = conf.getFloat(ALLOCATION_LOST_RATE_KEY,
+        ALLOCATION_LOST_RATE_DEFAULT);
+    stormInterval = conf.getLong(STORM_INTERVAL_MS_KEY,
+        STORM_INTERVAL_MS_DEFAULT);
+    stormFraction = conf.getFloat(STORM_FRACTION_KEY, STORM_FRACTION_DEFAULT);
+    stormStatus = PlacedResource.Status.valueOf(conf.get(STORM_STATUS_KEY,
+        STORM_STATUS_DEFAULT).trim().toUpperCase());
+    if (stormStatus != PlacedResource.Status.LOST &&
+        stormStatus != PlacedResource.Status.PREEMPTED) {
+      throw new IllegalArgumentException(FastFormat.format(
+          "Invalid '{}' value '{}', it must be LOST or PREEMPTED",
+          STORM_STATUS_KEY, stormStatus));
+    }
+    stoppedByRMAfter = conf.getLong(STOPPED_BY_RM_AFTER_MS_KEY,
+        STOPPED_BY_RM_AFTER_MS_DEFAULT);
+    windowStart = conf.getLong(WINDOW_START_MS_KEY, WINDOW_START_MS_DEFAULT);
+    windowDuration = conf.getLong(WINDOW_DURATION_MS_KEY,
+        WINDOW_DURATION_MS_DEFAULT);
+    long seed = conf.getLong(SEED_KEY, SEED_DEFAULT);
+    random = (seed != 0) ? new Random(seed) : new Random();
+    allocated = new LinkedHashMap<UUID, Object>();
+  }
+
+  @Override
+  public void setMetricRegistry(MetricRegistry metricRegistry) {
+    this.metricRegistry = metricRegistry;
+    for (String key : METRIC_KEYS) {
+      MetricUtil.registerMeter(metricRegistry, key);
+    }
+    connector.setMetricRegistry(metricRegistry);
+  }
+
+  @Override
+  public void setRMListener(RMListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public synchronized void start() throws LlamaException {
+    startTime = Clock.currentTimeMillis();
+    lastDeliveryTime = startTime;
+    scheduler = new ScheduledThreadPoolExecutor(1,
+        new NamedThreadFactory("llama-fault-injection"));
+    if (stormInterval > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          storm();
+        }
+      }, stormInterval, stormInterval, TimeUnit.MILLISECONDS);
+    }
+    if (stoppedByRMAfter > 0) {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          LOG.warn("Injecting stoppedByRM()");
+          MetricUtil.meter(metricRegistry, EVENTS_METER, 1);
+          listener.stoppedByRM();
+        }
+      }, stoppedByRMAfter, TimeUnit.MILLISECONDS);
+    }
+    connector.start();
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = scheduler;
+      scheduler = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    connector.stop();
+  }
+
+  boolean isActive() {
+    long elapsed = Clock.currentTimeMillis() - startTime;
+    return elapsed >= windowStart &&
+        (windowDuration <= 0 || elapsed < windowStart + windowDuration);
+  }
+
+  long sampleLatency(long meanMs) {
+    long latency = 0;
+    if (meanMs > 0) {
+      switch (distribution) {
+        case FIXED:
+          latency = meanMs;
+          break;
+        case UNIFORM:
+          latency = (long) (random.nextDouble() * 2 * meanMs);
+          break;
+        case EXPONENTIAL:
+          latency = (long) (-Math.log(1 - random.nextDouble()) * meanMs);
+          break;
+      }
+    }
+    return latency;
+  }
+
+  private void inject(String operation, long latencyMs, float errorRate)
+      throws LlamaException {
+    if (isActive()) {
+      long latency = sampleLatency(latencyMs);
+      if (latency > 0) {
+        MetricUtil.meter(metricRegistry, DELAYS_METER, 1);
+        try {
+          Thread.sleep(latency);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (errorRate > 0 && random.nextFloat() < errorRate) {
+        MetricUtil.meter(metricRegistry, ERRORS_METER, 1);
+        throw new LlamaException(ErrorCode.AM_FAULT_INJECTED, operation);
+      }
+    }
+  }
+
+  @Override
+  public void register(String queue) throws LlamaException {
+    inject(REGISTER, registerLatency, registerErrorRate);
+    connector.register(queue);
+  }
+
+  @Override
+  public void unregister() {
+    connector.unregister();
+  }
+
+  @Override
+  public List<NodeInfo> getNodes() throws LlamaException {
+    inject(GET_NODES, getNodesLatency, getNodesErrorRate);
+    return connector.getNodes();
+  }
+
+  @Override
+  public void reserve(Collection<RMResource> resources)
+      throws LlamaException {
+    inject(RESERVE, reserveLatency, reserveErrorRate);
+    connector.reserve(resources);
+  }
+
+  @Override
+  public void release(Collection<RMResource> resources, boolean doNotCache)
+      throws LlamaException {
+    inject(RELEASE, releaseLatency, releaseErrorRate);
+    connector.release(resources, doNotCache);
+    synchronized (allocated) {
+      for (RMResource resource : resources) {
+        allocated.remove(resource.getResourceId());
+      }
+    }
+  }
+
+  @Override
+  public boolean reassignResource(Object rmResourceId, UUID resourceId) {
+    boolean reassigned = connector.reassignResource(rmResourceId, resourceId);
+    if (reassigned) {
+      synchronized (allocated) {
+        Iterator<Map.Entry<UUID, Object>> it = allocated.entrySet().iterator();
+        while (it.hasNext()) {
+          if (rmResourceId.equals(it.next().getValue())) {
+            it.remove();
+            break;
+          }
+        }
+        allocated.put(resourceId, rmResourceId);
+      }
+    }
+    return reassigned;
+  }
+
+  @Override
+  public void emptyCache() throws LlamaException {
+    connector.emptyCache();
+  }
+
+  @Override
+  public boolean hasResources() {
+    return connector.hasResources();
+  }
+
+  @Override
+  public void deleteAllReservations() throws LlamaException {
+    connector.deleteAllReservations();
+    synchronized (allocated) {
+      allocated.clear();
+    }
+  }
+
+  // RMListener API
+
+  @Override
+  public void stoppedByRM() {
+    listener.stoppedByRM();
+  }
+
+  @Override
+  public void onEvent(List<RMEvent> events) {
+    boolean active = isActive();
+    List<RMEvent> toDeliver = new ArrayList<RMEvent>(events.size());
+    for (RMEvent event : events) {
+      if (active && allocationLostRate > 0 &&
+          event.getStatus() == PlacedResource.Status.ALLOCATED &&
+          random.nextFloat() < allocationLostRate) {
+        LOG.debug("Injecting LOST for allocated resource '{}'",
+            event.getResourceId());
+        MetricUtil.meter(metricRegistry, EVENTS_METER, 1);
+        toDeliver.add(RMEvent.createStatusChangeEvent(event.getResourceId(),
+            PlacedResource.Status.LOST));
+      } else {
+        toDeliver.add(event);
+      }
+    }
+    long delay = (active) ? sampleLatency(eventsDelay) : 0;
+    if (!schedule(toDeliver, delay)) {
+      deliver(toDeliver);
+    }
+  }
+
+  // schedules the delivery of the events, events are delivered in order,
+  // returns FALSE if the events must be delivered by the caller.
+  private synchronized boolean schedule(final List<RMEvent> events,
+      long delay) {
+    long now = Clock.currentTimeMillis();
+    long deliveryTime = Math.max(now + delay, lastDeliveryTime);
+    if (scheduler == null || (deliveryTime <= now && pendingDeliveries == 0)) {
+      return false;
+    }
+    if (delay > 0) {
+      MetricUtil.meter(metricRegistry, DELAYS_METER, 1);
+    }
+    lastDeliveryTime = deliveryTime;
+    pendingDeliveries++;
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (FaultInjectionRMConnector.this) {
+          pendingDeliveries--;
+        }
+        deliver(events);
+      }
+    }, deliveryTime - now, TimeUnit.MILLISECONDS);
+    return true;
+  }
+
+  private void deliver(List<RMEvent> events) {
+    synchronized (allocated) {
+      for (RMEvent event : events) {
+        if (event.getStatus() == PlacedResource.Status.ALLOCATED) {
+          allocated.put(event.getResourceId(), event.getRmResourceId());
+        } else if (event.getStatus().isFinal()) {
+          allocated.remove(event.getResourceId());
+        }
+      }
+    }
+    listener.onEvent(events);
+  }
+
+  int getAllocatedCount() {
+    synchronized (allocated) {
+      return allocated.size();
+    }
+  }
+
+  void storm() {
+    if (isActive()) {
+      List<RMEvent> events = new ArrayList<RMEvent>();
+      synchronized (allocated) {
+        Iterator<UUID> it = allocated.keySet().iterator();
+        while (it.hasNext()) {
+          UUID resourceId = it.next();
+          if (random.nextFloat() < stormFraction) {
+            events.add(RMEvent.createStatusChangeEvent(resourceId,
+                stormStatus));
+            it.remove();
+          }
+        }
+      }
+      if (!events.isEmpty()) {
+        LOG.warn("Injecting a storm of '{}' {} events", events.size(),
+            stormStatus);
+        MetricUtil.meter(metricRegistry, EVENTS_METER, events.size());
+        listener.onEvent(events);
+      }
+    }
+  }
+
+}
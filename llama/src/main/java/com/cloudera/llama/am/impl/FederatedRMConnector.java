@@ -0,0 +1,502 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.NodeInfo;
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.am.spi.RMEvent;
+import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.am.yarn.YarnRMConnector;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>FederatedRMConnector</code> spreads the reservations of a queue across
+ * several Resource Managers (clusters), each one handled by a child
+ * {@link RMConnector}.
+ * <p/>
+ * All the resources of a {@link #reserve(Collection)} call, a reservation,
+ * go to the same cluster. The cluster is chosen among the clusters having
+ * the nodes of all the resources with {@link Resource.Locality#MUST}
+ * locality, preferring the cluster with the most requested nodes and then the
+ * one with the most memory not used by the resources it has been given.
+ * <p/>
+ * Release and reassign calls go to the cluster owning the resource. Events
+ * of all clusters are delivered to the connector listener. If a cluster stops
+ * the connector its resources are reported as lost and it does not get new
+ * reservations, the listener is told the connector was stopped only when all
+ * clusters stopped it.
+ * <p/>
+ * The following properties drive the logic of this class:
+ * <ul>
+ * <li>{@link #CLUSTERS_KEY}</li>
+ * <li>{@link #RM_CONNECTOR_CLASS_KEY}</li>
+ * <li>{@link #NODES_REFRESH_MS_KEY}</li>
+ * </ul>
+ * The configuration of each cluster is the connector configuration plus the
+ * properties prefixed with {@link #CLUSTER_PREFIX_KEY}<code>NAME.</code>, with
+ * the prefix removed. For example
+ * <code>llama.am.federation.cluster.c1.yarn.resourcemanager.address</code>
+ * sets <code>yarn.resourcemanager.address</code> for cluster <code>c1</code>.
+ */
+public class FederatedRMConnector implements RMConnector, Configurable {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(FederatedRMConnector.class);
+
+  public static final String PREFIX_KEY = LlamaAM.PREFIX_KEY + "federation.";
+
+  public static final String CLUSTERS_KEY = PREFIX_KEY + "clusters";
+
+  public static final String CLUSTER_PREFIX_KEY = PREFIX_KEY + "cluster.";
+
+  public static final String RM_CONNECTOR_CLASS_KEY = PREFIX_KEY +
+      "rm.connector.class";
+
+  public static final String NODES_REFRESH_MS_KEY = PREFIX_KEY +
+      "nodes.refresh.ms";
+  public static final long NODES_REFRESH_MS_DEFAULT = 10000;
+
+  class Cluster implements RMListener {
+    final String name;
+    final RMConnector connector;
+    private Map<String, NodeInfo> nodes = Collections.emptyMap();
+    private long nodesTime = -1;
+    private long totalMemoryMb;
+    long usedMemoryMb; // protected by FederatedRMConnector.this
+    volatile boolean stopped;
+
+    Cluster(String name, RMConnector connector) {
+      this.name = name;
+      this.connector = connector;
+    }
+
+    synchronized Map<String, NodeInfo> getNodes() {
+      long now = Clock.currentTimeMillis();
+      if (nodesTime < 0 || now - nodesTime >= nodesRefreshMs) {
+        try {
+          Map<String, NodeInfo> map = new HashMap<String, NodeInfo>();
+          long memory = 0;
+          for (NodeInfo node : connector.getNodes()) {
+            map.put(node.getLocation(), node);
+            memory += node.getMemoryMB();
+          }
+          nodes = map;
+          totalMemoryMb = memory;
+          nodesTime = now;
+        } catch (LlamaException ex) {
+          LOG.warn("Could not get nodes of cluster '{}': {}", name,
+              ex.toString(), ex);
+        }
+      }
+      return nodes;
+    }
+
+    synchronized long getTotalMemoryMb() {
+      return totalMemoryMb;
+    }
+
+    @Override
+    public void stoppedByRM() {
+      clusterStopped(this);
+    }
+
+    @Override
+    public void onEvent(List<RMEvent> events) {
+      clusterEvents(this, events);
+    }
+  }
+
+  private Configuration conf;
+  private long nodesRefreshMs;
+  private List<Cluster> clusters;
+  private RMListener listener;
+  private final Map<UUID, Cluster> resourceOwners = new HashMap<UUID, Cluster>();
+  private final Map<UUID, Integer> resourceMemory = new HashMap<UUID, Integer>();
+  private final Map<Object, Cluster> rmResourceOwners =
+      new HashMap<Object, Cluster>();
+  // final events do not carry the RM resource ID, it is looked up here
+  private final Map<UUID, Object> rmResourceIds = new HashMap<UUID, Object>();
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    nodesRefreshMs = conf.getLong(NODES_REFRESH_MS_KEY,
+        NODES_REFRESH_MS_DEFAULT);
+    Collection<String> names = conf.getTrimmedStringCollection(CLUSTERS_KEY);
+    if (names.isEmpty()) {
+      throw new IllegalArgumentException(
+          "No clusters defined in the configuration under '" + CLUSTERS_KEY +
+              "'");
+    }
+    List<Cluster> list = new ArrayList<Cluster>();
+    for (String name : names) {
+      Configuration clusterConf = getClusterConf(conf, name);
+      Class<? extends RMConnector> klass = clusterConf.getClass(
+          RM_CONNECTOR_CLASS_KEY, YarnRMConnector.class, RMConnector.class);
+      list.add(new Cluster(name, ReflectionUtils.newInstance(klass,
+          clusterConf)));
+      LOG.info("Federated cluster '{}' using '{}'", name,
+          klass.getSimpleName());
+    }
+    clusters = Collections.unmodifiableList(list);
+  }
+
+  static Configuration getClusterConf(Configuration conf, String name) {
+    String prefix = CLUSTER_PREFIX_KEY + name + ".";
+    Configuration clusterConf = new Configuration(conf);
+    for (Map.Entry<String, String> entry : conf) {
+      if (entry.getKey().startsWith(prefix)) {
+        clusterConf.set(entry.getKey().substring(prefix.length()),
+            entry.getValue());
+      }
+    }
+    return clusterConf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  List<Cluster> getClusters() {
+    return clusters;
+  }
+
+  synchronized String getClusterName(UUID resourceId) {
+    Cluster cluster = resourceOwners.get(resourceId);
+    return (cluster != null) ? cluster.name : null;
+  }
+
+  synchronized String getRmClusterName(Object rmResourceId) {
+    Cluster cluster = rmResourceOwners.get(rmResourceId);
+    return (cluster != null) ? cluster.name : null;
+  }
+
+  @Override
+  public void setRMListener(RMListener listener) {
+    this.listener = listener;
+    for (Cluster cluster : clusters) {
+      cluster.connector.setRMListener(cluster);
+    }
+  }
+
+  @Override
+  public void setMetricRegistry(MetricRegistry registry) {
+    for (Cluster cluster : clusters) {
+      cluster.connector.setMetricRegistry(registry);
+    }
+  }
+
+  @Override
+  public void start() throws LlamaException {
+    for (Cluster cluster : clusters) {
+      cluster.stopped = false;
+      cluster.connector.start();
+    }
+  }
+
+  @Override
+  public void stop() {
+    for (Cluster cluster : clusters) {
+      cluster.connector.stop();
+    }
+  }
+
+  @Override
+  public void register(String queue) throws LlamaException {
+    List<Cluster> registered = new ArrayList<Cluster>();
+    try {
+      for (Cluster cluster : clusters) {
+        cluster.connector.register(queue);
+        registered.add(cluster);
+      }
+    } finally {
+      if (registered.size() < clusters.size()) {
+        LOG.warn("Could not register queue '{}', unregistering it from '{}' " +
+            "clusters", queue, registered.size());
+        for (Cluster cluster : registered) {
+          cluster.connector.unregister();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void unregister() {
+    for (Cluster cluster : clusters) {
+      cluster.connector.unregister();
+    }
+  }
+
+  @Override
+  public List<NodeInfo> getNodes() throws LlamaException {
+    List<NodeInfo> nodes = new ArrayList<NodeInfo>();
+    for (Cluster cluster : clusters) {
+      if (!cluster.stopped) {
+        nodes.addAll(cluster.connector.getNodes());
+      }
+    }
+    return nodes;
+  }
+
+  Cluster route(Collection<RMResource> resources) throws LlamaException {
+    Cluster selected = null;
+    int selectedLocal = -1;
+    long selectedFree = Long.MIN_VALUE;
+    for (Cluster cluster : clusters) {
+      if (cluster.stopped) {
+        continue;
+      }
+      Map<String, NodeInfo> nodes = cluster.getNodes();
+      boolean eligible = true;
+      int local = 0;
+      for (RMResource resource : resources) {
+        if (nodes.containsKey(resource.getLocationAsk())) {
+          local++;
+        } else if (resource.getLocalityAsk() == Resource.Locality.MUST) {
+          eligible = false;
+          break;
+        }
+      }
+      if (eligible) {
+        long free;
+        synchronized (this) {
+          free = cluster.getTotalMemoryMb() - cluster.usedMemoryMb;
+        }
+        if (local > selectedLocal ||
+            (local == selectedLocal && free > selectedFree)) {
+          selected = cluster;
+          selectedLocal = local;
+          selectedFree = free;
+        }
+      }
+    }
+    if (selected == null) {
+      // no cluster has all the MUST nodes, the first running cluster rejects
+      for (Cluster cluster : clusters) {
+        if (!cluster.stopped) {
+          selected = cluster;
+          break;
+        }
+      }
+      if (selected == null) {
+        throw new LlamaException(
+            ErrorCode.AM_NO_FEDERATED_CLUSTER_AVAILABLE);
+      }
+    }
+    return selected;
+  }
+
+  @Override
+  public void reserve(Collection<RMResource> resources) throws LlamaException {
+    Cluster cluster = route(resources);
+    LOG.debug("Reserving {} resources in cluster '{}'", resources.size(),
+        cluster.name);
+    synchronized (this) {
+      for (RMResource resource : resources) {
+        resourceOwners.put(resource.getResourceId(), cluster);
+        resourceMemory.put(resource.getResourceId(),
+            resource.getMemoryMbsAsk());
+        cluster.usedMemoryMb += resource.getMemoryMbsAsk();
+      }
+    }
+    try {
+      cluster.connector.reserve(resources);
+    } catch (LlamaException ex) {
+      synchronized (this) {
+        for (RMResource resource : resources) {
+          forget(resource.getResourceId());
+        }
+      }
+      throw ex;
+    }
+  }
+
+  // caller must hold the lock
+  private Cluster forget(UUID resourceId) {
+    Cluster cluster = resourceOwners.remove(resourceId);
+    Object rmResourceId = rmResourceIds.remove(resourceId);
+    if (rmResourceId != null) {
+      rmResourceOwners.remove(rmResourceId);
+    }
+    Integer memory = resourceMemory.remove(resourceId);
+    if (cluster != null && memory != null) {
+      cluster.usedMemoryMb -= memory;
+    }
+    return cluster;
+  }
+
+  @Override
+  public void release(Collection<RMResource> resources, boolean doNotCache)
+      throws LlamaException {
+    Map<Cluster, List<RMResource>> byCluster =
+        new LinkedHashMap<Cluster, List<RMResource>>();
+    synchronized (this) {
+      for (RMResource resource : resources) {
+        Cluster rmCluster = null;
+        if (resource.getRmResourceId() != null) {
+          rmCluster = rmResourceOwners.remove(resource.getRmResourceId());
+        }
+        Cluster cluster = forget(resource.getResourceId());
+        cluster = (cluster != null) ? cluster : rmCluster;
+        if (cluster != null) {
+          List<RMResource> list = byCluster.get(cluster);
+          if (list == null) {
+            list = new ArrayList<RMResource>();
+            byCluster.put(cluster, list);
+          }
+          list.add(resource);
+        } else {
+          LOG.warn("Dropping release of resource '{}', it does not belong " +
+              "to any cluster", resource.getResourceId());
+        }
+      }
+    }
+    LlamaException thrown = null;
+    for (Cluster cluster : clusters) {
+      List<RMResource> list = byCluster.get(cluster);
+      if (list != null) {
+        try {
+          cluster.connector.release(list, doNotCache);
+        } catch (LlamaException ex) {
+          LOG.warn("Release error in cluster '{}': {}", cluster.name,
+              ex.toString(), ex);
+          thrown = ex;
+        }
+      }
+    }
+    if (thrown != null) {
+      throw thrown;
+    }
+  }
+
+  @Override
+  public boolean reassignResource(Object rmResourceId, UUID resourceId) {
+    Cluster cluster;
+    synchronized (this) {
+      cluster = rmResourceOwners.get(rmResourceId);
+    }
+    boolean reassigned = false;
+    if (cluster != null) {
+      reassigned = cluster.connector.reassignResource(rmResourceId,
+          resourceId);
+      if (reassigned) {
+        synchronized (this) {
+          resourceOwners.put(resourceId, cluster);
+          rmResourceIds.put(resourceId, rmResourceId);
+        }
+      }
+    }
+    return reassigned;
+  }
+
+  @Override
+  public void emptyCache() throws LlamaException {
+    for (Cluster cluster : clusters) {
+      cluster.connector.emptyCache();
+    }
+  }
+
+  @Override
+  public boolean hasResources() {
+    for (Cluster cluster : clusters) {
+      if (cluster.connector.hasResources()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void deleteAllReservations() throws LlamaException {
+    for (Cluster cluster : clusters) {
+      cluster.connector.deleteAllReservations();
+    }
+  }
+
+  void clusterEvents(Cluster cluster, List<RMEvent> events) {
+    synchronized (this) {
+      for (RMEvent event : events) {
+        if (event.getRmResourceId() != null) {
+          rmResourceOwners.put(event.getRmResourceId(), cluster);
+          rmResourceIds.put(event.getResourceId(), event.getRmResourceId());
+        }
+        // the RM resource is gone with a final status, LOST, PREEMPTED or
+        // REJECTED, its entries are dropped
+        if (event.getStatus().isFinal()) {
+          forget(event.getResourceId());
+        }
+      }
+    }
+    RMListener localListener = listener;
+    if (localListener != null) {
+      localListener.onEvent(events);
+    }
+  }
+
+  void clusterStopped(Cluster cluster) {
+    LOG.warn("Cluster '{}' stopped by '{}'", cluster.name,
+        cluster.connector.getClass().getSimpleName());
+    cluster.stopped = true;
+    List<RMEvent> lost = new ArrayList<RMEvent>();
+    boolean allStopped = true;
+    synchronized (this) {
+      for (Map.Entry<UUID, Cluster> entry :
+          new ArrayList<Map.Entry<UUID, Cluster>>(resourceOwners.entrySet())) {
+        if (entry.getValue() == cluster) {
+          lost.add(RMEvent.createStatusChangeEvent(entry.getKey(),
+              PlacedResource.Status.LOST));
+          forget(entry.getKey());
+        }
+      }
+      rmResourceOwners.values().removeAll(Collections.singleton(cluster));
+      for (Cluster c : clusters) {
+        allStopped &= c.stopped;
+      }
+    }
+    RMListener localListener = listener;
+    if (localListener != null) {
+      if (allStopped) {
+        localListener.stoppedByRM();
+      } else if (!lost.isEmpty()) {
+        localListener.onEvent(lost);
+      }
+    }
+  }
+
+}
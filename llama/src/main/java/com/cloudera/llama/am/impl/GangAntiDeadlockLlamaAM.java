@@ -25,6 +25,7 @@ import com.cloudera.llama.am.api.LlamaAMListener;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
 import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.MetricRegistry;
@@ -37,6 +38,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -113,6 +115,7 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
 
   //visible for testing
   Map<UUID, PlacedReservationImpl> localReservations;
+  private HandleIndex localReservationsByHandle;
   Set<UUID> submittedReservations;
   DelayQueue<BackedOffReservation> backedOffReservations;
   volatile long timeOfLastAllocation;
@@ -143,6 +146,7 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
   public void start() throws LlamaException {
     am.start();
     localReservations = new HashMap<UUID, PlacedReservationImpl>();
+    localReservationsByHandle = new HandleIndex();
     submittedReservations = new HashSet<UUID>();
     backedOffReservations = new DelayQueue<BackedOffReservation>();
     noAllocationLimit = getConf().getLong(
@@ -206,10 +210,42 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
     }
   }
 
+  @Override
+  public Map<UUID, LlamaException> reserve(Map<UUID, Reservation> reservations)
+      throws LlamaException {
+    Map<UUID, Reservation> actual = new LinkedHashMap<UUID, Reservation>();
+    List<PlacedReservation> backedOff = new ArrayList<PlacedReservation>();
+    for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+      boolean doActualReservation = true;
+      if (entry.getValue().isGang()) {
+        PlacedReservationImpl placedReservation =
+            new PlacedReservationImpl(entry.getKey(), entry.getValue());
+        doActualReservation = gReserve(entry.getKey(), placedReservation);
+        if (!doActualReservation) {
+          backedOff.add(placedReservation);
+        }
+      }
+      if (doActualReservation) {
+        actual.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (!backedOff.isEmpty()) {
+      dispatch(LlamaAMEventImpl.createEvent(true, backedOff));
+    }
+    Map<UUID, LlamaException> errors;
+    if (!actual.isEmpty()) {
+      errors = am.reserve(actual);
+    } else {
+      errors = new LinkedHashMap<UUID, LlamaException>();
+    }
+    return errors;
+  }
+
   private synchronized boolean gReserve(UUID reservationId,
       PlacedReservationImpl placedReservation) {
     boolean doActualReservation;
     localReservations.put(reservationId, placedReservation);
+    localReservationsByHandle.add(placedReservation.getHandle(), reservationId);
     if (backedOffReservations.isEmpty()) {
       submittedReservations.add(reservationId);
       doActualReservation = true;
@@ -254,8 +290,48 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
     return (placedReservation != null) ? placedReservation : gPlacedReservation;
   }
 
-  private synchronized PlacedReservation gReleaseReservation(UUID reservationId) {
+  @Override
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    List<UUID> submitted = new ArrayList<UUID>();
+    List<PlacedReservation> localOnly = new ArrayList<PlacedReservation>();
+    gReleaseReservations(reservationIds, submitted, localOnly);
+    Map<UUID, LlamaException> errors = am.releaseReservations(handle,
+        submitted, doNotCache);
+    if (!localOnly.isEmpty()) {
+      dispatch(LlamaAMEventImpl.createEvent(isCallProducingEchoEvent(handle),
+          localOnly));
+    }
+    return errors;
+  }
+
+  // reservations backed off are local only, the underlying AM does not
+  // know about them
+  private synchronized void gReleaseReservations(List<UUID> reservationIds,
+      List<UUID> submitted, List<PlacedReservation> localOnly) {
+    for (UUID reservationId : reservationIds) {
+      PlacedReservationImpl pr = gRemoveLocal(reservationId);
+      if (pr != null) {
+        pr.setStatus(PlacedReservation.Status.RELEASED);
+      }
+      if (submittedReservations.remove(reservationId) || pr == null) {
+        submitted.add(reservationId);
+      } else {
+        localOnly.add(pr);
+      }
+    }
+  }
+
+  private PlacedReservationImpl gRemoveLocal(UUID reservationId) {
     PlacedReservationImpl pr = localReservations.remove(reservationId);
+    if (pr != null) {
+      localReservationsByHandle.remove(pr.getHandle(), reservationId);
+    }
+    return pr;
+  }
+
+  private synchronized PlacedReservation gReleaseReservation(UUID reservationId) {
+    PlacedReservationImpl pr = gRemoveLocal(reservationId);
     if (pr != null) {
       pr.setStatus(PlacedReservation.Status.RELEASED);
     }
@@ -284,19 +360,14 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
   private synchronized List<PlacedReservation> gReleaseReservationsForHandle(
       UUID handle) {
     List<PlacedReservation> reservations = new ArrayList<PlacedReservation>();
-    Iterator<PlacedReservationImpl> it =
-        localReservations.values().iterator();
-    while (it.hasNext()) {
-      PlacedReservationImpl pr = it.next();
-      if (pr.getHandle().equals(handle)) {
-        it.remove();
-        submittedReservations.remove(pr.getReservationId());
-        reservations.add(pr);
-        pr.setStatus(PlacedReservation.Status.RELEASED);
-        LOG.debug(
-            "Releasing all reservations for handle '{}', reservationId '{}'",
-            handle, pr.getReservationId());
-      }
+    for (UUID reservationId : localReservationsByHandle.get(handle)) {
+      PlacedReservationImpl pr = gRemoveLocal(reservationId);
+      submittedReservations.remove(reservationId);
+      reservations.add(pr);
+      pr.setStatus(PlacedReservation.Status.RELEASED);
+      LOG.debug(
+          "Releasing all reservations for handle '{}', reservationId '{}'",
+          handle, reservationId);
     }
     return reservations;
   }
@@ -332,6 +403,8 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
       PlacedReservationImpl pr = it.next();
       if (pr.getQueue().equals(queue)) {
         it.remove();
+        localReservationsByHandle.remove(pr.getHandle(),
+            pr.getReservationId());
         submittedReservations.remove(pr.getReservationId());
         pr.setStatus(PlacedReservation.Status.RELEASED);
         reservations.add(pr);
@@ -370,7 +443,7 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
         case REJECTED:
         case PREEMPTED:
         case LOST:
-          localReservations.remove(reservation.getReservationId());
+          gRemoveLocal(reservation.getReservationId());
           submittedReservations.remove(reservation.getReservationId());
           break;
       }
@@ -454,6 +527,8 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
             am.releaseReservation(reservation.getHandle(),
                 reservation.getReservationId(), true);
             reservation.setStatus(PlacedReservation.Status.BACKED_OFF);
+            ReservationTracer.getTracer().backedOff(
+                reservation.getReservationId());
             backedOffReservations.add(
                 new BackedOffReservation(reservation, getBackOffDelay()));
             submittedReservations.remove(reservationId);
@@ -497,7 +572,7 @@ public class GangAntiDeadlockLlamaAM extends LlamaAMImpl implements
           am.reserve(reservationId, br.getReservation());
           submittedReservations.add(reservationId);
         } catch (LlamaException ex) {
-          localReservations.remove(reservationId);
+          gRemoveLocal(reservationId);
           PlacedReservationImpl pr = br.getReservation();
           pr.setStatus(PlacedReservation.Status.REJECTED);
           event.addReservation(pr);
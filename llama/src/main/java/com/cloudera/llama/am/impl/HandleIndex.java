@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.util.UUID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of reservation IDs by client handle, used by the AM layers to find the
+ * reservations of a handle without scanning all their reservations.
+ * <p/>
+ * This class is not thread safe, callers must synchronize access to it.
+ */
+class HandleIndex {
+  private final Map<UUID, Set<UUID>> index = new HashMap<UUID, Set<UUID>>();
+
+  public void add(UUID handle, UUID reservationId) {
+    Set<UUID> ids = index.get(handle);
+    if (ids == null) {
+      ids = new LinkedHashSet<UUID>();
+      index.put(handle, ids);
+    }
+    ids.add(reservationId);
+  }
+
+  public void remove(UUID handle, UUID reservationId) {
+    Set<UUID> ids = index.get(handle);
+    if (ids != null) {
+      ids.remove(reservationId);
+      if (ids.isEmpty()) {
+        index.remove(handle);
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the reservation IDs of the handle, in the order they
+   * were added, so callers can modify the index while iterating over them.
+   */
+  @SuppressWarnings("unchecked")
+  public List<UUID> get(UUID handle) {
+    Set<UUID> ids = index.get(handle);
+    return (ids == null) ? Collections.EMPTY_LIST : new ArrayList<UUID>(ids);
+  }
+
+  public void clear() {
+    index.clear();
+  }
+
+}
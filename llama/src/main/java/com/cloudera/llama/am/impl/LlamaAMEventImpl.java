@@ -25,10 +25,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Event carrying immutable views of the reservations and resources that
+ * changed, listeners can read them from any thread.
+ * <p/>
+ * Views are shared within the event while it is built, the cache is dropped
+ * once the event is built, see {@link #built()}.
+ */
 public class LlamaAMEventImpl implements LlamaAMEvent {
   private final List<PlacedResource> resources;
   private final List<PlacedReservation> reservations;
   private boolean echo;
+  private ViewCache views = new ViewCache();
 
   public LlamaAMEventImpl() {
     this(false);
@@ -41,7 +49,7 @@ public class LlamaAMEventImpl implements LlamaAMEvent {
   }
 
   public void addReservation(PlacedReservation reservation) {
-    reservations.add(new PlacedReservationImpl(reservation));
+    reservations.add(getViews().get(reservation));
   }
 
   public void addReservations(List<PlacedReservation> reservations) {
@@ -51,7 +59,14 @@ public class LlamaAMEventImpl implements LlamaAMEvent {
   }
 
   public void addResource(PlacedResource resource) {
-    resources.add(new PlacedResourceImpl(resource));
+    resources.add(getViews().get(resource));
+  }
+
+  private ViewCache getViews() {
+    if (views == null) {
+      views = new ViewCache();
+    }
+    return views;
   }
 
   public boolean isEmpty() {
@@ -63,6 +78,16 @@ public class LlamaAMEventImpl implements LlamaAMEvent {
     return echo;
   }
 
+  /**
+   * Drops the views cache, it must be called by the thread building the event
+   * before handing it to listeners.
+   */
+  void built() {
+    if (views != null) {
+      views = null;
+    }
+  }
+
   @Override
   public List<PlacedReservation> getReservationChanges() {
     return Collections.unmodifiableList(reservations);
@@ -85,6 +110,7 @@ public class LlamaAMEventImpl implements LlamaAMEvent {
   public static LlamaAMEventImpl createEvent(boolean echo, PlacedReservation pr) {
     LlamaAMEventImpl e = new LlamaAMEventImpl(echo);
     e.addReservation(pr);
+    e.built();
     return e;
   }
 
@@ -94,6 +120,7 @@ public class LlamaAMEventImpl implements LlamaAMEvent {
     for (PlacedReservation pr : prs) {
       e.addReservation(pr);
     }
+    e.built();
     return e;
   }
 
@@ -58,6 +58,7 @@ public abstract class LlamaAMImpl extends LlamaAM {
   }
 
   protected void dispatch(LlamaAMEventImpl event) {
+    event.built();
     if (!event.isEmpty()) {
       for (LlamaAMListener listener : listeners) {
         try {
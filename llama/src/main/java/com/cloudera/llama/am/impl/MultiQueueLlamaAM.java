@@ -23,10 +23,14 @@ import com.cloudera.llama.am.api.NodeInfo;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.am.api.LlamaAMListener;
 import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.am.api.QueueOwnership;
+import com.cloudera.llama.am.api.QueueRedirectException;
 import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.NamedThreadFactory;
 import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.CachedGauge;
 import com.codahale.metrics.Gauge;
@@ -40,11 +44,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -66,7 +75,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * </ul>
  */
 public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
-    IntraLlamaAMsCallback {
+    IntraLlamaAMsCallback, QueueOwnership.Listener {
   private static final Logger LOG = 
       LoggerFactory.getLogger(MultiQueueLlamaAM.class);
 
@@ -83,6 +92,9 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
   private volatile boolean running;
   private final int queueExpireMs;
   private final ExpireThread expireThread;
+  private volatile QueueOwnership ownership;
+  // incremented on every queue released by the ownership, guarded by ams
+  private long releaseEpoch;
   // Visible for testing
   int amCheckExpiryIntervalMs;
 
@@ -101,6 +113,7 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
     }
     //TODO: Make this a configuration parameter?
     stp = Executors.newScheduledThreadPool(4);
+    ownership = QueueOwnership.ALL;
   }
 
   @Override
@@ -142,6 +155,34 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
       throws LlamaException {
     return getSingleQueueAMInfo(queue, create, false).am;
   }
+
+  // Returns the AM of the queue counting the given reservations, so that it
+  // is not destroyed in between. A queue without AM is acquired first, it is
+  // a round trip to ZooKeeper done without the ams lock. If the ownership
+  // released a queue meanwhile (i.e. on ZooKeeper connection loss) the
+  // acquired queue may be gone, it is acquired again before creating its AM.
+  private SingleQueueAMInfo acquireAMInfo(String queue, int reservations)
+      throws LlamaException {
+    while (true) {
+      long epoch;
+      synchronized (ams) {
+        SingleQueueAMInfo amInfo = ams.get(queue);
+        if (amInfo != null) {
+          amInfo.incrementReservations(reservations);
+          return amInfo;
+        }
+        epoch = releaseEpoch;
+      }
+      ownership.acquire(queue);
+      synchronized (ams) {
+        if (epoch == releaseEpoch) {
+          SingleQueueAMInfo amInfo = getSingleQueueAMInfo(queue, true, false);
+          amInfo.incrementReservations(reservations);
+          return amInfo;
+        }
+      }
+    }
+  }
   
   private SingleQueueAMInfo getSingleQueueAMInfo(String queue, boolean create, boolean core)
       throws LlamaException {
@@ -149,32 +190,104 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
     synchronized (ams) {
       amInfo = ams.get(queue);
       if (amInfo == null && create) {
-        SingleQueueLlamaAM qAm = new SingleQueueLlamaAM(getConf(), queue, stp);
-        boolean throttling = getConf().getBoolean(
-            THROTTLING_ENABLED_KEY,
-            THROTTLING_ENABLED_DEFAULT);
-        throttling = getConf().getBoolean(
-            THROTTLING_ENABLED_KEY + "." + queue, throttling);
-        LOG.info("Throttling for queue '{}' enabled '{}'", queue,
-            throttling);
-        LlamaAM am;
-        if (throttling) {
-          ThrottleLlamaAM tAm = new ThrottleLlamaAM(getConf(), queue, qAm);
-          tAm.setCallback(this);
-          am = tAm;
-        } else {
-          am = qAm;
-        }
-        am.setMetricRegistry(getMetricRegistry());
-        am.start();
-        am.addListener(this);
-        amInfo = new SingleQueueAMInfo(am, core);
+        amInfo = createSingleQueueAMInfo(queue, core);
         ams.put(queue, amInfo);
       }
     }
     return amInfo;
   }
 
+  private SingleQueueAMInfo createSingleQueueAMInfo(String queue, boolean core)
+      throws LlamaException {
+    SingleQueueLlamaAM qAm = new SingleQueueLlamaAM(getConf(), queue, stp);
+    boolean throttling = getConf().getBoolean(
+        THROTTLING_ENABLED_KEY,
+        THROTTLING_ENABLED_DEFAULT);
+    throttling = getConf().getBoolean(
+        THROTTLING_ENABLED_KEY + "." + queue, throttling);
+    LOG.info("Throttling for queue '{}' enabled '{}'", queue,
+        throttling);
+    LlamaAM am;
+    if (throttling) {
+      ThrottleLlamaAM tAm = new ThrottleLlamaAM(getConf(), queue, qAm);
+      tAm.setCallback(this);
+      am = tAm;
+    } else {
+      am = qAm;
+    }
+    am.setMetricRegistry(getMetricRegistry());
+    am.start();
+    am.addListener(this);
+    return new SingleQueueAMInfo(am, qAm, core);
+  }
+
+  /**
+   * Registers the AMs of the core queues in parallel, each registration is a
+   * round trip to YARN. If any fails the ones that succeeded are stopped.
+   */
+  private void startCoreQueues() throws LlamaException {
+    final List<String> queues = new ArrayList<String>();
+    for (String queue :
+        getConf().getTrimmedStringCollection(CORE_QUEUES_KEY)) {
+      try {
+        ownership.acquire(queue);
+        queues.add(queue);
+      } catch (QueueRedirectException ex) {
+        LOG.info("Core queue '{}' owned by '{}:{}'", queue,
+            ex.getOwnerHost(), ex.getOwnerPort());
+      } catch (LlamaException ex) {
+        stop();
+        throw ex;
+      }
+    }
+    if (!queues.isEmpty()) {
+      int threads = Math.max(1, Math.min(queues.size(), getConf().getInt(
+          CORE_QUEUES_REGISTRATION_THREADS_KEY,
+          CORE_QUEUES_REGISTRATION_THREADS_DEFAULT)));
+      ExecutorService executor = Executors.newFixedThreadPool(threads,
+          new NamedThreadFactory("llama-queue-registration"));
+      try {
+        List<Future<SingleQueueAMInfo>> futures =
+            new ArrayList<Future<SingleQueueAMInfo>>();
+        for (final String queue : queues) {
+          futures.add(executor.submit(new Callable<SingleQueueAMInfo>() {
+            @Override
+            public SingleQueueAMInfo call() throws Exception {
+              return createSingleQueueAMInfo(queue, true);
+            }
+          }));
+        }
+        LlamaException error = null;
+        for (int i = 0; i < queues.size(); i++) {
+          try {
+            SingleQueueAMInfo amInfo = futures.get(i).get();
+            synchronized (ams) {
+              ams.put(queues.get(i), amInfo);
+            }
+          } catch (ExecutionException ex) {
+            if (error == null) {
+              error = (ex.getCause() instanceof LlamaException)
+                      ? (LlamaException) ex.getCause()
+                      : new LlamaException(ex.getCause(),
+                          ErrorCode.INTERNAL_ERROR);
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (error == null) {
+              error = new LlamaException(ex, ErrorCode.INTERNAL_ERROR);
+            }
+          }
+        }
+        if (error != null) {
+          stop();
+          throw error;
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
   private Set<SingleQueueAMInfo> getLlamaAMs() throws LlamaException {
     synchronized (ams) {
       return new HashSet<SingleQueueAMInfo>(ams.values());
@@ -186,17 +299,15 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
   public void start() throws LlamaException {
     queueAgnosticLlamaAM = new SingleQueueLlamaAM(getConf(), null, stp);
     queueAgnosticLlamaAM.start();
-    queueAgnosticLlamaAM.deleteAllYarnApplications();
-
-    for (String queue :
-        getConf().getTrimmedStringCollection(CORE_QUEUES_KEY)) {
-      try {
-        getSingleQueueAMInfo(queue, true, true);
-      } catch (LlamaException ex) {
-        stop();
-        throw ex;
-      }
+    ownership = QueueOwnership.getOwnership();
+    if (ownership.isExclusive()) {
+      queueAgnosticLlamaAM.deleteAllYarnApplications();
+    } else {
+      LOG.info("Queues shared with other Llamas, not deleting existing " +
+          "Llama applications");
     }
+    ownership.setListener(this);
+    startCoreQueues();
 
     running = true;
     expireThread.start();
@@ -232,6 +343,7 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
             // want to hold on to the lock while we're doing this.
             if (removed) {
               amInfo.am.stop();
+              ownership.release(entry.getKey());
             }
           }
         }
@@ -245,9 +357,45 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
     }
   }
 
+  @Override
+  public boolean releaseQueue(String queue, boolean force) {
+    SingleQueueAMInfo amInfo;
+    synchronized (ams) {
+      amInfo = ams.get(queue);
+      if (amInfo == null) {
+        // if not forced, the AM may be about to be created for a reservation
+        if (force) {
+          releaseEpoch++;
+        }
+        return force;
+      }
+      if (!force && amInfo.numReservations.get() > 0) {
+        return false;
+      }
+      ams.remove(queue);
+      releaseEpoch++;
+    }
+    LOG.info("Releasing queue '{}', forced '{}'", queue, force);
+    if (amInfo.numReservations.get() > 0) {
+      amInfo.queueAm.loseAllReservations();
+    }
+    amInfo.am.stop();
+    synchronized (ams) {
+      Iterator<Map.Entry<UUID, String>> i =
+          reservationToQueue.entrySet().iterator();
+      while (i.hasNext()) {
+        if (i.next().getValue().equals(queue)) {
+          i.remove();
+        }
+      }
+    }
+    return true;
+  }
+
   @Override
   public void stop() {
     running = false;
+    ownership.setListener(null);
     expireThread.interrupt();
     try {
       expireThread.join();
@@ -279,17 +427,56 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
   @Override
   public void reserve(UUID reservationId, Reservation reservation)
       throws LlamaException {
-    SingleQueueAMInfo amInfo;
-    // Get AM info and update num reservations atomically so that we don't destroy
-    // the AM in between.
-    synchronized (ams) {
-      amInfo = getSingleQueueAMInfo(reservation.getQueue(), true, false);
-      amInfo.incrementReservations();
-    }
+    SingleQueueAMInfo amInfo = acquireAMInfo(reservation.getQueue(), 1);
     amInfo.am.reserve(reservationId, reservation);
     reservationToQueue.put(reservationId, reservation.getQueue());
   }
 
+  @SuppressWarnings("deprecation")
+  @Override
+  public Map<UUID, LlamaException> reserve(Map<UUID, Reservation> reservations)
+      throws LlamaException {
+    Map<String, Map<UUID, Reservation>> byQueue =
+        new LinkedHashMap<String, Map<UUID, Reservation>>();
+    for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+      String queue = entry.getValue().getQueue();
+      Map<UUID, Reservation> group = byQueue.get(queue);
+      if (group == null) {
+        group = new LinkedHashMap<UUID, Reservation>();
+        byQueue.put(queue, group);
+      }
+      group.put(entry.getKey(), entry.getValue());
+    }
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    for (Map.Entry<String, Map<UUID, Reservation>> entry : byQueue.entrySet()) {
+      Map<UUID, Reservation> group = entry.getValue();
+      SingleQueueAMInfo amInfo;
+      try {
+        amInfo = acquireAMInfo(entry.getKey(), group.size());
+      } catch (LlamaException ex) {
+        for (UUID reservationId : group.keySet()) {
+          errors.put(reservationId, ex);
+        }
+        continue;
+      }
+      int failed = 0;
+      for (Map.Entry<UUID, Reservation> item : group.entrySet()) {
+        try {
+          amInfo.am.reserve(item.getKey(), item.getValue());
+          reservationToQueue.put(item.getKey(), entry.getKey());
+        } catch (LlamaException ex) {
+          errors.put(item.getKey(), ex);
+          failed++;
+        }
+      }
+      if (failed > 0) {
+        amInfo.decrementReservations(failed);
+      }
+    }
+    return errors;
+  }
+
   @SuppressWarnings("deprecation")
   @Override
   public PlacedReservation getReservation(UUID reservationId)
@@ -333,6 +520,56 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
     return pr;
   }
 
+  @SuppressWarnings("deprecation")
+  @Override
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    // as in releaseReservation(), the ids are taken out of the queue mapping
+    // first, only the ones taken out here count as released
+    Map<String, List<UUID>> byQueue = new LinkedHashMap<String, List<UUID>>();
+    for (UUID reservationId : reservationIds) {
+      String queue = reservationToQueue.remove(reservationId);
+      if (queue != null) {
+        List<UUID> group = byQueue.get(queue);
+        if (group == null) {
+          group = new ArrayList<UUID>();
+          byQueue.put(queue, group);
+        }
+        group.add(reservationId);
+      } else {
+        LOG.warn("releaseReservations({}), reservationId not found",
+            reservationId);
+      }
+    }
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    for (Map.Entry<String, List<UUID>> entry : byQueue.entrySet()) {
+      SingleQueueAMInfo amInfo = getSingleQueueAMInfo(entry.getKey(), false,
+          false);
+      if (amInfo != null) {
+        Map<UUID, LlamaException> queueErrors =
+            amInfo.am.releaseReservations(handle, entry.getValue(),
+                doNotCache);
+        int released = 0;
+        for (UUID reservationId : entry.getValue()) {
+          if (queueErrors.containsKey(reservationId)) {
+            // not released, it is still in the queue
+            reservationToQueue.put(reservationId, entry.getKey());
+          } else {
+            released++;
+          }
+        }
+        if (released > 0) {
+          amInfo.decrementReservations(released);
+        }
+        errors.putAll(queueErrors);
+      } else {
+        LOG.warn("Queue '{}' not available anymore", entry.getKey());
+      }
+    }
+    return errors;
+  }
+
   @Override
   public List<PlacedReservation> releaseReservationsForHandle(UUID handle,
       boolean doNotCache)
@@ -420,14 +657,17 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
 
   private class SingleQueueAMInfo {
     public final LlamaAM am;
+    public final SingleQueueLlamaAM queueAm;
     private final AtomicInteger numReservations;
     // Whether we shouldn't delete this AM after it's empty for a while
     private final boolean core;
     // Time at which the AM became empty
     private volatile long emptyTime;
 
-    public SingleQueueAMInfo(LlamaAM am, boolean core) {
+    public SingleQueueAMInfo(LlamaAM am, SingleQueueLlamaAM queueAm,
+        boolean core) {
       this.am = am;
+      this.queueAm = queueAm;
       this.core = core;
       this.emptyTime = Long.MAX_VALUE;
       this.numReservations = new AtomicInteger(0);
@@ -442,6 +682,10 @@ public class MultiQueueLlamaAM extends LlamaAMImpl implements LlamaAMListener,
       numReservations.incrementAndGet();
     }
 
+    public void incrementReservations(int num) {
+      numReservations.addAndGet(num);
+    }
+
     public void decrementReservations(int num) {
       int numRemaining = numReservations.addAndGet(-num);
       if (numRemaining == 0) {
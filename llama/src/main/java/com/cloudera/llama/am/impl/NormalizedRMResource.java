@@ -17,14 +17,15 @@
  */
 package com.cloudera.llama.am.impl;
 
+import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.ReservationTracer;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.am.spi.RMResource;
 import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.util.UUID;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class NormalizedRMResource implements RMResource {
 
@@ -61,7 +62,7 @@ public class NormalizedRMResource implements RMResource {
   private int memoryMbs;
   private UUID resourceId;
   private Object rmResourceId;
-  private final Map<String, Object> rmData;
+  private final RMAttachments rmData;
 
   public NormalizedRMResource(RMResource source, int effectiveCpuVCores,
       int effectiveMemoryMb) {
@@ -69,7 +70,9 @@ public class NormalizedRMResource implements RMResource {
     cpuVCoresAsk = effectiveCpuVCores;
     memoryMbsAsk = effectiveMemoryMb;
     resourceId = UUID.randomUUID();
-    rmData = new HashMap<String, Object>();
+    rmData = new RMAttachments();
+    rmData.set(ReservationTracer.TRACE_SLOT,
+        source.getRmData().get(ReservationTracer.TRACE_SLOT));
   }
 
   public RMResource getSource() {
@@ -107,7 +110,7 @@ public class NormalizedRMResource implements RMResource {
   }
 
   @Override
-  public Map<String, Object> getRmData() {
+  public RMAttachments getRmData() {
     return rmData;
   }
 
@@ -121,6 +124,11 @@ public class NormalizedRMResource implements RMResource {
     return Locality.MUST;
   }
 
+  @Override
+  public Reservation.Priority getPriority() {
+    return source.getPriority();
+  }
+
   @Override
   public int getCpuVCoresAsk() {
     return cpuVCoresAsk;
@@ -29,9 +29,17 @@ import com.cloudera.llama.util.UUID;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Placed reservation, mutable by the LlamaAM owning it.
+ * <p/>
+ * Events carry immutable views of the reservation, see {@link #view()}, which
+ * can be read from any thread without synchronization. The live reservation
+ * does not keep its views, {@link ViewCache} shares them within an event.
+ */
 public class PlacedReservationImpl implements PlacedReservation, Expansion {
   protected UUID reservationId;
   protected Status status;
@@ -40,10 +48,15 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
   protected String user;
   protected String queue;
   protected boolean gang;
+  protected Priority priority = Priority.NORMAL;
   protected List<PlacedResourceImpl> resources;
   protected UUID expansionOf;
   protected long allocatedOn;
   protected boolean queued;
+  // incremented on every change of the reservation, of its resources and of
+  // its resources list
+  private long modCount;
+  private boolean immutable;
 
   private PlacedReservationImpl() {
   }
@@ -57,6 +70,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
       String user,
       String queue,
       boolean gang,
+      Priority priority,
       List<PlacedResourceImpl> resources,
       UUID expansionOf,
       long allocatedOn,
@@ -69,7 +83,9 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
     this.user = user;
     this.queue = queue;
     this.gang = gang;
-    this.resources = (resources != null) ? resources : Collections.EMPTY_LIST;
+    this.priority = (priority != null) ? priority : Priority.NORMAL;
+    this.resources = new ResourceList(
+        (resources != null) ? resources : Collections.EMPTY_LIST);
     this.expansionOf = expansionOf;
     this.allocatedOn = allocatedOn;
     this.queued = queued;
@@ -85,6 +101,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
         r.getUser(),
         r.getQueue(),
         r.isGang(),
+        r.getPriority(),
         copyResources(r.getPlacedResources()),
         r.getExpansionOf(),
         r.getAllocatedOn(), r.isQueued());
@@ -101,6 +118,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
         reservation.getUser(),
         reservation.getQueue(),
         reservation.isGang(),
+        reservation.getPriority(),
         new ArrayList<PlacedResourceImpl>(),
         ((PlacedReservation) reservation).getExpansionOf(),
         -1, false);
@@ -109,6 +127,143 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
     }
   }
 
+  /**
+   * Returns the modification count of the reservation, it increases on every
+   * change of the reservation, of any of its resources or of its resources
+   * list.
+   */
+  public long getModCount() {
+    return modCount;
+  }
+
+  void resourcesChanged() {
+    modCount++;
+  }
+
+  /**
+   * Returns an immutable view of the reservation at its current modification
+   * count. It must be called by the owner of the reservation.
+   */
+  public PlacedReservationImpl view() {
+    return (immutable) ? this : view(new ViewCache());
+  }
+
+  // resource views are taken through the cache to share unchanged ones
+  @SuppressWarnings("unchecked")
+  PlacedReservationImpl view(ViewCache cache) {
+    List<PlacedResourceImpl> views =
+        new ArrayList<PlacedResourceImpl>(resources.size());
+    for (PlacedResourceImpl resource : resources) {
+      views.add(cache.get(resource));
+    }
+    return immutableCopy(views);
+  }
+
+  // the resource views are not re-parented, they may be shared by other views
+  private PlacedReservationImpl immutableCopy(List<PlacedResourceImpl> views) {
+    PlacedReservationImpl v = new PlacedReservationImpl(reservationId, status,
+        placedOn, handle, user, queue, gang, priority, null, expansionOf,
+        allocatedOn, queued);
+    v.resources = Collections.unmodifiableList(views);
+    v.modCount = modCount;
+    v.immutable = true;
+    return v;
+  }
+
+  public static PlacedReservationImpl view(PlacedReservation reservation) {
+    return new ViewCache().get(reservation);
+  }
+
+  /**
+   * Returns an immutable view of the reservation holding the given resources
+   * instead of its own ones. Resources that are views already are shared, not
+   * copied.
+   */
+  public static PlacedReservationImpl view(PlacedReservation reservation,
+      List<? extends PlacedResource> resources) {
+    ViewCache cache = new ViewCache();
+    List<PlacedResourceImpl> views =
+        new ArrayList<PlacedResourceImpl>(resources.size());
+    for (PlacedResource resource : resources) {
+      views.add(cache.get(resource));
+    }
+    return cache.get(reservation).immutableCopy(views);
+  }
+
+  public boolean isImmutable() {
+    return immutable;
+  }
+
+  private void changing() {
+    if (immutable) {
+      throw new IllegalStateException(FastFormat.format(
+          "Reservation '{}' is an immutable view", reservationId));
+    }
+    modCount++;
+  }
+
+  /**
+   * Resources of a live reservation, adding, replacing or removing resources
+   * changes the reservation and the added resources report their changes to
+   * it.
+   */
+  private class ResourceList extends ArrayList<PlacedResourceImpl> {
+
+    private ResourceList(Collection<PlacedResourceImpl> resources) {
+      super(resources);
+      for (PlacedResourceImpl resource : resources) {
+        resource.setOwner(PlacedReservationImpl.this);
+      }
+    }
+
+    @Override
+    public boolean add(PlacedResourceImpl resource) {
+      resource.setOwner(PlacedReservationImpl.this);
+      changing();
+      return super.add(resource);
+    }
+
+    @Override
+    public void add(int index, PlacedResourceImpl resource) {
+      resource.setOwner(PlacedReservationImpl.this);
+      changing();
+      super.add(index, resource);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends PlacedResourceImpl> list) {
+      for (PlacedResourceImpl resource : list) {
+        add(resource);
+      }
+      return !list.isEmpty();
+    }
+
+    @Override
+    public PlacedResourceImpl set(int index, PlacedResourceImpl resource) {
+      resource.setOwner(PlacedReservationImpl.this);
+      changing();
+      return super.set(index, resource);
+    }
+
+    @Override
+    public PlacedResourceImpl remove(int index) {
+      changing();
+      return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(Object resource) {
+      changing();
+      return super.remove(resource);
+    }
+
+    @Override
+    public void clear() {
+      changing();
+      super.clear();
+    }
+  }
+
   private static List<PlacedResourceImpl> copyResources(
       List<? extends PlacedResource> resources) {
     List<PlacedResourceImpl> list = null;
@@ -122,7 +277,8 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
   }
 
   private static final String RESERVATION_TO_STRING =
-      "Reservation[handle:{} user:{} queue:{} gang:{} resources:{}]";
+      "Reservation[handle:{} user:{} queue:{} gang:{} priority:{} " +
+          "resources:{}]";
 
   private static final String EXPANSION_TO_STRING =
       "Expansion[expansionOf:{} resource:{}]";
@@ -130,14 +286,14 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
   private static final String PLACED_RESERVATION_TO_STRING =
       "PlacedReservation[reservationId:{} status:{} placedOn:{} " +
           "allocatedOn:{} expansionOf:{} handle:{} user:{} queue:{} gang:{} " +
-          "queued:{} resources:{}]";
+          "priority:{} queued:{} resources:{}]";
 
   @Override
   public String toString() {
     String str;
     if (getPlacedOn() == -1) {
         str = FastFormat.format(RESERVATION_TO_STRING, getHandle(), getUser(),
-            getQueue(), isGang(), getResources());
+            getQueue(), isGang(), getPriority(), getResources());
     } else if (getExpansionOf() != null) {
         str = FastFormat.format(EXPANSION_TO_STRING, getExpansionOf(),
             getResource());
@@ -145,7 +301,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
         str = FastFormat.format(PLACED_RESERVATION_TO_STRING,
             getReservationId(), getStatus(), getPlacedOn(), getAllocatedOn(),
             getExpansionOf(), getHandle(), getUser(), getQueue(), isGang(),
-            isQueued(), getResources());
+            getPriority(), isQueued(), getResources());
     }
     return str;
   }
@@ -207,6 +363,11 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
     return gang;
   }
 
+  @Override
+  public Priority getPriority() {
+    return priority;
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public List<Resource> getResources() {
@@ -235,6 +396,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
   }
 
   public void setStatus(Status status) {
+    changing();
     this.status = status;
     if (status == Status.ALLOCATED) {
       allocatedOn = Clock.currentTimeMillis();
@@ -247,6 +409,7 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
   }
 
   public void setQueued(boolean queued) {
+    changing();
     this.queued = queued;
   }
 
@@ -307,6 +470,13 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
       return this;
     }
 
+    @Override
+    public Reservation.Builder setPriority(Priority priority) {
+      ParamChecker.notNull(priority, "priority");
+      this.priority = priority;
+      return this;
+    }
+
     @Override
     public List<Resource> getResources() {
       return resources;
@@ -368,12 +538,13 @@ public class PlacedReservationImpl implements PlacedReservation, Expansion {
 
   public static Reservation createReservationForExpansion(
       PlacedReservation originalReservation,  Expansion expansion) {
-    List<PlacedResourceImpl> resources =new ArrayList<PlacedResourceImpl>();
-    PlacedReservation reservation = new PlacedReservationImpl(null, null, 0,
-        expansion.getHandle(), originalReservation.getUser(),
-        originalReservation.getQueue(), false, resources,
+    PlacedReservationImpl reservation = new PlacedReservationImpl(null, null,
+        0, expansion.getHandle(), originalReservation.getUser(),
+        originalReservation.getQueue(), false,
+        originalReservation.getPriority(), null,
         originalReservation.getReservationId(), 0, false);
-    resources.add(PlacedResourceImpl.createPlaced(reservation,
+    reservation.getPlacedResourceImpls().add(PlacedResourceImpl.createPlaced(
+        reservation,
         expansion.getResource()));
     return reservation;
   }
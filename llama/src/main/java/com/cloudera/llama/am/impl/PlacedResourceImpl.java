@@ -19,6 +19,8 @@ package com.cloudera.llama.am.impl;
 
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.am.spi.RMResource;
 import com.cloudera.llama.am.api.Resource;
 import com.cloudera.llama.util.Clock;
@@ -26,9 +28,12 @@ import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.util.ParamChecker;
 import com.cloudera.llama.util.UUID;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Placed resource, mutable by the LlamaAM owning it.
+ * <p/>
+ * Events carry immutable views of the resource, see {@link #view()}, which
+ * can be read from any thread without synchronization.
+ */
 public class PlacedResourceImpl
     implements PlacedResource, RMResource {
   protected UUID resourceId;
@@ -42,12 +47,19 @@ public class PlacedResourceImpl
   protected UUID handle;
   protected String user;
   protected String queue;
+  protected Reservation.Priority priority;
   protected long allocatedOn;
   protected String location;
   protected int cpuVCores;
   protected int memoryMbs;
   protected Object rmResourceId;
-  private Map<String, Object> rmData;
+  // created on first use, most resources never get RM data
+  private volatile RMAttachments rmData;
+  // incremented on every change, views are tagged with it
+  private long version;
+  private boolean immutable;
+  // reservation whose resources list holds the resource, told of changes
+  private PlacedReservationImpl owner;
 
   public PlacedResourceImpl() {
   }
@@ -64,6 +76,7 @@ public class PlacedResourceImpl
       UUID handle,
       String user,
       String queue,
+      Reservation.Priority priority,
       long allocatedOn,
       String location,
       int cpuVCores,
@@ -81,6 +94,7 @@ public class PlacedResourceImpl
     this.handle = handle;
     this.user = user;
     this.queue = queue;
+    this.priority = priority;
     this.allocatedOn = allocatedOn;
     this.location = location;
     this.cpuVCores = cpuVCores;
@@ -101,6 +115,7 @@ public class PlacedResourceImpl
         r.getHandle(),
         r.getUser(),
         r.getQueue(),
+        r.getPriority(),
         r.getAllocatedOn(),
         r.getLocation(),
         r.getCpuVCores(),
@@ -108,6 +123,52 @@ public class PlacedResourceImpl
         r.getRmResourceId());
   }
 
+  /**
+   * Returns an immutable view of the resource at its current version.
+   * It must be called by the owner of the resource.
+   */
+  public PlacedResourceImpl view() {
+    PlacedResourceImpl v = this;
+    if (!immutable) {
+      v = new PlacedResourceImpl(this);
+      v.version = version;
+      v.immutable = true;
+    }
+    return v;
+  }
+
+  public static PlacedResourceImpl view(PlacedResource resource) {
+    return new ViewCache().get(resource);
+  }
+
+  void setOwner(PlacedReservationImpl owner) {
+    // views may be shared by several reservation views, they have no owner
+    if (immutable) {
+      throw new IllegalStateException(FastFormat.format(
+          "Resource '{}' is an immutable view", resourceId));
+    }
+    this.owner = owner;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public boolean isImmutable() {
+    return immutable;
+  }
+
+  private void changing() {
+    if (immutable) {
+      throw new IllegalStateException(FastFormat.format(
+          "Resource '{}' is an immutable view", resourceId));
+    }
+    version++;
+    if (owner != null) {
+      owner.resourcesChanged();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public static PlacedResourceImpl createPlaced(PlacedReservation reservation,
       Resource resource) {
@@ -116,7 +177,7 @@ public class PlacedResourceImpl
         resource.getCpuVCoresAsk(), resource.getMemoryMbsAsk(),
         reservation.getPlacedOn(), reservation.getReservationId(),
         reservation.getHandle(), reservation.getUser(), reservation.getQueue(),
-        -1, null, -1, -1, null);
+        reservation.getPriority(), -1, null, -1, -1, null);
   }
 
   private static final String RESOURCE_TO_STRING = "Resource[resourceId:{} " +
@@ -125,7 +186,8 @@ public class PlacedResourceImpl
   private static final String PLACED_RESOURCE_TO_STRING = "PlacedResource[" +
       "resourceId:{} status:{} locationAsk:{} localityAsk:{} cpuVCoresAsk:{} " +
       "memoryMbsAsk:{} placedOn:{} reservationId:{} handle:{} user:{} " +
-      "queue:{} allocatedOn:{} location:{} cpuVCores:{} memoryMbs:{} " +
+      "queue:{} priority:{} allocatedOn:{} location:{} cpuVCores:{} " +
+      "memoryMbs:{} " +
       "rmResourceId:{}]";
 
   @Override
@@ -139,7 +201,7 @@ public class PlacedResourceImpl
       str= FastFormat.format(PLACED_RESOURCE_TO_STRING, getResourceId(),
           getStatus(), getLocationAsk(), getLocalityAsk(), getCpuVCoresAsk(),
           getMemoryMbsAsk(), getPlacedOn(), getReservationId(), getHandle(),
-          getUser(), getQueue(), getAllocatedOn(), getLocation(),
+          getUser(), getQueue(), getPriority(), getAllocatedOn(), getLocation(),
           getCpuVCores(), getMemoryMbs(), getRmResourceId());
     }
     return str;
@@ -215,6 +277,11 @@ public class PlacedResourceImpl
     return queue;
   }
 
+  @Override
+  public Reservation.Priority getPriority() {
+    return priority;
+  }
+
   @Override
   public long getAllocatedOn() {
     return allocatedOn;
@@ -242,22 +309,37 @@ public class PlacedResourceImpl
 
   @Override
   public void setRmResourceId(Object rmResourceId) {
+    changing();
     this.rmResourceId = rmResourceId;
   }
 
   @Override
-  public synchronized Map<String, Object> getRmData() {
-    if (rmData == null) {
-      rmData = new HashMap<String, Object>();
+  public RMAttachments getRmData() {
+    if (immutable) {
+      // RM data is private to the RMConnector, views do not carry it
+      return RMAttachments.EMPTY;
+    }
+    RMAttachments data = rmData;
+    if (data == null) {
+      // only the first use takes the monitor, the RM data is never replaced
+      synchronized (this) {
+        data = rmData;
+        if (data == null) {
+          data = new RMAttachments();
+          rmData = data;
+        }
+      }
     }
-    return rmData;
+    return data;
   }
 
   public void setStatus(Status status) {
+    changing();
     this.status = status;
   }
 
   public void setAllocationInfo(String location, int cpuVCores, int memoryMbs) {
+    changing();
     status = Status.ALLOCATED;
     this.allocatedOn = Clock.currentTimeMillis();
     this.location = location;
@@ -17,6 +17,7 @@
  */
 package com.cloudera.llama.am.impl;
 
+import com.cloudera.llama.am.api.Builders;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.NodeInfo;
 import com.cloudera.llama.am.cache.CacheRMConnector;
@@ -26,6 +27,8 @@ import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
 import com.cloudera.llama.am.spi.RMResource;
 import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.ReservationTracer;
+import com.cloudera.llama.am.api.Resource;
 import com.cloudera.llama.am.spi.RMEvent;
 import com.cloudera.llama.am.spi.RMListener;
 import com.cloudera.llama.am.spi.RMConnector;
@@ -42,8 +45,11 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -56,6 +62,14 @@ import java.util.concurrent.ScheduledExecutorService;
  * <li>{@link #CACHING_ENABLED_KEY}</li>
  * <li>{@link #NORMALIZING_ENABLED_KEY}</li>
  * </ul>
+ * <p/>
+ * If {@link #GANG_SPECULATIVE_RESOURCES_KEY} is greater than zero, gang
+ * reservations with <code>PREFERRED</code> or <code>DONT_CARE</code>
+ * resources ask the RM for that many extra speculative resources. A
+ * speculative resource allocated while a compatible resource of the gang is
+ * still pending takes its place, the pending ask is released. Once the gang is
+ * fully allocated, outstanding speculative asks are released and allocated
+ * surplus resources are released to the cache (if enabled).
  */
 public class SingleQueueLlamaAM extends LlamaAMImpl implements
     RMListener {
@@ -73,18 +87,55 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
   private static final String RESOURCES_ALLOCATION_TIMER_TEMPLATE =
       METRIC_PREFIX + "resources-allocation-latency[{}].timer";
 
+  private static final String SPECULATIVE_RESOURCES_METER_TEMPLATE =
+      METRIC_PREFIX + "speculative-resources[{}].meter";
+  private static final String SPECULATIVE_RESOURCES_USED_METER_TEMPLATE =
+      METRIC_PREFIX + "speculative-resources-used[{}].meter";
+  private static final String SPECULATIVE_RESOURCES_WASTED_METER_TEMPLATE =
+      METRIC_PREFIX + "speculative-resources-wasted[{}].meter";
+  // to compare against the reservations allocation latency of the queue
+  private static final String SPECULATIVE_RESERVATIONS_ALLOCATION_TIMER_TEMPLATE
+      = METRIC_PREFIX + "speculative-reservations-allocation-latency[{}].timer";
+
   public static final List<String> METRIC_TEMPLATE_KEYS = Arrays.asList(
       RESERVATIONS_GAUGE_TEMPLATE, RESOURCES_GAUGE_TEMPLATE,
       RESERVATIONS_ALLOCATION_TIMER_TEMPLATE,
-      RESOURCES_ALLOCATION_TIMER_TEMPLATE);
+      RESOURCES_ALLOCATION_TIMER_TEMPLATE,
+      SPECULATIVE_RESOURCES_METER_TEMPLATE,
+      SPECULATIVE_RESOURCES_USED_METER_TEMPLATE,
+      SPECULATIVE_RESOURCES_WASTED_METER_TEMPLATE,
+      SPECULATIVE_RESERVATIONS_ALLOCATION_TIMER_TEMPLATE);
+
+  /**
+   * Speculative resources of a gang reservation.
+   */
+  private static class Speculation {
+    // speculative resources not allocated yet
+    private final Map<UUID, PlacedResourceImpl> outstanding =
+        new HashMap<UUID, PlacedResourceImpl>();
+    // reservation resource ID to the speculative resource holding its
+    // allocation in the RM
+    private final Map<UUID, PlacedResourceImpl> substitutes =
+        new HashMap<UUID, PlacedResourceImpl>();
+  }
 
   private final String queue;
   private final Map<UUID, PlacedReservationImpl> reservationsMap;
+  private final HandleIndex reservationsByHandle;
   private final Map<UUID, PlacedResourceImpl> resourcesMap;
+  private final Map<UUID, Speculation> speculations;
+  // reservation resources whose RM ask was released because a speculative
+  // resource took over, RM events may still be in flight for them
+  private final Set<UUID> substitutedAsks;
   private final ScheduledExecutorService stp;
+  private final int speculativeResources;
   private IntraLlamaAMsCallback callback;
   private String reservationsAllocationTimerKey;
   private String resourcesAllocationTimerKey;
+  private String speculativeResourcesMeterKey;
+  private String speculativeResourcesUsedMeterKey;
+  private String speculativeResourcesWastedMeterKey;
+  private String speculativeReservationsAllocationTimerKey;
   private RMConnector rmConnector;
   private boolean running;
 
@@ -99,8 +150,18 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     super(conf);
     this.queue = queue;
     reservationsMap = new HashMap<UUID, PlacedReservationImpl>();
+    reservationsByHandle = new HandleIndex();
     resourcesMap = new HashMap<UUID, PlacedResourceImpl>();
+    speculations = new HashMap<UUID, Speculation>();
+    substitutedAsks = new HashSet<UUID>();
     this.stp = stp;
+    int speculative = conf.getInt(GANG_SPECULATIVE_RESOURCES_KEY,
+        GANG_SPECULATIVE_RESOURCES_DEFAULT);
+    if (queue != null) {
+      speculative = conf.getInt(GANG_SPECULATIVE_RESOURCES_KEY + "." + queue,
+          speculative);
+    }
+    speculativeResources = speculative;
   }
 
   public void setCallback(IntraLlamaAMsCallback callback) {
@@ -111,6 +172,17 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     Class<? extends RMConnector> klass = getRMConnectorClass(getConf());
     RMConnector connector = ReflectionUtils.newInstance(klass, getConf());
 
+    boolean faultInjection = getConf().getBoolean(FAULT_INJECTION_ENABLED_KEY,
+        FAULT_INJECTION_ENABLED_DEFAULT);
+    if (queue != null) {
+      faultInjection = getConf().getBoolean(
+          FAULT_INJECTION_ENABLED_KEY + "." + queue, faultInjection);
+    }
+    if (faultInjection) {
+      LOG.warn("Fault injection for queue '{}' enabled", queue);
+      connector = new FaultInjectionRMConnector(getConf(), connector);
+    }
+
     // queue is null only for the AM used to report getNodes(),
     // we don't need caching for it TODO and no normalization either when done
     if (queue != null) {
@@ -190,6 +262,24 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
       key = FastFormat.format(RESOURCES_ALLOCATION_TIMER_TEMPLATE, queue);
       MetricUtil.registerTimer(getMetricRegistry(), key);
       resourcesAllocationTimerKey = key;
+
+      key = FastFormat.format(SPECULATIVE_RESOURCES_METER_TEMPLATE, queue);
+      MetricUtil.registerMeter(getMetricRegistry(), key);
+      speculativeResourcesMeterKey = key;
+
+      key = FastFormat.format(SPECULATIVE_RESOURCES_USED_METER_TEMPLATE, queue);
+      MetricUtil.registerMeter(getMetricRegistry(), key);
+      speculativeResourcesUsedMeterKey = key;
+
+      key = FastFormat.format(SPECULATIVE_RESOURCES_WASTED_METER_TEMPLATE,
+          queue);
+      MetricUtil.registerMeter(getMetricRegistry(), key);
+      speculativeResourcesWastedMeterKey = key;
+
+      key = FastFormat.format(
+          SPECULATIVE_RESERVATIONS_ALLOCATION_TIMER_TEMPLATE, queue);
+      MetricUtil.registerTimer(getMetricRegistry(), key);
+      speculativeReservationsAllocationTimerKey = key;
     }
   }
 
@@ -221,6 +311,7 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
   private void _addReservation(PlacedReservationImpl reservation) {
     UUID reservationId = reservation.getReservationId();
     reservationsMap.put(reservationId, reservation);
+    reservationsByHandle.add(reservation.getHandle(), reservationId);
     for (PlacedResourceImpl resource : reservation.getPlacedResourceImpls()) {
       resource.setStatus(PlacedResource.Status.PENDING);
       resourcesMap.put(resource.getResourceId(), resource);
@@ -231,14 +322,81 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     return reservationsMap.get(reservationId);
   }
 
+  private List<PlacedResourceImpl> createSpeculativeResources(
+      PlacedReservationImpl reservation) {
+    List<PlacedResourceImpl> list = new ArrayList<PlacedResourceImpl>();
+    if (speculativeResources > 0 && reservation.isGang() &&
+        reservation.getExpansionOf() == null) {
+      List<PlacedResourceImpl> candidates = new ArrayList<PlacedResourceImpl>();
+      for (PlacedResourceImpl resource : reservation.getPlacedResourceImpls()) {
+        if (resource.getLocalityAsk() != Resource.Locality.MUST) {
+          candidates.add(resource);
+        }
+      }
+      for (int i = 0; !candidates.isEmpty() && i < speculativeResources; i++) {
+        PlacedResourceImpl candidate = candidates.get(i % candidates.size());
+        Resource ask = Builders.createResourceBuilder().
+            setResourceId(UUID.randomUUID()).
+            setLocationAsk(candidate.getLocationAsk()).
+            setLocalityAsk(candidate.getLocalityAsk()).
+            setCpuVCoresAsk(candidate.getCpuVCoresAsk()).
+            setMemoryMbsAsk(candidate.getMemoryMbsAsk()).build();
+        list.add(PlacedResourceImpl.createPlaced(reservation, ask));
+      }
+    }
+    return list;
+  }
+
+  private void _addSpeculation(PlacedReservationImpl reservation,
+      List<PlacedResourceImpl> speculative) {
+    Speculation speculation = new Speculation();
+    for (PlacedResourceImpl resource : speculative) {
+      speculation.outstanding.put(resource.getResourceId(), resource);
+      resourcesMap.put(resource.getResourceId(), resource);
+    }
+    speculations.put(reservation.getReservationId(), speculation);
+  }
+
+  // RM side resources backing the reservation, it must be called before
+  // deleting the reservation.
+  private List<PlacedResourceImpl> _getRMResources(
+      PlacedReservationImpl reservation) {
+    Speculation speculation =
+        speculations.get(reservation.getReservationId());
+    List<PlacedResourceImpl> list;
+    if (speculation == null) {
+      list = reservation.getPlacedResourceImpls();
+    } else {
+      list = new ArrayList<PlacedResourceImpl>();
+      for (PlacedResourceImpl resource : reservation.getPlacedResourceImpls()) {
+        PlacedResourceImpl substitute =
+            speculation.substitutes.get(resource.getResourceId());
+        list.add((substitute != null) ? substitute : resource);
+      }
+      list.addAll(speculation.outstanding.values());
+    }
+    return list;
+  }
+
   private PlacedReservationImpl _deleteReservation(UUID reservationId,
       PlacedReservation.Status status) {
     PlacedReservationImpl reservation = reservationsMap.remove(reservationId);
     if (reservation != null) {
+      reservationsByHandle.remove(reservation.getHandle(), reservationId);
       for (PlacedResource resource : reservation.getPlacedResources()) {
         resourcesMap.remove(resource.getResourceId());
       }
     }
+    Speculation speculation = speculations.remove(reservationId);
+    if (speculation != null) {
+      for (UUID resourceId : speculation.outstanding.keySet()) {
+        resourcesMap.remove(resourceId);
+      }
+      for (PlacedResourceImpl resource : speculation.substitutes.values()) {
+        resourcesMap.remove(resource.getResourceId());
+      }
+      substitutedAsks.removeAll(speculation.substitutes.keySet());
+    }
     IntraLlamaAMsCallback localReference = this.callback;
     if (localReference != null) {
       localReference.discardReservation(reservationId);
@@ -261,11 +419,36 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     final PlacedReservationImpl impl = new PlacedReservationImpl(reservationId,
         reservation);
     LlamaAMEventImpl event = LlamaAMEventImpl.createEvent(true, impl);
+    List<PlacedResourceImpl> speculative = createSpeculativeResources(impl);
+    ReservationTracer.Trace trace = ReservationTracer.getTracer().mark(
+        reservationId, ReservationTracer.Stage.ADMITTED);
     synchronized (this) {
       _addReservation(impl);
+      if (!speculative.isEmpty()) {
+        _addSpeculation(impl, speculative);
+      }
+    }
+    List<PlacedResourceImpl> asks = impl.getPlacedResourceImpls();
+    if (!speculative.isEmpty()) {
+      asks = new ArrayList<PlacedResourceImpl>(asks);
+      asks.addAll(speculative);
+      MetricUtil.meter(getMetricRegistry(), speculativeResourcesMeterKey,
+          speculative.size());
+      LOG.debug("Asking '{}' speculative resources for reservation '{}'",
+          speculative.size(), reservationId);
+    }
+    if (trace != null) {
+      trace.setQueue(impl.getQueue());
+      for (PlacedResourceImpl resource : asks) {
+        resource.getRmData().set(ReservationTracer.TRACE_SLOT, trace);
+      }
     }
     try {
-      rmConnector.reserve((List)impl.getPlacedResourceImpls());
+      // marked before, a cache hit allocates the resources within reserve()
+      if (trace != null) {
+        trace.mark(ReservationTracer.Stage.REQUESTED);
+      }
+      rmConnector.reserve((List) asks);
     } catch (LlamaException ex) {
       synchronized (this) {
         _deleteReservation(impl.getReservationId(),
@@ -296,6 +479,7 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
       final UUID reservationId, boolean doNotCache, boolean doNotDispatch)
       throws LlamaException {
     PlacedReservationImpl reservation;
+    List<PlacedResourceImpl> toRelease = null;
     LlamaAMEventImpl event = null;
     synchronized (this) {
       reservation = _getReservation(reservationId);
@@ -304,6 +488,7 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
           throw new LlamaException(ErrorCode.CLIENT_DOES_NOT_OWN_RESERVATION,
               handle, reservation.getReservationId());
         }
+        toRelease = _getRMResources(reservation);
         reservation = _deleteReservation(reservationId,
             PlacedReservation.Status.RELEASED);
         event = LlamaAMEventImpl.createEvent(isCallProducingEchoEvent(handle),
@@ -311,8 +496,7 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
       }
     }
     if (reservation != null) {
-      rmConnector.release((List<RMResource>) (List) reservation.getResources(),
-          doNotCache);
+      rmConnector.release((List<RMResource>) (List) toRelease, doNotCache);
       if (!doNotDispatch) {
         dispatch(event);
       }
@@ -322,28 +506,69 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     return reservation;
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    List<PlacedReservation> reservations = new ArrayList<PlacedReservation>();
+    List<PlacedResourceImpl> toRelease = new ArrayList<PlacedResourceImpl>();
+    synchronized (this) {
+      for (UUID reservationId : reservationIds) {
+        PlacedReservationImpl reservation = _getReservation(reservationId);
+        if (reservation == null) {
+          LOG.warn("Unknown reservationId '{}'", reservationId);
+        } else if (!reservation.getHandle().equals(handle) &&
+            !isAdminCall()) {
+          errors.put(reservationId, new LlamaException(
+              ErrorCode.CLIENT_DOES_NOT_OWN_RESERVATION, handle,
+              reservationId));
+        } else {
+          toRelease.addAll(_getRMResources(reservation));
+          reservations.add(_deleteReservation(reservationId,
+              PlacedReservation.Status.RELEASED));
+        }
+      }
+    }
+    if (!toRelease.isEmpty()) {
+      try {
+        rmConnector.release((List<RMResource>) (List) toRelease, doNotCache);
+      } catch (LlamaException ex) {
+        for (PlacedReservation reservation : reservations) {
+          errors.put(reservation.getReservationId(), ex);
+        }
+        return errors;
+      }
+    }
+    if (!reservations.isEmpty()) {
+      dispatch(LlamaAMEventImpl.createEvent(isCallProducingEchoEvent(handle),
+          reservations));
+    }
+    return errors;
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public List<PlacedReservation> releaseReservationsForHandle(UUID handle,
       boolean doNotCache)
       throws LlamaException {
     List<PlacedReservation> reservations = new ArrayList<PlacedReservation>();
+    List<PlacedResourceImpl> toRelease = new ArrayList<PlacedResourceImpl>();
     synchronized (this) {
-      for (PlacedReservation reservation :
-          new ArrayList<PlacedReservation>(reservationsMap.values())) {
-        if (reservation.getHandle().equals(handle)) {
-          reservation = _deleteReservation(reservation.getReservationId(),
-              PlacedReservation.Status.RELEASED);
-          reservations.add(reservation);
-          LOG.debug(
-              "Releasing all reservations for handle '{}', reservationId '{}'",
-              handle, reservation.getReservationId());
-        }
+      for (UUID reservationId : reservationsByHandle.get(handle)) {
+        PlacedReservationImpl reservation = reservationsMap.get(reservationId);
+        toRelease.addAll(_getRMResources(reservation));
+        reservation = _deleteReservation(reservationId,
+            PlacedReservation.Status.RELEASED);
+        reservations.add(reservation);
+        LOG.debug(
+            "Releasing all reservations for handle '{}', reservationId '{}'",
+            handle, reservationId);
       }
     }
-    for (PlacedReservation reservation : reservations) {
-      rmConnector.release((List<RMResource>) (List) reservation.getResources(),
-          doNotCache);
+    if (!toRelease.isEmpty()) {
+      rmConnector.release((List<RMResource>) (List) toRelease, doNotCache);
     }
     if (!reservations.isEmpty()) {
       dispatch(LlamaAMEventImpl.createEvent(isCallProducingEchoEvent(handle),
@@ -397,9 +622,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
         case PENDING:
         case PARTIAL:
           if (reservation.isGang()) {
+            toRelease = _getRMResources(reservation);
             reservation = _deleteReservation(reservationId,
                 PlacedReservation.Status.REJECTED);
-            toRelease = reservation.getPlacedResourceImpls();
             event.addReservation(reservation);
           }
           event.addResource(resource);
@@ -414,8 +639,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     return toRelease;
   }
 
-  private void _resourceAllocated(PlacedResourceImpl resource,
-      RMEvent change, LlamaAMEventImpl event) {
+  private List<PlacedResourceImpl> _resourceAllocated(
+      PlacedResourceImpl resource, RMEvent change, LlamaAMEventImpl event) {
+    List<PlacedResourceImpl> toRelease = null;
     resource.setAllocationInfo(change.getLocation(), change.getCpuVCores(),
         change.getMemoryMbs());
     resource.setRmResourceId(change.getRmResourceId());
@@ -438,16 +664,95 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
       }
       if (fulfilled) {
         reservation.setStatus(PlacedReservation.Status.ALLOCATED);
+        ReservationTracer.getTracer().mark(reservationId,
+            ReservationTracer.Stage.ALLOCATED);
 
         MetricUtil.time(getMetricRegistry(), reservationsAllocationTimerKey,
             System.currentTimeMillis() - reservation.getPlacedOn(),
             new ReservationResourceLogContext(reservation));
+
+        Speculation speculation = speculations.get(reservationId);
+        if (speculation != null) {
+          if (!speculation.substitutes.isEmpty()) {
+            MetricUtil.time(getMetricRegistry(),
+                speculativeReservationsAllocationTimerKey,
+                System.currentTimeMillis() - reservation.getPlacedOn(),
+                new ReservationResourceLogContext(reservation));
+          }
+          // gang is complete, the speculative asks still pending are surplus
+          toRelease = new ArrayList<PlacedResourceImpl>(
+              speculation.outstanding.values());
+          for (UUID resourceId : speculation.outstanding.keySet()) {
+            resourcesMap.remove(resourceId);
+          }
+          speculation.outstanding.clear();
+        }
       } else {
         reservation.setStatus(PlacedReservation.Status.PARTIAL);
       }
       event.addReservation(reservation);
       event.addResource(resource);
     }
+    return toRelease;
+  }
+
+  private List<PlacedResourceImpl> _speculativeResourceChanged(
+      Speculation speculation, PlacedResourceImpl speculative, RMEvent change,
+      LlamaAMEventImpl event) {
+    List<PlacedResourceImpl> toRelease = new ArrayList<PlacedResourceImpl>();
+    speculation.outstanding.remove(speculative.getResourceId());
+    resourcesMap.remove(speculative.getResourceId());
+    if (change.getStatus() == PlacedResource.Status.ALLOCATED) {
+      speculative.setAllocationInfo(change.getLocation(),
+          change.getCpuVCores(), change.getMemoryMbs());
+      speculative.setRmResourceId(change.getRmResourceId());
+      PlacedReservationImpl reservation =
+          reservationsMap.get(speculative.getReservationId());
+      PlacedResourceImpl target = null;
+      if (reservation != null) {
+        for (PlacedResourceImpl resource :
+            reservation.getPlacedResourceImpls()) {
+          if (resource.getStatus() == PlacedResource.Status.PENDING &&
+              resource.getLocalityAsk() != Resource.Locality.MUST &&
+              resource.getCpuVCoresAsk() == speculative.getCpuVCoresAsk() &&
+              resource.getMemoryMbsAsk() == speculative.getMemoryMbsAsk()) {
+            if (target == null ||
+                resource.getLocationAsk().equals(change.getLocation())) {
+              target = resource;
+            }
+          }
+        }
+      }
+      if (target == null) {
+        LOG.debug("Speculative resource '{}' not needed, releasing it",
+            speculative);
+        MetricUtil.meter(getMetricRegistry(),
+            speculativeResourcesWastedMeterKey, 1);
+        toRelease.add(speculative);
+      } else {
+        LOG.debug("Speculative resource '{}' takes over resource '{}'",
+            speculative.getResourceId(), target.getResourceId());
+        MetricUtil.meter(getMetricRegistry(),
+            speculativeResourcesUsedMeterKey, 1);
+        // the target takes over the speculative resource allocation, its own
+        // RM ask is released with the target itself, not a copy, so a
+        // container the RM hands to the ask concurrently is in its RM data
+        toRelease.add(target);
+        resourcesMap.remove(target.getResourceId());
+        substitutedAsks.add(target.getResourceId());
+        resourcesMap.put(speculative.getResourceId(), target);
+        speculation.substitutes.put(target.getResourceId(), speculative);
+        List<PlacedResourceImpl> surplus =
+            _resourceAllocated(target, change, event);
+        if (surplus != null) {
+          toRelease.addAll(surplus);
+        }
+      }
+    } else {
+      LOG.debug("Speculative resource '{}' status changed to '{}'",
+          speculative.getResourceId(), change.getStatus());
+    }
+    return toRelease;
   }
 
   private List<PlacedResourceImpl> _resourcePreempted(
@@ -466,9 +771,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
           break;
         case PARTIAL:
           if (reservation.isGang()) {
+            toRelease = _getRMResources(reservation);
             _deleteReservation(reservationId,
                 PlacedReservation.Status.PREEMPTED);
-            toRelease = reservation.getPlacedResourceImpls();
             event.addReservation(reservation);
           } else {
             event.addResource(resource);
@@ -478,9 +783,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
           LOG.warn("Illegal internal state, reservation '{}' is PENDING, " +
               "resource '{}' cannot  be preempted, releasing reservation ",
               reservationId, resource.getResourceId());
+          toRelease = _getRMResources(reservation);
           reservation = _deleteReservation(reservationId,
               PlacedReservation.Status.PREEMPTED);
-          toRelease = reservation.getPlacedResourceImpls();
           event.addReservation(reservation);
           break;
       }
@@ -509,9 +814,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
             }
           }
           if (allResourcesLost) {
+            toRelease = _getRMResources(reservation);
             reservation = _deleteReservation(reservationId,
                 PlacedReservation.Status.LOST);
-            toRelease = reservation.getPlacedResourceImpls();
             event.addReservation(reservation);
           } else {
             event.addResource(resource);
@@ -519,9 +824,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
           break;
         case PARTIAL:
           if (reservation.isGang()) {
+            toRelease = _getRMResources(reservation);
             reservation = _deleteReservation(reservationId,
                 PlacedReservation.Status.LOST);
-            toRelease = reservation.getPlacedResourceImpls();
             event.addReservation(reservation);
           } else {
             event.addResource(resource);
@@ -531,9 +836,9 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
           LOG.warn("RM lost reservation '{}' with resource '{}', " +
               "rejecting reservation", reservationId,
               resource.getResourceId());
+          toRelease = _getRMResources(reservation);
           reservation = _deleteReservation(reservationId,
               PlacedReservation.Status.LOST);
-          toRelease = reservation.getPlacedResourceImpls();
           event.addReservation(reservation);
           break;
       }
@@ -552,20 +857,33 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
     LOG.trace("onEvent({})", rmEvents);
     LlamaAMEventImpl llamaAMEvent = new LlamaAMEventImpl();
     List<PlacedResourceImpl> toRelease = new ArrayList<PlacedResourceImpl>();
+    List<PlacedResourceImpl> substituted = new ArrayList<PlacedResourceImpl>();
     synchronized (this) {
       for (RMEvent change : rmEvents) {
         PlacedResourceImpl resource = resourcesMap.get(change
             .getResourceId());
         if (resource == null) {
-          LOG.warn("Unknown resource '{}'", change.getResourceId());
+          if (substitutedAsks.contains(change.getResourceId())) {
+            LOG.debug("Ignoring '{}' for resource '{}', it was substituted " +
+                "by a speculative resource", change.getStatus(),
+                change.getResourceId());
+          } else {
+            LOG.warn("Unknown resource '{}'", change.getResourceId());
+          }
         } else {
           List<PlacedResourceImpl> release = null;
-          switch (change.getStatus()) {
+          Speculation speculation =
+              speculations.get(resource.getReservationId());
+          if (speculation != null && speculation.outstanding.containsKey(
+              change.getResourceId())) {
+            release = _speculativeResourceChanged(speculation, resource,
+                change, llamaAMEvent);
+          } else switch (change.getStatus()) {
             case REJECTED:
               release = _resourceRejected(resource, llamaAMEvent);
               break;
             case ALLOCATED:
-              _resourceAllocated(resource, change, llamaAMEvent);
+              release = _resourceAllocated(resource, change, llamaAMEvent);
               break;
             case PREEMPTED:
               release = _resourcePreempted(resource, llamaAMEvent);
@@ -575,11 +893,26 @@ public class SingleQueueLlamaAM extends LlamaAMImpl implements
               break;
           }
           if (release != null) {
-            toRelease.addAll(release);
+            for (PlacedResourceImpl r : release) {
+              // the asks of substituted resources must not be cached, they
+              // carry the allocation of the speculative resource
+              if (substitutedAsks.contains(r.getResourceId())) {
+                substituted.add(r);
+              } else {
+                toRelease.add(r);
+              }
+            }
           }
         }
       }
     }
+    if (!substituted.isEmpty()) {
+      try {
+        rmConnector.release((List<RMResource>) (List) substituted, true);
+      } catch (LlamaException ex) {
+        LOG.warn("release() error: {}", ex.toString(), ex);
+      }
+    }
     if (!toRelease.isEmpty()) {
       try {
         rmConnector.release((List<RMResource>) (List) toRelease, false);
@@ -51,6 +51,9 @@ import java.util.List;import java.util.Map;
  * <p/>
  * Different queues can have different N and M configurations.
  * <p/>
+ * Queued reservations are placed by {@link Reservation.Priority}, highest
+ * first, and in arrival order within the same priority.
+ * <p/>
  * There are 4 configuration properties that drive the logic of this class:
  * <ul>
  *   <li>{@link #MAX_PLACED_RESERVATIONS_KEY}</li>
@@ -99,6 +102,7 @@ public class ThrottleLlamaAM extends LlamaAMImpl
   private final int maxQueuedReservations;
   private int placedReservations;
   private final Map<UUID, PlacedReservationImpl> queuedReservations;
+  private final HandleIndex queuedReservationsByHandle;
   private Thread thread;
   private volatile boolean running;
 
@@ -118,6 +122,7 @@ public class ThrottleLlamaAM extends LlamaAMImpl
         maxPlacedReservations, maxQueuedReservations);
     placedReservations = 0;
     queuedReservations = new LinkedHashMap<UUID, PlacedReservationImpl>();
+    queuedReservationsByHandle = new HandleIndex();
     this.am = llamaAM;
     am.addListener(this);
     am.setCallback(this);
@@ -225,6 +230,7 @@ public class ThrottleLlamaAM extends LlamaAMImpl
       pr = new PlacedReservationImpl(reservationId, reservation);
       pr.setQueued(true);
       queuedReservations.put(reservationId, pr);
+      queuedReservationsByHandle.add(pr.getHandle(), reservationId);
       LOG.debug("Queuing '{}'", pr);
     } else {
       placedReservations++;
@@ -242,6 +248,7 @@ public class ThrottleLlamaAM extends LlamaAMImpl
     if (pr != null) {
       if (handle.equals(pr.getHandle()) || isAdminCall()) {
         queuedReservations.remove(reservationId);
+        queuedReservationsByHandle.remove(pr.getHandle(), reservationId);
         pr.setStatus(PlacedReservation.Status.RELEASED);
         LOG.debug("Release queued '{}'", pr);
       } else {
@@ -256,18 +263,14 @@ public class ThrottleLlamaAM extends LlamaAMImpl
 
   synchronized List<PlacedReservation> releaseThrottledForHandle(UUID handle) {
     List<PlacedReservation> list = new ArrayList<PlacedReservation>();
-    Iterator<Map.Entry<UUID, PlacedReservationImpl>> it =
-        queuedReservations.entrySet().iterator();
     int count = 0;
-    while (it.hasNext()) {
-      PlacedReservationImpl pr = it.next().getValue();
-      if (pr.getHandle().equals(handle)) {
-        it.remove();
-        pr.setStatus(PlacedReservation.Status.RELEASED);
-        list.add(pr);
-        count++;
-        LOG.debug("Release queued '{}'", pr);
-      }
+    for (UUID reservationId : queuedReservationsByHandle.get(handle)) {
+      PlacedReservationImpl pr = queuedReservations.remove(reservationId);
+      queuedReservationsByHandle.remove(handle, reservationId);
+      pr.setStatus(PlacedReservation.Status.RELEASED);
+      list.add(pr);
+      count++;
+      LOG.debug("Release queued '{}'", pr);
     }
     LOG.debug("Release '{}' reservations queued for handle '{}'", count, handle);
     return list;
@@ -283,6 +286,7 @@ public class ThrottleLlamaAM extends LlamaAMImpl
       LOG.debug("Release queued '{}'", pr);
     }
     queuedReservations.clear();
+    queuedReservationsByHandle.clear();
     LOG.debug("Release '{}' reservations queued for queue '{}'", list.size(),
         queue);
     return list;
@@ -332,6 +336,37 @@ public class ThrottleLlamaAM extends LlamaAMImpl
     return reservation;
   }
 
+  @Override
+  public Map<UUID, LlamaException> releaseReservations(UUID handle,
+      List<UUID> reservationIds, boolean doNotCache) throws LlamaException {
+    Map<UUID, LlamaException> errors =
+        new LinkedHashMap<UUID, LlamaException>();
+    List<PlacedReservation> localReservations =
+        new ArrayList<PlacedReservation>();
+    List<UUID> placed = new ArrayList<UUID>();
+    for (UUID reservationId : reservationIds) {
+      try {
+        PlacedReservation reservation = releaseThrottled(handle,
+            reservationId);
+        if (reservation != null) {
+          localReservations.add(reservation);
+        } else {
+          placed.add(reservationId);
+        }
+      } catch (LlamaException ex) {
+        errors.put(reservationId, ex);
+      }
+    }
+    if (!placed.isEmpty()) {
+      errors.putAll(am.releaseReservations(handle, placed, doNotCache));
+    }
+    if (!localReservations.isEmpty()) {
+      dispatch(LlamaAMEventImpl.createEvent(isCallProducingEchoEvent(handle),
+          localReservations));
+    }
+    return errors;
+  }
+
   @Override
   public List<PlacedReservation> releaseReservationsForHandle(UUID handle,
       boolean doNotCache)
@@ -401,26 +436,34 @@ public class ThrottleLlamaAM extends LlamaAMImpl
   synchronized void placeThrottledReservations() {
     LOG.trace("Running throttle for '{}'", queue);
     LlamaAMEventImpl events = new LlamaAMEventImpl();
-    Iterator<PlacedReservationImpl> it = queuedReservations.values().iterator();
     int placed = 0;
     int failed = 0;
-    while (placedReservations < maxPlacedReservations && it.hasNext()) {
-      PlacedReservationImpl pr = it.next();
-      it.remove();
-      try {
-        pr.setQueued(false);
-        pr.setStatus(PlacedReservation.Status.PENDING);
-        LOG.trace("Removed {} from queue and placing the reservation.", pr);
-        am.reserve(pr.getReservationId(), pr);
-        events.addReservation(pr);
-        placed++;
-        placedReservations++;
-      } catch (Throwable ex) {
-        LOG.error("Reservation {} rejected with exception {}", pr,
-            ex.getMessage(), ex);
-        pr.setStatus(PlacedReservation.Status.REJECTED);
-        events.addReservation(pr);
-        failed++;
+    for (Reservation.Priority priority : Reservation.Priority.values()) {
+      Iterator<PlacedReservationImpl> it =
+          queuedReservations.values().iterator();
+      while (placedReservations < maxPlacedReservations && it.hasNext()) {
+        PlacedReservationImpl pr = it.next();
+        if (pr.getPriority() != priority) {
+          continue;
+        }
+        it.remove();
+        queuedReservationsByHandle.remove(pr.getHandle(),
+            pr.getReservationId());
+        try {
+          pr.setQueued(false);
+          pr.setStatus(PlacedReservation.Status.PENDING);
+          LOG.trace("Removed {} from queue and placing the reservation.", pr);
+          am.reserve(pr.getReservationId(), pr);
+          events.addReservation(pr);
+          placed++;
+          placedReservations++;
+        } catch (Throwable ex) {
+          LOG.error("Reservation {} rejected with exception {}", pr,
+              ex.getMessage(), ex);
+          pr.setStatus(PlacedReservation.Status.REJECTED);
+          events.addReservation(pr);
+          failed++;
+        }
       }
     }
     if (placed + failed > 0) {
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.am.api.PlacedResource;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Views taken while building one event. A reservation or resource added more
+ * than once, or a resource of a reservation also added on its own, gets the
+ * same view as long as it did not change in between.
+ * <p/>
+ * It must be used by the owner of the reservations, it is not thread safe.
+ */
+class ViewCache {
+  private final Map<PlacedReservationImpl, PlacedReservationImpl> reservations =
+      new IdentityHashMap<PlacedReservationImpl, PlacedReservationImpl>();
+  private final Map<PlacedResourceImpl, PlacedResourceImpl> resources =
+      new IdentityHashMap<PlacedResourceImpl, PlacedResourceImpl>();
+
+  public PlacedReservationImpl get(PlacedReservation reservation) {
+    PlacedReservationImpl view;
+    // builders are subclasses, they are copied first
+    if (reservation.getClass() != PlacedReservationImpl.class) {
+      view = new PlacedReservationImpl(reservation).view(this);
+    } else {
+      PlacedReservationImpl live = (PlacedReservationImpl) reservation;
+      if (live.isImmutable()) {
+        view = live;
+      } else {
+        view = reservations.get(live);
+        if (view == null || view.getModCount() != live.getModCount()) {
+          view = live.view(this);
+          reservations.put(live, view);
+        }
+      }
+    }
+    return view;
+  }
+
+  public PlacedResourceImpl get(PlacedResource resource) {
+    PlacedResourceImpl view;
+    if (resource.getClass() != PlacedResourceImpl.class) {
+      view = new PlacedResourceImpl(resource).view();
+    } else {
+      PlacedResourceImpl live = (PlacedResourceImpl) resource;
+      if (live.isImmutable()) {
+        view = live;
+      } else {
+        view = resources.get(live);
+        if (view == null || view.getVersion() != live.getVersion()) {
+          view = live.view();
+          resources.put(live, view);
+        }
+      }
+    }
+    return view;
+  }
+
+}
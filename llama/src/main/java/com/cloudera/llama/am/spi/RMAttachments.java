@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.spi;
+
+import com.cloudera.llama.util.ParamChecker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RM specific data an {@link RMConnector} attaches to a {@link RMResource}.
+ * <p/>
+ * Connectors should use typed {@link Slot}s, obtained once via
+ * {@link #slot(String, Class)}, the values are kept in a small array indexed
+ * by slot. For connectors using the <code>Map</code> interface each key is
+ * a slot, keys must be a fixed set of names.
+ * <p/>
+ * Attachments are not synchronized, the connector owning the resource must
+ * coordinate access to them.
+ * <p/>
+ * {@link #EMPTY} is shared by resources that must not carry attachments, it
+ * cannot be modified.
+ */
+public class RMAttachments extends AbstractMap<String, Object> {
+
+  public static final class Slot<T> {
+    private final int index;
+    private final String name;
+    private final Class<T> type;
+
+    private Slot(int index, String name, Class<T> type) {
+      this.index = index;
+      this.name = name;
+      this.type = type;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static final Map<String, Slot<?>> SLOTS_BY_NAME =
+      new ConcurrentHashMap<String, Slot<?>>();
+  private static volatile Slot<?>[] slots = new Slot<?>[0];
+
+  /**
+   * Returns the slot with the given name, creating it if it does not exist.
+   */
+  @SuppressWarnings("unchecked")
+  public static synchronized <T> Slot<T> slot(String name, Class<T> type) {
+    ParamChecker.notEmpty(name, "name");
+    ParamChecker.notNull(type, "type");
+    Slot<?> slot = SLOTS_BY_NAME.get(name);
+    if (slot == null) {
+      slot = new Slot<T>(slots.length, name, type);
+      SLOTS_BY_NAME.put(name, slot);
+      Slot<?>[] newSlots = Arrays.copyOf(slots, slots.length + 1);
+      newSlots[slot.index] = slot;
+      slots = newSlots;
+    } else if (!slot.type.isAssignableFrom(type)) {
+      throw new IllegalArgumentException("Slot '" + name + "' is of type " +
+          slot.type.getName() + ", not " + type.getName());
+    }
+    return (Slot<T>) slot;
+  }
+
+  private static Slot<?> findSlot(Object name) {
+    return (name != null) ? SLOTS_BY_NAME.get(name) : null;
+  }
+
+  private static final Object[] NO_VALUES = new Object[0];
+
+  public static final RMAttachments EMPTY = new RMAttachments(true);
+
+  private final boolean readOnly;
+  private Object[] values = NO_VALUES;
+
+  public RMAttachments() {
+    this(false);
+  }
+
+  private RMAttachments(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  public <T> T get(Slot<T> slot) {
+    return (slot.index < values.length) ? slot.type.cast(values[slot.index])
+                                        : null;
+  }
+
+  public <T> T set(Slot<T> slot, T value) {
+    if (slot.index >= values.length) {
+      if (value == null) {
+        return null;
+      }
+      checkWritable();
+      values = Arrays.copyOf(values, slot.index + 1);
+    }
+    T previous = slot.type.cast(values[slot.index]);
+    values[slot.index] = slot.type.cast(value);
+    return previous;
+  }
+
+  @Override
+  public Object get(Object key) {
+    Slot<?> slot = findSlot(key);
+    return (slot != null) ? get(slot) : null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object put(String key, Object value) {
+    Slot<?> slot = findSlot(key);
+    if (slot == null) {
+      slot = slot(key, Object.class);
+    }
+    return set((Slot<Object>) slot, value);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object remove(Object key) {
+    Slot<?> slot = findSlot(key);
+    return (slot != null) ? set((Slot<Object>) slot, null) : null;
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ?> map) {
+    if (map instanceof RMAttachments) {
+      Object[] other = ((RMAttachments) map).values;
+      if (other.length > values.length) {
+        checkWritable();
+        values = Arrays.copyOf(values, other.length);
+      }
+      for (int i = 0; i < other.length; i++) {
+        if (other[i] != null) {
+          values[i] = other[i];
+        }
+      }
+    } else {
+      super.putAll(map);
+    }
+  }
+
+  @Override
+  public void clear() {
+    values = NO_VALUES;
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException("Read only attachments");
+    }
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new Iterator<Entry<String, Object>>() {
+          private final Object[] snapshot = values;
+          private final Slot<?>[] names = slots;
+          private int next = advance(0);
+          private int last = -1;
+
+          private int advance(int i) {
+            while (i < snapshot.length && snapshot[i] == null) {
+              i++;
+            }
+            return i;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next < snapshot.length;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            last = next;
+            next = advance(next + 1);
+            return new SimpleImmutableEntry<String, Object>(
+                names[last].name, snapshot[last]);
+          }
+
+          @Override
+          public void remove() {
+            if (last == -1) {
+              throw new IllegalStateException();
+            }
+            RMAttachments.this.remove(names[last].name);
+            last = -1;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for (Object value : values) {
+          if (value != null) {
+            size++;
+          }
+        }
+        return size;
+      }
+    };
+  }
+
+}
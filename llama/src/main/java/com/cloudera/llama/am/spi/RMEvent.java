@@ -35,14 +35,14 @@ import java.util.Map;
 public class RMEvent {
   private final UUID resourceId;
   private final Object rmResourceId;
-  private final Map<String, Object> rmData;
+  private final RMAttachments rmData;
   private final PlacedResource.Status status;
   private final int cpuVCores;
   private final int memoryMbs;
   private final String location;
 
   private RMEvent(UUID resourceId, Object rmResourceId,
-      Map<String, Object> rmData, String location, int cpuVCores, int memoryMbs,
+      RMAttachments rmData, String location, int cpuVCores, int memoryMbs,
       PlacedResource.Status status) {
     this.resourceId = resourceId;
     this.rmResourceId = rmResourceId;
@@ -59,8 +59,19 @@ public class RMEvent {
   public static RMEvent createAllocationEvent(UUID resourceId,
       String location, int vCpuCores, int memoryMb, Object rmResourceId,
       Map<String, Object> rmData) {
-    return new RMEvent(resourceId, rmResourceId, rmData, location, vCpuCores,
-        memoryMb, PlacedResource.Status.ALLOCATED);
+    return new RMEvent(resourceId, rmResourceId, toAttachments(rmData),
+        location, vCpuCores, memoryMb, PlacedResource.Status.ALLOCATED);
+  }
+
+  private static RMAttachments toAttachments(Map<String, Object> rmData) {
+    RMAttachments attachments = null;
+    if (rmData instanceof RMAttachments) {
+      attachments = (RMAttachments) rmData;
+    } else if (rmData != null) {
+      attachments = new RMAttachments();
+      attachments.putAll(rmData);
+    }
+    return attachments;
   }
 
   /**
@@ -79,7 +90,7 @@ public class RMEvent {
     return rmResourceId;
   }
 
-  public Map<String, Object> getRmData() {
+  public RMAttachments getRmData() {
     return rmData;
   }
 
@@ -17,11 +17,10 @@
  */
 package com.cloudera.llama.am.spi;
 
+import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.am.api.Resource;
 import com.cloudera.llama.util.UUID;
 
-import java.util.Map;
-
 /**
  * A <code>RMResource</code> represents a single resource requested to the
  * Resource Manager via a {@link RMConnector} instance.
@@ -29,7 +28,7 @@ import java.util.Map;
  * The {@link #getResourceId()} is the client ID of the resource, the
  * {@link #getRmResourceId()} is the Resource Manager ID of the resource.
  * <p/>
- * The {@link #getRmData()} Map can be used by the {@link RMConnector}
+ * The {@link #getRmData()} attachments can be used by the {@link RMConnector}
  * implementations to store RM specific data associated with the resource for
  * use by the connector itself while the resource is active.
  */
@@ -47,6 +46,11 @@ public interface RMResource extends Resource {
 
   public void setRmResourceId(Object rmResourceId);
 
-  public Map<String, Object> getRmData();
+  public RMAttachments getRmData();
+
+  /**
+   * Returns the priority of the reservation the resource belongs to.
+   */
+  public Reservation.Priority getPriority();
 
 }
@@ -20,11 +20,16 @@ package com.cloudera.llama.am.yarn;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.NodeInfo;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.am.spi.RMConnector;
 import com.cloudera.llama.am.spi.RMEvent;
 import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.server.MetricUtil;
 import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.DelayedRunnable;
 import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.util.NamedThreadFactory;
@@ -58,6 +63,7 @@ import org.apache.hadoop.yarn.client.api.YarnClientApplication;
 import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.apache.hadoop.yarn.util.RackResolver;
 import org.apache.hadoop.yarn.util.Records;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +82,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -121,7 +130,47 @@ public class YarnRMConnector implements RMConnector, Configurable,
   public static final String ADVERTISED_TRACKING_URL_KEY = PREFIX_KEY +
       "advertised.tracking.url";
 
-  private static final String YARN_RM_CONNECTOR_KEY = "yarn-rm-connector";
+  /**
+   * Time a <code>PREFERRED</code> request waits for a node-local allocation
+   * before it is reissued at rack (or any) level. Zero disables the node-local
+   * phase.
+   */
+  public static final String LOCALITY_DELAY_NODE_KEY = PREFIX_KEY +
+      "locality.delay.node.ms";
+  public static final long LOCALITY_DELAY_NODE_DEFAULT = 0;
+
+  /**
+   * Time a <code>PREFERRED</code> request waits for a rack-local allocation
+   * before it is reissued for any location. Zero disables the rack-local
+   * phase.
+   */
+  public static final String LOCALITY_DELAY_RACK_KEY = PREFIX_KEY +
+      "locality.delay.rack.ms";
+  public static final long LOCALITY_DELAY_RACK_DEFAULT = 0;
+
+  private static final String METRIC_PREFIX = LlamaAM.METRIC_PREFIX + "yarn.";
+
+  private static final String NODE_LOCAL_METER = METRIC_PREFIX +
+      "preferred.node-local.meter";
+  private static final String RACK_LOCAL_METER = METRIC_PREFIX +
+      "preferred.rack-local.meter";
+  private static final String OFF_RACK_METER = METRIC_PREFIX +
+      "preferred.off-rack.meter";
+  private static final String RELAXED_TO_RACK_METER = METRIC_PREFIX +
+      "preferred.relaxed-to-rack.meter";
+  private static final String RELAXED_TO_ANY_METER = METRIC_PREFIX +
+      "preferred.relaxed-to-any.meter";
+
+  public static final List<String> METRIC_KEYS = Arrays.asList(
+      NODE_LOCAL_METER, RACK_LOCAL_METER, OFF_RACK_METER,
+      RELAXED_TO_RACK_METER, RELAXED_TO_ANY_METER);
+
+  private static final RMAttachments.Slot<YarnRMConnector> CONNECTOR_SLOT =
+      RMAttachments.slot("yarn-rm-connector", YarnRMConnector.class);
+  private static final RMAttachments.Slot<LlamaContainerRequest> REQUEST_SLOT =
+      RMAttachments.slot("request", LlamaContainerRequest.class);
+  private static final RMAttachments.Slot<Container> CONTAINER_SLOT =
+      RMAttachments.slot("container", Container.class);
 
   private static final int SLEEP_TIME_SEC = 315360000; //10 years
 
@@ -140,12 +189,25 @@ public class YarnRMConnector implements RMConnector, Configurable,
   private int containerHandlerQueueThreshold;
   private BlockingQueue<ContainerHandler> containerHandlerQueue;
   private ThreadPoolExecutor containerHandlerExecutor;
+  private MetricRegistry metricRegistry;
+  private long nodeLocalityDelay;
+  private long rackLocalityDelay;
+  private final Object localityLock = new Object();
+  private final Map<UUID, LocalityRelaxation> pendingRelaxations =
+      new HashMap<UUID, LocalityRelaxation>();
+  private final DelayQueue<LocalityRelaxation> relaxationQueue =
+      new DelayQueue<LocalityRelaxation>();
+  private ExecutorService relaxationExecutor;
 
   public YarnRMConnector() {
   }
 
   @Override
   public void setMetricRegistry(MetricRegistry metricRegistry) {
+    this.metricRegistry = metricRegistry;
+    for (String key : METRIC_KEYS) {
+      MetricUtil.registerMeter(metricRegistry, key);
+    }
   }
 
   @Override
@@ -180,6 +242,10 @@ public class YarnRMConnector implements RMConnector, Configurable,
         (YarnConfiguration.RM_SCHEDULER_INCLUDE_PORT_IN_NODE_NAME,
             YarnConfiguration.DEFAULT_RM_SCHEDULER_USE_PORT_FOR_NODE_NAME);
     appType = getConf().get(LlamaAM.CLUSTER_ID, LlamaAM.CLUSTER_ID_DEFAULT);
+    nodeLocalityDelay = getConf().getLong(LOCALITY_DELAY_NODE_KEY,
+        LOCALITY_DELAY_NODE_DEFAULT);
+    rackLocalityDelay = getConf().getLong(LOCALITY_DELAY_RACK_KEY,
+        LOCALITY_DELAY_RACK_DEFAULT);
     yarnConf = new YarnConfiguration();
     for (Map.Entry entry : getConf()) {
       yarnConf.set((String) entry.getKey(), (String) entry.getValue());
@@ -266,6 +332,7 @@ public class YarnRMConnector implements RMConnector, Configurable,
           containerHandlerQueue,
           new NamedThreadFactory("llama-container-handler"));
       containerHandlerExecutor.prestartAllCoreThreads();
+      startLocalityRelaxer(queue);
     } catch (Exception ex) {
       throw new LlamaException(ex, ErrorCode.AM_CANNOT_REGISTER, appId, queue);
     }
@@ -444,6 +511,7 @@ public class YarnRMConnector implements RMConnector, Configurable,
 
   private synchronized void _stop(FinalApplicationStatus status, String msg,
       boolean stopYarnClient) {
+    stopLocalityRelaxer();
     if (containerHandlerExecutor != null) {
       containerHandlerExecutor.shutdownNow();
       containerHandlerExecutor = null;
@@ -514,26 +582,198 @@ public class YarnRMConnector implements RMConnector, Configurable,
 
   private static final String[] RACKS = new String[0];
 
+  /**
+   * Locality level a container request is issued at. <code>MUST</code>
+   * requests are always <code>NODE</code>, <code>DONT_CARE</code> requests
+   * are always <code>ANY</code>, <code>PREFERRED</code> requests start at
+   * <code>NODE</code> and are relaxed by Llama once the configured locality
+   * delays expire.
+   */
+  enum LocalityStage {NODE, RACK, ANY}
+
   class LlamaContainerRequest extends AMRMClient.ContainerRequest {
     private RMResource placedResource;
+    private LocalityStage stage;
 
-    public LlamaContainerRequest(RMResource resource)
-        throws LlamaException {
+    public LlamaContainerRequest(RMResource resource, LocalityStage stage,
+        String rack, Priority priority) {
       super(Resource.newInstance(resource.getMemoryMbsAsk(),
                 resource.getCpuVCoresAsk()),
-            new String[]{ resource.getLocationAsk()},
-            RACKS,
-            getRequestPriority(resource.getMemoryMbsAsk(),
-                resource.getCpuVCoresAsk(), resource.getLocalityAsk()),
-            (resource.getLocalityAsk() !=
-                com.cloudera.llama.am.api.Resource.Locality.MUST)
+            (stage == LocalityStage.RACK) ? null
+                                          : new String[]{ resource.getLocationAsk()},
+            (stage == LocalityStage.RACK) ? new String[]{ rack } : RACKS,
+            priority,
+            (stage == LocalityStage.ANY)
       );
       this.placedResource = resource;
+      this.stage = stage;
     }
 
     public RMResource getResourceAsk() {
       return placedResource;
     }
+
+    public LocalityStage getStage() {
+      return stage;
+    }
+  }
+
+  boolean isDelaySchedulingEnabled() {
+    return nodeLocalityDelay > 0 || rackLocalityDelay > 0;
+  }
+
+  private LocalityStage getInitialStage(
+      com.cloudera.llama.am.api.Resource.Locality locality) {
+    LocalityStage stage;
+    switch (locality) {
+      case MUST:
+        stage = LocalityStage.NODE;
+        break;
+      case PREFERRED:
+        if (nodeLocalityDelay > 0) {
+          stage = LocalityStage.NODE;
+        } else if (rackLocalityDelay > 0) {
+          stage = LocalityStage.RACK;
+        } else {
+          stage = LocalityStage.ANY;
+        }
+        break;
+      default:
+        stage = LocalityStage.ANY;
+        break;
+    }
+    return stage;
+  }
+
+  String resolveRack(String node) {
+    int sep = node.indexOf(':');
+    String host = (sep == -1) ? node : node.substring(0, sep);
+    return RackResolver.resolve(host).getNetworkLocation();
+  }
+
+  /**
+   * Tracks an outstanding <code>PREFERRED</code> request waiting for its
+   * current locality delay to expire.
+   */
+  class LocalityRelaxation extends DelayedRunnable {
+    private final RMResource resource;
+
+    public LocalityRelaxation(RMResource resource, long delay) {
+      super(delay);
+      this.resource = resource;
+    }
+
+    public RMResource getResource() {
+      return resource;
+    }
+
+    @Override
+    public void run() {
+      relax(this);
+    }
+  }
+
+  // racks are resolved for the locality meters even without delay scheduling
+  void startLocalityRelaxer(String queue) {
+    RackResolver.init(yarnConf);
+    if (isDelaySchedulingEnabled()) {
+      relaxationExecutor = Executors.newSingleThreadExecutor(
+          new NamedThreadFactory("llama-locality-relaxer-" + queue));
+      relaxationExecutor.execute(new LocalityRelaxer());
+    }
+  }
+
+  void stopLocalityRelaxer() {
+    if (relaxationExecutor != null) {
+      relaxationExecutor.shutdownNow();
+      relaxationExecutor = null;
+    }
+  }
+
+  // for testing, sets what register() gets from YARN
+  void setAMRMClient(AMRMClientAsync<LlamaContainerRequest> amRmClientAsync,
+      Map<String, Resource> nodes, Resource maxResource) {
+    this.amRmClientAsync = amRmClientAsync;
+    this.nodes = nodes;
+    this.maxResource = maxResource;
+  }
+
+  // runs the relaxations whose delay expired without waiting for the
+  // relaxer thread, for testing with a mock clock
+  int relaxDue() {
+    int count = 0;
+    LocalityRelaxation relaxation = relaxationQueue.poll();
+    while (relaxation != null) {
+      relaxation.run();
+      count++;
+      relaxation = relaxationQueue.poll();
+    }
+    return count;
+  }
+
+  class LocalityRelaxer implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          relaxationQueue.take().run();
+        }
+      } catch (InterruptedException ex) {
+        //NOP
+      }
+    }
+  }
+
+  private void relax(LocalityRelaxation relaxation) {
+    synchronized (localityLock) {
+      RMResource resource = relaxation.getResource();
+      if (pendingRelaxations.get(resource.getResourceId()) != relaxation) {
+        // allocated or released while waiting
+        return;
+      }
+      LlamaContainerRequest current = resource.getRmData().get(REQUEST_SLOT);
+      if (amRmClientAsync == null || current == null) {
+        pendingRelaxations.remove(resource.getResourceId());
+        return;
+      }
+      LocalityStage next = (current.getStage() == LocalityStage.NODE &&
+          rackLocalityDelay > 0) ? LocalityStage.RACK : LocalityStage.ANY;
+      String rack = (next == LocalityStage.RACK)
+                    ? resolveRack(resource.getLocationAsk()) : null;
+      LlamaContainerRequest request = new LlamaContainerRequest(resource, next,
+          rack, getRelaxedRequestPriority(resource.getMemoryMbsAsk(),
+          resource.getCpuVCoresAsk(), next, resource.getPriority()));
+      amRmClientAsync.removeContainerRequest(current);
+      amRmClientAsync.addContainerRequest(request);
+      resource.getRmData().set(REQUEST_SLOT, request);
+      anyLocationResourceIdToRequestMap.put(resource.getResourceId(), request);
+      LOG.debug("Relaxed container request for '{}' from '{}' to '{}'",
+          resource, current.getStage(), next);
+      if (next == LocalityStage.RACK) {
+        MetricUtil.meter(metricRegistry, RELAXED_TO_RACK_METER, 1);
+        relaxation.setDelay(rackLocalityDelay);
+        relaxationQueue.add(relaxation);
+      } else {
+        MetricUtil.meter(metricRegistry, RELAXED_TO_ANY_METER, 1);
+        pendingRelaxations.remove(resource.getResourceId());
+      }
+    }
+  }
+
+  void meterLocality(RMResource resource, Container container) {
+    if (metricRegistry != null) {
+      String node = getNodeName(container.getNodeId());
+      String key;
+      if (node.equals(resource.getLocationAsk())) {
+        key = NODE_LOCAL_METER;
+      } else if (resolveRack(node).equals(
+          resolveRack(resource.getLocationAsk()))) {
+        key = RACK_LOCAL_METER;
+      } else {
+        key = OFF_RACK_METER;
+      }
+      MetricUtil.meter(metricRegistry, key, 1);
+    }
   }
 
   private void verifyResources(Collection<RMResource> resources)
@@ -563,20 +803,37 @@ public class YarnRMConnector implements RMConnector, Configurable,
     }
   }
 
-  private void _reserve(Collection<RMResource> resources)
+  void _reserve(Collection<RMResource> resources)
       throws LlamaException {
     verifyResources(resources);
-    for (RMResource resource : resources) {
-      LOG.debug("Adding container request for '{}'", resource);
-      LlamaContainerRequest request = new LlamaContainerRequest(resource);
-      amRmClientAsync.addContainerRequest(request);
-      resource.getRmData().put("request", request);
-
-      resource.getRmData().put(YARN_RM_CONNECTOR_KEY, this);
-
-      /*Keeping resources which relax locality in the separate map to handle them when possible*/
-      if(resource.getLocalityAsk()!= com.cloudera.llama.am.api.Resource.Locality.MUST) {
-        anyLocationResourceIdToRequestMap.put(resource.getResourceId(), request);
+    synchronized (localityLock) {
+      for (RMResource resource : resources) {
+        LOG.debug("Adding container request for '{}'", resource);
+        LocalityStage stage = getInitialStage(resource.getLocalityAsk());
+        String rack = (stage == LocalityStage.RACK)
+                      ? resolveRack(resource.getLocationAsk()) : null;
+        LlamaContainerRequest request = new LlamaContainerRequest(resource,
+            stage, rack, getRequestPriority(resource.getMemoryMbsAsk(),
+            resource.getCpuVCoresAsk(), resource.getLocalityAsk(),
+            resource.getPriority()));
+        amRmClientAsync.addContainerRequest(request);
+        resource.getRmData().set(REQUEST_SLOT, request);
+
+        resource.getRmData().set(CONNECTOR_SLOT, this);
+
+        /*Keeping resources which relax locality in the separate map to handle them when possible*/
+        if(resource.getLocalityAsk()!= com.cloudera.llama.am.api.Resource.Locality.MUST) {
+          anyLocationResourceIdToRequestMap.put(resource.getResourceId(), request);
+        }
+        if (stage != LocalityStage.ANY &&
+            resource.getLocalityAsk() ==
+                com.cloudera.llama.am.api.Resource.Locality.PREFERRED) {
+          LocalityRelaxation relaxation = new LocalityRelaxation(resource,
+              (stage == LocalityStage.NODE) ? nodeLocalityDelay
+                                            : rackLocalityDelay);
+          pendingRelaxations.put(resource.getResourceId(), relaxation);
+          relaxationQueue.add(relaxation);
+        }
       }
     }
   }
@@ -601,11 +858,10 @@ public class YarnRMConnector implements RMConnector, Configurable,
     }
   }
 
-  private void _release(Collection<RMResource> resources)
+  void _release(Collection<RMResource> resources)
       throws LlamaException {
     for (RMResource resource : resources) {
-      YarnRMConnector connector =
-          (YarnRMConnector) resource.getRmData().get(YARN_RM_CONNECTOR_KEY);
+      YarnRMConnector connector = resource.getRmData().get(CONNECTOR_SLOT);
       if (connector == null || !connector.equals(this)) {
         LOG.warn("Resource being released is not from this connector. " +
             "Resource [{}], Resource connector [{}], this [{}]",
@@ -614,14 +870,18 @@ public class YarnRMConnector implements RMConnector, Configurable,
       }
 
       boolean released = false;
-      LlamaContainerRequest request = (LlamaContainerRequest)
-          resource.getRmData().get("request");
-      if (request != null) {
-        LOG.debug("Releasing container request for '{}'", resource);
-        amRmClientAsync.removeContainerRequest(request);
-        released = true;
+      synchronized (localityLock) {
+        pendingRelaxations.remove(resource.getResourceId());
+        LlamaContainerRequest request =
+            resource.getRmData().get(REQUEST_SLOT);
+        if (request != null) {
+          LOG.debug("Releasing container request for '{}'", resource);
+          amRmClientAsync.removeContainerRequest(request);
+          anyLocationResourceIdToRequestMap.remove(resource.getResourceId());
+          released = true;
+        }
       }
-      Container container = (Container) resource.getRmData().get("container");
+      Container container = resource.getRmData().get(CONTAINER_SLOT);
       if (container != null) {
         LOG.debug("Releasing container '{}' for '{}'", container, resource);
         containerToResourceMap.remove(container.getId());
@@ -710,6 +970,8 @@ public class YarnRMConnector implements RMConnector, Configurable,
     final private UUID clientResourceId;
     final private Container container;
     final private Action action;
+    final private ReservationTracer.Trace trace;
+    final private long queuedOn;
 
     public ContainerHandler(UserGroupInformation ugi,
         RMResource placedResource, Container container, Action action) {
@@ -717,6 +979,8 @@ public class YarnRMConnector implements RMConnector, Configurable,
       this.clientResourceId = placedResource.getResourceId();
       this.container = container;
       this.action = action;
+      trace = placedResource.getRmData().get(ReservationTracer.TRACE_SLOT);
+      queuedOn = Clock.currentTimeMillis();
     }
 
     @Override
@@ -737,6 +1001,9 @@ public class YarnRMConnector implements RMConnector, Configurable,
               ctx.setCommands(Arrays.asList("sleep", Integer.toString(
                   SLEEP_TIME_SEC)));
               nmClient.startContainer(container, ctx);
+              if (trace != null) {
+                trace.containerStarted(Clock.currentTimeMillis() - queuedOn);
+              }
             } else {
               nmClient.stopContainer(container.getId(), container.getNodeId());
             }
@@ -782,9 +1049,14 @@ public class YarnRMConnector implements RMConnector, Configurable,
     LOG.debug("New allocation for '{}' container '{}', node '{}'",
             resource, container.getId(), container.getNodeId());
 
-    resource.getRmData().put("container", container);
+    resource.getRmData().set(CONTAINER_SLOT, container);
     containerToResourceMap.put(container.getId(),
             resource.getResourceId());
+    if (resource.getLocalityAsk() ==
+        com.cloudera.llama.am.api.Resource.Locality.PREFERRED) {
+      pendingRelaxations.remove(resource.getResourceId());
+      meterLocality(resource, container);
+    }
     changes.add(createResourceAllocation(resource, container));
     amRmClientAsync.removeContainerRequest(req);
     LOG.trace("Reservation resource '{}' removed from YARN", resource);
@@ -796,60 +1068,69 @@ public class YarnRMConnector implements RMConnector, Configurable,
   public void onContainersAllocated(List<Container> containers) {
     List<RMEvent> changes = new ArrayList<RMEvent>();
     // no need to use a ugi.doAs() as this is called from within Yarn client
-    List<Container> unclaimedContainers = new ArrayList<Container>();
-    for (Container container : containers) {
-      List<? extends Collection<LlamaContainerRequest>> matchingContainerReqs =
-          amRmClientAsync.getMatchingRequests(container.getPriority(),
-              getNodeName(container.getNodeId()), container.getResource());
-
-      if (!matchingContainerReqs.isEmpty()) {
-        LlamaContainerRequest req = null;
-        Iterator<? extends Collection<LlamaContainerRequest>> it1 =
-            matchingContainerReqs.iterator();
-        while (req == null && it1.hasNext()) {
-          Iterator<LlamaContainerRequest> it2 = it1.next().iterator();
-          while (req == null && it2.hasNext()) {
-            req = it2.next();
-            LOG.trace("Matching container '{}' resource '{}'", container,
-                req.getResourceAsk());
-          }
+    synchronized (localityLock) {
+      List<Container> unclaimedContainers = new ArrayList<Container>();
+      for (Container container : containers) {
+        List<? extends Collection<LlamaContainerRequest>> matchingContainerReqs =
+            amRmClientAsync.getMatchingRequests(container.getPriority(),
+                getNodeName(container.getNodeId()), container.getResource());
+        if (matchingContainerReqs.isEmpty() && isDelaySchedulingEnabled()) {
+          // PREFERRED requests relaxed to rack level are keyed by rack
+          matchingContainerReqs = amRmClientAsync.getMatchingRequests(
+              container.getPriority(),
+              resolveRack(getNodeName(container.getNodeId())),
+              container.getResource());
         }
-        if (req == null) {
-          LOG.error("There was a match for container '{}', " +
-              "LlamaContainerRequest cannot be NULL", container);
+
+        if (!matchingContainerReqs.isEmpty()) {
+          LlamaContainerRequest req = null;
+          Iterator<? extends Collection<LlamaContainerRequest>> it1 =
+              matchingContainerReqs.iterator();
+          while (req == null && it1.hasNext()) {
+            Iterator<LlamaContainerRequest> it2 = it1.next().iterator();
+            while (req == null && it2.hasNext()) {
+              req = it2.next();
+              LOG.trace("Matching container '{}' resource '{}'", container,
+                  req.getResourceAsk());
+            }
+          }
+          if (req == null) {
+            LOG.error("There was a match for container '{}', " +
+                "LlamaContainerRequest cannot be NULL", container);
+          } else {
+            handleContainerMatchingRequest(container, req, changes);
+            /*Remove the granted request from anyLocationResourceIdToRequestMap if it is there*/
+            anyLocationResourceIdToRequestMap.remove(req.getResourceAsk().getResourceId());
+          }
         } else {
-          handleContainerMatchingRequest(container, req, changes);
-          /*Remove the granted request from anyLocationResourceIdToRequestMap if it is there*/
-          anyLocationResourceIdToRequestMap.remove(req.getResourceAsk().getResourceId());
+          LOG.debug("No strong request match for {}. Adding to the list of unclaimed containers.",
+              container);
+          unclaimedContainers.add(container);
         }
-      } else {
-        LOG.debug("No strong request match for {}. Adding to the list of unclaimed containers.",
-            container);
-        unclaimedContainers.add(container);
       }
-    }
-    /*Matching YARN resources against requests relaxing locality*/
-    for (Container container : unclaimedContainers) {
-      /*Looking for requests with 'DONT_CARE' or 'PREFERRED' locality which match with the resources we've got*/
-      boolean containerIsClaimed = false;
-      Iterator<Map.Entry<UUID, LlamaContainerRequest>> iterator = anyLocationResourceIdToRequestMap.entrySet().iterator();
-      while (iterator.hasNext()) {
-        Map.Entry<UUID, LlamaContainerRequest> entry = iterator.next();
-        LlamaContainerRequest request = entry.getValue();
-        /*Matching by the capacity only*/
-        if(request.getResourceAsk().getCpuVCoresAsk() == container.getResource().getVirtualCores() &&
-                request.getResourceAsk().getMemoryMbsAsk() == container.getResource().getMemory()) {
-          handleContainerMatchingRequest(container, request, changes);
-          iterator.remove();
-          containerIsClaimed = true;
-          break;
+      /*Matching YARN resources against requests relaxing locality*/
+      for (Container container : unclaimedContainers) {
+        /*Looking for requests with 'DONT_CARE' or 'PREFERRED' locality which match with the resources we've got*/
+        boolean containerIsClaimed = false;
+        Iterator<Map.Entry<UUID, LlamaContainerRequest>> iterator = anyLocationResourceIdToRequestMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<UUID, LlamaContainerRequest> entry = iterator.next();
+          LlamaContainerRequest request = entry.getValue();
+          /*Matching by the capacity only*/
+          if(request.getResourceAsk().getCpuVCoresAsk() == container.getResource().getVirtualCores() &&
+                  request.getResourceAsk().getMemoryMbsAsk() == container.getResource().getMemory()) {
+            handleContainerMatchingRequest(container, request, changes);
+            iterator.remove();
+            containerIsClaimed = true;
+            break;
+          }
+        }
+        if(!containerIsClaimed) {
+          LOG.error("No matching request for {}. Releasing the container.",
+                  container);
+          containerToResourceMap.remove(container.getId());
+          amRmClientAsync.releaseAssignedContainer(container.getId());
         }
-      }
-      if(!containerIsClaimed) {
-        LOG.error("No matching request for {}. Releasing the container.",
-                container);
-        containerToResourceMap.remove(container.getId());
-        amRmClientAsync.releaseAssignedContainer(container.getId());
       }
     }
     llamaCallback.onEvent(changes);
@@ -896,14 +1177,32 @@ public class YarnRMConnector implements RMConnector, Configurable,
         .toString(), true);
   }
 
+  private static final int MUST_PRIORITY_BAND = 1000000;
+  private static final int PREFERRED_PRIORITY_BAND = 2000000;
+  private static final int PREFERRED_RACK_PRIORITY_BAND = 3000000;
+  private static final int PREFERRED_ANY_PRIORITY_BAND = 4000000;
+  private static final int DONT_CARE_PRIORITY_BAND = 5000000;
+
+  // each reservation priority class gets its own set of locality bands, a
+  // higher class always takes precedence regardless of locality and size.
+  private static final int PRIORITY_CLASS_WIDTH = 5000000;
+
+  static Priority getRequestPriority(int mbs, int vcores,
+      com.cloudera.llama.am.api.Resource.Locality locality) {
+    return getRequestPriority(mbs, vcores, locality,
+        Reservation.Priority.NORMAL);
+  }
+
   /**
    * YARN only allows one resource size per priority, so map resource sizes
    * to priorities.
    * Should be able to remove this when YARN-314 is fixed and choose purely on
    * locality.
+   * The reservation priority class is the most significant component.
    */
   static Priority getRequestPriority(int mbs, int vcores,
-      com.cloudera.llama.am.api.Resource.Locality locality) {
+      com.cloudera.llama.am.api.Resource.Locality locality,
+      Reservation.Priority reservationPriority) {
     // Lower values mean higher priority
     // More restrictive localities should get higher priority because they are
     // harder to satisfy
@@ -912,16 +1211,45 @@ public class YarnRMConnector implements RMConnector, Configurable,
     int priority;
     switch (locality) {
       case MUST:
-        priority = 1000000;
+        priority = MUST_PRIORITY_BAND;
         break;
       case PREFERRED:
-        priority = 2000000;
+        priority = PREFERRED_PRIORITY_BAND;
         break;
       default:
-        priority = 3000000;
+        priority = DONT_CARE_PRIORITY_BAND;
         break;
     }
 
+    priority += getPriorityClassOffset(reservationPriority);
+    priority -= mbs;
+    priority -= vcores;
+    return Priority.newInstance(priority);
+  }
+
+  private static int getPriorityClassOffset(
+      Reservation.Priority reservationPriority) {
+    return (reservationPriority != null)
+           ? reservationPriority.ordinal() * PRIORITY_CLASS_WIDTH
+           : Reservation.Priority.NORMAL.ordinal() * PRIORITY_CLASS_WIDTH;
+  }
+
+  /**
+   * Priorities for <code>PREFERRED</code> requests reissued by delay
+   * scheduling. They use their own bands because YARN does not allow mixing
+   * relaxed and non-relaxed requests within the same priority.
+   */
+  static Priority getRelaxedRequestPriority(int mbs, int vcores,
+      LocalityStage stage) {
+    return getRelaxedRequestPriority(mbs, vcores, stage,
+        Reservation.Priority.NORMAL);
+  }
+
+  static Priority getRelaxedRequestPriority(int mbs, int vcores,
+      LocalityStage stage, Reservation.Priority reservationPriority) {
+    int priority = (stage == LocalityStage.RACK) ? PREFERRED_RACK_PRIORITY_BAND
+                                                 : PREFERRED_ANY_PRIORITY_BAND;
+    priority += getPriorityClassOffset(reservationPriority);
     priority -= mbs;
     priority -= vcores;
     return Priority.newInstance(priority);
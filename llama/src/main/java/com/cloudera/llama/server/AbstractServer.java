@@ -58,10 +58,14 @@ public abstract class AbstractServer implements Configurable {
     return serverSubject;
   }
 
-  // non blocking
-  public synchronized void start() {
+  /**
+   * Does the initialization that has no side effects outside of the process,
+   * login, metrics, JMX and {@link #prepareService()}, so a later
+   * {@link #start()} only starts the service and the transport.
+   */
+  public synchronized void prepare() {
     if (runLevel != 0) {
-      throw new RuntimeException("AbstractServer already started");
+      throw new RuntimeException("AbstractServer already prepared");
     }
     serverSubject = loginServerSubject();
     runLevel = 0;
@@ -71,6 +75,21 @@ public abstract class AbstractServer implements Configurable {
     LOG.trace("Starting JMX");
     startJMX();
     runLevel = 2;
+    LOG.trace("Preparing service '{}'", serverName);
+    prepareService();
+  }
+
+  public synchronized boolean isPrepared() {
+    return runLevel == 2;
+  }
+
+  // non blocking
+  public synchronized void start() {
+    if (runLevel == 0) {
+      prepare();
+    } else if (runLevel != 2) {
+      throw new RuntimeException("AbstractServer already started");
+    }
     LOG.trace("Starting service '{}'", serverName);
     startService();
     runLevel = 3;
@@ -160,6 +179,13 @@ public abstract class AbstractServer implements Configurable {
       }
     }
     if (runLevel >= 2) {
+      try {
+        LOG.trace("Unpreparing service '{}'", serverName);
+        unprepareService();
+      } catch (Throwable ex) {
+        LOG.warn("Failed to unprepare service '{}': {}", serverName,
+            ex.toString(), ex);
+      }
       try {
         LOG.trace("Stopping JMX");
         stopJMX();
@@ -202,6 +228,16 @@ public abstract class AbstractServer implements Configurable {
   protected void stopJMX() {
   }
 
+  /**
+   * Initialization of the service without side effects outside of the
+   * process, it is undone by {@link #unprepareService()}.
+   */
+  protected void prepareService() {
+  }
+
+  protected void unprepareService() {
+  }
+
   protected abstract void startService();
 
   protected abstract void stopService();
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.cloudera.llama.util.Clock;
+
+/**
+ * Circuit breaker guarding the calls to a single client.
+ * <p/>
+ * The circuit is CLOSED while calls succeed. After the configured number of
+ * consecutive failures it is OPEN and calls are not allowed for the configured
+ * open time. Then it is HALF_OPEN and a single call is allowed as a probe, a
+ * successful probe closes the circuit, a failed probe opens it again. Other
+ * calls are not allowed while the probe is out, if its outcome is not known
+ * within the open time another probe is allowed.
+ * <p/>
+ * A failure threshold of zero disables the circuit breaker, it is always
+ * CLOSED.
+ */
+public class CircuitBreaker {
+
+  public enum State {CLOSED, OPEN, HALF_OPEN}
+
+  private final int failureThreshold;
+  private final long openTime;
+  private State state;
+  private int failures;
+  private long openUntil;
+  private long trips;
+
+  public CircuitBreaker(int failureThreshold, long openTime) {
+    this.failureThreshold = failureThreshold;
+    this.openTime = openTime;
+    state = State.CLOSED;
+  }
+
+  /**
+   * Returns if a call is allowed, if the open time has elapsed the circuit
+   * becomes HALF_OPEN and the call is the probe.
+   */
+  public synchronized boolean allowCall() {
+    boolean allow = true;
+    if (state != State.CLOSED) {
+      long now = Clock.currentTimeMillis();
+      if (now >= openUntil) {
+        // the probe holds the circuit for another open time
+        state = State.HALF_OPEN;
+        openUntil = now + openTime;
+      } else {
+        allow = false;
+      }
+    }
+    return allow;
+  }
+
+  public synchronized void onSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  /**
+   * Records a failed call, returns if the failure opened the circuit.
+   */
+  public synchronized boolean onFailure() {
+    boolean tripped = false;
+    failures++;
+    if (failureThreshold > 0 &&
+        (state == State.HALF_OPEN || failures >= failureThreshold)) {
+      state = State.OPEN;
+      openUntil = Clock.currentTimeMillis() + openTime;
+      trips++;
+      tripped = true;
+    }
+    return tripped;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Returns the time, in milliseconds, until the next probe is allowed,
+   * zero if the circuit is CLOSED.
+   */
+  public synchronized long getOpenRemaining() {
+    return (state != State.CLOSED)
+           ? Math.max(0, openUntil - Clock.currentTimeMillis()) : 0;
+  }
+
+  public synchronized long getTrips() {
+    return trips;
+  }
+
+}
@@ -19,33 +19,63 @@ package com.cloudera.llama.server;
 
 import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.thrift.LlamaNotificationService;
+import com.cloudera.llama.thrift.TNotificationProtocol;
+import com.cloudera.llama.util.ParamChecker;
 import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.MetricRegistry;
-import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Calls a client callback, reconnecting after a failure.
+ * <p/>
+ * Calls are guarded by a {@link CircuitBreaker}, while the circuit is open
+ * calls fail right away with a {@link ClientCircuitOpenException} without
+ * using the network. Connections are established with the client notifier
+ * connect timeout instead of the longer transport timeout.
+ * <p/>
+ * The client callback is called with the {@link TNotificationProtocol} the
+ * client registered with, BINARY by default.
+ */
 public class ClientCaller {
+  private static final Logger LOG = LoggerFactory.getLogger(
+      ClientCaller.class);
+
   private final ServerConfiguration conf;
   private final UUID clientId;
   private final UUID handle;
   private final String host;
   private final int port;
   private final MetricRegistry metricRegistry;
+  private final CircuitBreaker circuitBreaker;
+  private TNotificationProtocol protocol;
   private TTransport tTransport;
   private LlamaNotificationService.Iface client;
   private boolean lastSuccessful;
-  private long lastCall;
+  private volatile long lastCall;
 
   public ClientCaller(ServerConfiguration conf, UUID clientId, UUID handle,
       String host, int port, MetricRegistry metricRegistry) {
+    this(conf, clientId, handle, host, port, TNotificationProtocol.BINARY,
+        metricRegistry);
+  }
+
+  public ClientCaller(ServerConfiguration conf, UUID clientId, UUID handle,
+      String host, int port, TNotificationProtocol protocol,
+      MetricRegistry metricRegistry) {
     this.conf = conf;
+    this.protocol = ParamChecker.notNull(protocol, "protocol");
     this.clientId = clientId;
     this.handle = handle;
     this.host = host;
     this.port = port;
     lastCall = System.currentTimeMillis();
     this.metricRegistry = metricRegistry;
+    circuitBreaker = new CircuitBreaker(
+        conf.getClientNotifierCircuitBreakerFailures(),
+        conf.getClientNotifierCircuitBreakerOpen());
   }
 
   public UUID getClientId() {
@@ -77,8 +107,30 @@ public class ClientCaller {
     public abstract T call() throws ClientException;
   }
 
-  public synchronized <T> T execute(Callable<T> callable)
-      throws ClientException {
+  private ClientCircuitOpenException circuitOpen() {
+    long retryIn = circuitBreaker.getOpenRemaining();
+    return new ClientCircuitOpenException(FastFormat.format(
+        "Circuit to '{}:{}' open, next probe in '{}' ms", host, port,
+        retryIn), retryIn);
+  }
+
+  // the circuit is checked before taking the client lock, so that calls
+  // fail right away instead of waiting for a call in progress
+  public <T> T execute(Callable<T> callable) throws ClientException {
+    if (!circuitBreaker.allowCall()) {
+      throw circuitOpen();
+    }
+    synchronized (this) {
+      // the call in progress may have opened the circuit
+      if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+        throw circuitOpen();
+      }
+      return call(callable);
+    }
+  }
+
+  // caller must hold the lock
+  private <T> T call(Callable<T> callable) throws ClientException {
     T ret;
     try {
       lastCall = System.currentTimeMillis();
@@ -90,8 +142,15 @@ public class ClientCaller {
       callable.client = client;
       ret = callable.call();
       lastSuccessful = true;
+      circuitBreaker.onSuccess();
     } catch (Exception ex) {
       lastSuccessful = false;
+      if (circuitBreaker.onFailure()) {
+        LOG.warn("Circuit to '{}:{}' for client '{}' opened, trip '{}'",
+            host, port, clientId, circuitBreaker.getTrips());
+        MetricUtil.meter(metricRegistry, ClientNotifier.CIRCUIT_TRIPS_METER,
+            1);
+      }
       throw new ClientException(FastFormat.format(
           "Could not connect to '{}:{}', {}", host, port, ex), ex);
     }
@@ -99,25 +158,53 @@ public class ClientCaller {
   }
 
   LlamaNotificationService.Iface createClient() throws Exception {
-    tTransport = ThriftEndPoint.createClientTransport(conf, host, port);
-    tTransport.open();
-    TProtocol protocol = new TBinaryProtocol(tTransport);
+    closeTransport();
+    tTransport = ThriftEndPoint.createClientTransport(conf, host, port,
+        conf.getClientNotifierConnectTimeout());
+    tTransport = ThriftEndPoint.createClientTransport(tTransport, protocol);
+    if (!tTransport.isOpen()) {
+      tTransport.open();
+    }
+    TProtocol tProtocol = ThriftEndPoint.createTProtocol(tTransport, protocol);
     LlamaNotificationService.Iface client =
-        new LlamaNotificationService.Client(protocol);
+        new LlamaNotificationService.Client(tProtocol);
     client = new MetricClientLlamaNotificationService(client, metricRegistry);
     return client;
   }
 
-  public synchronized void cleanUpClient() {
+  private void closeTransport() {
     if (tTransport != null) {
       tTransport.close();
     }
     tTransport = null;
+  }
+
+  public synchronized void cleanUpClient() {
+    closeTransport();
     client = null;
   }
 
-  public synchronized long getLastCall() {
+  public synchronized TNotificationProtocol getNotificationProtocol() {
+    return protocol;
+  }
+
+  // the new protocol is used from the next call, with a new connection
+  public synchronized void setNotificationProtocol(
+      TNotificationProtocol protocol) {
+    ParamChecker.notNull(protocol, "protocol");
+    if (this.protocol != protocol) {
+      this.protocol = protocol;
+      lastSuccessful = false;
+      cleanUpClient();
+    }
+  }
+
+  public long getLastCall() {
     return lastCall;
   }
 
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
 }
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+/**
+ * Thrown by {@link ClientCaller} when a call is not done because the
+ * circuit to the client is open.
+ */
+public class ClientCircuitOpenException extends ClientException {
+  private final long retryIn;
+
+  public ClientCircuitOpenException(String msg, long retryIn) {
+    super(msg, null);
+    this.retryIn = retryIn;
+  }
+
+  /**
+   * Returns the time, in milliseconds, until the circuit allows a probe.
+   */
+  public long getRetryIn() {
+    return retryIn;
+  }
+
+}
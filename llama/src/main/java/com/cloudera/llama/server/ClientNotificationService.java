@@ -20,6 +20,7 @@ package com.cloudera.llama.server;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.LlamaAMEvent;
 import com.cloudera.llama.am.api.LlamaAMListener;
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.util.ParamChecker;
@@ -40,9 +41,14 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
       "clients.current.gauge";
   private static final String CLIENTS_LOST_METER = LlamaAM.METRIC_PREFIX +
       "clients.lost.meter";
+  private static final String CLIENTS_CIRCUIT_OPEN_GAUGE =
+      LlamaAM.METRIC_PREFIX + "clients.circuit-open.gauge";
+  private static final String CLIENTS_CIRCUIT_HALF_OPEN_GAUGE =
+      LlamaAM.METRIC_PREFIX + "clients.circuit-half-open.gauge";
 
   public static final List<String> METRIC_KEYS = Arrays.asList(
-      CLIENTS_GAUGE, CLIENTS_LOST_METER);
+      CLIENTS_GAUGE, CLIENTS_LOST_METER, CLIENTS_CIRCUIT_OPEN_GAUGE,
+      CLIENTS_CIRCUIT_HALF_OPEN_GAUGE);
 
   public interface Listener {
 
@@ -60,13 +66,14 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
     private final String address;
     private final ClientCaller caller;
 
-    public Entry(UUID clientId, UUID handle, String host, int port) {
+    public Entry(UUID clientId, UUID handle, String host, int port,
+        TNotificationProtocol protocol) {
       this.clientId = clientId;
       this.handle = handle;
       this.host = host;
       this.port = port;
       this.address = host + ":" + port;
-      caller = new ClientCaller(conf, clientId, handle, host, port,
+      caller = new ClientCaller(conf, clientId, handle, host, port, protocol,
           metricRegistry);
     }
 
@@ -111,6 +118,20 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
       MetricClientLlamaNotificationService.registerMetric(metricRegistry);
       MetricUtil.registerGauge(metricRegistry, CLIENTS_GAUGE, this);
       MetricUtil.registerMeter(metricRegistry, CLIENTS_LOST_METER);
+      MetricUtil.registerGauge(metricRegistry, CLIENTS_CIRCUIT_OPEN_GAUGE,
+          new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+              return getClientsWithCircuit(CircuitBreaker.State.OPEN);
+            }
+          });
+      MetricUtil.registerGauge(metricRegistry,
+          CLIENTS_CIRCUIT_HALF_OPEN_GAUGE, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+              return getClientsWithCircuit(CircuitBreaker.State.HALF_OPEN);
+            }
+          });
       ClientNotifier.registerMetric(metricRegistry);
     }
     clientNotifier = new ClientNotifier(conf, nodeMapper, this, metricRegistry);
@@ -136,9 +157,11 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
   private String getAddress(String host, int port) {
     return host.toLowerCase() + ":" + port;
   }
-  private UUID registerNewClient(UUID clientId, String host, int port) {
-    UUID handle = UUID.randomUUID();
-    clients.put(handle, new Entry(clientId, handle, host, port));
+  private UUID registerNewClient(UUID clientId, String host, int port,
+      TNotificationProtocol protocol) {
+    // handles authorize the client calls, they must not be predictable
+    UUID handle = UUID.secureUUID();
+    clients.put(handle, new Entry(clientId, handle, host, port, protocol));
     clientIdToHandle.put(clientId, handle);
     callbackToHandle.put(getAddress(host, port), handle);
     clientNotifier.registerClientForHeartbeats(handle);
@@ -146,8 +169,24 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
   }
 
 
-  public synchronized UUID register(UUID clientId, String host, int port)
+  /**
+   * Returns the notification protocol to use for a client. Clients not
+   * requesting a protocol (<code>NULL</code>), like older clients, get BINARY.
+   */
+  public TNotificationProtocol negotiateProtocol(
+      TNotificationProtocol requested) {
+    return (requested == null || !conf.getClientNotifierCompactFramedEnabled())
+           ? TNotificationProtocol.BINARY : requested;
+  }
+
+  public UUID register(UUID clientId, String host, int port)
       throws LlamaException {
+    return register(clientId, host, port, TNotificationProtocol.BINARY);
+  }
+
+  public synchronized UUID register(UUID clientId, String host, int port,
+      TNotificationProtocol protocol) throws LlamaException {
+    ParamChecker.notNull(protocol, "protocol");
     lock.writeLock().lock();
     try {
       UUID handle;
@@ -155,11 +194,11 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
       UUID callbackHandle = callbackToHandle.get(getAddress(host, port));
       if (clientIdHandle == null && callbackHandle == null) {
         //NEW HANDLE
-        handle = registerNewClient(clientId, host, port);
+        handle = registerNewClient(clientId, host, port, protocol);
       } else if (clientIdHandle == null) {
         //NEW HANDLE, delete reservations from old handle
         unregister(callbackHandle);
-        handle = registerNewClient(clientId, host, port);
+        handle = registerNewClient(clientId, host, port, protocol);
       } else if (callbackHandle == null) {
         //ERROR
         Entry entry = clients.get(clientIdHandle);
@@ -167,6 +206,7 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
             clientId, getAddress(entry.host, entry.port));
       } else if (clientIdHandle == callbackHandle) {
         handle = clientIdHandle;
+        clients.get(handle).caller.setNotificationProtocol(protocol);
       } else {
         //ERROR
         throw new LlamaException(ErrorCode.CLIENT_INVALID_REGISTRATION, clientId,
@@ -249,4 +289,14 @@ public class ClientNotificationService implements ClientNotifier.ClientRegistry,
     return clients.size();
   }
 
+  int getClientsWithCircuit(CircuitBreaker.State state) {
+    int count = 0;
+    for (Entry entry : clients.values()) {
+      if (entry.caller.getCircuitBreaker().getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
 }
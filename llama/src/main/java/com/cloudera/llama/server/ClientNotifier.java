@@ -22,10 +22,11 @@ import com.cloudera.llama.am.api.LlamaAMEvent;
 import com.cloudera.llama.am.api.LlamaAMListener;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
 import com.cloudera.llama.thrift.TLlamaAMNotificationResponse;
 import com.cloudera.llama.thrift.TUniqueId;
-import com.cloudera.llama.util.DelayedRunnable;
+import com.cloudera.llama.util.HashedTimingWheel;
 import com.cloudera.llama.util.NamedThreadFactory;
 import com.cloudera.llama.util.UUID;
 import com.codahale.metrics.MetricRegistry;
@@ -40,11 +41,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -58,12 +59,28 @@ public class ClientNotifier implements LlamaAMListener {
   private static final String NOTIFICATION_FAILURES_METER = METRIC_PREFIX +
       "notification-failures.meter";
 
+  static final String CIRCUIT_TRIPS_METER = METRIC_PREFIX +
+      "circuit-trips.meter";
+
+  private static final String NOTIFICATIONS_PARKED_METER = METRIC_PREFIX +
+      "notifications-parked.meter";
+
+  private static final String NOTIFICATIONS_COALESCED_METER = METRIC_PREFIX +
+      "notifications-coalesced.meter";
+
+  private static final String HEARTBEATS_SUPPRESSED_METER = METRIC_PREFIX +
+      "heartbeats-suppressed.meter";
+
   public static final List<String> METRIC_KEYS = Arrays.asList(
-      NOTIFICATION_FAILURES_METER);
+      NOTIFICATION_FAILURES_METER, CIRCUIT_TRIPS_METER,
+      NOTIFICATIONS_PARKED_METER, NOTIFICATIONS_COALESCED_METER,
+      HEARTBEATS_SUPPRESSED_METER);
 
   public static void registerMetric(MetricRegistry metricRegistry) {
     if (metricRegistry != null) {
-      MetricUtil.registerMeter(metricRegistry, NOTIFICATION_FAILURES_METER);
+      for (String key : METRIC_KEYS) {
+        MetricUtil.registerMeter(metricRegistry, key);
+      }
     }
   }
 
@@ -82,9 +99,14 @@ public class ClientNotifier implements LlamaAMListener {
   private int maxRetries;
   private int retryInverval;
   private int clientHeartbeat;
-  private DelayQueue<DelayedRunnable> eventsQueue;
+  private int parkedMax;
   private ThreadPoolExecutor executor;
+  private ThreadPoolExecutor heartbeatExecutor;
+  // heartbeats, retries and parked notifications wait here
+  private HashedTimingWheel timer;
   private Subject subject;
+  // notifications waiting for the circuit of their client to close, by handle
+  private final Map<UUID, Notifier> parked;
 
   public ClientNotifier(ServerConfiguration conf, NodeMapper nodeMapper,
       ClientRegistry clientRegistry, MetricRegistry metricRegistry) {
@@ -96,28 +118,38 @@ public class ClientNotifier implements LlamaAMListener {
     maxRetries = conf.getClientNotifierMaxRetries();
     retryInverval = conf.getClientNotifierRetryInterval();
     clientHeartbeat = conf.getClientNotifierHeartbeat();
+    parkedMax = conf.getClientNotifierParkedMax();
+    parked = new HashMap<UUID, Notifier>();
   }
 
-  @SuppressWarnings("unchecked")
   public void start() throws Exception {
-    eventsQueue = new DelayQueue<DelayedRunnable>();
     int threads = conf.getClientNotifierThreads();
-    //funny downcasting and upcasting because javac gets goofy here
     executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
-        (BlockingQueue<Runnable>) (BlockingQueue) eventsQueue,
+        new LinkedBlockingQueue<Runnable>(),
         new NamedThreadFactory("llama-notifier"));
     executor.prestartAllCoreThreads();
+    threads = conf.getClientNotifierHeartbeatThreads();
+    heartbeatExecutor = new ThreadPoolExecutor(threads, threads, 0,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory("llama-notifier-heartbeat"));
+    heartbeatExecutor.prestartAllCoreThreads();
+    timer = new HashedTimingWheel("llama-notifier-timer",
+        conf.getClientNotifierTimerTick(),
+        conf.getClientNotifierTimerWheelSize());
+    timer.start();
     subject = Security.loginClientSubject(conf);
   }
 
   public void stop() {
+    timer.stop();
     executor.shutdownNow();
+    heartbeatExecutor.shutdownNow();
     Security.logout(subject);
   }
 
   private void queueNotifier(Notifier notifier) {
-    eventsQueue.add(notifier);
-    int size = eventsQueue.size();
+    executor.execute(notifier);
+    int size = executor.getQueue().size();
     if (size > queueThreshold) {
       LOG.warn("Outbound events queue over '{}' threshold at '{}'",
           queueThreshold, size);
@@ -125,7 +157,7 @@ public class ClientNotifier implements LlamaAMListener {
   }
 
   public void registerClientForHeartbeats(UUID handle) {
-    queueNotifier(new Notifier(handle));
+    new Notifier(handle).schedule(clientHeartbeat);
   }
 
   @Override
@@ -162,12 +194,43 @@ public class ClientNotifier implements LlamaAMListener {
         }
       }
       for (Map.Entry<UUID, List<Object>> entry : mapRR.entrySet()) {
-        queueNotifier(new Notifier(entry.getKey(),
-            TypeUtils.toAMNotification(entry.getKey(), entry.getValue(),
-                nodeMapper)));
+        TLlamaAMNotificationRequest request = TypeUtils.toAMNotification(
+            entry.getKey(), entry.getValue(), nodeMapper);
+        if (!coalesce(entry.getKey(), request)) {
+          queueNotifier(new Notifier(entry.getKey(), request));
+        }
+      }
+    }
+  }
 
+  // hands the notification to the one parked for the client, if any. If
+  // the client has too many parked notifications it is released.
+  private boolean coalesce(UUID handle, TLlamaAMNotificationRequest request) {
+    boolean overflow;
+    synchronized (parked) {
+      Notifier notifier = parked.get(handle);
+      if (notifier == null) {
+        return false;
       }
+      overflow = !notifier.offer(request);
+      if (overflow) {
+        parked.remove(handle);
+        notifier.backlog.clear();
+      }
+    }
+    if (overflow) {
+      LOG.warn("Over '{}' notifications parked for handle '{}', releasing " +
+          "client", parkedMax, handle);
+      clientRegistry.onMaxFailures(handle);
+    }
+    return true;
+  }
+
+  private static ClientCircuitOpenException getCircuitOpen(Throwable ex) {
+    while (ex != null && !(ex instanceof ClientCircuitOpenException)) {
+      ex = ex.getCause();
     }
+    return (ClientCircuitOpenException) ex;
   }
 
   private void addToList(UUID handle, Object rr, Map<UUID, List<Object>> mapRR) {
@@ -201,6 +264,14 @@ public class ClientNotifier implements LlamaAMListener {
 
               TLlamaAMNotificationResponse response =
                   getClient().AMNotification(request);
+              ReservationTracer tracer = ReservationTracer.getTracer();
+              if (tracer.isEnabled() &&
+                  request.getAllocated_reservation_idsSize() > 0) {
+                for (TUniqueId id : request.getAllocated_reservation_ids()) {
+                  tracer.mark(TypeUtils.toUUID(id),
+                      ReservationTracer.Stage.NOTIFIED);
+                }
+              }
               if (!TypeUtils.isOK(response.getStatus())) {
                 LOG.warn("Client notification rejected status '{}', " +
                     "reason: {}", response.getStatus().getStatus_code(),
@@ -217,20 +288,29 @@ public class ClientNotifier implements LlamaAMListener {
     });
   }
 
-  public class Notifier extends DelayedRunnable {
+  public class Notifier implements Runnable {
     private UUID handle;
     private TLlamaAMNotificationRequest notification;
     private int retries;
+    // while parked, guarded by 'parked': the notifications to send after
+    // this one, in order, and if this one is being sent and cannot change.
+    private final LinkedList<TLlamaAMNotificationRequest> backlog =
+        new LinkedList<TLlamaAMNotificationRequest>();
+    private boolean sending;
+    private final Runnable dispatcher = new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    };
 
     public Notifier(UUID handle) {
-      super(clientHeartbeat);
       this.handle = handle;
       this.notification = null;
       retries = 0;
     }
 
     public Notifier(UUID handle, TLlamaAMNotificationRequest notification) {
-      super(0);
       this.handle = handle;
       this.notification = notification;
       retries = 0;
@@ -244,20 +324,12 @@ public class ClientNotifier implements LlamaAMListener {
         ClientNotifier.this.notify(clientCaller, notification);
         success = true;
       } else {
-        long lastCall = System.currentTimeMillis() - clientCaller.getLastCall();
-        if (lastCall > clientHeartbeat) {
-          LOG.debug("Doing heartbeat for clientId '{}'",
-              clientCaller.getClientId());
-          TLlamaAMNotificationRequest request = TypeUtils.createHearbeat(handle);
-          ClientNotifier.this.notify(clientCaller, request);
-          success = true;
-          setDelay(clientHeartbeat);
-        } else {
-          LOG.debug("Skipping heartbeat for clientId '{}'",
-              clientCaller.getClientId());
-          setDelay(clientHeartbeat - lastCall);
-        }
-        ClientNotifier.this.eventsQueue.add(this);
+        LOG.debug("Doing heartbeat for clientId '{}'",
+            clientCaller.getClientId());
+        TLlamaAMNotificationRequest request = TypeUtils.createHearbeat(handle);
+        ClientNotifier.this.notify(clientCaller, request);
+        success = true;
+        schedule(clientHeartbeat);
       }
       if (success && retries > 0) {
         LOG.warn("Notification to '{}' successful after '{}' retries, " +
@@ -267,31 +339,163 @@ public class ClientNotifier implements LlamaAMListener {
       }
     }
 
+    private void schedule(long delay) {
+      timer.schedule(dispatcher, delay);
+    }
+
+    // runs in the timer thread, it must not block. Heartbeats are suppressed
+    // if there was a call to the client within the heartbeat interval, they
+    // are not suppressed while retrying as the last call was the failed one.
+    private void dispatch() {
+      if (notification != null) {
+        queueNotifier(this);
+      } else {
+        ClientCaller clientCaller = clientRegistry.getClientCaller(handle);
+        if (clientCaller == null) {
+          LOG.debug("Handle '{}' not known, stopping heartbeats", handle);
+        } else {
+          long lastCall = System.currentTimeMillis() -
+              clientCaller.getLastCall();
+          if (retries == 0 && lastCall < clientHeartbeat) {
+            LOG.debug("Skipping heartbeat for clientId '{}'",
+                clientCaller.getClientId());
+            MetricUtil.meter(metricRegistry, HEARTBEATS_SUPPRESSED_METER, 1);
+            schedule(clientHeartbeat - lastCall);
+          } else {
+            heartbeatExecutor.execute(this);
+          }
+        }
+      }
+    }
+
+    // caller must hold 'parked'. Merges the notification into the last
+    // parked one if they do not change the same reservations or resources,
+    // else it is queued after it. Returns FALSE if the backlog is full.
+    private boolean offer(TLlamaAMNotificationRequest request) {
+      TLlamaAMNotificationRequest last = (!backlog.isEmpty())
+          ? backlog.getLast() : (sending) ? null : notification;
+      if (last != null && TypeUtils.canMergeAMNotification(last, request)) {
+        TypeUtils.mergeAMNotification(last, request);
+        MetricUtil.meter(metricRegistry, NOTIFICATIONS_COALESCED_METER, 1);
+        return true;
+      }
+      if (backlog.size() < parkedMax) {
+        backlog.add(request);
+        MetricUtil.meter(metricRegistry, NOTIFICATIONS_PARKED_METER, 1);
+        return true;
+      }
+      return false;
+    }
+
+    // parks the notification until the circuit of the client allows a
+    // probe, notifications for the client are coalesced into it or queued
+    // after it meanwhile.
+    private void park(long delay) {
+      if (notification == null) {
+        schedule(delay);
+      } else {
+        synchronized (parked) {
+          Notifier notifier = parked.get(handle);
+          if (notifier == null || notifier == this) {
+            if (notifier == null) {
+              parked.put(handle, this);
+              MetricUtil.meter(metricRegistry, NOTIFICATIONS_PARKED_METER, 1);
+            }
+            sending = false;
+            schedule(delay);
+            return;
+          }
+        }
+        if (!coalesce(handle, notification)) {
+          // the parked notification was sent meanwhile
+          park(delay);
+        }
+      }
+    }
+
+    private void setSending(boolean sending) {
+      if (notification != null) {
+        synchronized (parked) {
+          if (parked.get(handle) == this) {
+            this.sending = sending;
+          }
+        }
+      }
+    }
+
+    // after a successful notification, sends the next parked one, if any
+    private void next() {
+      boolean more = false;
+      if (notification != null) {
+        synchronized (parked) {
+          if (parked.get(handle) == this) {
+            sending = false;
+            if (backlog.isEmpty()) {
+              parked.remove(handle);
+            } else {
+              notification = backlog.removeFirst();
+              more = true;
+            }
+          }
+        }
+      }
+      if (more) {
+        queueNotifier(this);
+      }
+    }
+
+    private void unpark() {
+      if (notification != null) {
+        synchronized (parked) {
+          if (parked.get(handle) == this) {
+            parked.remove(handle);
+            backlog.clear();
+          }
+        }
+      }
+    }
+
     @Override
     public void run() {
       UUID clientId = null;
+      ClientCaller clientCaller = null;
+      setSending(true);
       try {
-        ClientCaller clientCaller = clientRegistry.getClientCaller(handle);
+        clientCaller = clientRegistry.getClientCaller(handle);
         if (clientCaller != null) {
           clientId = clientCaller.getClientId();
           doNotification(clientCaller);
+          next();
         } else {
           LOG.warn("Handle '{}' not known, client notification discarded",
               handle);
+          unpark();
         }
       } catch (Exception ex) {
-        MetricUtil.meter(metricRegistry, NOTIFICATION_FAILURES_METER, 1);
-        if (retries < maxRetries) {
-          retries++;
-          LOG.warn("Notification to '{}' failed '{}' time(s), " +
-              "retrying in " + "'{}' ms, error: {}", clientId, retries,
-              retryInverval, ex.toString(), ex);
-          setDelay(retryInverval);
-          eventsQueue.add(this);
+        ClientCircuitOpenException circuitOpen = getCircuitOpen(ex);
+        if (circuitOpen != null) {
+          LOG.debug("Circuit to '{}' open, parking notification for '{}' ms",
+              clientId, circuitOpen.getRetryIn());
+          park(circuitOpen.getRetryIn());
         } else {
-          LOG.warn("Notification to '{}' retried '{}' time(s), releasing " +
-              "client, error: {}", clientId, retries, ex.toString(), ex);
-          clientRegistry.onMaxFailures(handle);
+          MetricUtil.meter(metricRegistry, NOTIFICATION_FAILURES_METER, 1);
+          if (retries < maxRetries) {
+            retries++;
+            // no point in retrying before the circuit allows a probe
+            long delay = (clientCaller == null) ? retryInverval
+                : Math.max(retryInverval,
+                    clientCaller.getCircuitBreaker().getOpenRemaining());
+            LOG.warn("Notification to '{}' failed '{}' time(s), " +
+                "retrying in " + "'{}' ms, error: {}", clientId, retries,
+                delay, ex.toString(), ex);
+            setSending(false);
+            schedule(delay);
+          } else {
+            LOG.warn("Notification to '{}' retried '{}' time(s), releasing " +
+                "client, error: {}", clientId, retries, ex.toString(), ex);
+            unpark();
+            clientRegistry.onMaxFailures(handle);
+          }
         }
       }
     }
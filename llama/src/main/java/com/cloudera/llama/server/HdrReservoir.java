@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.ParamChecker;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-linear bucketed {@link Reservoir} in the spirit of an
+ * HDR histogram.
+ * <p/>
+ * Values are counted in buckets with a configurable number of bits of
+ * sub-bucket precision (5 bits, the default, is a relative error under 2%),
+ * so an update is a single atomic increment and memory does not grow with the
+ * sample rate. Samples are kept in two rotating windows, a snapshot reflects
+ * between one and two windows worth of samples.
+ * <p/>
+ * The windows are allocated on the first update, a reservoir never updated
+ * takes no bucket memory. Each window takes 8 bytes per bucket, with the
+ * default precision 1376 buckets, 22KB for both windows, each bit less of
+ * precision halves it.
+ */
+public class HdrReservoir implements Reservoir {
+  public static final int PRECISION_BITS_DEFAULT = 5;
+
+  // highest tracked magnitude, 2^47 (~39hrs in nanoseconds), larger values
+  // are counted in the last bucket.
+  private static final int MAX_MAGNITUDE = 47;
+
+  static final int SNAPSHOT_SIZE = 1028;
+
+  private final int subBucketBits;
+  private final int subBuckets;
+  private final int linearLimit;
+  private final int buckets;
+  private final long windowMs;
+  private volatile AtomicLongArray[] windows;
+  private volatile int current;
+  private volatile long windowStart;
+
+  public HdrReservoir(long windowMs) {
+    this(windowMs, PRECISION_BITS_DEFAULT);
+  }
+
+  public HdrReservoir(long windowMs, int precisionBits) {
+    ParamChecker.greaterThan(precisionBits, 0, "precisionBits");
+    ParamChecker.asserts(precisionBits < MAX_MAGNITUDE - 1,
+        "precisionBits must be less than " + (MAX_MAGNITUDE - 1));
+    this.windowMs = windowMs;
+    subBucketBits = precisionBits;
+    subBuckets = 1 << subBucketBits;
+    linearLimit = subBuckets * 2;
+    buckets = linearLimit + (MAX_MAGNITUDE - subBucketBits - 1) * subBuckets;
+    windowStart = Clock.currentTimeMillis();
+  }
+
+  int getBuckets() {
+    return buckets;
+  }
+
+  boolean isAllocated() {
+    return windows != null;
+  }
+
+  int index(long value) {
+    if (value < linearLimit) {
+      return (value < 0) ? 0 : (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    if (magnitude >= MAX_MAGNITUDE) {
+      return buckets - 1;
+    }
+    int shift = magnitude - subBucketBits;
+    int sub = (int) (value >>> shift) - subBuckets;
+    return linearLimit + (shift - 1) * subBuckets + sub;
+  }
+
+  long value(int index) {
+    if (index < linearLimit) {
+      return index;
+    }
+    int shift = (index - linearLimit) / subBuckets + 1;
+    long sub = (index - linearLimit) % subBuckets + subBuckets;
+    long lowest = sub << shift;
+    return lowest + (1L << (shift - 1));
+  }
+
+  private AtomicLongArray getWindow() {
+    AtomicLongArray[] windows = this.windows;
+    if (windows == null) {
+      synchronized (this) {
+        windows = this.windows;
+        if (windows == null) {
+          windows = new AtomicLongArray[]{new AtomicLongArray(buckets),
+              new AtomicLongArray(buckets)};
+          windowStart = Clock.currentTimeMillis();
+          this.windows = windows;
+        }
+      }
+    }
+    long now = Clock.currentTimeMillis();
+    if (now - windowStart >= windowMs) {
+      synchronized (this) {
+        if (now - windowStart >= windowMs) {
+          int next = (current + 1) % windows.length;
+          AtomicLongArray window = windows[next];
+          for (int i = 0; i < buckets; i++) {
+            window.set(i, 0);
+          }
+          if (now - windowStart >= 2 * windowMs) {
+            AtomicLongArray previous = windows[current];
+            for (int i = 0; i < buckets; i++) {
+              previous.set(i, 0);
+            }
+          }
+          current = next;
+          windowStart = now;
+        }
+      }
+    }
+    return windows[current];
+  }
+
+  @Override
+  public int size() {
+    if (windows == null) {
+      return 0;
+    }
+    getWindow();
+    long count = 0;
+    for (AtomicLongArray window : windows) {
+      for (int i = 0; i < buckets; i++) {
+        count += window.get(i);
+      }
+    }
+    return (int) Math.min(count, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void update(long value) {
+    getWindow().incrementAndGet(index(value));
+  }
+
+  @Override
+  public Snapshot getSnapshot() {
+    if (windows == null) {
+      return new Snapshot(new long[0]);
+    }
+    getWindow();
+    long[] counts = new long[buckets];
+    long total = 0;
+    for (AtomicLongArray window : windows) {
+      for (int i = 0; i < buckets; i++) {
+        long count = window.get(i);
+        counts[i] += count;
+        total += count;
+      }
+    }
+    // the snapshot is built with a bounded number of values distributed
+    // across buckets proportionally to the bucket counts.
+    int size = (int) Math.min(total, SNAPSHOT_SIZE);
+    long[] values = new long[size];
+    long cumulative = 0;
+    int pos = 0;
+    for (int i = 0; i < buckets && pos < size; i++) {
+      if (counts[i] > 0) {
+        cumulative += counts[i];
+        int end = (int) (cumulative * size / total);
+        long value = value(i);
+        for (; pos < end; pos++) {
+          values[pos] = value;
+        }
+      }
+    }
+    return new Snapshot(values);
+  }
+
+}
@@ -18,13 +18,14 @@
 package com.cloudera.llama.server;
 
 import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.ParamChecker;
 import com.cloudera.llama.thrift.TUniqueId;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.SlidingTimeWindowReservoir;
 import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,8 +36,29 @@ import java.util.concurrent.TimeUnit;
 public class MetricUtil {
   private static final Logger LOG = LoggerFactory.getLogger("llama.metric");
 
+  // snapshots cover the last 30 to 60 seconds worth of samples.
+  private static final long RESERVOIR_WINDOW_MS = 30 * 1000;
+
+  private static volatile int reservoirPrecisionBits =
+      HdrReservoir.PRECISION_BITS_DEFAULT;
+
+  /**
+   * Sets the precision of the reservoirs of the timers and histograms
+   * registered from now on, it trades accuracy for memory.
+   */
+  public static void setReservoirPrecisionBits(int precisionBits) {
+    ParamChecker.greaterThan(precisionBits, 0, "precisionBits");
+    reservoirPrecisionBits = precisionBits;
+  }
+
   private static Timer createTimer() {
-    return new Timer(new SlidingTimeWindowReservoir(60, TimeUnit.SECONDS));
+    return new Timer(new HdrReservoir(RESERVOIR_WINDOW_MS,
+        reservoirPrecisionBits));
+  }
+
+  private static Histogram createHistogram() {
+    return new Histogram(new HdrReservoir(RESERVOIR_WINDOW_MS,
+        reservoirPrecisionBits));
   }
 
   private static class ChangeableGauge implements Gauge {
@@ -107,6 +129,16 @@ public class MetricUtil {
     }
   }
 
+  public static void registerHistogram(MetricRegistry metricReg, String key) {
+    if (metricReg != null) {
+      try {
+        metricReg.register(key, createHistogram());
+      } catch (IllegalArgumentException ex) {
+        //NOP ignoring re-registrations;
+      }
+    }
+  }
+
   public static void time(MetricRegistry metricReg, String key, long msTime,
       Object logContext) {
     if (metricReg != null) {
@@ -120,6 +152,12 @@ public class MetricUtil {
     }
   }
 
+  public static void update(MetricRegistry metricReg, String key, long value) {
+    if (metricReg != null) {
+      metricReg.histogram(key).update(value);
+    }
+  }
+
   public static class LogContext {
     private String messagePattern;
     private Object[] args;
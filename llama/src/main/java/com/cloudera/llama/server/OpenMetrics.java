@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the metrics of a {@link MetricRegistry} in OpenMetrics text format.
+ * <p/>
+ * Metric names are converted to OpenMetrics names by dropping the type suffix
+ * (<code>.gauge</code>, <code>.timer</code>, <code>.meter</code>,
+ * <code>.histogram</code>) and replacing invalid characters with
+ * <code>_</code>. A <code>[NAME]</code> segment, used by Llama for per queue
+ * metrics, becomes a <code>queue="NAME"</code> label, so
+ * <code>llama.am.queue.reservations[root.q1].gauge</code> is exported as
+ * <code>llama_am_queue_reservations{queue="root.q1"}</code>.
+ * <p/>
+ * Timers are exported as summaries in seconds, histograms as summaries and
+ * meters and counters as counters.
+ */
+public class OpenMetrics {
+  public static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  public static final String QUEUE_LABEL = "queue";
+
+  private static final String[] TYPE_SUFFIXES = {".gauge", ".timer", ".meter",
+      ".histogram", ".counter"};
+
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+
+  private static final double NANOS_IN_SECOND = 1000d * 1000 * 1000;
+
+  private static class Family {
+    private final String name;
+    private final String type;
+    private final List<String> samples = new ArrayList<String>();
+
+    public Family(String name, String type) {
+      this.name = name;
+      this.type = type;
+    }
+  }
+
+  private OpenMetrics() {
+  }
+
+  static String[] parseName(String key) {
+    String label = null;
+    int open = key.indexOf('[');
+    int close = key.indexOf(']', open + 1);
+    if (open > -1 && close > -1) {
+      label = key.substring(open + 1, close);
+      key = key.substring(0, open) + key.substring(close + 1);
+    }
+    for (String suffix : TYPE_SUFFIXES) {
+      if (key.endsWith(suffix)) {
+        key = key.substring(0, key.length() - suffix.length());
+        break;
+      }
+    }
+    StringBuilder sb = new StringBuilder(key.length());
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+          (c >= '0' && c <= '9' && i > 0) || c == '_';
+      sb.append((valid) ? c : '_');
+    }
+    return new String[]{sb.toString(), label};
+  }
+
+  static String escape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String sample(String name, String label, String quantile,
+      Object value) {
+    StringBuilder sb = new StringBuilder(name);
+    if (label != null || quantile != null) {
+      sb.append('{');
+      if (label != null) {
+        sb.append(QUEUE_LABEL).append("=\"").append(escape(label)).append('"');
+      }
+      if (quantile != null) {
+        sb.append((label != null) ? "," : "").append("quantile=\"").
+            append(quantile).append('"');
+      }
+      sb.append('}');
+    }
+    return sb.append(' ').append(value).toString();
+  }
+
+  private static Family getFamily(Map<String, Family> families, String name,
+      String type) {
+    Family family = families.get(name);
+    if (family != null && !family.type.equals(type)) {
+      // same name used by metrics of different types
+      name = name + "_" + type;
+      family = families.get(name);
+    }
+    if (family == null) {
+      family = new Family(name, type);
+      families.put(name, family);
+    }
+    return family;
+  }
+
+  private static void addSummary(Map<String, Family> families, String name,
+      String label, Snapshot snapshot, long count, double scale) {
+    Family family = getFamily(families, name, "summary");
+    for (double quantile : QUANTILES) {
+      family.samples.add(sample(family.name, label, Double.toString(quantile),
+          snapshot.getValue(quantile) / scale));
+    }
+    family.samples.add(sample(family.name + "_count", label, null, count));
+  }
+
+  public static void write(MetricRegistry metricRegistry, Writer out)
+      throws IOException {
+    Map<String, Family> families = new TreeMap<String, Family>();
+    for (Map.Entry<String, Gauge> entry :
+        metricRegistry.getGauges().entrySet()) {
+      Object value = entry.getValue().getValue();
+      if (value instanceof Boolean) {
+        value = ((Boolean) value) ? 1 : 0;
+      }
+      if (value instanceof Number) {
+        String[] name = parseName(entry.getKey());
+        Family family = getFamily(families, name[0], "gauge");
+        family.samples.add(sample(family.name, name[1], null, value));
+      }
+    }
+    for (Map.Entry<String, Counter> entry :
+        metricRegistry.getCounters().entrySet()) {
+      String[] name = parseName(entry.getKey());
+      Family family = getFamily(families, name[0], "counter");
+      family.samples.add(sample(family.name + "_total", name[1], null,
+          entry.getValue().getCount()));
+    }
+    for (Map.Entry<String, Meter> entry :
+        metricRegistry.getMeters().entrySet()) {
+      String[] name = parseName(entry.getKey());
+      Family family = getFamily(families, name[0], "counter");
+      family.samples.add(sample(family.name + "_total", name[1], null,
+          entry.getValue().getCount()));
+    }
+    for (Map.Entry<String, Histogram> entry :
+        metricRegistry.getHistograms().entrySet()) {
+      String[] name = parseName(entry.getKey());
+      Histogram histogram = entry.getValue();
+      addSummary(families, name[0], name[1], histogram.getSnapshot(),
+          histogram.getCount(), 1);
+    }
+    for (Map.Entry<String, Timer> entry :
+        metricRegistry.getTimers().entrySet()) {
+      String[] name = parseName(entry.getKey());
+      Timer timer = entry.getValue();
+      addSummary(families, name[0] + "_seconds", name[1], timer.getSnapshot(),
+          timer.getCount(), NANOS_IN_SECOND);
+    }
+    for (Family family : families.values()) {
+      out.write("# TYPE ");
+      out.write(family.name);
+      out.write(' ');
+      out.write(family.type);
+      out.write('\n');
+      if (family.name.endsWith("_seconds")) {
+        out.write("# UNIT ");
+        out.write(family.name);
+        out.write(" seconds\n");
+      }
+      for (String sample : family.samples) {
+        out.write(sample);
+        out.write('\n');
+      }
+    }
+    out.write("# EOF\n");
+    out.flush();
+  }
+
+}
@@ -179,6 +179,81 @@ public abstract class ServerConfiguration implements Configurable {
         CLIENT_NOTIFIER_HEARTBEAT_DEFAULT);
   }
 
+  public static String CLIENT_NOTIFIER_HEARTBEAT_THREADS_KEY = KEY_PREFIX +
+      "client.notifier.heartbeat.threads";
+  private static int CLIENT_NOTIFIER_HEARTBEAT_THREADS_DEFAULT = 2;
+
+  public int getClientNotifierHeartbeatThreads() {
+    return conf.getInt(getPropertyName(CLIENT_NOTIFIER_HEARTBEAT_THREADS_KEY),
+        CLIENT_NOTIFIER_HEARTBEAT_THREADS_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_TIMER_TICK_KEY = KEY_PREFIX +
+      "client.notifier.timer.tick.ms";
+  private static int CLIENT_NOTIFIER_TIMER_TICK_DEFAULT = 10;
+
+  public int getClientNotifierTimerTick() {
+    return conf.getInt(getPropertyName(CLIENT_NOTIFIER_TIMER_TICK_KEY),
+        CLIENT_NOTIFIER_TIMER_TICK_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_TIMER_WHEEL_SIZE_KEY = KEY_PREFIX +
+      "client.notifier.timer.wheel.size";
+  private static int CLIENT_NOTIFIER_TIMER_WHEEL_SIZE_DEFAULT = 1024;
+
+  public int getClientNotifierTimerWheelSize() {
+    return conf.getInt(getPropertyName(CLIENT_NOTIFIER_TIMER_WHEEL_SIZE_KEY),
+        CLIENT_NOTIFIER_TIMER_WHEEL_SIZE_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_CONNECT_TIMEOUT_KEY = KEY_PREFIX +
+      "client.notifier.connect.timeout.ms";
+  private static int CLIENT_NOTIFIER_CONNECT_TIMEOUT_DEFAULT = 5000;
+
+  public int getClientNotifierConnectTimeout() {
+    return conf.getInt(getPropertyName(CLIENT_NOTIFIER_CONNECT_TIMEOUT_KEY),
+        CLIENT_NOTIFIER_CONNECT_TIMEOUT_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY =
+      KEY_PREFIX + "client.notifier.circuit.breaker.failures";
+  private static int CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_DEFAULT = 3;
+
+  public int getClientNotifierCircuitBreakerFailures() {
+    return conf.getInt(getPropertyName(
+        CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY),
+        CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY =
+      KEY_PREFIX + "client.notifier.circuit.breaker.open.ms";
+  private static int CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_DEFAULT = 5000;
+
+  public int getClientNotifierCircuitBreakerOpen() {
+    return conf.getInt(getPropertyName(
+        CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY),
+        CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_PARKED_MAX_KEY =
+      KEY_PREFIX + "client.notifier.parked.max";
+  private static int CLIENT_NOTIFIER_PARKED_MAX_DEFAULT = 100;
+
+  public int getClientNotifierParkedMax() {
+    return conf.getInt(getPropertyName(CLIENT_NOTIFIER_PARKED_MAX_KEY),
+        CLIENT_NOTIFIER_PARKED_MAX_DEFAULT);
+  }
+
+  public static String CLIENT_NOTIFIER_COMPACT_FRAMED_ENABLED_KEY =
+      KEY_PREFIX + "client.notifier.compact.framed.enabled";
+  private static boolean CLIENT_NOTIFIER_COMPACT_FRAMED_ENABLED_DEFAULT = true;
+
+  public boolean getClientNotifierCompactFramedEnabled() {
+    return conf.getBoolean(getPropertyName(
+        CLIENT_NOTIFIER_COMPACT_FRAMED_ENABLED_KEY),
+        CLIENT_NOTIFIER_COMPACT_FRAMED_ENABLED_DEFAULT);
+  }
+
   public static String NODE_NAME_MAPPING_CLASS_KEY = KEY_PREFIX +
       "node.name.mapping.class";
   private static Class<? extends NodeMapper> NODE_NAME_MAPPING_CLASS_DEFAULT =
@@ -271,5 +346,42 @@ public abstract class ServerConfiguration implements Configurable {
         LOGGER_SERVLET_READ_DEFAULT);
   }
 
+  public static String HTTP_CHANGES_BUFFER_SIZE_KEY = KEY_PREFIX +
+      "http.changes.buffer.size";
+  private static int HTTP_CHANGES_BUFFER_SIZE_DEFAULT = 1000;
+
+  public int getHttpChangesBufferSize() {
+    return conf.getInt(getPropertyName(HTTP_CHANGES_BUFFER_SIZE_KEY),
+        HTTP_CHANGES_BUFFER_SIZE_DEFAULT);
+  }
+
+  public static String HTTP_CHANGES_MAX_SUBSCRIBERS_KEY = KEY_PREFIX +
+      "http.changes.max.subscribers";
+  private static int HTTP_CHANGES_MAX_SUBSCRIBERS_DEFAULT = 10;
+
+  public int getHttpChangesMaxSubscribers() {
+    return conf.getInt(getPropertyName(HTTP_CHANGES_MAX_SUBSCRIBERS_KEY),
+        HTTP_CHANGES_MAX_SUBSCRIBERS_DEFAULT);
+  }
+
+  public static String HTTP_SNAPSHOT_REFRESH_INTERVAL_KEY = KEY_PREFIX +
+      "http.snapshot.refresh.interval.ms";
+  private static long HTTP_SNAPSHOT_REFRESH_INTERVAL_DEFAULT = 100;
+
+  public long getHttpSnapshotRefreshInterval() {
+    return conf.getLong(getPropertyName(HTTP_SNAPSHOT_REFRESH_INTERVAL_KEY),
+        HTTP_SNAPSHOT_REFRESH_INTERVAL_DEFAULT);
+  }
+
+  public static String METRICS_RESERVOIR_PRECISION_BITS_KEY = KEY_PREFIX +
+      "metrics.reservoir.precision.bits";
+  private static int METRICS_RESERVOIR_PRECISION_BITS_DEFAULT =
+      HdrReservoir.PRECISION_BITS_DEFAULT;
+
+  public int getMetricsReservoirPrecisionBits() {
+    return conf.getInt(getPropertyName(METRICS_RESERVOIR_PRECISION_BITS_KEY),
+        METRICS_RESERVOIR_PRECISION_BITS_DEFAULT);
+  }
+
 
 }
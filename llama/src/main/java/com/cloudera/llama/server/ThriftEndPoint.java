@@ -17,18 +17,27 @@
  */
 package com.cloudera.llama.server;
 
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import com.cloudera.llama.util.FastFormat;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSaslClientTransport;
 import org.apache.thrift.transport.TSaslServerTransport;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.apache.thrift.transport.TTransportFactory;
 
 import javax.security.sasl.Sasl;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,6 +48,62 @@ public class ThriftEndPoint {
     int timeout = conf.getTransportTimeOut();
 
     TTransport tTransport = new TSocket(host, port, timeout);
+    return createSaslClientTransport(conf, host, tTransport);
+  }
+
+  /**
+   * Creates a client transport already connected, the connection is
+   * established within the given connect timeout (capped by the transport
+   * timeout), the transport timeout applies to the calls.
+   */
+  public static TTransport createClientTransport(ServerConfiguration conf,
+      String host, int port, int connectTimeout) throws Exception {
+    int timeout = conf.getTransportTimeOut();
+    if (timeout > 0) {
+      connectTimeout = Math.min(connectTimeout, timeout);
+    }
+    Socket socket = new Socket();
+    try {
+      socket.setSoTimeout(timeout);
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port), connectTimeout);
+    } catch (IOException ex) {
+      socket.close();
+      throw new TTransportException(TTransportException.NOT_OPEN,
+          FastFormat.format("Could not connect to '{}:{}' within '{}' ms, {}",
+              host, port, connectTimeout, ex.toString()), ex);
+    }
+    return createSaslClientTransport(conf, host, new TSocket(socket));
+  }
+
+  /**
+   * Wraps a client transport for the given notification protocol, the
+   * returned transport must be used to create the protocol with
+   * {@link #createTProtocol(TTransport, TNotificationProtocol)}.
+   */
+  public static TTransport createClientTransport(TTransport tTransport,
+      TNotificationProtocol protocol) {
+    if (protocol == TNotificationProtocol.COMPACT_FRAMED) {
+      tTransport = new TFramedTransport(tTransport);
+    }
+    return tTransport;
+  }
+
+  public static TProtocol createTProtocol(TTransport tTransport,
+      TNotificationProtocol protocol) {
+    return (protocol == TNotificationProtocol.COMPACT_FRAMED)
+           ? new TCompactProtocol(tTransport) : new TBinaryProtocol(tTransport);
+  }
+
+  public static TProtocolFactory createTProtocolFactory(
+      TNotificationProtocol protocol) {
+    return (protocol == TNotificationProtocol.COMPACT_FRAMED)
+           ? new TCompactProtocol.Factory() : new TBinaryProtocol.Factory();
+  }
+
+  private static TTransport createSaslClientTransport(
+      ServerConfiguration conf, String host, TTransport tTransport)
+      throws Exception {
     if (Security.isSecure(conf)) {
       String serviceName = conf.getNotificationPrincipalName();
       Map<String, String> saslProperties = new HashMap<String, String>();
@@ -110,6 +175,24 @@ public class ThriftEndPoint {
     return host;
   }
 
+  /**
+   * Creates the server transport factory for the given protocol, with
+   * security enabled frames are carried by the SASL transport.
+   */
+  public static TTransportFactory createTTransportFactory(
+      ServerConfiguration conf, TNotificationProtocol protocol) {
+    final TTransportFactory factory = createTTransportFactory(conf);
+    if (protocol == TNotificationProtocol.COMPACT_FRAMED) {
+      return new TTransportFactory() {
+        @Override
+        public TTransport getTransport(TTransport trans) {
+          return new TFramedTransport(factory.getTransport(trans));
+        }
+      };
+    }
+    return factory;
+  }
+
   public static TTransportFactory createTTransportFactory(
       ServerConfiguration conf) {
     TTransportFactory factory;
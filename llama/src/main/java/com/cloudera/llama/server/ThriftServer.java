@@ -18,6 +18,7 @@
 package com.cloudera.llama.server;
 
 import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import com.cloudera.llama.util.FastFormat;
 import com.cloudera.llama.util.ThriftThreadPoolExecutor;
 import com.codahale.metrics.Gauge;
@@ -117,8 +118,9 @@ public abstract class ThriftServer<T extends TProcessor, A extends TProcessor>
           int minThreads = sConf.getServerMinThreads();
           int maxThreads = sConf.getServerMaxThreads();
           tServerSocket = ThriftEndPoint.createTServerSocket(sConf);
+          TNotificationProtocol protocol = getServiceProtocol();
           TTransportFactory tTransportFactory = ThriftEndPoint
-              .createTTransportFactory(sConf);
+              .createTTransportFactory(sConf, protocol);
           TProcessor processor = createServiceProcessor();
           processor = ThriftEndPoint.createTProcessorWrapper(sConf, false,
               processor);
@@ -127,6 +129,7 @@ public abstract class ThriftServer<T extends TProcessor, A extends TProcessor>
           args.executorService(createExecutorService("llama-thrift", minThreads,
               maxThreads));
           args.transportFactory(tTransportFactory);          
+          args.protocolFactory(ThriftEndPoint.createTProtocolFactory(protocol));
           args.processor(processor);
           tServer = new TThreadPoolServer(args);
           latch.countDown();
@@ -225,6 +228,15 @@ public abstract class ThriftServer<T extends TProcessor, A extends TProcessor>
 
   protected abstract T createServiceProcessor();
 
+  /**
+   * Protocol of the service transport, client callback servers override it
+   * to serve COMPACT_FRAMED notifications. The admin transport is always
+   * BINARY.
+   */
+  protected TNotificationProtocol getServiceProtocol() {
+    return TNotificationProtocol.BINARY;
+  }
+
   protected A createAdminServiceProcessor() {
     return null;
   }
@@ -24,12 +24,14 @@ import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.QueueRedirectException;
 import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.am.api.Resource;
 import com.cloudera.llama.thrift.TAllocatedResource;
 import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationRequest;
 import com.cloudera.llama.thrift.TLlamaServiceVersion;
+import com.cloudera.llama.thrift.TNetworkAddress;
 import com.cloudera.llama.thrift.TResource;
 import com.cloudera.llama.thrift.TStatus;
 import com.cloudera.llama.thrift.TStatusCode;
@@ -43,7 +45,9 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.cloudera.llama.util.ExceptionUtils;
 import com.cloudera.llama.util.UUID;
@@ -78,6 +82,11 @@ public class TypeUtils {
                                                  ? TStatusCode.INTERNAL_ERROR
                                                  : TStatusCode.REQUEST_ERROR);
     error.setError_code((short)llamaEx.getErrorCode());
+    if (llamaEx instanceof QueueRedirectException) {
+      QueueRedirectException redirect = (QueueRedirectException) llamaEx;
+      error.setRedirect_address(new TNetworkAddress(redirect.getOwnerHost(),
+          redirect.getOwnerPort()));
+    }
     List<String> msgs = new ArrayList<String>();
     msgs.add(llamaEx.toString());
 
@@ -154,8 +163,13 @@ public class TypeUtils {
     List<Resource> resources = toResourceList(request.getResources(),
         nodeMapper);
     Reservation.Builder builder = Builders.createReservationBuilder();
-    return builder.setHandle(handle).setUser(request.getUser()).setQueue(queue).
-        setResources(resources).setGang(isGang).build();
+    builder.setHandle(handle).setUser(request.getUser()).setQueue(queue).
+        setResources(resources).setGang(isGang);
+    if (request.isSetPriority()) {
+      builder.setPriority(Reservation.Priority.valueOf(
+          request.getPriority().toString()));
+    }
+    return builder.build();
   }
 
   public static Expansion toExpansion(
@@ -277,6 +291,109 @@ public class TypeUtils {
     return request;
   }
 
+  private static <T> List<T> concat(List<T> to, List<T> from) {
+    List<T> list = new ArrayList<T>();
+    if (to != null) {
+      list.addAll(to);
+    }
+    list.addAll(from);
+    return list;
+  }
+
+  private static void addIds(Set<TUniqueId> set, List<TUniqueId> ids) {
+    if (ids != null) {
+      set.addAll(ids);
+    }
+  }
+
+  private static Set<TUniqueId> getAMNotificationIds(
+      TLlamaAMNotificationRequest request) {
+    Set<TUniqueId> ids = new HashSet<TUniqueId>();
+    addIds(ids, request.getAllocated_reservation_ids());
+    if (request.getAllocated_resources() != null) {
+      for (TAllocatedResource resource : request.getAllocated_resources()) {
+        ids.add(resource.getReservation_id());
+        ids.add(resource.getClient_resource_id());
+      }
+    }
+    addIds(ids, request.getRejected_reservation_ids());
+    addIds(ids, request.getRejected_client_resource_ids());
+    addIds(ids, request.getLost_client_resource_ids());
+    addIds(ids, request.getPreempted_reservation_ids());
+    addIds(ids, request.getPreempted_client_resource_ids());
+    addIds(ids, request.getAdmin_released_reservation_ids());
+    addIds(ids, request.getLost_reservation_ids());
+    return ids;
+  }
+
+  /**
+   * Returns if a notification can be merged into a previous notification to
+   * the same client without losing the order of the changes, that is if they
+   * have no reservation or resource in common. A notification lists its
+   * changes by kind, not in the order they happened.
+   */
+  public static boolean canMergeAMNotification(TLlamaAMNotificationRequest to,
+      TLlamaAMNotificationRequest from) {
+    Set<TUniqueId> toIds = getAMNotificationIds(to);
+    for (TUniqueId id : getAMNotificationIds(from)) {
+      if (toIds.contains(id)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Appends the changes of a notification to another notification to the
+   * same client, the result is a heartbeat only if both are heartbeats.
+   * Callers must check the merge is possible with
+   * {@link #canMergeAMNotification}.
+   */
+  public static void mergeAMNotification(TLlamaAMNotificationRequest to,
+      TLlamaAMNotificationRequest from) {
+    to.setHeartbeat(to.isHeartbeat() && from.isHeartbeat());
+    if (from.getAllocated_reservation_idsSize() > 0) {
+      to.setAllocated_reservation_ids(concat(to.getAllocated_reservation_ids(),
+          from.getAllocated_reservation_ids()));
+    }
+    if (from.getAllocated_resourcesSize() > 0) {
+      to.setAllocated_resources(concat(to.getAllocated_resources(),
+          from.getAllocated_resources()));
+    }
+    if (from.getRejected_reservation_idsSize() > 0) {
+      to.setRejected_reservation_ids(concat(to.getRejected_reservation_ids(),
+          from.getRejected_reservation_ids()));
+    }
+    if (from.getRejected_client_resource_idsSize() > 0) {
+      to.setRejected_client_resource_ids(concat(
+          to.getRejected_client_resource_ids(),
+          from.getRejected_client_resource_ids()));
+    }
+    if (from.getLost_client_resource_idsSize() > 0) {
+      to.setLost_client_resource_ids(concat(to.getLost_client_resource_ids(),
+          from.getLost_client_resource_ids()));
+    }
+    if (from.getPreempted_reservation_idsSize() > 0) {
+      to.setPreempted_reservation_ids(concat(
+          to.getPreempted_reservation_ids(),
+          from.getPreempted_reservation_ids()));
+    }
+    if (from.getPreempted_client_resource_idsSize() > 0) {
+      to.setPreempted_client_resource_ids(concat(
+          to.getPreempted_client_resource_ids(),
+          from.getPreempted_client_resource_ids()));
+    }
+    if (from.getAdmin_released_reservation_idsSize() > 0) {
+      to.setAdmin_released_reservation_ids(concat(
+          to.getAdmin_released_reservation_ids(),
+          from.getAdmin_released_reservation_ids()));
+    }
+    if (from.getLost_reservation_idsSize() > 0) {
+      to.setLost_reservation_ids(concat(to.getLost_reservation_ids(),
+          from.getLost_reservation_ids()));
+    }
+  }
+
   public static boolean isOK(TStatus status) {
     return status.getStatus_code() == TStatusCode.OK;
   }
@@ -35,6 +35,8 @@ public enum ErrorCode {
   CLIENT_DOES_NOT_OWN_RESERVATION(150, "handle '{}' does not own reservation '{}'"),
 
   LLAMA_MAX_RESERVATIONS_FOR_QUEUE(160, "Queue '{}' reached its limit of '{}' queued reservations"),
+  QUEUE_OWNED_BY_OTHER_LLAMA(161, "Queue '{}' is owned by Llama '{}:{}'"),
+  QUEUE_OWNERSHIP_UNAVAILABLE(162, "Cannot acquire ownership of queue '{}'"),
 
   UNKNOWN_RESERVATION_FOR_EXPANSION(170, "Unknown reservation '{}' for expansion"),
   CANNOT_EXPAND_AN_EXPANSION_RESERVATION(171, "Cannot expand an expansion reservation '{}'"),
@@ -46,6 +48,8 @@ public enum ErrorCode {
   RESERVATION_ASKING_FOR_SAME_NODE(176, "Reservation '{}', expansion '{}' asking for a resource on node '{}' more than one time in the same request."),
   RESERVATION_NO_ID_PROVIDED(177, "reservation_id is required to be set on the reservation request and should not be left unassigned"),
   EXPANSION_NO_EXPANSION_ID_PROVIDED(178, "expansion_id is required to be set on the expansion request and should not be left unassigned"),
+  RESERVATION_BATCH_HANDLE_MISMATCH(179, "reservation '{}' handle '{}' does not match the batch handle '{}'"),
+  RESERVATION_BATCH_DUPLICATE_ID(180, "reservation '{}' is more than one time in the same batch"),
 
   AM_CANNOT_START(300, "cannot start AM"),
   AM_CANNOT_REGISTER(301, "cannot register AM '{}' for queue '{}'"),
@@ -60,6 +64,8 @@ public enum ErrorCode {
   AM_RESOURCE_OVER_NODE_MEMORY(310, "AM '{}' resource request '{}' exceeds maximum node memory '{}' for a resource"),
   AM_RELEASE_ERROR(311, "AM '{}' cannot release '{}'"),
   AM_AMRM_TOKEN_CANNOT_BE_FETCHED(312, "AM '{}' cannot fetch AMRM token during registration"),
+  AM_NO_FEDERATED_CLUSTER_AVAILABLE(313, "No federated cluster available, all clusters stopped"),
+  AM_FAULT_INJECTED(314, "Injected fault in '{}'"),
 
   RESERVATION_USER_NOT_ALLOWED_IN_QUEUE(400, "Reservation from user '{}' with requested queue '{}' denied access to assigned queue '{}'"),
   RESERVATION_USER_TO_QUEUE_MAPPING_NOT_FOUND(401, "No mapping found for reservation from user '{}' with requested queue '{}'")
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel to run a large number of delayed tasks.
+ * <p/>
+ * Scheduling and cancelling a task are O(1) and do not contend on a lock,
+ * new tasks are handed to the ticker thread through a lock free queue. The
+ * ticker thread wakes up every tick, moves the new tasks to their bucket
+ * and runs the tasks of the current bucket that are due. Tasks run at most
+ * one tick after their delay expired.
+ * <p/>
+ * Tasks run in the ticker thread, they must be short and must not block,
+ * typically they hand off the actual work to an executor.
+ */
+public class HashedTimingWheel {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(HashedTimingWheel.class);
+
+  public static class Timeout {
+    private final Runnable task;
+    private final long deadline;
+    private long rounds;
+    private volatile boolean cancelled;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+      return deadline;
+    }
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  private final String name;
+  private final long tickMs;
+  private final int mask;
+  private final List<List<Timeout>> wheel;
+  private final Queue<Timeout> newTimeouts;
+  private final AtomicInteger size;
+  private volatile boolean running;
+  private Thread ticker;
+  private long startTime;
+  private long tick;
+
+  public HashedTimingWheel(String name, long tickMs, int wheelSize) {
+    this.name = ParamChecker.notEmpty(name, "name");
+    this.tickMs = ParamChecker.greaterThan(tickMs, 0, "tickMs");
+    ParamChecker.greaterThan(wheelSize, 0, "wheelSize");
+    int buckets = 1;
+    while (buckets < wheelSize) {
+      buckets <<= 1;
+    }
+    mask = buckets - 1;
+    wheel = new ArrayList<List<Timeout>>(buckets);
+    for (int i = 0; i < buckets; i++) {
+      wheel.add(new LinkedList<Timeout>());
+    }
+    newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    size = new AtomicInteger();
+  }
+
+  public long getTickMs() {
+    return tickMs;
+  }
+
+  public int getWheelSize() {
+    return wheel.size();
+  }
+
+  /**
+   * Returns the number of scheduled tasks not run yet, including cancelled
+   * tasks not yet removed from the wheel.
+   */
+  public int size() {
+    return size.get();
+  }
+
+  public synchronized void start() {
+    if (ticker != null) {
+      throw new IllegalStateException("Timing wheel already started");
+    }
+    startTime = Clock.currentTimeMillis();
+    tick = 0;
+    running = true;
+    ticker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        tick();
+      }
+    }, name);
+    ticker.setDaemon(true);
+    ticker.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (ticker != null) {
+      ticker.interrupt();
+      try {
+        ticker.join(1000);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      ticker = null;
+    }
+  }
+
+  public Timeout schedule(Runnable task, long delayMs) {
+    ParamChecker.notNull(task, "task");
+    Timeout timeout = new Timeout(task,
+        Clock.currentTimeMillis() + Math.max(0, delayMs));
+    size.incrementAndGet();
+    newTimeouts.add(timeout);
+    return timeout;
+  }
+
+  private void tick() {
+    while (running) {
+      long wait = startTime + tick * tickMs - Clock.currentTimeMillis();
+      if (wait > 0) {
+        try {
+          Clock.sleep(wait);
+        } catch (InterruptedException ex) {
+          //NOP, running flag is checked
+        }
+      } else {
+        transferNewTimeouts();
+        expireTimeouts(wheel.get((int) (tick & mask)));
+        tick++;
+      }
+    }
+  }
+
+  private void transferNewTimeouts() {
+    Timeout timeout;
+    while ((timeout = newTimeouts.poll()) != null) {
+      if (timeout.cancelled) {
+        size.decrementAndGet();
+      } else {
+        // first tick at or after the deadline, overdue timeouts go in the
+        // current tick
+        long ticks = (timeout.deadline - startTime + tickMs - 1) / tickMs;
+        ticks = Math.max(ticks, tick);
+        timeout.rounds = (ticks - tick) / wheel.size();
+        wheel.get((int) (ticks & mask)).add(timeout);
+      }
+    }
+  }
+
+  private void expireTimeouts(List<Timeout> bucket) {
+    Iterator<Timeout> it = bucket.iterator();
+    while (it.hasNext()) {
+      Timeout timeout = it.next();
+      if (timeout.cancelled) {
+        it.remove();
+        size.decrementAndGet();
+      } else if (timeout.rounds > 0) {
+        timeout.rounds--;
+      } else {
+        it.remove();
+        size.decrementAndGet();
+        try {
+          timeout.task.run();
+        } catch (Throwable ex) {
+          LOG.warn("Timing wheel '{}' task error: {}", name, ex.toString(),
+              ex);
+        }
+      }
+    }
+  }
+
+}
@@ -20,9 +20,101 @@ package com.cloudera.llama.util;
 
 import com.cloudera.llama.util.ParamChecker;
 
-import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UUID {
+
+  /**
+   * Source of new IDs for {@link #randomUUID()}.
+   */
+  public interface Generator {
+
+    public UUID next();
+
+  }
+
+  /**
+   * Delegates to <code>java.util.UUID.randomUUID()</code>, all threads share
+   * a single <code>SecureRandom</code>.
+   */
+  public static final Generator SECURE = new Generator() {
+    @Override
+    public UUID next() {
+      return new UUID(java.util.UUID.randomUUID());
+    }
+  };
+
+  /**
+   * Per thread xorshift128+ generator, each thread is seeded once from a
+   * <code>SecureRandom</code>. It does not contend, but its IDs are not
+   * cryptographically strong.
+   */
+  public static final Generator THREAD_RANDOM = new Generator() {
+    private final SecureRandom seeder = new SecureRandom();
+
+    private final ThreadLocal<long[]> state = new ThreadLocal<long[]>() {
+      @Override
+      protected long[] initialValue() {
+        long[] seed = new long[2];
+        synchronized (seeder) {
+          while (seed[0] == 0 && seed[1] == 0) {
+            seed[0] = seeder.nextLong();
+            seed[1] = seeder.nextLong();
+          }
+        }
+        return seed;
+      }
+    };
+
+    private long nextLong(long[] s) {
+      long s1 = s[0];
+      long s0 = s[1];
+      s[0] = s0;
+      s1 ^= s1 << 23;
+      s[1] = s1 ^ s0 ^ (s1 >>> 17) ^ (s0 >>> 26);
+      return s[1] + s0;
+    }
+
+    @Override
+    public UUID next() {
+      long[] s = state.get();
+      return new UUID(nextLong(s), nextLong(s));
+    }
+  };
+
+  /**
+   * Generates IDs from a node ID, an epoch and a counter. The high bits hold
+   * 24 bits of the node ID and 40 bits of the epoch, the low bits hold the
+   * counter. Using the start time in milliseconds as epoch keeps the IDs
+   * unique across restarts and HA failovers as long as the node IDs are
+   * distinct. The IDs are predictable.
+   */
+  public static class SequenceGenerator implements Generator {
+    private final long high;
+    private final AtomicLong counter;
+
+    public SequenceGenerator(int nodeId, long epoch) {
+      high = ((long) (nodeId & 0xFFFFFF) << 40) | (epoch & 0xFFFFFFFFFFL);
+      counter = new AtomicLong();
+    }
+
+    @Override
+    public UUID next() {
+      return new UUID(high, counter.incrementAndGet());
+    }
+  }
+
+  private static volatile Generator generator = THREAD_RANDOM;
+
+  public static void setGenerator(Generator generator) {
+    UUID.generator = ParamChecker.notNull(generator, "generator");
+  }
+
+  public static Generator getGenerator() {
+    return generator;
+  }
+
   private long low;
   private long high;
 
@@ -36,7 +128,15 @@ public class UUID {
   }
 
   public static UUID randomUUID() {
-    return new UUID(java.util.UUID.randomUUID());
+    return generator.next();
+  }
+
+  /**
+   * Returns an ID from the {@link #SECURE} generator whatever the configured
+   * one is, for IDs that must not be predictable, like client handles.
+   */
+  public static UUID secureUUID() {
+    return SECURE.next();
   }
 
   public long getLeastSignificantBits() {
@@ -65,41 +165,70 @@ public class UUID {
 
   public static UUID fromString(String value) {
     ParamChecker.notEmpty(value, "value");
-    int sep = value.indexOf(":");
+    int sep = value.indexOf(':');
     if (sep == -1) {
       throw new IllegalArgumentException(
           "Invalid UUID string value, missing ':' : " + value);
     }
-    String sHigh = value.substring(0, sep);
-    String sLow = value.substring(sep + 1);
-    if (sHigh.length() > 16) {
+    if (sep > 16) {
       throw new IllegalArgumentException(
           "Invalid UUID string value, high is not a 32 bit hexa: " + value);
     }
-    if (sLow.length() > 16) {
+    if (value.length() - sep - 1 > 16) {
       throw new IllegalArgumentException(
           "Invalid UUID string value, low is not a 32 bit hexa: " + value);
     }
-    long high = new BigInteger(sHigh, 16).longValue();
-    long low = new BigInteger(sLow, 16).longValue();
+    long high = parseHex(value, 0, sep);
+    long low = parseHex(value, sep + 1, value.length());
     return new UUID(high, low);
   }
 
+  private static long parseHex(String value, int start, int end) {
+    if (start == end) {
+      throw new IllegalArgumentException(
+          "Invalid UUID string value, empty hexa: " + value);
+    }
+    long l = 0;
+    for (int i = start; i < end; i++) {
+      int digit = hexDigit(value.charAt(i));
+      if (digit == -1) {
+        throw new IllegalArgumentException(
+            "Invalid UUID string value, not a hexa: " + value);
+      }
+      l = (l << 4) | digit;
+    }
+    return l;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  private static final char[] HEXA = "0123456789abcdef".toCharArray();
 
   @Override
   public String toString() {
-    String sLow = Long.toHexString(low);
-    String sHigh = Long.toHexString(high);
-    return trimZeros(sHigh) + ":" + trimZeros(sLow);
+    char[] chars = new char[33];
+    int len = appendHex(chars, 0, high);
+    chars[len++] = ':';
+    len = appendHex(chars, len, low);
+    return new String(chars, 0, len);
   }
 
-  private String trimZeros(String value) {
-    int i = 0;
-    int len = value.length() - 1; // we need keep at least one zero if all zeros
-    while (i < len && value.charAt(i) == '0') {
-      i++;
+  // writes the hexa without leading zeros, at least one digit
+  private static int appendHex(char[] chars, int pos, long value) {
+    int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+    for (int i = digits - 1; i >= 0; i--) {
+      chars[pos++] = HEXA[(int) (value >>> (i * 4)) & 0xF];
     }
-    return value.substring(i);
+    return pos;
   }
 
 }
@@ -42,6 +42,10 @@ struct TStatus {
   1: required TStatusCode status_code;
   2: i16 error_code;
   3: list<string> error_msgs;
+
+  // Set with a REQUEST_ERROR when the queue is owned by another Llama
+  // (active-active HA), the request should be sent to this address.
+  4: optional TNetworkAddress redirect_address;
 }
 
 enum TLocationEnforcement {
@@ -50,6 +54,20 @@ enum TLocationEnforcement {
   DONT_CARE
 }
 
+// Protocol of the LlamaNotificationService callbacks to a client. BINARY is
+// TBinaryProtocol over an unframed socket, COMPACT_FRAMED is TCompactProtocol
+// over a TFramedTransport.
+enum TNotificationProtocol {
+  BINARY,
+  COMPACT_FRAMED
+}
+
+enum TReservationPriority {
+  HIGH,
+  NORMAL,
+  LOW
+}
+
 struct TResource {
   1: required TUniqueId            client_resource_id;
   2: required i16                  v_cpu_cores;
@@ -81,11 +99,18 @@ struct TLlamaAMRegisterRequest {
   1: required TLlamaServiceVersion version;
   2: required TUniqueId            client_id;
   3: required TNetworkAddress      notification_callback_service;
+
+  // Protocol the client callback service speaks, BINARY if not set.
+  4: optional TNotificationProtocol notification_protocol;
 }
 
 struct TLlamaAMRegisterResponse {
   1: required TStatus   status;
   2: optional TUniqueId am_handle;
+
+  // Protocol Llama uses for the callbacks, set if the request asked for one.
+  // It is BINARY if Llama does not support or allow the requested protocol.
+  3: optional TNotificationProtocol notification_protocol;
 }
 
 struct TLlamaAMUnregisterRequest {
@@ -105,6 +130,7 @@ struct TLlamaAMReservationRequest {
   5: required list<TResource>      resources;
   6: required bool                 gang;
   7: optional TUniqueId            reservation_id;
+  8: optional TReservationPriority priority;
 }
 
 struct TLlamaAMReservationResponse {
@@ -135,6 +161,31 @@ struct TLlamaAMReleaseResponse {
   1: required TStatus status;
 }
 
+// The am_handle of all reservations must be the am_handle of the batch.
+struct TLlamaAMReserveBatchRequest {
+  1: required TLlamaServiceVersion             version;
+  2: required TUniqueId                        am_handle;
+  3: required list<TLlamaAMReservationRequest> reservations;
+}
+
+// One response per reservation, in the same order as the request.
+struct TLlamaAMReserveBatchResponse {
+  1: required TStatus                            status;
+  2: optional list<TLlamaAMReservationResponse> responses;
+}
+
+struct TLlamaAMReleaseBatchRequest {
+  1: required TLlamaServiceVersion version;
+  2: required TUniqueId            am_handle;
+  3: required list<TUniqueId>      reservation_ids;
+}
+
+// One response per reservation, in the same order as the request.
+struct TLlamaAMReleaseBatchResponse {
+  1: required TStatus                        status;
+  2: optional list<TLlamaAMReleaseResponse> responses;
+}
+
 struct TLlamaAMGetNodesRequest {
   1: required TLlamaServiceVersion version;
   2: required TUniqueId            am_handle;
@@ -160,6 +211,12 @@ service LlamaAMService {
 
   TLlamaAMGetNodesResponse GetNodes(1: TLlamaAMGetNodesRequest request);
 
+  TLlamaAMReserveBatchResponse ReserveBatch(
+    1: TLlamaAMReserveBatchRequest request);
+
+  TLlamaAMReleaseBatchResponse ReleaseBatch(
+    1: TLlamaAMReleaseBatchRequest request);
+
 }
 
 ////////////////////////////////////////////////////////////////////////////////
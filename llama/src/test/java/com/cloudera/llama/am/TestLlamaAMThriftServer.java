@@ -18,6 +18,7 @@
 package com.cloudera.llama.am;
 
 
+import com.cloudera.llama.am.api.AsyncLlamaAMListener;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.impl.GangAntiDeadlockLlamaAM;
 import com.cloudera.llama.am.impl.SingleQueueLlamaAM;
@@ -43,12 +44,16 @@ import com.cloudera.llama.thrift.TLlamaAMGetNodesResponse;
 import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
 import com.cloudera.llama.thrift.TLlamaAMRegisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMRegisterResponse;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReleaseBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMReleaseRequest;
 import com.cloudera.llama.thrift.TLlamaAMReleaseResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationExpansionResponse;
 import com.cloudera.llama.thrift.TLlamaAMReservationRequest;
 import com.cloudera.llama.thrift.TLlamaAMReservationResponse;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchRequest;
+import com.cloudera.llama.thrift.TLlamaAMReserveBatchResponse;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterRequest;
 import com.cloudera.llama.thrift.TLlamaAMUnregisterResponse;
 import com.cloudera.llama.thrift.TLlamaServiceVersion;
@@ -370,6 +375,7 @@ public class TestLlamaAMThriftServer {
   private void verifyMetricRegistration(MyLlamaAMServer server)
       throws Exception {
     Set<String> keys = new HashSet<String>();
+    keys.addAll(AsyncLlamaAMListener.METRIC_KEYS);
     keys.addAll(ClientNotificationService.METRIC_KEYS);
     keys.addAll(ClientNotifier.METRIC_KEYS);
     keys.addAll(GangAntiDeadlockLlamaAM.METRIC_KEYS);
@@ -720,6 +726,97 @@ public class TestLlamaAMThriftServer {
     }
   }
 
+  @Test
+  public void testReserveReleaseBatch() throws Exception {
+    final LlamaAMServer server = new LlamaHAServer();
+    final NotificationEndPoint callbackServer = new NotificationEndPoint();
+    try {
+      callbackServer.setConf(createCallbackConfiguration());
+      callbackServer.start();
+      server.setConf(createLlamaConfiguration());
+      server.start();
+
+      Subject.doAs(getClientSubject(), new PrivilegedExceptionAction<Object>() {
+        @Override
+        public Object run() throws Exception {
+          com.cloudera.llama.thrift.LlamaAMService.Client client = createClient(server);
+
+          TLlamaAMRegisterRequest trReq = new TLlamaAMRegisterRequest();
+          trReq.setVersion(TLlamaServiceVersion.V1);
+          trReq.setClient_id(TypeUtils.toTUniqueId(UUID.randomUUID()));
+          TNetworkAddress tAddress = new TNetworkAddress();
+          tAddress.setHostname(callbackServer.getAddressHost());
+          tAddress.setPort(callbackServer.getAddressPort());
+          trReq.setNotification_callback_service(tAddress);
+
+          //register
+          TLlamaAMRegisterResponse trRes = client.Register(trReq);
+          Assert.assertEquals(TStatusCode.OK, trRes.getStatus().
+              getStatus_code());
+
+          //batch reservation, second item has a wrong handle
+          TLlamaAMReserveBatchRequest tbReq = new TLlamaAMReserveBatchRequest();
+          tbReq.setVersion(TLlamaServiceVersion.V1);
+          tbReq.setAm_handle(trRes.getAm_handle());
+          for (int i = 0; i < 2; i++) {
+            TLlamaAMReservationRequest tresReq = new TLlamaAMReservationRequest();
+            tresReq.setVersion(TLlamaServiceVersion.V1);
+            tresReq.setAm_handle((i == 0) ? trRes.getAm_handle()
+                : TypeUtils.toTUniqueId(UUID.randomUUID()));
+            tresReq.setUser(getUserName());
+            tresReq.setQueue("q1");
+            tresReq.setReservation_id(TypeUtils.toTUniqueId(UUID.randomUUID()));
+            TResource tResource = new TResource();
+            tResource.setClient_resource_id(TypeUtils.toTUniqueId(UUID.randomUUID()));
+            tResource.setAskedLocation(MockLlamaAMFlags.ALLOCATE + "n1");
+            tResource.setV_cpu_cores((short) 1);
+            tResource.setMemory_mb(1024);
+            tResource.setEnforcement(TLocationEnforcement.MUST);
+            tresReq.setResources(Arrays.asList(tResource));
+            tresReq.setGang(true);
+            tbReq.addToReservations(tresReq);
+          }
+          TLlamaAMReserveBatchResponse tbRes = client.ReserveBatch(tbReq);
+          Assert.assertEquals(TStatusCode.OK, tbRes.getStatus().getStatus_code());
+          Assert.assertEquals(2, tbRes.getResponsesSize());
+          Assert.assertEquals(TStatusCode.OK,
+              tbRes.getResponses().get(0).getStatus().getStatus_code());
+          Assert.assertEquals(tbReq.getReservations().get(0).getReservation_id(),
+              tbRes.getResponses().get(0).getReservation_id());
+          Assert.assertFalse(TStatusCode.OK.equals(
+              tbRes.getResponses().get(1).getStatus().getStatus_code()));
+
+          //check notification delivery
+          Thread.sleep(300);
+          Assert.assertEquals(1, callbackServer.notifications.size());
+
+          //batch release
+          TLlamaAMReleaseBatchRequest trelReq = new TLlamaAMReleaseBatchRequest();
+          trelReq.setVersion(TLlamaServiceVersion.V1);
+          trelReq.setAm_handle(trRes.getAm_handle());
+          trelReq.addToReservation_ids(
+              tbRes.getResponses().get(0).getReservation_id());
+          TLlamaAMReleaseBatchResponse trelRes = client.ReleaseBatch(trelReq);
+          Assert.assertEquals(TStatusCode.OK, trelRes.getStatus().getStatus_code());
+          Assert.assertEquals(1, trelRes.getResponsesSize());
+          Assert.assertEquals(TStatusCode.OK,
+              trelRes.getResponses().get(0).getStatus().getStatus_code());
+
+          //unregister
+          TLlamaAMUnregisterRequest turReq = new TLlamaAMUnregisterRequest();
+          turReq.setVersion(TLlamaServiceVersion.V1);
+          turReq.setAm_handle(trRes.getAm_handle());
+          TLlamaAMUnregisterResponse turRes = client.Unregister(turReq);
+          Assert.assertEquals(TStatusCode.OK, turRes.getStatus().getStatus_code());
+          return null;
+        }
+      });
+    } finally {
+      server.stop();
+      callbackServer.stop();
+    }
+  }
+
   @Test
   public void testDiscardReservationsOnMissingClient() throws Exception {
     final LlamaAMServer server = new LlamaHAServer();
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am;
+
+import junit.framework.Assert;
+import org.apache.curator.test.TestingServer;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestLlamaHAFencer {
+  private TestingServer zkServer;
+
+  private static class MyLlamaHAServer extends LlamaHAServer {
+    private final CountDownLatch foregone = new CountDownLatch(1);
+
+    @Override
+    void foregoActive(int sleepTime) {
+      foregone.countDown();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    zkServer = new TestingServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    zkServer.close();
+  }
+
+  private HAServerConfiguration createConf(long checkIntervalMs) {
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(HAServerConfiguration.HA_ENABLED, true);
+    conf.set(HAServerConfiguration.ZK_QUORUM, zkServer.getConnectString());
+    conf.setLong(HAServerConfiguration.FENCING_CHECK_INTERVAL_MS,
+        checkIntervalMs);
+    HAServerConfiguration haConf = new HAServerConfiguration();
+    haConf.setConf(conf);
+    return haConf;
+  }
+
+  @Test(timeout = 60000)
+  public void testWatchDetectsFencing() throws Exception {
+    // the periodic check would not kick in during the test
+    HAServerConfiguration conf = createConf(TimeUnit.HOURS.toMillis(1));
+    MyLlamaHAServer server1 = new MyLlamaHAServer();
+    LlamaHAFencer fencer1 = new LlamaHAFencer(server1, conf);
+    LlamaHAFencer fencer2 = new LlamaHAFencer(new MyLlamaHAServer(), conf);
+    try {
+      fencer1.fenceOthers();
+      fencer1.startFenceChecker();
+      Assert.assertFalse(server1.foregone.await(200, TimeUnit.MILLISECONDS));
+
+      fencer2.fenceOthers();
+      Assert.assertTrue(server1.foregone.await(10, TimeUnit.SECONDS));
+    } finally {
+      fencer1.close();
+      fencer2.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testPeriodicCheck() throws Exception {
+    HAServerConfiguration conf = createConf(100);
+    MyLlamaHAServer server1 = new MyLlamaHAServer();
+    LlamaHAFencer fencer1 = new LlamaHAFencer(server1, conf);
+    LlamaHAFencer fencer2 = new LlamaHAFencer(new MyLlamaHAServer(), conf);
+    try {
+      fencer1.fenceOthers();
+      fencer1.startFenceChecker();
+      Assert.assertFalse(server1.foregone.await(500, TimeUnit.MILLISECONDS));
+
+      fencer2.fenceOthers();
+      Assert.assertTrue(server1.foregone.await(10, TimeUnit.SECONDS));
+    } finally {
+      fencer1.close();
+      fencer2.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testStoppedCheckerDoesNotForego() throws Exception {
+    HAServerConfiguration conf = createConf(100);
+    MyLlamaHAServer server1 = new MyLlamaHAServer();
+    LlamaHAFencer fencer1 = new LlamaHAFencer(server1, conf);
+    LlamaHAFencer fencer2 = new LlamaHAFencer(new MyLlamaHAServer(), conf);
+    try {
+      fencer1.fenceOthers();
+      fencer1.startFenceChecker();
+      fencer1.stopFenceChecker();
+
+      fencer2.fenceOthers();
+      Assert.assertFalse(server1.foregone.await(1, TimeUnit.SECONDS));
+    } finally {
+      fencer1.close();
+      fencer2.close();
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am;
+
+import com.cloudera.llama.server.ClientInfo;
+import com.cloudera.llama.util.UUID;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestLlamaJsonServlet {
+
+  private LlamaJsonServlet createServlet(RestData restData, int maxSubscribers)
+      throws Exception {
+    ServletContext context = Mockito.mock(ServletContext.class);
+    Mockito.when(context.getAttribute(LlamaJsonServlet.REST_DATA)).
+        thenReturn(restData);
+    Mockito.when(context.getAttribute(
+        LlamaJsonServlet.CHANGES_MAX_SUBSCRIBERS)).thenReturn(maxSubscribers);
+    ServletConfig config = Mockito.mock(ServletConfig.class);
+    Mockito.when(config.getServletContext()).thenReturn(context);
+    LlamaJsonServlet servlet = new LlamaJsonServlet();
+    servlet.init(config);
+    return servlet;
+  }
+
+  private HttpServletRequest createChangesRequest(long since, long timeout) {
+    HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(req.getPathInfo()).thenReturn(LlamaJsonServlet.CHANGES);
+    Mockito.when(req.getParameter(LlamaJsonServlet.SINCE_PARAM)).
+        thenReturn(Long.toString(since));
+    Mockito.when(req.getParameter(LlamaJsonServlet.TIMEOUT_PARAM)).
+        thenReturn(Long.toString(timeout));
+    Mockito.when(req.getRequestURL()).thenReturn(
+        new StringBuffer("http://localhost/json/v1/changes"));
+    return req;
+  }
+
+  private HttpServletResponse createResponse() throws Exception {
+    HttpServletResponse resp = Mockito.mock(HttpServletResponse.class);
+    Mockito.when(resp.getWriter()).thenReturn(
+        new PrintWriter(new StringWriter()));
+    return resp;
+  }
+
+  @Test
+  public void testChangesSubscribersCap() throws Exception {
+    final RestData restData = new RestData(null);
+    final LlamaJsonServlet servlet = createServlet(restData, 1);
+
+    // waits for changes holding the only subscriber permit
+    final HttpServletRequest waitingReq = createChangesRequest(0, 10000);
+    final HttpServletResponse waitingResp = createResponse();
+    Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        try {
+          servlet.doGet(waitingReq, waitingResp);
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    };
+    waiting.start();
+    Thread.sleep(200);
+    Assert.assertTrue(waiting.isAlive());
+
+    HttpServletResponse rejectedResp = createResponse();
+    servlet.doGet(createChangesRequest(0, 10000), rejectedResp);
+    Mockito.verify(rejectedResp).setStatus(
+        HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+    // requests not waiting for changes are not subscribers
+    HttpServletResponse pollResp = createResponse();
+    servlet.doGet(createChangesRequest(0, 0), pollResp);
+    Mockito.verify(pollResp, Mockito.never()).setStatus(
+        HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+    ClientInfo clientInfo = Mockito.mock(ClientInfo.class);
+    Mockito.when(clientInfo.getHandle()).thenReturn(UUID.randomUUID());
+    restData.onRegister(clientInfo);
+    waiting.join(5000);
+    Assert.assertFalse(waiting.isAlive());
+    Mockito.verify(waitingResp, Mockito.never()).setStatus(
+        HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+    // the permit is released once the waiting request is done
+    HttpServletResponse acceptedResp = createResponse();
+    servlet.doGet(createChangesRequest(1, 10), acceptedResp);
+    Mockito.verify(acceptedResp, Mockito.never()).setStatus(
+        HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+  }
+
+}
@@ -27,6 +27,8 @@ import com.cloudera.llama.am.impl.LlamaAMEventImpl;
 import com.cloudera.llama.am.impl.PlacedReservationImpl;
 import com.cloudera.llama.am.impl.PlacedResourceImpl;
 import com.cloudera.llama.server.ClientInfo;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.ManualClock;
 import com.cloudera.llama.util.UUID;
 import com.cloudera.llama.util.VersionInfo;
 import junit.framework.Assert;
@@ -35,6 +37,9 @@ import org.junit.Test;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -502,4 +507,254 @@ public class TestRestData {
         map.get("llamaHadoopVersion"));
   }
   
+  private ClientInfo createClientInfo(final UUID handle) {
+    return new ClientInfo() {
+      @Override
+      public UUID getClientId() {
+        return UUID.randomUUID();
+      }
+
+      @Override
+      public UUID getHandle() {
+        return handle;
+      }
+
+      @Override
+      public String getCallbackAddress() {
+        return "a:0";
+      }
+    };
+  }
+
+  @Test
+  public void testSnapshotRefresher() throws Exception {
+    RestData restData = new RestData(null);
+    restData.start(200);
+    try {
+      RestData.Snapshot snapshot = restData.getSnapshot();
+      UUID handle = UUID.randomUUID();
+      restData.onRegister(createClientInfo(handle));
+      restData.onEvent(createEvents(createReservation(UUID.randomUUID(),
+          handle, "q1", PlacedReservation.Status.PENDING)));
+      // readers do not take snapshots, the refresher does
+      Assert.assertSame(snapshot, restData.getSnapshot());
+      long timeout = System.currentTimeMillis() + 5000;
+      while (restData.getSnapshot() == snapshot &&
+          System.currentTimeMillis() < timeout) {
+        Thread.sleep(10);
+      }
+      RestData.Snapshot newSnapshot = restData.getSnapshot();
+      Assert.assertEquals(1, newSnapshot.reservationsMap.size());
+      Assert.assertEquals(1, newSnapshot.queueReservationsMap.get("q1").size());
+      Assert.assertEquals(1, newSnapshot.handleReservationsMap.get(handle)
+          .size());
+      Assert.assertEquals(0, restData.getSnapshotAge());
+    } finally {
+      restData.stop();
+    }
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    ManualClock clock = new ManualClock();
+    Clock.setClock(clock);
+    try {
+      RestData restData = new RestData(null);
+      Assert.assertEquals(0, restData.getSnapshotAge());
+      RestData.Snapshot snapshot = restData.getSnapshot();
+      Assert.assertSame(snapshot, restData.getSnapshot());
+
+      UUID handle = UUID.randomUUID();
+      restData.onRegister(createClientInfo(handle));
+      clock.increment(10);
+      Assert.assertEquals(10, restData.getSnapshotAge());
+      restData.onEvent(createEvents(createReservation(UUID.randomUUID(),
+          handle, "q1", PlacedReservation.Status.PENDING)));
+      clock.increment(10);
+      Assert.assertEquals(20, restData.getSnapshotAge());
+
+      // published snapshots are not modified by later changes
+      Assert.assertTrue(snapshot.reservationsMap.isEmpty());
+      RestData.Snapshot newSnapshot = restData.getSnapshot();
+      Assert.assertNotSame(snapshot, newSnapshot);
+      Assert.assertEquals(1, newSnapshot.reservationsMap.size());
+      Assert.assertEquals(0, restData.getSnapshotAge());
+      Assert.assertSame(newSnapshot, restData.getSnapshot());
+    } finally {
+      Clock.setClock(Clock.SYSTEM);
+    }
+  }
+
+  @Test
+  public void testResourceChanges() throws Exception {
+    RestData restData = new RestData(null);
+    UUID handle = UUID.randomUUID();
+    restData.onRegister(createClientInfo(handle));
+    UUID id = UUID.randomUUID();
+    PlacedReservationImpl pr = createReservation(id, handle, "q1",
+        PlacedReservation.Status.PENDING);
+    LlamaAMEventImpl event = new LlamaAMEventImpl();
+    event.addReservation(pr);
+    restData.onEvent(event);
+    RestData.Snapshot snapshot = restData.getSnapshot();
+    PlacedReservation view = snapshot.reservationsMap.get(id);
+
+    // resource changes alone are folded into the reservation
+    PlacedResourceImpl resource = pr.getPlacedResourceImpls().get(1);
+    resource.setAllocationInfo("h3", 1, 1024);
+    event = new LlamaAMEventImpl();
+    event.addResource(resource);
+    restData.onEvent(event);
+    assertResourceStatus(restData, id, 0, PlacedResource.Status.PENDING);
+    assertResourceStatus(restData, id, 1, PlacedResource.Status.ALLOCATED);
+    assertReservationNode(restData, id, "h3", true);
+
+    // the published snapshot and its views are not modified
+    Assert.assertSame(view, snapshot.reservationsMap.get(id));
+    Assert.assertEquals(PlacedResource.Status.PENDING,
+        view.getPlacedResources().get(1).getStatus());
+    PlacedReservation folded = restData.getSnapshot().reservationsMap.get(id);
+    Assert.assertSame(view.getPlacedResources().get(0),
+        folded.getPlacedResources().get(0));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testQuery() throws Exception {
+    RestData restData = new RestData(null);
+    UUID handle = UUID.randomUUID();
+    restData.onRegister(createClientInfo(handle));
+    List<UUID> ids = new ArrayList<UUID>();
+    for (int i = 0; i < 5; i++) {
+      UUID id = UUID.randomUUID();
+      ids.add(id);
+      restData.onEvent(createEvents(createReservation(id, handle,
+          (i % 2 == 0) ? "q1" : "q2", PlacedReservation.Status.PENDING)));
+    }
+
+    RestData.Query query = new RestData.Query();
+    query.limit = 2;
+    query.fields = new HashSet<String>(Arrays.asList("queue"));
+    StringWriter writer = new StringWriter();
+    restData.writeAllAsJson(query, writer);
+    Map map = parseJson(writer.toString());
+    Assert.assertEquals(ids.get(1).toString(), map.get(RestData.NEXT_CURSOR));
+    Map all = (Map) map.get(RestData.ALL_DATA);
+    Map reservations = (Map) all.get(RestData.RESERVATIONS);
+    Assert.assertEquals(2, reservations.size());
+    Map reservation = (Map) reservations.get(ids.get(0).toString());
+    Assert.assertEquals(2, reservation.size());
+    Assert.assertEquals("q1", reservation.get("queue"));
+    Map crossRef = (Map) all.get(RestData.QUEUES_CROSSREF);
+    Assert.assertEquals(1, ((List) crossRef.get("q1")).size());
+
+    query.cursor = ids.get(3);
+    query.fields = null;
+    writer = new StringWriter();
+    restData.writeAllAsJson(query, writer);
+    map = parseJson(writer.toString());
+    Assert.assertFalse(map.containsKey(RestData.NEXT_CURSOR));
+    reservations = (Map) ((Map) map.get(RestData.ALL_DATA)).get(
+        RestData.RESERVATIONS);
+    Assert.assertEquals(1, reservations.size());
+    Assert.assertTrue(reservations.containsKey(ids.get(4).toString()));
+
+    query = new RestData.Query();
+    query.queue = "q2";
+    query.statuses = EnumSet.of(PlacedReservation.Status.PENDING);
+    writer = new StringWriter();
+    restData.writeHandleReservationsAsJson(query, handle, writer);
+    map = (Map) parseJson(writer.toString()).get(RestData.HANDLE_DATA);
+    List list = (List) map.get(RestData.RESERVATIONS);
+    Assert.assertEquals(2, list.size());
+    Assert.assertEquals(ids.get(1).toString(),
+        ((Map) list.get(0)).get("reservationId"));
+
+    query.statuses = EnumSet.of(PlacedReservation.Status.ALLOCATED);
+    writer = new StringWriter();
+    restData.writeQueueReservationsAsJson(query, "q2", writer);
+    list = (List) parseJson(writer.toString()).get(RestData.QUEUE_DATA);
+    Assert.assertTrue(list.isEmpty());
+
+    query.cursor = UUID.randomUUID();
+    try {
+      restData.writeQueueReservationsAsJson(query, "q2", new StringWriter());
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      //NOP
+    }
+  }
+
+  @Test
+  public void testChanges() throws Exception {
+    RestData restData = new RestData(null, 2);
+    RestData.Changes changes = restData.getChanges(-1, 0);
+    Assert.assertTrue(changes.isResync());
+    Assert.assertEquals(0, changes.sequence);
+
+    UUID handle = UUID.randomUUID();
+    restData.onRegister(createClientInfo(handle));
+    changes = restData.getChanges(0, 0);
+    Assert.assertFalse(changes.isResync());
+    Assert.assertEquals(1, changes.sequence);
+    Assert.assertEquals(RestData.REGISTER_CHANGE,
+        changes.changes.get(0).get(RestData.CHANGE_TYPE_KEY));
+
+    // no changes after the last sequence
+    changes = restData.getChanges(1, 0);
+    Assert.assertFalse(changes.isResync());
+    Assert.assertTrue(changes.changes.isEmpty());
+
+    UUID id = UUID.randomUUID();
+    restData.onEvent(createEvents(createReservation(id, handle, "q1",
+        PlacedReservation.Status.PENDING)));
+    changes = restData.getChanges(1, 0);
+    Assert.assertEquals(2, changes.sequence);
+    Assert.assertEquals(1, changes.changes.size());
+    Assert.assertEquals(RestData.EVENT_CHANGE,
+        changes.changes.get(0).get(RestData.CHANGE_TYPE_KEY));
+
+    StringWriter writer = new StringWriter();
+    restData.writeChangesAsJson(new RestData.Query(), 1, 0, writer);
+    Map map = (Map) parseJson(writer.toString()).get(RestData.CHANGES_DATA);
+    Assert.assertEquals(2, map.get(RestData.SEQUENCE_KEY));
+    Assert.assertEquals(Boolean.FALSE, map.get(RestData.RESYNC_KEY));
+    List list = (List) map.get(RestData.CHANGES_DATA);
+    Assert.assertEquals(1, list.size());
+    list = (List) ((Map) list.get(0)).get(RestData.RESERVATIONS);
+    Assert.assertEquals(id.toString(), ((Map) list.get(0)).get("reservationId"));
+
+    // the subscriber fell behind the buffer, it has to resync
+    restData.onUnregister(createClientInfo(handle));
+    changes = restData.getChanges(0, 0);
+    Assert.assertTrue(changes.isResync());
+    Assert.assertEquals(3, changes.sequence);
+    Assert.assertTrue(changes.snapshot.reservationsMap.isEmpty());
+
+    // a sequence ahead of the server, i.e. from a previous server, resyncs
+    Assert.assertTrue(restData.getChanges(10, 0).isResync());
+  }
+
+  @Test
+  public void testChangesWait() throws Exception {
+    final RestData restData = new RestData(null);
+    final UUID handle = UUID.randomUUID();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          restData.onRegister(createClientInfo(handle));
+        } catch (InterruptedException ex) {
+          //NOP
+        }
+      }
+    };
+    thread.start();
+    RestData.Changes changes = restData.getChanges(0, 10000);
+    Assert.assertEquals(1, changes.sequence);
+    Assert.assertEquals(1, changes.changes.size());
+    thread.join();
+  }
+
 }
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am;
+
+import com.cloudera.llama.am.api.QueueOwnership;
+import com.cloudera.llama.am.api.QueueRedirectException;
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.LlamaException;
+import junit.framework.Assert;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TestZKQueueOwnership {
+  private TestingServer zkServer;
+
+  private static class MyListener implements QueueOwnership.Listener {
+    private final Set<String> released = new HashSet<String>();
+
+    @Override
+    public boolean releaseQueue(String queue, boolean force) {
+      released.add(queue);
+      return true;
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    zkServer = new TestingServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    zkServer.close();
+  }
+
+  private HAServerConfiguration createConf() {
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(HAServerConfiguration.HA_ENABLED, true);
+    conf.setBoolean(HAServerConfiguration.ACTIVE_ACTIVE, true);
+    conf.set(HAServerConfiguration.ZK_QUORUM, zkServer.getConnectString());
+    // rebalancing is triggered explicitly in the tests
+    conf.setLong(HAServerConfiguration.QUEUE_REBALANCE_INTERVAL_MS,
+        60 * 60 * 1000);
+    HAServerConfiguration haConf = new HAServerConfiguration();
+    haConf.setConf(conf);
+    return haConf;
+  }
+
+  private ZKQueueOwnership createOwnership(String host, int port)
+      throws Exception {
+    ZKQueueOwnership ownership = new ZKQueueOwnership(createConf(), host,
+        port);
+    ownership.start();
+    return ownership;
+  }
+
+  private void waitForMembers(ZKQueueOwnership ownership, int members)
+      throws Exception {
+    for (int i = 0; i < 100 && ownership.getMembers().size() != members;
+         i++) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(members, ownership.getMembers().size());
+  }
+
+  @Test
+  public void testPreferredOwner() throws Exception {
+    List<String> members = Arrays.asList("h1:1", "h2:2", "h3:3");
+    List<String> reversed = Arrays.asList("h3:3", "h2:2", "h1:1");
+    Set<String> preferred = new HashSet<String>();
+    for (int i = 0; i < 100; i++) {
+      String owner = ZKQueueOwnership.getPreferredOwner("root.q" + i, members);
+      Assert.assertEquals(owner,
+          ZKQueueOwnership.getPreferredOwner("root.q" + i, reversed));
+      preferred.add(owner);
+
+      // removing a member only moves the queues it was preferred for
+      List<String> remaining = new ArrayList<String>(members);
+      remaining.remove("h3:3");
+      if (!owner.equals("h3:3")) {
+        Assert.assertEquals(owner,
+            ZKQueueOwnership.getPreferredOwner("root.q" + i, remaining));
+      }
+    }
+    Assert.assertEquals(3, preferred.size());
+  }
+
+  @Test
+  public void testAcquireAndRedirect() throws Exception {
+    ZKQueueOwnership o1 = createOwnership("h1", 1);
+    ZKQueueOwnership o2 = createOwnership("h2", 2);
+    try {
+      waitForMembers(o1, 2);
+      waitForMembers(o2, 2);
+      for (int i = 0; i < 20; i++) {
+        String queue = "root.q" + i;
+        String preferred = ZKQueueOwnership.getPreferredOwner(queue,
+            o1.getMembers());
+        ZKQueueOwnership owner = (preferred.equals("h1:1")) ? o1 : o2;
+        ZKQueueOwnership other = (owner == o1) ? o2 : o1;
+        try {
+          other.acquire(queue);
+          Assert.fail();
+        } catch (QueueRedirectException ex) {
+          Assert.assertEquals(owner.getAddress(),
+              ex.getOwnerHost() + ":" + ex.getOwnerPort());
+        }
+        owner.acquire(queue);
+        Assert.assertTrue(owner.getOwnedQueues().contains(queue));
+
+        // once acquired the lease is honored by the other Llama
+        try {
+          other.acquire(queue);
+          Assert.fail();
+        } catch (QueueRedirectException ex) {
+          Assert.assertEquals(owner.getAddress(),
+              ex.getOwnerHost() + ":" + ex.getOwnerPort());
+        }
+      }
+    } finally {
+      o1.stop();
+      o2.stop();
+    }
+  }
+
+  @Test
+  public void testAddressInUse() throws Exception {
+    ZKQueueOwnership o1 = createOwnership("h1", 1);
+    try {
+      // the member znode of another session is not taken over
+      createOwnership("h1", 1);
+      Assert.fail();
+    } catch (IllegalStateException ex) {
+      //NOP
+    } finally {
+      o1.stop();
+    }
+  }
+
+  @Test
+  public void testNoAcquireWhileLost() throws Exception {
+    ZKQueueOwnership o1 = createOwnership("h1", 1);
+    try {
+      o1.acquire("root.q");
+      o1.lost();
+      try {
+        o1.acquire("root.q");
+        Assert.fail();
+      } catch (QueueRedirectException ex) {
+        Assert.fail();
+      } catch (LlamaException ex) {
+        Assert.assertEquals(ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE.getCode(),
+            ex.getErrorCode());
+      }
+    } finally {
+      o1.stop();
+    }
+  }
+
+  @Test
+  public void testSuspendedAndReconnected() throws Exception {
+    ZKQueueOwnership o1 = createOwnership("h1", 1);
+    MyListener listener = new MyListener();
+    o1.setListener(listener);
+    CuratorFramework zk = CuratorFrameworkFactory.newClient(
+        zkServer.getConnectString(), new RetryOneTime(100));
+    zk.start();
+    try {
+      o1.acquire("root.q1");
+      o1.acquire("root.q2");
+      o1.stateChanged(null, ConnectionState.SUSPENDED);
+      try {
+        o1.acquire("root.q3");
+        Assert.fail();
+      } catch (LlamaException ex) {
+        Assert.assertEquals(ErrorCode.QUEUE_OWNERSHIP_UNAVAILABLE.getCode(),
+            ex.getErrorCode());
+      }
+
+      // the lease of root.q1 went away while suspended
+      zk.delete().forPath(createConf().getQueueLeasesZNode() + "/root.q1");
+      o1.rejoin();
+      Assert.assertEquals(new HashSet<String>(Arrays.asList("root.q1")),
+          listener.released);
+      Assert.assertEquals(new HashSet<String>(Arrays.asList("root.q2")),
+          o1.getOwnedQueues());
+      o1.acquire("root.q1");
+      o1.acquire("root.q3");
+      Assert.assertEquals(3, o1.getOwnedQueues().size());
+    } finally {
+      zk.close();
+      o1.stop();
+    }
+  }
+
+  @Test
+  public void testRebalanceOnJoinAndLeave() throws Exception {
+    ZKQueueOwnership o1 = createOwnership("h1", 1);
+    MyListener listener = new MyListener();
+    o1.setListener(listener);
+    ZKQueueOwnership o2 = null;
+    try {
+      for (int i = 0; i < 20; i++) {
+        o1.acquire("root.q" + i);
+      }
+      Assert.assertEquals(20, o1.getOwnedQueues().size());
+
+      o2 = createOwnership("h2", 2);
+      waitForMembers(o1, 2);
+      o1.rebalance();
+      Assert.assertFalse(listener.released.isEmpty());
+      Assert.assertEquals(20, o1.getOwnedQueues().size() +
+          listener.released.size());
+      for (String queue : listener.released) {
+        Assert.assertFalse(o1.getOwnedQueues().contains(queue));
+        o2.acquire(queue);
+      }
+
+      o2.stop();
+      o2 = null;
+      waitForMembers(o1, 1);
+      for (String queue : listener.released) {
+        o1.acquire(queue);
+      }
+      Assert.assertEquals(20, o1.getOwnedQueues().size());
+    } finally {
+      o1.stop();
+      if (o2 != null) {
+        o2.stop();
+      }
+    }
+  }
+
+}
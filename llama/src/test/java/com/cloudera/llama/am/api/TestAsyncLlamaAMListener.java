@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.api;
+
+import com.cloudera.llama.am.impl.LlamaAMEventImpl;
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TestAsyncLlamaAMListener {
+
+  private static LlamaAMEvent createEvent() {
+    return LlamaAMEventImpl.createEvent(false,
+        TestUtils.createPlacedReservation(TestUtils.createReservation(true),
+            PlacedReservation.Status.ALLOCATED));
+  }
+
+  @Test
+  public void testDispatch() throws Exception {
+    final BlockingQueue<LlamaAMEvent> received =
+        new LinkedBlockingQueue<LlamaAMEvent>();
+    AsyncLlamaAMListener async = new AsyncLlamaAMListener(
+        new LlamaAMListener() {
+          @Override
+          public void onEvent(LlamaAMEvent event) {
+            received.add(event);
+          }
+        });
+    MetricRegistry mr = new MetricRegistry();
+    async.setMetricRegistry(mr);
+    async.start();
+    try {
+      LlamaAMEvent event = createEvent();
+      async.onEvent(event);
+      Assert.assertSame(event, received.poll(10, TimeUnit.SECONDS));
+      Assert.assertTrue(mr.getMetrics().keySet().containsAll(
+          AsyncLlamaAMListener.METRIC_KEYS));
+    } finally {
+      async.stop();
+    }
+  }
+
+  @Test
+  public void testBatchAndOverflow() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final BlockingQueue<LlamaAMEvent> received =
+        new LinkedBlockingQueue<LlamaAMEvent>();
+    Configuration conf = new Configuration(false);
+    conf.setInt(AsyncLlamaAMListener.QUEUE_CAPACITY_KEY, 2);
+    conf.set(AsyncLlamaAMListener.OVERFLOW_POLICY_KEY, "drop_newest");
+    AsyncLlamaAMListener async = new AsyncLlamaAMListener(conf,
+        new LlamaAMListener() {
+          @Override
+          public void onEvent(LlamaAMEvent event) {
+            blocked.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException ex) {
+              //NOP
+            }
+            received.add(event);
+          }
+        });
+    async.start();
+    try {
+      async.onEvent(createEvent());
+      Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+      // dispatcher is busy, 2 events fit in the queue, the 3rd is dropped
+      async.onEvent(createEvent());
+      async.onEvent(createEvent());
+      async.onEvent(createEvent());
+      release.countDown();
+      Assert.assertEquals(1, received.poll(10, TimeUnit.SECONDS)
+          .getReservationChanges().size());
+      // queued events are merged into a single dispatch
+      Assert.assertEquals(2, received.poll(10, TimeUnit.SECONDS)
+          .getReservationChanges().size());
+      Assert.assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+    } finally {
+      async.stop();
+    }
+  }
+
+  @Test
+  public void testStatefulListenerRequiresBlock() throws Exception {
+    StatefulLlamaAMListener listener = new StatefulLlamaAMListener() {
+      @Override
+      public void onEvent(LlamaAMEvent event) {
+      }
+    };
+    Configuration conf = new Configuration(false);
+    new AsyncLlamaAMListener(conf, listener);
+    for (AsyncLlamaAMListener.OverflowPolicy policy :
+        new AsyncLlamaAMListener.OverflowPolicy[]{
+            AsyncLlamaAMListener.OverflowPolicy.DROP_NEWEST,
+            AsyncLlamaAMListener.OverflowPolicy.DROP_OLDEST}) {
+      conf.set(AsyncLlamaAMListener.OVERFLOW_POLICY_KEY, policy.toString());
+      try {
+        new AsyncLlamaAMListener(conf, listener);
+        Assert.fail();
+      } catch (IllegalArgumentException ex) {
+        //NOP
+      }
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.api;
+
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class TestReservationTracer {
+
+  @After
+  public void resetClock() {
+    Clock.setClock(Clock.SYSTEM);
+  }
+
+  private ReservationTracer createTracer(float rate, int maxInFlight) {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(ReservationTracer.SAMPLING_RATE_KEY, rate);
+    conf.setInt(ReservationTracer.MAX_IN_FLIGHT_KEY, maxInFlight);
+    conf.setLong(ReservationTracer.EXPIRATION_MS_KEY, 1000);
+    return new ReservationTracer(conf);
+  }
+
+  @Test
+  public void testDisabled() {
+    Assert.assertFalse(ReservationTracer.DISABLED.isEnabled());
+    UUID id = UUID.randomUUID();
+    Assert.assertNull(ReservationTracer.DISABLED.start(id));
+    Assert.assertNull(ReservationTracer.DISABLED.mark(id,
+        ReservationTracer.Stage.PLACED));
+    Assert.assertNull(createTracer(0, 10).start(id));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testLifecycle() {
+    Clock.Mock clock = new Clock.Mock();
+    Clock.setClock(clock);
+    MetricRegistry mr = new MetricRegistry();
+    ReservationTracer tracer = createTracer(1, 10);
+    tracer.setMetricRegistry(mr);
+    UUID id = UUID.randomUUID();
+    ReservationTracer.Trace trace = tracer.start(id);
+    Assert.assertNotNull(trace);
+    trace.setQueue("q");
+    clock.sleep(1);
+    tracer.mark(id, ReservationTracer.Stage.PLACED);
+    clock.sleep(2);
+    tracer.mark(id, ReservationTracer.Stage.ADMITTED);
+    clock.sleep(3);
+    tracer.mark(id, ReservationTracer.Stage.REQUESTED);
+    clock.sleep(4);
+    tracer.backedOff(id);
+    clock.sleep(5);
+    tracer.mark(id, ReservationTracer.Stage.ADMITTED);
+    clock.sleep(6);
+    tracer.mark(id, ReservationTracer.Stage.ALLOCATED);
+    trace.containerStarted(8);
+    trace.containerStarted(7);
+    clock.sleep(9);
+    Assert.assertEquals(-1, trace.getLatency(ReservationTracer.Phase.TOTAL));
+    tracer.mark(id, ReservationTracer.Stage.NOTIFIED);
+
+    Assert.assertEquals(1, trace.getLatency(
+        ReservationTracer.Phase.PLACEMENT));
+    Assert.assertEquals(2, trace.getLatency(ReservationTracer.Phase.THROTTLE));
+    Assert.assertEquals(3, trace.getLatency(
+        ReservationTracer.Phase.RM_REQUEST));
+    Assert.assertEquals(5, trace.getLatency(ReservationTracer.Phase.BACKOFF));
+    Assert.assertEquals(10, trace.getLatency(
+        ReservationTracer.Phase.ALLOCATION));
+    Assert.assertEquals(8, trace.getLatency(
+        ReservationTracer.Phase.CONTAINER_START));
+    Assert.assertEquals(9, trace.getLatency(
+        ReservationTracer.Phase.NOTIFICATION));
+    Assert.assertEquals(30, trace.getLatency(ReservationTracer.Phase.TOTAL));
+
+    // completed, no longer in flight but available
+    Assert.assertNull(tracer.get(id));
+    Assert.assertSame(trace, tracer.getTrace(id));
+    Map<String, Object> map = trace.toMap();
+    Assert.assertEquals(true, map.get("complete"));
+    Assert.assertEquals(30L, ((Map) map.get("phases")).get("total"));
+
+    for (ReservationTracer.Phase phase : ReservationTracer.Phase.values()) {
+      String key = ReservationTracer.getHistogramKey(phase, "q");
+      Assert.assertTrue(mr.getHistograms().containsKey(key));
+      int count = (phase == ReservationTracer.Phase.CONTAINER_START) ? 2 : 1;
+      Assert.assertEquals(count, mr.getHistograms().get(key).getCount());
+    }
+  }
+
+  @Test
+  public void testInFlightLimit() {
+    Clock.Mock clock = new Clock.Mock();
+    Clock.setClock(clock);
+    ReservationTracer tracer = createTracer(1, 2);
+    UUID id1 = UUID.randomUUID();
+    UUID id2 = UUID.randomUUID();
+    Assert.assertNotNull(tracer.start(id1));
+    Assert.assertNotNull(tracer.start(id2));
+    Assert.assertNull(tracer.start(UUID.randomUUID()));
+    tracer.discard(id1);
+    Assert.assertNull(tracer.getTrace(id1));
+    Assert.assertNotNull(tracer.start(UUID.randomUUID()));
+    Assert.assertNull(tracer.start(UUID.randomUUID()));
+
+    // expired traces make room
+    clock.sleep(1001);
+    Assert.assertNotNull(tracer.start(UUID.randomUUID()));
+    Assert.assertNull(tracer.getTrace(id2));
+  }
+
+  @Test
+  public void testBackgroundExpiration() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(ReservationTracer.SAMPLING_RATE_KEY, 1);
+    conf.setLong(ReservationTracer.EXPIRATION_MS_KEY, 100);
+    ReservationTracer tracer = new ReservationTracer(conf);
+    tracer.start();
+    try {
+      UUID id = UUID.randomUUID();
+      Assert.assertNotNull(tracer.start(id));
+      long timeout = System.currentTimeMillis() + 10000;
+      while (tracer.getTrace(id) != null &&
+          System.currentTimeMillis() < timeout) {
+        Thread.sleep(10);
+      }
+      // expired with room to spare in flight
+      Assert.assertNull(tracer.getTrace(id));
+    } finally {
+      tracer.stop();
+    }
+  }
+
+}
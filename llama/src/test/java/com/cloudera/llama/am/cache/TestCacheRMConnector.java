@@ -18,6 +18,7 @@
 package com.cloudera.llama.am.cache;
 
 import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.ReservationTracer;
 import com.cloudera.llama.am.impl.PlacedResourceImpl;
 import com.cloudera.llama.am.impl.RecordingMockRMConnector;
 import com.cloudera.llama.am.spi.RMResource;
@@ -168,6 +169,47 @@ public class TestCacheRMConnector {
     cache.stop();
   }
 
+  @Test
+  public void testTraceNotCached() throws Exception {
+    RecordingMockRMConnector connector = new RecordingMockRMConnector();
+    CacheRMConnector cache = new CacheRMConnector(
+        new Configuration(false), connector);
+    cache.setRMListener(new RMListener() {
+      @Override
+      public void stoppedByRM() {
+      }
+
+      @Override
+      public void onEvent(List<RMEvent> events) {
+      }
+    });
+    cache.start();
+    cache.getNodes();
+    cache.register("q");
+
+    Configuration conf = new Configuration(false);
+    conf.setFloat(ReservationTracer.SAMPLING_RATE_KEY, 1);
+    ReservationTracer.Trace trace =
+        new ReservationTracer(conf).start(UUID.randomUUID());
+    PlacedResourceImpl pr1 = TestUtils.createPlacedResourceImpl("l1",
+        Resource.Locality.MUST, 0, 1024);
+    pr1.getRmData().set(ReservationTracer.TRACE_SLOT, trace);
+    cache.reserve(Arrays.asList((RMResource) pr1));
+    pr1.setAllocationInfo("l1", 0, 1024);
+    pr1.setRmResourceId("rm1");
+    cache.release(Arrays.asList((RMResource) pr1), false);
+
+    // the cached resource does not carry the trace of the released one
+    PlacedResourceImpl pr2 = TestUtils.createPlacedResourceImpl("l1",
+        Resource.Locality.MUST, 0, 1024);
+    connector.getInvoked().clear();
+    cache.reserve(Arrays.asList((RMResource) pr2));
+    Assert.assertFalse(connector.getInvoked().contains("reserve"));
+    Assert.assertNull(pr2.getRmData().get(ReservationTracer.TRACE_SLOT));
+    cache.unregister();
+    cache.stop();
+  }
+
   @Test
   public void testDoNotCache() throws Exception {
     RecordingMockRMConnector connector = new RecordingMockRMConnector();
@@ -17,8 +17,11 @@
  */
 package com.cloudera.llama.am.cache;
 
+import com.cloudera.llama.am.api.Builders;
+import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.am.api.Resource;
 import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.am.impl.PlacedReservationImpl;
 import com.cloudera.llama.am.impl.PlacedResourceImpl;
 import com.cloudera.llama.util.UUID;
 import junit.framework.Assert;
@@ -223,4 +226,40 @@ public class TestResourceStore {
     Assert.assertEquals(0, store.getSize());
   }
 
+
+  private PlacedResourceImpl createPending(Reservation.Priority priority) {
+    Resource r = TestUtils.createResource("l1", Resource.Locality.MUST, 0,
+        1024);
+    Reservation.Builder b = Builders.createReservationBuilder();
+    b.setHandle(UUID.randomUUID()).setUser("u").setQueue("q").addResource(r).
+        setGang(false).setPriority(priority);
+    PlacedReservationImpl pr = new PlacedReservationImpl(UUID.randomUUID(),
+        b.build());
+    return pr.getPlacedResourceImpls().get(0);
+  }
+
+  @Test
+  public void testPendingByPriority() throws Exception {
+    ResourceStore store = new ResourceStore();
+    PlacedResourceImpl low = createPending(Reservation.Priority.LOW);
+    PlacedResourceImpl normal1 = createPending(Reservation.Priority.NORMAL);
+    PlacedResourceImpl high = createPending(Reservation.Priority.HIGH);
+    PlacedResourceImpl normal2 = createPending(Reservation.Priority.NORMAL);
+    store.add(Entry.createStoreEntry(low));
+    store.add(Entry.createStoreEntry(normal1));
+    store.add(Entry.createStoreEntry(high));
+    store.add(Entry.createStoreEntry(normal2));
+
+    PlacedResourceImpl released = TestUtils.createPlacedResourceImpl("l1",
+        Resource.Locality.MUST, 0, 1024);
+    Assert.assertEquals(high.getResourceId(),
+        store.findAndRemove(released).getResourceId());
+    Assert.assertEquals(normal1.getResourceId(),
+        store.findAndRemove(released).getResourceId());
+    Assert.assertEquals(normal2.getResourceId(),
+        store.findAndRemove(released).getResourceId());
+    Assert.assertEquals(low.getResourceId(),
+        store.findAndRemove(released).getResourceId());
+    Assert.assertEquals(0, store.getSize());
+  }
 }
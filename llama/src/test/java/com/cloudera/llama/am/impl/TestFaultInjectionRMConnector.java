@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.am.spi.RMEvent;
+import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.util.ErrorCode;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.UUID;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestFaultInjectionRMConnector {
+
+  private static class MyListener implements RMListener {
+    private final List<RMEvent> events = new ArrayList<RMEvent>();
+    private int stopped;
+
+    @Override
+    public synchronized void stoppedByRM() {
+      stopped++;
+    }
+
+    @Override
+    public synchronized void onEvent(List<RMEvent> events) {
+      this.events.addAll(events);
+    }
+
+    public synchronized List<RMEvent> getEvents() {
+      return new ArrayList<RMEvent>(events);
+    }
+
+    public synchronized int getStopped() {
+      return stopped;
+    }
+  }
+
+  private RecordingMockRMConnector connector;
+  private MyListener listener;
+
+  private FaultInjectionRMConnector createConnector(Configuration conf)
+      throws Exception {
+    conf.setLong(FaultInjectionRMConnector.SEED_KEY, 1);
+    connector = new RecordingMockRMConnector();
+    listener = new MyListener();
+    FaultInjectionRMConnector fi =
+        new FaultInjectionRMConnector(conf, connector);
+    fi.setRMListener(listener);
+    fi.start();
+    return fi;
+  }
+
+  private static RMEvent allocate(RMResource resource) {
+    return RMEvent.createAllocationEvent(resource.getResourceId(),
+        resource.getLocationAsk(), resource.getCpuVCoresAsk(),
+        resource.getMemoryMbsAsk(), UUID.randomUUID(), null);
+  }
+
+  private static RMResource createResource() {
+    return TestUtils.createRMResource("n1", Resource.Locality.MUST, 1, 1024);
+  }
+
+  @Test
+  public void testPassThrough() throws Exception {
+    FaultInjectionRMConnector fi = createConnector(new Configuration(false));
+    try {
+      RMResource resource = createResource();
+      fi.register("q");
+      fi.reserve(Arrays.asList(resource));
+      fi.onEvent(Arrays.asList(allocate(resource)));
+      Assert.assertEquals(1, listener.getEvents().size());
+      Assert.assertEquals(PlacedResource.Status.ALLOCATED,
+          listener.getEvents().get(0).getStatus());
+      Assert.assertEquals(1, fi.getAllocatedCount());
+      fi.release(Arrays.asList(resource), false);
+      Assert.assertEquals(0, fi.getAllocatedCount());
+      Assert.assertEquals(Arrays.asList("setRMListener", "start", "register",
+          "reserve", "release"), connector.getInvoked());
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(FaultInjectionRMConnector.RESERVE_ERROR_RATE_KEY, 1);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      fi.reserve(Arrays.asList(createResource()));
+      Assert.fail();
+    } catch (LlamaException ex) {
+      Assert.assertEquals(ErrorCode.AM_FAULT_INJECTED.getCode(),
+          ex.getErrorCode());
+      Assert.assertFalse(connector.getInvoked().contains("reserve"));
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(FaultInjectionRMConnector.LATENCY_DISTRIBUTION_KEY, "FIXED");
+    conf.setLong(FaultInjectionRMConnector.GET_NODES_LATENCY_MS_KEY, 100);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      long start = System.currentTimeMillis();
+      Assert.assertEquals(2, fi.getNodes().size());
+      Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testLatencyDistributions() throws Exception {
+    for (FaultInjectionRMConnector.Distribution distribution :
+        FaultInjectionRMConnector.Distribution.values()) {
+      Configuration conf = new Configuration(false);
+      conf.set(FaultInjectionRMConnector.LATENCY_DISTRIBUTION_KEY,
+          distribution.toString());
+      FaultInjectionRMConnector fi = createConnector(conf);
+      try {
+        Assert.assertEquals(0, fi.sampleLatency(0));
+        long sum = 0;
+        for (int i = 0; i < 10000; i++) {
+          long latency = fi.sampleLatency(100);
+          Assert.assertTrue(latency >= 0);
+          sum += latency;
+        }
+        Assert.assertEquals(100, sum / 10000, 5);
+      } finally {
+        fi.stop();
+      }
+    }
+  }
+
+  @Test
+  public void testWindow() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(FaultInjectionRMConnector.REGISTER_ERROR_RATE_KEY, 1);
+    conf.setLong(FaultInjectionRMConnector.WINDOW_START_MS_KEY, 60 * 1000);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      Assert.assertFalse(fi.isActive());
+      fi.register("q");
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testDelayedEventsKeepOrder() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(FaultInjectionRMConnector.EVENTS_DELAY_MS_KEY, 50);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      List<RMEvent> sent = new ArrayList<RMEvent>();
+      for (int i = 0; i < 20; i++) {
+        RMEvent event = allocate(createResource());
+        sent.add(event);
+        fi.onEvent(Arrays.asList(event));
+      }
+      long start = System.currentTimeMillis();
+      while (listener.getEvents().size() < sent.size() &&
+          System.currentTimeMillis() - start < 10000) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(sent, listener.getEvents());
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testAllocationLost() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(FaultInjectionRMConnector.ALLOCATION_LOST_RATE_KEY, 1);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      RMResource resource = createResource();
+      fi.onEvent(Arrays.asList(allocate(resource)));
+      Assert.assertEquals(1, listener.getEvents().size());
+      Assert.assertEquals(PlacedResource.Status.LOST,
+          listener.getEvents().get(0).getStatus());
+      Assert.assertEquals(resource.getResourceId(),
+          listener.getEvents().get(0).getResourceId());
+      Assert.assertEquals(0, fi.getAllocatedCount());
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testStorm() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(FaultInjectionRMConnector.STORM_FRACTION_KEY, 1);
+    conf.set(FaultInjectionRMConnector.STORM_STATUS_KEY, "PREEMPTED");
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      List<RMEvent> allocations = new ArrayList<RMEvent>();
+      for (int i = 0; i < 10; i++) {
+        allocations.add(allocate(createResource()));
+      }
+      fi.onEvent(allocations);
+      Assert.assertEquals(10, fi.getAllocatedCount());
+      fi.storm();
+      Assert.assertEquals(0, fi.getAllocatedCount());
+      List<RMEvent> events = listener.getEvents();
+      Assert.assertEquals(20, events.size());
+      for (RMEvent event : events.subList(10, 20)) {
+        Assert.assertEquals(PlacedResource.Status.PREEMPTED, event.getStatus());
+      }
+      fi.storm();
+      Assert.assertEquals(20, listener.getEvents().size());
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testReassignKeepsTracking() throws Exception {
+    FaultInjectionRMConnector fi = createConnector(new Configuration(false));
+    try {
+      RMEvent event = allocate(createResource());
+      fi.onEvent(Collections.singletonList(event));
+      UUID newId = UUID.randomUUID();
+      Assert.assertTrue(fi.reassignResource(event.getRmResourceId(), newId));
+      Assert.assertEquals(1, fi.getAllocatedCount());
+      fi.onEvent(Collections.singletonList(RMEvent.createStatusChangeEvent(
+          newId, PlacedResource.Status.LOST)));
+      Assert.assertEquals(0, fi.getAllocatedCount());
+    } finally {
+      fi.stop();
+    }
+  }
+
+  @Test
+  public void testStoppedByRM() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setLong(FaultInjectionRMConnector.STOPPED_BY_RM_AFTER_MS_KEY, 50);
+    FaultInjectionRMConnector fi = createConnector(conf);
+    try {
+      long start = System.currentTimeMillis();
+      while (listener.getStopped() == 0 &&
+          System.currentTimeMillis() - start < 10000) {
+        Thread.sleep(10);
+      }
+      Assert.assertEquals(1, listener.getStopped());
+    } finally {
+      fi.stop();
+    }
+  }
+
+}
@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.am.mock.MockLlamaAMFlags;
+import com.cloudera.llama.am.mock.MockRMConnector;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.am.spi.RMEvent;
+import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.util.LlamaException;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class TestFederatedRMConnector {
+  private static final String C1_NODE = MockLlamaAMFlags.PENDING + "c1n1";
+  private static final String C2_NODE1 = MockLlamaAMFlags.PENDING + "c2n1";
+  private static final String C2_NODE2 = MockLlamaAMFlags.PENDING + "c2n2";
+
+  private static class MyListener implements RMListener {
+    private final List<RMEvent> events = new ArrayList<RMEvent>();
+    private boolean stopped;
+
+    @Override
+    public synchronized void stoppedByRM() {
+      stopped = true;
+    }
+
+    @Override
+    public synchronized void onEvent(List<RMEvent> events) {
+      this.events.addAll(events);
+    }
+  }
+
+  public static class ReleaseRecordingRMConnector extends MockRMConnector {
+    private final List<RMResource> released = new ArrayList<RMResource>();
+
+    @Override
+    public synchronized void release(Collection<RMResource> resources,
+        boolean doNotCache) throws LlamaException {
+      released.addAll(resources);
+    }
+  }
+
+  private FederatedRMConnector createConnector(MyListener listener)
+      throws Exception {
+    return createConnector(listener, MockRMConnector.class);
+  }
+
+  public static class UnregisterRecordingRMConnector extends MockRMConnector {
+    private int unregistered;
+
+    @Override
+    public synchronized void unregister() {
+      unregistered++;
+      super.unregister();
+    }
+  }
+
+  private FederatedRMConnector createConnector(MyListener listener,
+      Class<? extends RMConnector> klass) throws Exception {
+    FederatedRMConnector connector = new FederatedRMConnector();
+    connector.setConf(createConf(klass));
+    connector.setRMListener(listener);
+    connector.start();
+    connector.register("q");
+    return connector;
+  }
+
+  private Configuration createConf(Class<? extends RMConnector> klass) {
+    Configuration conf = new Configuration(false);
+    conf.set(FederatedRMConnector.CLUSTERS_KEY, "c1,c2");
+    conf.setClass(FederatedRMConnector.RM_CONNECTOR_CLASS_KEY, klass,
+        RMConnector.class);
+    conf.set(MockRMConnector.QUEUES_KEY, "q");
+    // events are delivered explicitly by the tests
+    conf.setInt(MockRMConnector.EVENTS_MIN_WAIT_KEY, 60 * 60 * 1000);
+    conf.setInt(MockRMConnector.EVENTS_MAX_WAIT_KEY, 1);
+    conf.set(FederatedRMConnector.CLUSTER_PREFIX_KEY + "c1." +
+        MockRMConnector.NODES_KEY, C1_NODE);
+    conf.set(FederatedRMConnector.CLUSTER_PREFIX_KEY + "c2." +
+        MockRMConnector.NODES_KEY, C2_NODE1 + "," + C2_NODE2);
+    return conf;
+  }
+
+  @Test
+  public void testClusterConf() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set("a", "A");
+    conf.set("b", "B");
+    conf.set(FederatedRMConnector.CLUSTER_PREFIX_KEY + "c1.b", "B1");
+    Configuration c1 = FederatedRMConnector.getClusterConf(conf, "c1");
+    Assert.assertEquals("A", c1.get("a"));
+    Assert.assertEquals("B1", c1.get("b"));
+    Configuration c2 = FederatedRMConnector.getClusterConf(conf, "c2");
+    Assert.assertEquals("B", c2.get("b"));
+  }
+
+  @Test
+  public void testGetNodes() throws Exception {
+    FederatedRMConnector connector = createConnector(new MyListener());
+    try {
+      Assert.assertEquals(3, connector.getNodes().size());
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testRouteByLocality() throws Exception {
+    FederatedRMConnector connector = createConnector(new MyListener());
+    try {
+      RMResource r1 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r1));
+      Assert.assertEquals("c1", connector.getClusterName(r1.getResourceId()));
+
+      RMResource r2 = TestUtils.createRMResource(C2_NODE2,
+          Resource.Locality.PREFERRED, 1, 1024);
+      connector.reserve(Arrays.asList(r2));
+      Assert.assertEquals("c2", connector.getClusterName(r2.getResourceId()));
+
+      // most resources local to c2
+      RMResource r3 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.PREFERRED, 1, 1024);
+      RMResource r4 = TestUtils.createRMResource(C2_NODE1,
+          Resource.Locality.PREFERRED, 1, 1024);
+      RMResource r5 = TestUtils.createRMResource(C2_NODE2,
+          Resource.Locality.PREFERRED, 1, 1024);
+      connector.reserve(Arrays.asList(r3, r4, r5));
+      for (RMResource r : Arrays.asList(r3, r4, r5)) {
+        Assert.assertEquals("c2", connector.getClusterName(r.getResourceId()));
+      }
+
+      connector.release(Arrays.asList(r1, r2), false);
+      Assert.assertNull(connector.getClusterName(r1.getResourceId()));
+      Assert.assertNull(connector.getClusterName(r2.getResourceId()));
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testRouteByCapacity() throws Exception {
+    FederatedRMConnector connector = createConnector(new MyListener());
+    try {
+      long c1Memory = connector.getClusters().get(0).connector.getNodes()
+          .get(0).getMemoryMB();
+      // c2 has twice the memory of c1, then c1 has more free memory
+      RMResource r1 = TestUtils.createRMResource("x",
+          Resource.Locality.DONT_CARE, 1, (int) (c1Memory * 3 / 2));
+      connector.reserve(Arrays.asList(r1));
+      Assert.assertEquals("c2", connector.getClusterName(r1.getResourceId()));
+      RMResource r2 = TestUtils.createRMResource("x",
+          Resource.Locality.DONT_CARE, 1, 1024);
+      connector.reserve(Arrays.asList(r2));
+      Assert.assertEquals("c1", connector.getClusterName(r2.getResourceId()));
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testClusterStopped() throws Exception {
+    MyListener listener = new MyListener();
+    FederatedRMConnector connector = createConnector(listener);
+    try {
+      RMResource r1 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r1));
+      RMResource r2 = TestUtils.createRMResource(C2_NODE1,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r2));
+
+      connector.getClusters().get(0).stoppedByRM();
+      Assert.assertFalse(listener.stopped);
+      Assert.assertEquals(1, listener.events.size());
+      Assert.assertEquals(r1.getResourceId(),
+          listener.events.get(0).getResourceId());
+      Assert.assertEquals(PlacedResource.Status.LOST,
+          listener.events.get(0).getStatus());
+      Assert.assertEquals(2, connector.getNodes().size());
+
+      // c1 is not used anymore
+      RMResource r3 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.PREFERRED, 1, 1024);
+      connector.reserve(Collections.singletonList(r3));
+      Assert.assertEquals("c2", connector.getClusterName(r3.getResourceId()));
+
+      connector.getClusters().get(1).stoppedByRM();
+      Assert.assertTrue(listener.stopped);
+
+      // a restart brings the clusters back
+      connector.unregister();
+      connector.stop();
+      connector.start();
+      connector.register("q");
+      Assert.assertEquals(3, connector.getNodes().size());
+      RMResource r4 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r4));
+      Assert.assertEquals("c1", connector.getClusterName(r4.getResourceId()));
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testReleaseUnknownResource() throws Exception {
+    FederatedRMConnector connector = createConnector(new MyListener(),
+        ReleaseRecordingRMConnector.class);
+    try {
+      RMResource r1 = TestUtils.createRMResource(C1_NODE,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r1));
+      RMResource unknown = TestUtils.createRMResource(C2_NODE1,
+          Resource.Locality.MUST, 1, 1024);
+      connector.release(Arrays.asList(r1, unknown), false);
+      ReleaseRecordingRMConnector c1 = (ReleaseRecordingRMConnector)
+          connector.getClusters().get(0).connector;
+      ReleaseRecordingRMConnector c2 = (ReleaseRecordingRMConnector)
+          connector.getClusters().get(1).connector;
+      Assert.assertEquals(Arrays.asList(r1), c1.released);
+      Assert.assertTrue(c2.released.isEmpty());
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testEventsAndReassign() throws Exception {
+    MyListener listener = new MyListener();
+    FederatedRMConnector connector = createConnector(listener);
+    try {
+      RMResource r1 = TestUtils.createRMResource(C2_NODE1,
+          Resource.Locality.MUST, 1, 1024);
+      connector.reserve(Arrays.asList(r1));
+      FederatedRMConnector.Cluster c2 = connector.getClusters().get(1);
+      c2.onEvent(Arrays.asList(RMEvent.createAllocationEvent(
+          r1.getResourceId(), C2_NODE1, 1, 1024, "rm1", null)));
+      Assert.assertEquals(1, listener.events.size());
+      Assert.assertEquals("c2", connector.getRmClusterName("rm1"));
+
+      // MockRMConnector does not support reassigning
+      Assert.assertFalse(connector.reassignResource("rm1",
+          r1.getResourceId()));
+      Assert.assertFalse(connector.reassignResource("unknown",
+          r1.getResourceId()));
+
+      c2.onEvent(Arrays.asList(RMEvent.createStatusChangeEvent(
+          r1.getResourceId(), PlacedResource.Status.PREEMPTED)));
+      Assert.assertEquals(2, listener.events.size());
+      Assert.assertNull(connector.getClusterName(r1.getResourceId()));
+      // final events do not carry the RM resource ID, it is dropped anyway
+      Assert.assertNull(connector.getRmClusterName("rm1"));
+    } finally {
+      connector.unregister();
+      connector.stop();
+    }
+  }
+
+  @Test
+  public void testRegisterFailureUnregisters() throws Exception {
+    Configuration conf = createConf(UnregisterRecordingRMConnector.class);
+    conf.set(FederatedRMConnector.CLUSTER_PREFIX_KEY + "c2." +
+        MockRMConnector.QUEUES_KEY, "other");
+    FederatedRMConnector connector = new FederatedRMConnector();
+    connector.setConf(conf);
+    connector.setRMListener(new MyListener());
+    connector.start();
+    try {
+      connector.register("q");
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      //NOP
+    } finally {
+      connector.stop();
+    }
+    UnregisterRecordingRMConnector c1 = (UnregisterRecordingRMConnector)
+        connector.getClusters().get(0).connector;
+    UnregisterRecordingRMConnector c2 = (UnregisterRecordingRMConnector)
+        connector.getClusters().get(1).connector;
+    Assert.assertEquals(1, c1.unregistered);
+    Assert.assertEquals(0, c2.unregistered);
+  }
+
+}
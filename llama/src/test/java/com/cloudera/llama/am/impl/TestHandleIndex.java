@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.impl;
+
+import com.cloudera.llama.util.UUID;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestHandleIndex {
+
+  @Test
+  public void testIndex() {
+    HandleIndex index = new HandleIndex();
+    UUID h1 = UUID.randomUUID();
+    UUID h2 = UUID.randomUUID();
+    UUID r1 = UUID.randomUUID();
+    UUID r2 = UUID.randomUUID();
+    UUID r3 = UUID.randomUUID();
+    Assert.assertTrue(index.get(h1).isEmpty());
+    index.add(h1, r1);
+    index.add(h1, r2);
+    index.add(h2, r3);
+    Assert.assertEquals(Arrays.asList(r1, r2), index.get(h1));
+    Assert.assertEquals(Arrays.asList(r3), index.get(h2));
+
+    List<UUID> ids = index.get(h1);
+    for (UUID id : ids) {
+      index.remove(h1, id);
+    }
+    Assert.assertTrue(index.get(h1).isEmpty());
+    Assert.assertEquals(Arrays.asList(r3), index.get(h2));
+
+    index.remove(h1, r3);
+    Assert.assertEquals(Arrays.asList(r3), index.get(h2));
+    index.clear();
+    Assert.assertTrue(index.get(h2).isEmpty());
+  }
+
+}
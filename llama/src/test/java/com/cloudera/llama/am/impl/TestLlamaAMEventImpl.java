@@ -20,9 +20,12 @@ package com.cloudera.llama.am.impl;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
 import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.util.UUID;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.util.List;
+
 public class TestLlamaAMEventImpl {
 
   @Test
@@ -55,4 +58,41 @@ public class TestLlamaAMEventImpl {
     Assert.assertTrue(event.getResourceChanges().isEmpty());
 
   }
+
+  @Test
+  public void testViewsSharedWithinEvent() {
+    PlacedReservationImpl prr = (PlacedReservationImpl)
+        TestUtils.createPlacedReservation(TestUtils.createReservation(
+            UUID.randomUUID(), 2, true), PlacedReservation.Status.PENDING);
+    LlamaAMEventImpl event = new LlamaAMEventImpl();
+    event.addReservation(prr);
+    event.addResource(prr.getPlacedResourceImpls().get(0));
+    List<PlacedReservation> reservations = event.getReservationChanges();
+    // reading the changes does not drop the views cache
+    event.addReservation(prr);
+    Assert.assertSame(reservations.get(0), reservations.get(1));
+    Assert.assertSame(event.getResourceChanges().get(0),
+        reservations.get(0).getPlacedResources().get(0));
+
+    event = new LlamaAMEventImpl();
+    event.addReservation(prr);
+    prr.getPlacedResourceImpls().get(1).setStatus(
+        PlacedResource.Status.ALLOCATED);
+    event.addReservation(prr);
+    reservations = event.getReservationChanges();
+    Assert.assertNotSame(reservations.get(0), reservations.get(1));
+    // the unchanged resource keeps its view
+    Assert.assertSame(reservations.get(0).getPlacedResources().get(0),
+        reservations.get(1).getPlacedResources().get(0));
+    Assert.assertEquals(PlacedResource.Status.PENDING,
+        reservations.get(0).getPlacedResources().get(1).getStatus());
+    Assert.assertEquals(PlacedResource.Status.ALLOCATED,
+        reservations.get(1).getPlacedResources().get(1).getStatus());
+
+    // once built the event takes new views
+    event = LlamaAMEventImpl.createEvent(false, prr);
+    event.addReservation(prr);
+    reservations = event.getReservationChanges();
+    Assert.assertNotSame(reservations.get(0), reservations.get(1));
+  }
 }
@@ -18,6 +18,8 @@
 package com.cloudera.llama.am.impl;
 
 import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.QueueOwnership;
+import com.cloudera.llama.am.api.QueueRedirectException;
 import com.cloudera.llama.am.api.LlamaAMEvent;
 import com.cloudera.llama.util.Clock;
 import com.cloudera.llama.util.ErrorCode;
@@ -37,6 +39,7 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -202,6 +205,129 @@ public class TestMultiQueueLlamaAM {
     am.start();
   }
 
+  @Test
+  public void testParallelCoreQueuesStart() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MyRMConnector.class,
+        RMConnector.class);
+    conf.set(LlamaAM.CORE_QUEUES_KEY, "root.q1,root.q2,root.q3,root.q4");
+    conf.setInt(LlamaAM.CORE_QUEUES_REGISTRATION_THREADS_KEY, 2);
+    MultiQueueLlamaAM am = new MultiQueueLlamaAM(conf);
+    try {
+      am.start();
+      Assert.assertEquals(4, am.ams.size());
+      for (String queue : Arrays.asList("root.q1", "root.q2", "root.q3",
+          "root.q4")) {
+        Assert.assertTrue(am.ams.containsKey(queue));
+      }
+    } finally {
+      am.stop();
+    }
+  }
+
+  @Test
+  public void testQueueOwnedByOtherLlama() throws Exception {
+    QueueOwnership.setOwnership(new QueueOwnership() {
+      @Override
+      public void acquire(String queue) throws LlamaException {
+        if (queue.equals("root.other")) {
+          throw new QueueRedirectException(queue, "h", 1);
+        }
+      }
+
+      @Override
+      public void release(String queue) {
+      }
+    });
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MyRMConnector.class,
+        RMConnector.class);
+    conf.set(LlamaAM.CORE_QUEUES_KEY, "root.other,root.mine");
+    MultiQueueLlamaAM am = new MultiQueueLlamaAM(conf);
+    try {
+      am.start();
+      Assert.assertEquals(1, am.ams.size());
+      Assert.assertTrue(am.ams.containsKey("root.mine"));
+      UUID handle = UUID.randomUUID();
+      try {
+        am.reserve(TestUtils.createReservation(handle, "root.other", 1,
+            true));
+        Assert.fail();
+      } catch (QueueRedirectException ex) {
+        Assert.assertEquals("h", ex.getOwnerHost());
+        Assert.assertEquals(1, ex.getOwnerPort());
+      }
+      am.reserve(TestUtils.createReservation(handle, "root.q", 1, true));
+      Assert.assertTrue(am.ams.containsKey("root.q"));
+
+      // a queue with reservations is released only if forced
+      Assert.assertFalse(am.releaseQueue("root.q", false));
+      Assert.assertTrue(am.releaseQueue("root.q", true));
+      Assert.assertFalse(am.ams.containsKey("root.q"));
+      Assert.assertTrue(am.releaseQueue("root.mine", false));
+      Assert.assertTrue(am.ams.isEmpty());
+    } finally {
+      am.stop();
+      QueueOwnership.setOwnership(QueueOwnership.ALL);
+    }
+  }
+
+  @Test
+  public void testQueueReleasedWhileAcquiring() throws Exception {
+    final MultiQueueLlamaAM[] am = new MultiQueueLlamaAM[1];
+    final List<String> acquired = new ArrayList<String>();
+    QueueOwnership.setOwnership(new QueueOwnership() {
+      @Override
+      public void acquire(String queue) throws LlamaException {
+        // the ZooKeeper round trip is done without the AMs lock
+        Assert.assertFalse(Thread.holdsLock(am[0].ams));
+        acquired.add(queue);
+        if (acquired.size() == 1) {
+          // i.e. the ZooKeeper connection was lost meanwhile
+          Assert.assertTrue(getListener().releaseQueue(queue, true));
+        }
+      }
+
+      @Override
+      public void release(String queue) {
+      }
+    });
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MyRMConnector.class,
+        RMConnector.class);
+    am[0] = new MultiQueueLlamaAM(conf);
+    try {
+      am[0].start();
+      UUID handle = UUID.randomUUID();
+      am[0].reserve(TestUtils.createReservation(handle, "root.q", 1, true));
+      Assert.assertEquals(Arrays.asList("root.q", "root.q"), acquired);
+      Assert.assertTrue(am[0].ams.containsKey("root.q"));
+
+      // a queue with an AM is not acquired again
+      am[0].reserve(TestUtils.createReservation(handle, "root.q", 1, true));
+      Assert.assertEquals(2, acquired.size());
+    } finally {
+      am[0].stop();
+      QueueOwnership.setOwnership(QueueOwnership.ALL);
+    }
+  }
+
+  @Test
+  public void testParallelCoreQueuesStartFail() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MyRMConnector.class,
+        RMConnector.class);
+    conf.setBoolean("fail.register", true);
+    conf.set(LlamaAM.CORE_QUEUES_KEY, "root.q1,root.q2,root.q3");
+    MultiQueueLlamaAM am = new MultiQueueLlamaAM(conf);
+    try {
+      am.start();
+      Assert.fail();
+    } catch (LlamaException ex) {
+      Assert.assertEquals(ErrorCode.TEST.getCode(), ex.getErrorCode());
+    }
+  }
+
   @Test
   public void testGetReservationUnknown() throws Exception {
     Configuration conf = new Configuration(false);
@@ -347,4 +473,35 @@ public class TestMultiQueueLlamaAM {
     am.releaseReservationsForQueue("root.q2", true);
     Assert.assertFalse(am.ams.containsKey("root.q2"));
   }
+
+  @Test
+  public void testReleaseReservationsCountsReleasedOnly() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MyRMConnector.class,
+        RMConnector.class);
+    MultiQueueLlamaAM am = new MultiQueueLlamaAM(conf);
+    try {
+      am.start();
+      UUID handle = UUID.randomUUID();
+      UUID id1 = am.reserve(TestUtils.createReservation(handle, "root.q", 1,
+          true));
+      UUID id2 = am.reserve(TestUtils.createReservation(handle, "root.q", 1,
+          true));
+
+      // a repeated and an unknown id do not count as released
+      Assert.assertTrue(am.releaseReservations(handle,
+          Arrays.asList(id1, id1, UUID.randomUUID()), false).isEmpty());
+      Assert.assertFalse(am.releaseQueue("root.q", false));
+
+      // an id that is not released stays mapped to its queue
+      Assert.assertEquals(1, am.releaseReservations(UUID.randomUUID(),
+          Arrays.asList(id2), false).size());
+      Assert.assertFalse(am.releaseQueue("root.q", false));
+      Assert.assertTrue(am.releaseReservations(handle, Arrays.asList(id2),
+          false).isEmpty());
+      Assert.assertTrue(am.releaseQueue("root.q", false));
+    } finally {
+      am.stop();
+    }
+  }
 }
@@ -18,8 +18,10 @@
 package com.cloudera.llama.am.impl;
 
 import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.am.api.PlacedResource;
 import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.util.Clock;
 import com.cloudera.llama.util.ManualClock;
 import com.cloudera.llama.util.UUID;
@@ -57,6 +59,9 @@ public class TestPlacedReservationImpl {
     Assert.assertEquals(-1, i.getAllocatedOn());
     Assert.assertTrue(i.isGang());
     Assert.assertFalse(i.isQueued());
+    Assert.assertEquals(Reservation.Priority.NORMAL, i.getPriority());
+    Assert.assertEquals(Reservation.Priority.NORMAL,
+        i.getPlacedResources().get(0).getPriority());
     Assert.assertEquals(1, i.getResources().size());
     Assert.assertEquals(1, i.getPlacedResources().size());
     TestUtils.assertResource(r.getResources().get(0), i.getResources().get(0));
@@ -73,4 +78,79 @@ public class TestPlacedReservationImpl {
     i.setQueued(true);
     Assert.assertTrue(i.isQueued());
   }
+
+  @Test
+  public void testView() {
+    Reservation r = TestUtils.createReservation(true);
+    PlacedReservationImpl i = new PlacedReservationImpl(UUID.randomUUID(), r);
+    PlacedReservationImpl view = i.view();
+    Assert.assertTrue(view.isImmutable());
+    Assert.assertFalse(i.isImmutable());
+    Assert.assertEquals(i.getModCount(), view.getModCount());
+    // the live reservation does not keep its views
+    Assert.assertNotSame(view, i.view());
+    Assert.assertSame(view, view.view());
+
+    long modCount = i.getModCount();
+    i.setStatus(PlacedReservation.Status.ALLOCATED);
+    Assert.assertTrue(i.getModCount() > modCount);
+    Assert.assertEquals(PlacedReservation.Status.PENDING, view.getStatus());
+    ViewCache cache = new ViewCache();
+    PlacedReservationImpl view2 = cache.get(i);
+    Assert.assertSame(view2, cache.get(i));
+    Assert.assertEquals(PlacedReservation.Status.ALLOCATED, view2.getStatus());
+    // unchanged resources share their views within the cache
+    Assert.assertSame(view2.getPlacedResourceImpls().get(0),
+        cache.get(i.getPlacedResourceImpls().get(0)));
+
+    modCount = i.getModCount();
+    i.getPlacedResourceImpls().get(0).setAllocationInfo("l", 1, 1);
+    Assert.assertTrue(i.getModCount() > modCount);
+    PlacedReservationImpl view3 = cache.get(i);
+    Assert.assertNotSame(view2, view3);
+    Assert.assertEquals("l",
+        view3.getPlacedResourceImpls().get(0).getLocation());
+    Assert.assertNull(view2.getPlacedResourceImpls().get(0).getLocation());
+
+    // a new resource changes the reservation even if its version is 0
+    modCount = i.getModCount();
+    i.getPlacedResourceImpls().add(PlacedResourceImpl.createPlaced(i,
+        TestUtils.createResource("n1")));
+    Assert.assertTrue(i.getModCount() > modCount);
+    PlacedReservationImpl view4 = cache.get(i);
+    Assert.assertNotSame(view3, view4);
+    Assert.assertEquals(view3.getResources().size() + 1,
+        view4.getResources().size());
+
+    try {
+      view3.setStatus(PlacedReservation.Status.RELEASED);
+      Assert.fail();
+    } catch (IllegalStateException ex) {
+      //NOP
+    }
+    try {
+      view3.getPlacedResourceImpls().get(0).setStatus(
+          PlacedResource.Status.LOST);
+      Assert.fail();
+    } catch (IllegalStateException ex) {
+      //NOP
+    }
+    // views are never re-parented into a live reservation
+    modCount = i.getModCount();
+    try {
+      i.getPlacedResourceImpls().set(0, view3.getPlacedResourceImpls().get(0));
+      Assert.fail();
+    } catch (IllegalStateException ex) {
+      //NOP
+    }
+    Assert.assertEquals(modCount, i.getModCount());
+    Assert.assertSame(RMAttachments.EMPTY,
+        view3.getPlacedResourceImpls().get(0).getRmData());
+    try {
+      view3.getPlacedResourceImpls().get(0).getRmData().put("k", "v");
+      Assert.fail();
+    } catch (UnsupportedOperationException ex) {
+      //NOP
+    }
+  }
 }
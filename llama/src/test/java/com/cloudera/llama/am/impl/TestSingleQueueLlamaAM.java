@@ -20,10 +20,12 @@ package com.cloudera.llama.am.impl;
 import com.cloudera.llama.am.api.LlamaAM;
 import com.cloudera.llama.am.api.LlamaAMEvent;
 import com.cloudera.llama.am.api.NodeInfo;
+import com.cloudera.llama.util.ErrorCode;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.am.api.LlamaAMListener;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.spi.RMAttachments;
 import com.cloudera.llama.am.spi.RMResource;
 import com.cloudera.llama.am.api.Reservation;
 import com.cloudera.llama.am.api.Resource;
@@ -43,6 +45,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 
@@ -960,6 +963,54 @@ public class TestSingleQueueLlamaAM {
     }
   }
 
+  @Test
+  public void testReleaseReservationsForHandleAfterChanges()
+      throws Exception {
+    SingleQueueLlamaAM llama = createLlamaAM();
+    try {
+      llama.start();
+      UUID cId1 = UUID.randomUUID();
+      UUID cId2 = UUID.randomUUID();
+      UUID reservationId1 = llama.reserve(TestUtils.createReservation(cId1, "u",
+          "queue", Arrays.asList(RESOURCE1), true));
+      UUID reservationId2 = llama.reserve(TestUtils.createReservation(cId1, "u",
+          "queue", Arrays.asList(RESOURCE2), true));
+      UUID reservationId3 = llama.reserve(TestUtils.createReservation(cId1, "u",
+          "queue", Arrays.asList(RESOURCE3), true));
+      UUID reservationId4 = llama.reserve(TestUtils.createReservation(cId2, "u",
+          "queue", Arrays.asList(RESOURCE1), true));
+
+      // released by the client and rejected by the RM, both leave the index
+      llama.releaseReservation(cId1, reservationId2, false);
+      UUID resourceId3 = llama.getReservation(reservationId3).
+          getPlacedResources().get(0).getResourceId();
+      llama.onEvent(Arrays.asList(RMEvent.createStatusChangeEvent(resourceId3,
+          PlacedResource.Status.REJECTED)));
+      Assert.assertNull(llama._getReservation(reservationId3));
+
+      List<PlacedReservation> released =
+          llama.releaseReservationsForHandle(cId1, false);
+      Assert.assertEquals(1, released.size());
+      Assert.assertEquals(reservationId1, released.get(0).getReservationId());
+      Assert.assertNull(llama._getReservation(reservationId1));
+      Assert.assertNotNull(llama._getReservation(reservationId4));
+      Assert.assertTrue(llama.releaseReservationsForHandle(cId1, false).
+          isEmpty());
+
+      // the handle is indexed again for new reservations
+      UUID reservationId5 = llama.reserve(TestUtils.createReservation(cId1, "u",
+          "queue", Arrays.asList(RESOURCE2), true));
+      released = llama.releaseReservationsForHandle(cId1, false);
+      Assert.assertEquals(1, released.size());
+      Assert.assertEquals(reservationId5, released.get(0).getReservationId());
+
+      released = llama.releaseReservationsForHandle(cId2, false);
+      Assert.assertEquals(1, released.size());
+      Assert.assertEquals(reservationId4, released.get(0).getReservationId());
+    } finally {
+      llama.stop();
+    }
+  }
 
   @Test
   public void testLoseAllReservations() throws Exception {
@@ -1012,4 +1063,277 @@ public class TestSingleQueueLlamaAM {
       llama.stop();
     }
   }
+
+  public static class SpeculationRMConnector extends MyRMConnector {
+    public static final RMAttachments.Slot<Object> CONTAINER_SLOT =
+        RMAttachments.slot("test.container", Object.class);
+
+    public List<RMResource> reserved = new ArrayList<RMResource>();
+    public List<RMResource> released = new ArrayList<RMResource>();
+    public List<Object> releasedContainers = new ArrayList<Object>();
+    public List<Boolean> releasedHoldingAMLock = new ArrayList<Boolean>();
+    public List<Boolean> releasedDoNotCache = new ArrayList<Boolean>();
+
+    @Override
+    public void reserve(Collection<RMResource> resources)
+        throws LlamaException {
+      super.reserve(resources);
+      reserved.addAll(resources);
+    }
+
+    @Override
+    public void release(Collection<RMResource> resources, boolean doNotCache)
+        throws LlamaException {
+      super.release(resources, doNotCache);
+      releasedHoldingAMLock.add(Thread.holdsLock(callback));
+      releasedDoNotCache.add(doNotCache);
+      for (RMResource resource : resources) {
+        released.add(resource);
+        Object container = resource.getRmData().get(CONTAINER_SLOT);
+        if (container != null) {
+          releasedContainers.add(container);
+        }
+      }
+    }
+
+    public RMResource getReserved(UUID resourceId) {
+      for (RMResource resource : reserved) {
+        if (resource.getResourceId().equals(resourceId)) {
+          return resource;
+        }
+      }
+      return null;
+    }
+
+    public int getReleasedCount(UUID resourceId) {
+      int count = 0;
+      for (RMResource resource : released) {
+        if (resource.getResourceId().equals(resourceId)) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  private static SingleQueueLlamaAM createSpeculativeLlamaAM() {
+    Configuration conf = new Configuration(false);
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, SpeculationRMConnector.class,
+        RMConnector.class);
+    conf.setBoolean(LlamaAM.NORMALIZING_ENABLED_KEY, false);
+    conf.setBoolean(LlamaAM.CACHING_ENABLED_KEY, false);
+    conf.setInt(LlamaAM.GANG_SPECULATIVE_RESOURCES_KEY, 1);
+    return new SingleQueueLlamaAM(conf, "queue",
+        Executors.newScheduledThreadPool(4));
+  }
+
+  private static UUID getSpeculativeResourceId(SpeculationRMConnector connector,
+      PlacedReservation reservation) {
+    UUID speculativeId = null;
+    for (RMResource resource : connector.reserved) {
+      if (((PlacedResource) resource).getReservationId().equals(
+          reservation.getReservationId())) {
+        boolean ask = false;
+        for (PlacedResource r : reservation.getPlacedResources()) {
+          ask |= r.getResourceId().equals(resource.getResourceId());
+        }
+        if (!ask) {
+          Assert.assertNull(speculativeId);
+          speculativeId = resource.getResourceId();
+        }
+      }
+    }
+    Assert.assertNotNull(speculativeId);
+    return speculativeId;
+  }
+
+  @Test
+  public void testSpeculativeResourcesRequestedForGangOnly() throws Exception {
+    SingleQueueLlamaAM llama = createSpeculativeLlamaAM();
+    try {
+      llama.start();
+      SpeculationRMConnector connector =
+          (SpeculationRMConnector) getMyRmConnector(llama);
+      UUID reservationId = llama.reserve(RESERVATION2_GANG);
+      Assert.assertEquals(3, connector.reserved.size());
+      PlacedReservation pr = llama.getReservation(reservationId);
+      RMResource speculative = connector.getReserved(
+          getSpeculativeResourceId(connector, pr));
+      Assert.assertEquals(RESOURCE1.getCpuVCoresAsk(),
+          speculative.getCpuVCoresAsk());
+      Assert.assertEquals(RESOURCE1.getMemoryMbsAsk(),
+          speculative.getMemoryMbsAsk());
+      Assert.assertEquals(RESOURCE1.getLocationAsk(),
+          speculative.getLocationAsk());
+
+      llama.reserve(RESERVATION2_NONGANG);
+      Assert.assertEquals(5, connector.reserved.size());
+    } finally {
+      llama.stop();
+    }
+  }
+
+  @Test
+  public void testSpeculativeResourceWins() throws Exception {
+    SingleQueueLlamaAM llama = createSpeculativeLlamaAM();
+    try {
+      llama.start();
+      SpeculationRMConnector connector =
+          (SpeculationRMConnector) getMyRmConnector(llama);
+      UUID reservationId = llama.reserve(RESERVATION2_GANG);
+      PlacedReservation pr = llama.getReservation(reservationId);
+      UUID resource1Id = pr.getPlacedResources().get(0).getResourceId();
+      UUID resource2Id = pr.getPlacedResources().get(1).getResourceId();
+      UUID speculativeId = getSpeculativeResourceId(connector, pr);
+      Object rmResourceId = new Object();
+
+      llama.onEvent(Arrays.asList(RMEvent.createAllocationEvent(speculativeId,
+          "n1", 1, 1024, rmResourceId, new HashMap<String, Object>())));
+      // the ask of the substituted resource is released, the original one
+      Assert.assertEquals(1, connector.released.size());
+      Assert.assertSame(connector.getReserved(resource1Id),
+          connector.released.get(0));
+      // after the AM lock is released and without caching
+      Assert.assertEquals(Arrays.asList(false),
+          connector.releasedHoldingAMLock);
+      Assert.assertEquals(Arrays.asList(true), connector.releasedDoNotCache);
+      pr = llama.getReservation(reservationId);
+      Assert.assertEquals(PlacedReservation.Status.PARTIAL, pr.getStatus());
+      Assert.assertEquals(PlacedResource.Status.ALLOCATED,
+          pr.getPlacedResources().get(0).getStatus());
+      Assert.assertEquals(rmResourceId,
+          pr.getPlacedResources().get(0).getRmResourceId());
+
+      llama.onEvent(Arrays.asList(RMEvent.createAllocationEvent(resource2Id,
+          "n2", 2, 2048, new Object(), new HashMap<String, Object>())));
+      Assert.assertEquals(PlacedReservation.Status.ALLOCATED,
+          llama.getReservation(reservationId).getStatus());
+      Assert.assertEquals(1, connector.released.size());
+
+      llama.releaseReservation(pr.getHandle(), reservationId, false);
+      Assert.assertEquals(3, connector.released.size());
+      Assert.assertEquals(1, connector.getReleasedCount(speculativeId));
+      Assert.assertEquals(1, connector.getReleasedCount(resource1Id));
+      Assert.assertEquals(1, connector.getReleasedCount(resource2Id));
+    } finally {
+      llama.stop();
+    }
+  }
+
+  @Test
+  public void testSpeculativeResourceLoses() throws Exception {
+    SingleQueueLlamaAM llama = createSpeculativeLlamaAM();
+    try {
+      llama.start();
+      SpeculationRMConnector connector =
+          (SpeculationRMConnector) getMyRmConnector(llama);
+      UUID reservationId = llama.reserve(RESERVATION2_GANG);
+      PlacedReservation pr = llama.getReservation(reservationId);
+      UUID resource1Id = pr.getPlacedResources().get(0).getResourceId();
+      UUID resource2Id = pr.getPlacedResources().get(1).getResourceId();
+      UUID speculativeId = getSpeculativeResourceId(connector, pr);
+
+      llama.onEvent(Arrays.asList(
+          RMEvent.createAllocationEvent(resource1Id, "n1", 1, 1024,
+              new Object(), new HashMap<String, Object>()),
+          RMEvent.createAllocationEvent(resource2Id, "n2", 2, 2048,
+              new Object(), new HashMap<String, Object>())));
+      Assert.assertEquals(PlacedReservation.Status.ALLOCATED,
+          llama.getReservation(reservationId).getStatus());
+      // the gang is complete, the outstanding speculative ask is cancelled
+      Assert.assertEquals(1, connector.released.size());
+      Assert.assertEquals(speculativeId,
+          connector.released.get(0).getResourceId());
+
+      // a late allocation of the cancelled ask does not touch the reservation
+      llama.onEvent(Arrays.asList(RMEvent.createAllocationEvent(speculativeId,
+          "n1", 1, 1024, new Object(), new HashMap<String, Object>())));
+      Assert.assertEquals(1, connector.released.size());
+
+      llama.releaseReservation(pr.getHandle(), reservationId, false);
+      Assert.assertEquals(3, connector.released.size());
+      Assert.assertEquals(1, connector.getReleasedCount(speculativeId));
+      Assert.assertEquals(1, connector.getReleasedCount(resource1Id));
+      Assert.assertEquals(1, connector.getReleasedCount(resource2Id));
+    } finally {
+      llama.stop();
+    }
+  }
+
+  @Test
+  public void testSpeculativeTakeOverRacesAskAllocation() throws Exception {
+    SingleQueueLlamaAM llama = createSpeculativeLlamaAM();
+    try {
+      llama.start();
+      SpeculationRMConnector connector =
+          (SpeculationRMConnector) getMyRmConnector(llama);
+      UUID reservationId = llama.reserve(RESERVATION2_GANG);
+      PlacedReservation pr = llama.getReservation(reservationId);
+      UUID resource1Id = pr.getPlacedResources().get(0).getResourceId();
+      UUID speculativeId = getSpeculativeResourceId(connector, pr);
+      Object speculativeRmResourceId = new Object();
+
+      // the RM assigns a container to the ask of resource1 while the
+      // allocation of the speculative resource is being processed
+      Object container = new Object();
+      connector.getReserved(resource1Id).getRmData().set(
+          SpeculationRMConnector.CONTAINER_SLOT, container);
+      llama.onEvent(Arrays.asList(RMEvent.createAllocationEvent(speculativeId,
+          "n1", 1, 1024, speculativeRmResourceId,
+          new HashMap<String, Object>())));
+      Assert.assertEquals(Arrays.asList(container),
+          connector.releasedContainers);
+
+      // the in flight event for the released ask is ignored
+      llama.onEvent(Arrays.asList(RMEvent.createAllocationEvent(resource1Id,
+          "n1", 1, 1024, new Object(), new HashMap<String, Object>())));
+      pr = llama.getReservation(reservationId);
+      Assert.assertEquals(PlacedReservation.Status.PARTIAL, pr.getStatus());
+      Assert.assertEquals(speculativeRmResourceId,
+          pr.getPlacedResources().get(0).getRmResourceId());
+      Assert.assertEquals(1, connector.released.size());
+    } finally {
+      llama.stop();
+    }
+  }
+
+  @Test
+  public void testReleaseReservationsInOnePass() throws Exception {
+    SingleQueueLlamaAM llama = createSpeculativeLlamaAM();
+    DummyLlamaAMListener listener = new DummyLlamaAMListener();
+    try {
+      llama.start();
+      llama.addListener(listener);
+      SpeculationRMConnector connector =
+          (SpeculationRMConnector) getMyRmConnector(llama);
+      UUID handle = UUID.randomUUID();
+      UUID otherHandle = UUID.randomUUID();
+      UUID reservationId1 = llama.reserve(TestUtils.createReservation(handle,
+          "u", "queue", RESOURCES1, false));
+      UUID reservationId2 = llama.reserve(TestUtils.createReservation(handle,
+          "u", "queue", RESOURCES2, false));
+      UUID reservationId3 = llama.reserve(TestUtils.createReservation(
+          otherHandle, "u", "queue", RESOURCES1, false));
+      listener.events.clear();
+
+      Map<UUID, LlamaException> errors = llama.releaseReservations(handle,
+          Arrays.asList(reservationId1, reservationId2, reservationId3,
+              UUID.randomUUID()), false);
+      Assert.assertEquals(1, errors.size());
+      Assert.assertEquals(ErrorCode.CLIENT_DOES_NOT_OWN_RESERVATION.getCode(),
+          errors.get(reservationId3).getErrorCode());
+      Assert.assertNull(llama._getReservation(reservationId1));
+      Assert.assertNull(llama._getReservation(reservationId2));
+      Assert.assertNotNull(llama._getReservation(reservationId3));
+      // a single RM release and a single event for the batch
+      Assert.assertEquals(1, connector.releasedHoldingAMLock.size());
+      Assert.assertEquals(3, connector.released.size());
+      Assert.assertEquals(1, listener.events.size());
+      Assert.assertTrue(listener.events.get(0).isEcho());
+      Assert.assertEquals(2, TestUtils.getReservations(listener.events,
+          PlacedReservation.Status.RELEASED, true).size());
+    } finally {
+      llama.stop();
+    }
+  }
 }
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.spi;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestRMAttachments {
+
+  @Test
+  public void testSlots() {
+    RMAttachments.Slot<String> slot =
+        RMAttachments.slot("test-slot", String.class);
+    Assert.assertSame(slot, RMAttachments.slot("test-slot", String.class));
+    RMAttachments attachments = new RMAttachments();
+    Assert.assertTrue(attachments.isEmpty());
+    Assert.assertNull(attachments.get(slot));
+    Assert.assertNull(attachments.set(slot, "a"));
+    Assert.assertEquals("a", attachments.set(slot, "b"));
+    Assert.assertEquals("b", attachments.get(slot));
+    Assert.assertEquals("b", attachments.get("test-slot"));
+    try {
+      RMAttachments.slot("test-slot", Integer.class);
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      //NOP
+    }
+    try {
+      attachments.put("test-slot", 1);
+      Assert.fail();
+    } catch (ClassCastException ex) {
+      //NOP
+    }
+  }
+
+  @Test
+  public void testMap() {
+    RMAttachments attachments = new RMAttachments();
+    attachments.put("test-map-a", "a");
+    attachments.put("test-map-b", 1);
+    Assert.assertEquals(2, attachments.size());
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("test-map-a", "a");
+    map.put("test-map-b", 1);
+    Assert.assertEquals(map, attachments);
+
+    RMAttachments copy = new RMAttachments();
+    copy.putAll(attachments);
+    Assert.assertEquals(map, copy);
+    copy.remove("test-map-a");
+    Assert.assertEquals(1, copy.size());
+    Assert.assertEquals(2, attachments.size());
+    Assert.assertNull(copy.get("test-map-unknown"));
+  }
+
+}
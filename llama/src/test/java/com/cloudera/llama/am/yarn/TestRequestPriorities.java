@@ -49,4 +49,23 @@ public class TestRequestPriorities {
         YarnRMConnector.getRequestPriority(1024, 1, Resource.Locality.MUST).compareTo(
         YarnRMConnector.getRequestPriority(2048, 1, Resource.Locality.PREFERRED)) > 0);
   }
+
+  @Test
+  public void testRelaxedRequestPriorities() {
+    Assert.assertTrue(
+        YarnRMConnector.getRequestPriority(1024, 1, Resource.Locality.PREFERRED).compareTo(
+        YarnRMConnector.getRelaxedRequestPriority(1024, 1,
+            YarnRMConnector.LocalityStage.RACK)) > 0);
+
+    Assert.assertTrue(
+        YarnRMConnector.getRelaxedRequestPriority(1024, 1,
+            YarnRMConnector.LocalityStage.RACK).compareTo(
+        YarnRMConnector.getRelaxedRequestPriority(1024, 1,
+            YarnRMConnector.LocalityStage.ANY)) > 0);
+
+    Assert.assertTrue(
+        YarnRMConnector.getRelaxedRequestPriority(1024, 1,
+            YarnRMConnector.LocalityStage.ANY).compareTo(
+        YarnRMConnector.getRequestPriority(1024, 1, Resource.Locality.DONT_CARE)) > 0);
+  }
 }
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.yarn;
+
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.Resource.Locality;
+import com.cloudera.llama.am.api.TestUtils;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.util.Clock;
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.client.api.async.AMRMClientAsync;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestYarnLocalityRelaxation {
+  private static final String PREFIX = LlamaAM.METRIC_PREFIX + "yarn.";
+
+  private YarnRMConnector connector;
+  private AMRMClientAsync<YarnRMConnector.LlamaContainerRequest> client;
+  private MetricRegistry metricRegistry;
+  private Clock.Mock clock;
+
+  // nodes 'a*' are in rack '/a', any other node in rack '/b'
+  private static class MyYarnRMConnector extends YarnRMConnector {
+    @Override
+    String resolveRack(String node) {
+      return (node.startsWith("a")) ? "/a" : "/b";
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void createConnector(long nodeDelay, long rackDelay) {
+    Configuration conf = new Configuration(false);
+    conf.setLong(YarnRMConnector.LOCALITY_DELAY_NODE_KEY, nodeDelay);
+    conf.setLong(YarnRMConnector.LOCALITY_DELAY_RACK_KEY, rackDelay);
+    connector = new MyYarnRMConnector();
+    connector.setConf(conf);
+    metricRegistry = new MetricRegistry();
+    connector.setMetricRegistry(metricRegistry);
+    client = Mockito.mock(AMRMClientAsync.class);
+    Map<String, Resource> nodes = new HashMap<String, Resource>();
+    nodes.put("a1", Resource.newInstance(8192, 8));
+    nodes.put("a2", Resource.newInstance(8192, 8));
+    nodes.put("b1", Resource.newInstance(8192, 8));
+    // the relaxer thread is not started, the tests run due relaxations
+    connector.setAMRMClient(client, nodes, Resource.newInstance(8192, 8));
+  }
+
+  @Before
+  public void setClock() {
+    clock = new Clock.Mock();
+    Clock.setClock(clock);
+  }
+
+  @After
+  public void resetClock() {
+    Clock.setClock(Clock.SYSTEM);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<YarnRMConnector.LlamaContainerRequest> getAddedRequests(
+      int expected) {
+    ArgumentCaptor<YarnRMConnector.LlamaContainerRequest> captor =
+        ArgumentCaptor.forClass(YarnRMConnector.LlamaContainerRequest.class);
+    Mockito.verify(client, Mockito.times(expected)).addContainerRequest(
+        captor.capture());
+    return captor.getAllValues();
+  }
+
+  private long getCount(String meter) {
+    return metricRegistry.getMeters().get(PREFIX + meter).getCount();
+  }
+
+  @Test
+  public void testNodeRackAnyFallback() throws Exception {
+    createConnector(100, 100);
+    RMResource resource = TestUtils.createRMResource("a1", Locality.PREFERRED,
+        1, 1024);
+    connector._reserve(Arrays.asList(resource));
+    List<YarnRMConnector.LlamaContainerRequest> requests = getAddedRequests(1);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.NODE,
+        requests.get(0).getStage());
+    Assert.assertEquals(Arrays.asList("a1"), requests.get(0).getNodes());
+
+    clock.sleep(99);
+    Assert.assertEquals(0, connector.relaxDue());
+    clock.sleep(1);
+    Assert.assertEquals(1, connector.relaxDue());
+    requests = getAddedRequests(2);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.RACK,
+        requests.get(1).getStage());
+    Assert.assertEquals(Arrays.asList("/a"), requests.get(1).getRacks());
+    Mockito.verify(client).removeContainerRequest(requests.get(0));
+    Assert.assertEquals(1, getCount("preferred.relaxed-to-rack.meter"));
+    Assert.assertEquals(0, getCount("preferred.relaxed-to-any.meter"));
+
+    clock.sleep(99);
+    Assert.assertEquals(0, connector.relaxDue());
+    clock.sleep(1);
+    Assert.assertEquals(1, connector.relaxDue());
+    requests = getAddedRequests(3);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.ANY,
+        requests.get(2).getStage());
+    Assert.assertTrue(requests.get(2).getRelaxLocality());
+    Mockito.verify(client).removeContainerRequest(requests.get(1));
+    Assert.assertEquals(1, getCount("preferred.relaxed-to-any.meter"));
+
+    // no more relaxations after ANY
+    clock.sleep(1000);
+    Assert.assertEquals(0, connector.relaxDue());
+    getAddedRequests(3);
+  }
+
+  @Test
+  public void testNodeToAnyWithoutRackDelay() throws Exception {
+    createConnector(100, 0);
+    RMResource resource = TestUtils.createRMResource("a1", Locality.PREFERRED,
+        1, 1024);
+    connector._reserve(Arrays.asList(resource));
+    clock.sleep(100);
+    Assert.assertEquals(1, connector.relaxDue());
+    List<YarnRMConnector.LlamaContainerRequest> requests = getAddedRequests(2);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.NODE,
+        requests.get(0).getStage());
+    Assert.assertEquals(YarnRMConnector.LocalityStage.ANY,
+        requests.get(1).getStage());
+    Assert.assertEquals(0, getCount("preferred.relaxed-to-rack.meter"));
+    Assert.assertEquals(1, getCount("preferred.relaxed-to-any.meter"));
+  }
+
+  @Test
+  public void testRackFirstWithoutNodeDelay() throws Exception {
+    createConnector(0, 100);
+    RMResource resource = TestUtils.createRMResource("b1", Locality.PREFERRED,
+        1, 1024);
+    connector._reserve(Arrays.asList(resource));
+    List<YarnRMConnector.LlamaContainerRequest> requests = getAddedRequests(1);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.RACK,
+        requests.get(0).getStage());
+    Assert.assertEquals(Arrays.asList("/b"), requests.get(0).getRacks());
+    clock.sleep(100);
+    Assert.assertEquals(1, connector.relaxDue());
+    requests = getAddedRequests(2);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.ANY,
+        requests.get(1).getStage());
+  }
+
+  @Test
+  public void testMustAndDontCareAreNotRelaxed() throws Exception {
+    createConnector(50, 50);
+    RMResource must = TestUtils.createRMResource("a1", Locality.MUST, 1, 1024);
+    RMResource dontCare = TestUtils.createRMResource("a1", Locality.DONT_CARE,
+        1, 1024);
+    connector._reserve(Arrays.asList(must, dontCare));
+    List<YarnRMConnector.LlamaContainerRequest> requests = getAddedRequests(2);
+    Assert.assertEquals(YarnRMConnector.LocalityStage.NODE,
+        requests.get(0).getStage());
+    Assert.assertEquals(YarnRMConnector.LocalityStage.ANY,
+        requests.get(1).getStage());
+    clock.sleep(1000);
+    Assert.assertEquals(0, connector.relaxDue());
+    getAddedRequests(2);
+  }
+
+  @Test
+  public void testReleaseCancelsRelaxation() throws Exception {
+    createConnector(100, 100);
+    RMResource resource = TestUtils.createRMResource("a1", Locality.PREFERRED,
+        1, 1024);
+    connector._reserve(Arrays.asList(resource));
+    connector._release(Arrays.asList(resource));
+    List<YarnRMConnector.LlamaContainerRequest> requests = getAddedRequests(1);
+    Mockito.verify(client).removeContainerRequest(requests.get(0));
+    clock.sleep(1000);
+    connector.relaxDue();
+    getAddedRequests(1);
+    Assert.assertEquals(0, getCount("preferred.relaxed-to-rack.meter"));
+  }
+
+  private Container createContainer(String node) {
+    Container container = Mockito.mock(Container.class);
+    Mockito.when(container.getNodeId()).thenReturn(NodeId.newInstance(node,
+        1234));
+    return container;
+  }
+
+  private void testLocalityMeters(long delay) {
+    createConnector(delay, delay);
+    RMResource resource = TestUtils.createRMResource("a1", Locality.PREFERRED,
+        1, 1024);
+    connector.meterLocality(resource, createContainer("a1"));
+    connector.meterLocality(resource, createContainer("a2"));
+    connector.meterLocality(resource, createContainer("a2"));
+    connector.meterLocality(resource, createContainer("b1"));
+    Assert.assertEquals(1, getCount("preferred.node-local.meter"));
+    Assert.assertEquals(2, getCount("preferred.rack-local.meter"));
+    Assert.assertEquals(1, getCount("preferred.off-rack.meter"));
+  }
+
+  @Test
+  public void testLocalityMeters() throws Exception {
+    testLocalityMeters(100);
+  }
+
+  @Test
+  public void testLocalityMetersWithoutDelayScheduling() throws Exception {
+    testLocalityMeters(0);
+  }
+
+}
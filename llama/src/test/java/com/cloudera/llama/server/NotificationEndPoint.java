@@ -22,6 +22,7 @@ import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
 import com.cloudera.llama.thrift.TLlamaAMNotificationResponse;
 import com.cloudera.llama.thrift.TLlamaNMNotificationRequest;
 import com.cloudera.llama.thrift.TLlamaNMNotificationResponse;
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 
@@ -33,6 +34,7 @@ public class NotificationEndPoint extends
     ThriftServer<LlamaNotificationService.Processor, TProcessor> {
   public List<TLlamaAMNotificationRequest> notifications;
   public volatile long delayResponse;
+  private final TNotificationProtocol protocol;
 
   public static class ClientServerConfiguration
       extends ServerConfiguration {
@@ -53,7 +55,17 @@ public class NotificationEndPoint extends
   }
 
   public NotificationEndPoint() {
+    this(TNotificationProtocol.BINARY);
+  }
+
+  public NotificationEndPoint(TNotificationProtocol protocol) {
     super("llama.notification-endpoint", ClientServerConfiguration.class);
+    this.protocol = protocol;
+  }
+
+  @Override
+  protected TNotificationProtocol getServiceProtocol() {
+    return protocol;
   }
 
   @Override
@@ -32,6 +32,7 @@ public class TestAbstractServer {
   static {
     STEPS.add("metrics");
     STEPS.add("jmx");
+    STEPS.add("prepare");
     STEPS.add("service");
     STEPS.add("transport");
   }
@@ -82,6 +83,18 @@ public class TestAbstractServer {
       return new Subject();
     }
 
+    @Override
+    protected void prepareService() {
+      trace("start.prepare");
+      failIf("start.prepare");
+    }
+
+    @Override
+    protected void unprepareService() {
+      trace("stop.prepare");
+      failIf("stop.prepare");
+    }
+
     @Override
     protected void startService() {
       trace("start.service");
@@ -139,6 +152,42 @@ public class TestAbstractServer {
     }
   }
 
+  @Test
+  public void testPrepareThenStart() throws Exception {
+    MyServer server = new MyServer();
+    Configuration conf = new Configuration(false);
+    server.setConf(conf);
+    server.prepare();
+    Assert.assertTrue(server.isPrepared());
+    Assert.assertTrue(conf.getBoolean("start.prepare.trace", false));
+    Assert.assertFalse(conf.getBoolean("start.service.trace", false));
+    Assert.assertFalse(conf.getBoolean("start.transport.trace", false));
+    server.start();
+    Assert.assertFalse(server.isPrepared());
+    for (String step : STEPS) {
+      Assert.assertTrue(conf.getBoolean("start." + step + ".trace", false));
+    }
+    server.stop();
+    for (String step : STEPS) {
+      Assert.assertTrue(conf.getBoolean("stop." + step + ".trace", false));
+    }
+  }
+
+  @Test
+  public void testPrepareStop() throws Exception {
+    MyServer server = new MyServer();
+    Configuration conf = new Configuration(false);
+    server.setConf(conf);
+    server.prepare();
+    server.stop();
+    Assert.assertFalse(server.isPrepared());
+    Assert.assertTrue(conf.getBoolean("stop.prepare.trace", false));
+    Assert.assertFalse(conf.getBoolean("stop.service.trace", false));
+    server.prepare();
+    Assert.assertTrue(server.isPrepared());
+    server.stop();
+  }
+
   @Test(expected = RuntimeException.class)
   public void testDoubleStartFailure() throws Exception {
     MyServer server = new MyServer();
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.cloudera.llama.util.Clock;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestCircuitBreaker {
+
+  @After
+  public void resetClock() {
+    Clock.setClock(Clock.SYSTEM);
+  }
+
+  @Test
+  public void testTripAndProbe() {
+    Clock.Mock clock = new Clock.Mock();
+    Clock.setClock(clock);
+    CircuitBreaker breaker = new CircuitBreaker(2, 1000);
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertFalse(breaker.onFailure());
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertTrue(breaker.onFailure());
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertEquals(1, breaker.getTrips());
+    Assert.assertFalse(breaker.allowCall());
+    Assert.assertEquals(1000, breaker.getOpenRemaining());
+
+    // failed probe opens the circuit again
+    clock.sleep(1000);
+    Assert.assertEquals(0, breaker.getOpenRemaining());
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    Assert.assertTrue(breaker.onFailure());
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertEquals(2, breaker.getTrips());
+    Assert.assertFalse(breaker.allowCall());
+
+    // successful probe closes the circuit
+    clock.sleep(1000);
+    Assert.assertTrue(breaker.allowCall());
+    breaker.onSuccess();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertEquals(0, breaker.getOpenRemaining());
+    Assert.assertFalse(breaker.onFailure());
+  }
+
+  @Test
+  public void testSingleProbe() {
+    Clock.Mock clock = new Clock.Mock();
+    Clock.setClock(clock);
+    CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+    Assert.assertTrue(breaker.onFailure());
+    clock.sleep(1000);
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // no other call while the probe is out
+    Assert.assertFalse(breaker.allowCall());
+    Assert.assertEquals(1000, breaker.getOpenRemaining());
+
+    // a probe without outcome within the open time is replaced
+    clock.sleep(1000);
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertFalse(breaker.allowCall());
+    breaker.onSuccess();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowCall());
+    Assert.assertTrue(breaker.allowCall());
+  }
+
+  @Test
+  public void testSuccessResetsFailures() {
+    CircuitBreaker breaker = new CircuitBreaker(2, 1000);
+    Assert.assertFalse(breaker.onFailure());
+    breaker.onSuccess();
+    Assert.assertFalse(breaker.onFailure());
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testDisabled() {
+    CircuitBreaker breaker = new CircuitBreaker(0, 1000);
+    for (int i = 0; i < 10; i++) {
+      Assert.assertFalse(breaker.onFailure());
+      Assert.assertTrue(breaker.allowCall());
+    }
+    Assert.assertEquals(0, breaker.getTrips());
+  }
+
+}
@@ -20,9 +20,12 @@ package com.cloudera.llama.server;
 import com.cloudera.llama.thrift.LlamaNotificationService;
 import com.cloudera.llama.util.UUID;
 import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.concurrent.CountDownLatch;
+
 public class TestClientCaller {
 
   static boolean createClient;
@@ -49,7 +52,12 @@ public class TestClientCaller {
 
     public MyClientCaller(UUID clientId, UUID handle,
         String host, int port) {
-      super(new CSServerConfiguration(), clientId, handle, host, port, null);
+      this(new CSServerConfiguration(), clientId, handle, host, port);
+    }
+
+    public MyClientCaller(ServerConfiguration conf, UUID clientId,
+        UUID handle, String host, int port) {
+      super(conf, clientId, handle, host, port, null);
     }
 
     @Override
@@ -115,4 +123,90 @@ public class TestClientCaller {
     }
   }
 
+  @Test
+  public void testCircuitOpen() throws Exception {
+    CSServerConfiguration sConf = new CSServerConfiguration();
+    Configuration conf = new Configuration(false);
+    conf.setInt(sConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY), 2);
+    conf.setInt(sConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY), 60000);
+    sConf.setConf(conf);
+    ClientCaller cc = new MyClientCaller(sConf, UUID.randomUUID(),
+        UUID.randomUUID(), "h", 0);
+    ClientCaller.Callable<Void> callable =
+        new ClientCaller.Callable<Void>() {
+          @Override
+          public Void call() throws ClientException {
+            throw new ClientException(new Exception());
+          }
+        };
+    for (int i = 0; i < 2; i++) {
+      try {
+        cc.execute(callable);
+        Assert.fail();
+      } catch (ClientCircuitOpenException ex) {
+        Assert.fail();
+      } catch (ClientException ex) {
+        //NOP
+      }
+    }
+    Assert.assertEquals(CircuitBreaker.State.OPEN,
+        cc.getCircuitBreaker().getState());
+    createClient = false;
+    try {
+      cc.execute(callable);
+      Assert.fail();
+    } catch (ClientCircuitOpenException ex) {
+      Assert.assertTrue(ex.getRetryIn() > 0);
+    }
+    Assert.assertFalse(createClient);
+  }
+
+  @Test(timeout = 10000)
+  public void testCircuitOpenDoesNotWaitForCall() throws Exception {
+    CSServerConfiguration sConf = new CSServerConfiguration();
+    Configuration conf = new Configuration(false);
+    conf.setInt(sConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY), 1);
+    conf.setInt(sConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY), 60000);
+    sConf.setConf(conf);
+    final ClientCaller cc = new MyClientCaller(sConf, UUID.randomUUID(),
+        UUID.randomUUID(), "h", 0);
+    cc.getCircuitBreaker().onFailure();
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread caller = new Thread() {
+      @Override
+      public void run() {
+        // i.e. a call in progress
+        synchronized (cc) {
+          locked.countDown();
+          try {
+            done.await();
+          } catch (InterruptedException ex) {
+            //NOP
+          }
+        }
+      }
+    };
+    caller.start();
+    try {
+      locked.await();
+      cc.execute(new ClientCaller.Callable<Void>() {
+        @Override
+        public Void call() throws ClientException {
+          return null;
+        }
+      });
+      Assert.fail();
+    } catch (ClientCircuitOpenException ex) {
+      //NOP
+    } finally {
+      done.countDown();
+      caller.join();
+    }
+  }
+
 }
@@ -18,9 +18,11 @@
 package com.cloudera.llama.server;
 
 import com.cloudera.llama.am.AMServerConfiguration;
+import com.cloudera.llama.thrift.TNotificationProtocol;
 import com.cloudera.llama.util.LlamaException;
 import com.cloudera.llama.util.UUID;
 import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
 import org.junit.Test;
 
 public class TestClientNotificationService {
@@ -152,4 +154,44 @@ public class TestClientNotificationService {
     }
   }
 
+  @Test
+  public void testNegotiateProtocol() throws Exception {
+    ClientNotificationService cns = new ClientNotificationService(
+        new AMServerConfiguration(new Configuration(false)), null, null);
+    Assert.assertEquals(TNotificationProtocol.BINARY,
+        cns.negotiateProtocol(null));
+    Assert.assertEquals(TNotificationProtocol.BINARY,
+        cns.negotiateProtocol(TNotificationProtocol.BINARY));
+    Assert.assertEquals(TNotificationProtocol.COMPACT_FRAMED,
+        cns.negotiateProtocol(TNotificationProtocol.COMPACT_FRAMED));
+
+    Configuration conf = new Configuration(false);
+    AMServerConfiguration sConf = new AMServerConfiguration(conf);
+    conf.setBoolean(sConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_COMPACT_FRAMED_ENABLED_KEY), false);
+    cns = new ClientNotificationService(sConf, null, null);
+    Assert.assertEquals(TNotificationProtocol.BINARY,
+        cns.negotiateProtocol(TNotificationProtocol.COMPACT_FRAMED));
+  }
+
+  @Test
+  public void testRegisterWithProtocol() throws Exception {
+    ClientNotificationService cns = new ClientNotificationService(
+        new AMServerConfiguration(), null, null);
+    cns.start();
+    try {
+      UUID c1 = UUID.randomUUID();
+      UUID handle1 = cns.register(c1, "h", 0);
+      Assert.assertEquals(TNotificationProtocol.BINARY,
+          cns.getClientCaller(handle1).getNotificationProtocol());
+      UUID handle2 = cns.register(c1, "h", 0,
+          TNotificationProtocol.COMPACT_FRAMED);
+      Assert.assertEquals(handle1, handle2);
+      Assert.assertEquals(TNotificationProtocol.COMPACT_FRAMED,
+          cns.getClientCaller(handle1).getNotificationProtocol());
+    } finally {
+      cns.stop();
+    }
+  }
+
 }
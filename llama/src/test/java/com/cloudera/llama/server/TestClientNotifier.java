@@ -21,6 +21,10 @@ import com.cloudera.llama.am.HostnameOnlyNodeMapper;
 import com.cloudera.llama.am.api.PlacedReservation;
 import com.cloudera.llama.am.api.TestUtils;
 import com.cloudera.llama.am.impl.LlamaAMEventImpl;
+import com.cloudera.llama.am.impl.PlacedReservationImpl;
+import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
+import com.cloudera.llama.thrift.TNotificationProtocol;
+import com.cloudera.llama.thrift.TUniqueId;
 import junit.framework.Assert;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
@@ -89,7 +93,11 @@ public class TestClientNotifier {
 
     public MyClientRegistry(ServerConfiguration conf, UUID clientId,
         UUID handle, String host, int port) {
-      clientCaller = new ClientCaller(conf, clientId, handle, host, port, null);
+      this(new ClientCaller(conf, clientId, handle, host, port, null));
+    }
+
+    public MyClientRegistry(ClientCaller clientCaller) {
+      this.clientCaller = clientCaller;
     }
 
     @Override
@@ -170,6 +178,45 @@ public class TestClientNotifier {
     }
   }
 
+  @Test
+  public void testCompactFramedNotification() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(ServerConfiguration.CONFIG_DIR_KEY,
+        TestAbstractMain.createTestDir());
+    conf.set(nsConf.getPropertyName(
+        ServerConfiguration.SERVER_ADDRESS_KEY), "localhost:0");
+    conf.set(nsConf.getPropertyName(
+        ServerConfiguration.HTTP_ADDRESS_KEY), "localhost:0");
+    NotificationEndPoint compactServer =
+        new NotificationEndPoint(TNotificationProtocol.COMPACT_FRAMED);
+    compactServer.setConf(conf);
+    compactServer.start();
+    ServerConfiguration sConf = new NSServerConfiguration(
+        new Configuration(false));
+    UUID handle = UUID.randomUUID();
+    MyClientRegistry cr = new MyClientRegistry(new ClientCaller(sConf,
+        UUID.randomUUID(), handle, compactServer.getAddressHost(),
+        compactServer.getAddressPort(), TNotificationProtocol.COMPACT_FRAMED,
+        null));
+    ClientNotifier cn = new ClientNotifier(sConf, new HostnameOnlyNodeMapper(),
+        cr, null);
+    try {
+      cn.start();
+      LlamaAMEventImpl event = new LlamaAMEventImpl();
+      event.addReservation(TestUtils.createPlacedReservation(
+          TestUtils.createReservation(handle, 1, true),
+          PlacedReservation.Status.ALLOCATED));
+      cn.onEvent(event);
+      Thread.sleep(200);
+      Assert.assertEquals(1, compactServer.notifications.size());
+      Assert.assertEquals(1, compactServer.notifications.get(0)
+          .getAllocated_reservation_idsSize());
+    } finally {
+      cn.stop();
+      compactServer.stop();
+    }
+  }
+
   @Test
   public void testRetriesAndMaxFailures() throws Exception {
     Configuration conf = new Configuration(false);
@@ -244,4 +291,154 @@ public class TestClientNotifier {
     }
   }
 
+  @Test
+  public void testCircuitOpenParksAndCoalesces() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_HEARTBEAT_KEY), 10000);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_RETRY_INTERVAL_KEY), 50);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_MAX_RETRIES_KEY), 5);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.TRANSPORT_TIMEOUT_KEY), 50);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY), 1);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY), 300);
+    ServerConfiguration sConf = new NSServerConfiguration(conf);
+    UUID clientId = UUID.randomUUID();
+    UUID handle = UUID.randomUUID();
+    MyClientRegistry cr = new MyClientRegistry(sConf, clientId, handle,
+        notificationServer.getAddressHost(),
+        notificationServer.getAddressPort());
+    ClientNotifier cn = new ClientNotifier(sConf, new HostnameOnlyNodeMapper(),
+        cr, null);
+    notificationServer.delayResponse = 100;
+    try {
+      cn.start();
+      for (int i = 0; i < 3; i++) {
+        LlamaAMEventImpl event = new LlamaAMEventImpl();
+        event.addReservation(TestUtils.createPlacedReservation(
+            TestUtils.createReservation(handle, 1, true),
+            PlacedReservation.Status.ALLOCATED));
+        cn.onEvent(event);
+        // the first notification times out and opens the circuit
+        Thread.sleep((i == 0) ? 150 : 20);
+      }
+      ClientCaller caller = cr.getClientCaller(handle);
+      Assert.assertEquals(CircuitBreaker.State.OPEN,
+          caller.getCircuitBreaker().getState());
+      Assert.assertEquals(0, notificationServer.notifications.size());
+      notificationServer.delayResponse = 0;
+
+      long start = System.currentTimeMillis();
+      while (notificationServer.notifications.size() < 2 &&
+          System.currentTimeMillis() - start < 5000) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(100);
+      // the last 2 notifications were coalesced while the circuit was open
+      Assert.assertEquals(2, notificationServer.notifications.size());
+      int reservations = 0;
+      for (TLlamaAMNotificationRequest request :
+          notificationServer.notifications) {
+        reservations += request.getAllocated_reservation_idsSize();
+      }
+      Assert.assertEquals(3, reservations);
+      Assert.assertEquals(CircuitBreaker.State.CLOSED,
+          caller.getCircuitBreaker().getState());
+      Assert.assertEquals(1, caller.getCircuitBreaker().getTrips());
+      Assert.assertFalse(cr.maxFailures);
+    } finally {
+      cn.stop();
+    }
+  }
+
+  @Test
+  public void testCircuitOpenKeepsOrder() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_HEARTBEAT_KEY), 10000);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_RETRY_INTERVAL_KEY), 50);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_MAX_RETRIES_KEY), 5);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.TRANSPORT_TIMEOUT_KEY), 50);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_FAILURES_KEY), 1);
+    conf.setInt(nsConf.getPropertyName(
+        ServerConfiguration.CLIENT_NOTIFIER_CIRCUIT_BREAKER_OPEN_KEY), 300);
+    ServerConfiguration sConf = new NSServerConfiguration(conf);
+    UUID clientId = UUID.randomUUID();
+    UUID handle = UUID.randomUUID();
+    MyClientRegistry cr = new MyClientRegistry(sConf, clientId, handle,
+        notificationServer.getAddressHost(),
+        notificationServer.getAddressPort());
+    ClientNotifier cn = new ClientNotifier(sConf, new HostnameOnlyNodeMapper(),
+        cr, null);
+    notificationServer.delayResponse = 100;
+    try {
+      cn.start();
+      LlamaAMEventImpl event = new LlamaAMEventImpl();
+      event.addReservation(TestUtils.createPlacedReservation(
+          TestUtils.createReservation(handle, 1, true),
+          PlacedReservation.Status.ALLOCATED));
+      cn.onEvent(event);
+      // the first notification times out and opens the circuit
+      Thread.sleep(150);
+
+      // r1 changes twice and r2 once while the circuit is open
+      PlacedReservationImpl r1 = (PlacedReservationImpl)
+          TestUtils.createPlacedReservation(TestUtils.createReservation(
+              handle, 1, true), PlacedReservation.Status.ALLOCATED);
+      event = new LlamaAMEventImpl();
+      event.addReservation(r1);
+      cn.onEvent(event);
+      r1.setStatus(PlacedReservation.Status.PREEMPTED);
+      event = new LlamaAMEventImpl();
+      event.addReservation(r1);
+      cn.onEvent(event);
+      event = new LlamaAMEventImpl();
+      event.addReservation(TestUtils.createPlacedReservation(
+          TestUtils.createReservation(handle, 1, true),
+          PlacedReservation.Status.ALLOCATED));
+      cn.onEvent(event);
+      Assert.assertEquals(0, notificationServer.notifications.size());
+      notificationServer.delayResponse = 0;
+
+      long start = System.currentTimeMillis();
+      while (notificationServer.notifications.size() < 3 &&
+          System.currentTimeMillis() - start < 5000) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(100);
+      // the preemption of r1 cannot be coalesced with its allocation, the
+      // change of r2 is coalesced with the preemption
+      Assert.assertEquals(3, notificationServer.notifications.size());
+      TUniqueId r1Id = TypeUtils.toTUniqueId(r1.getReservationId());
+      int allocated = -1;
+      int preempted = -1;
+      for (int i = 0; i < 3; i++) {
+        TLlamaAMNotificationRequest request =
+            notificationServer.notifications.get(i);
+        if (request.getAllocated_reservation_idsSize() > 0 &&
+            request.getAllocated_reservation_ids().contains(r1Id)) {
+          allocated = i;
+        }
+        if (request.getPreempted_reservation_idsSize() > 0 &&
+            request.getPreempted_reservation_ids().contains(r1Id)) {
+          preempted = i;
+          Assert.assertEquals(1, request.getAllocated_reservation_idsSize());
+        }
+      }
+      Assert.assertTrue(allocated >= 0);
+      Assert.assertTrue(preempted > allocated);
+      Assert.assertFalse(cr.maxFailures);
+    } finally {
+      cn.stop();
+    }
+  }
+
 }
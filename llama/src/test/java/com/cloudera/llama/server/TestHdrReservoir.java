@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.cloudera.llama.util.Clock;
+import com.codahale.metrics.Snapshot;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestHdrReservoir {
+
+  @After
+  public void resetClock() {
+    Clock.setClock(Clock.SYSTEM);
+  }
+
+  @Test
+  public void testBuckets() {
+    HdrReservoir reservoir = new HdrReservoir(1000);
+    for (long value = 0; value < 64; value++) {
+      Assert.assertEquals(value, reservoir.value(reservoir.index(value)));
+    }
+    for (long value = 64; value < (1L << 46); value = value * 3 / 2) {
+      long bucket = reservoir.value(reservoir.index(value));
+      Assert.assertTrue(Math.abs(bucket - value) <= value / 50);
+    }
+    Assert.assertEquals(reservoir.getBuckets() - 1,
+        reservoir.index(Long.MAX_VALUE));
+    Assert.assertEquals(0, reservoir.index(-1));
+  }
+
+  @Test
+  public void testPrecision() {
+    HdrReservoir reservoir = new HdrReservoir(1000, 3);
+    Assert.assertTrue(reservoir.getBuckets() * 3 <
+        new HdrReservoir(1000).getBuckets());
+    for (long value = 0; value < 16; value++) {
+      Assert.assertEquals(value, reservoir.value(reservoir.index(value)));
+    }
+    for (long value = 16; value < (1L << 46); value = value * 3 / 2) {
+      long bucket = reservoir.value(reservoir.index(value));
+      Assert.assertTrue(Math.abs(bucket - value) <= value / 12);
+    }
+  }
+
+  @Test
+  public void testLazyAllocation() {
+    HdrReservoir reservoir = new HdrReservoir(1000);
+    Assert.assertEquals(0, reservoir.size());
+    Assert.assertEquals(0, reservoir.getSnapshot().size());
+    Assert.assertFalse(reservoir.isAllocated());
+    reservoir.update(1);
+    Assert.assertTrue(reservoir.isAllocated());
+    Assert.assertEquals(1, reservoir.size());
+  }
+
+  @Test
+  public void testSnapshot() {
+    HdrReservoir reservoir = new HdrReservoir(1000);
+    Assert.assertEquals(0, reservoir.size());
+    Assert.assertEquals(0, reservoir.getSnapshot().size());
+    for (int i = 1; i <= 10000; i++) {
+      reservoir.update(i * 1000);
+    }
+    Assert.assertEquals(10000, reservoir.size());
+    Snapshot snapshot = reservoir.getSnapshot();
+    Assert.assertEquals(HdrReservoir.SNAPSHOT_SIZE, snapshot.size());
+    Assert.assertEquals(5000000, snapshot.getMedian(), 5000000 / 50);
+    Assert.assertEquals(9900000, snapshot.get99thPercentile(), 9900000 / 50);
+    Assert.assertEquals(10000000, snapshot.getMax(), 10000000 / 50);
+  }
+
+  @Test
+  public void testWindows() {
+    Clock.Mock clock = new Clock.Mock();
+    Clock.setClock(clock);
+    HdrReservoir reservoir = new HdrReservoir(1000);
+    reservoir.update(1);
+    clock.sleep(1000);
+    reservoir.update(2);
+    Assert.assertEquals(2, reservoir.size());
+    clock.sleep(1000);
+    Assert.assertEquals(1, reservoir.size());
+    Assert.assertEquals(2, reservoir.getSnapshot().getMax());
+    clock.sleep(2000);
+    Assert.assertEquals(0, reservoir.size());
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.server;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+public class TestOpenMetrics {
+
+  @Test
+  public void testParseName() {
+    Assert.assertEquals(Arrays.asList("llama_am_queue_reservations", "root.q1"),
+        Arrays.asList(OpenMetrics.parseName(
+            "llama.am.queue.reservations[root.q1].gauge")));
+    Assert.assertEquals(Arrays.asList("llama_am_reserve", null),
+        Arrays.asList(OpenMetrics.parseName("llama.am.reserve.timer")));
+    Assert.assertEquals("a\\\"b\\\\c\\n", OpenMetrics.escape("a\"b\\c\n"));
+  }
+
+  @Test
+  public void testWrite() throws Exception {
+    MetricRegistry mr = new MetricRegistry();
+    MetricUtil.registerGauge(mr, "llama.am.queue.reservations[q1].gauge",
+        new TestMetricUtil.MyGauge(1));
+    MetricUtil.registerGauge(mr, "llama.am.queue.reservations[q2].gauge",
+        new TestMetricUtil.MyGauge(2));
+    MetricUtil.registerMeter(mr, "llama.am.reserve.meter");
+    MetricUtil.registerTimer(mr, "llama.am.reserve.timer");
+    MetricUtil.meter(mr, "llama.am.reserve.meter", 3);
+    MetricUtil.time(mr, "llama.am.reserve.timer", 2000, null);
+    StringWriter writer = new StringWriter();
+    OpenMetrics.write(mr, writer);
+    String out = writer.toString();
+    Assert.assertTrue(out.contains(
+        "# TYPE llama_am_queue_reservations gauge\n" +
+        "llama_am_queue_reservations{queue=\"q1\"} 1\n" +
+        "llama_am_queue_reservations{queue=\"q2\"} 2\n"));
+    Assert.assertTrue(out.contains("# TYPE llama_am_reserve counter\n" +
+        "llama_am_reserve_total 3\n"));
+    Assert.assertTrue(out.contains("# TYPE llama_am_reserve_seconds summary\n"));
+    Assert.assertTrue(out.contains("llama_am_reserve_seconds_count 1\n"));
+    Assert.assertTrue(out.contains(
+        "llama_am_reserve_seconds{quantile=\"0.5\"} 1.99"));
+    Assert.assertTrue(out.endsWith("# EOF\n"));
+  }
+
+}
@@ -17,6 +17,9 @@
  */
 package com.cloudera.llama.server;
 
+import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
+import com.cloudera.llama.thrift.TUniqueId;
+import com.cloudera.llama.util.UUID;
 import junit.framework.Assert;
 import org.junit.Test;
 
@@ -32,4 +35,33 @@ public class TestTypeUtils {
     Assert.assertEquals("hello,bye", TypeUtils.objectToString(l));
   }
 
+  @Test
+  public void testCanMergeAMNotification() {
+    UUID handle = UUID.randomUUID();
+    TUniqueId r1 = TypeUtils.toTUniqueId(UUID.randomUUID());
+    TUniqueId r2 = TypeUtils.toTUniqueId(UUID.randomUUID());
+    TLlamaAMNotificationRequest allocated = TypeUtils.createHearbeat(handle);
+    allocated.setHeartbeat(false);
+    allocated.setAllocated_reservation_ids(Arrays.asList(r1));
+    TLlamaAMNotificationRequest preempted = TypeUtils.createHearbeat(handle);
+    preempted.setHeartbeat(false);
+    preempted.setPreempted_reservation_ids(Arrays.asList(r1));
+    TLlamaAMNotificationRequest other = TypeUtils.createHearbeat(handle);
+    other.setHeartbeat(false);
+    other.setLost_reservation_ids(Arrays.asList(r2));
+
+    Assert.assertTrue(TypeUtils.canMergeAMNotification(
+        TypeUtils.createHearbeat(handle), allocated));
+    Assert.assertFalse(TypeUtils.canMergeAMNotification(allocated,
+        preempted));
+    Assert.assertTrue(TypeUtils.canMergeAMNotification(allocated, other));
+
+    TypeUtils.mergeAMNotification(allocated, other);
+    Assert.assertFalse(allocated.isHeartbeat());
+    Assert.assertEquals(1, allocated.getAllocated_reservation_idsSize());
+    Assert.assertEquals(1, allocated.getLost_reservation_idsSize());
+    Assert.assertFalse(TypeUtils.canMergeAMNotification(preempted,
+        allocated));
+  }
+
 }
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestHashedTimingWheel {
+
+  private static class Task implements Runnable {
+    private final long scheduled = System.currentTimeMillis();
+    private final CountDownLatch latch;
+    private volatile long ran;
+
+    public Task(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public void run() {
+      ran = System.currentTimeMillis();
+      latch.countDown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTick() {
+    new HashedTimingWheel("t", 0, 8);
+  }
+
+  @Test
+  public void testWheelSizePowerOf2() {
+    Assert.assertEquals(8, new HashedTimingWheel("t", 10, 5).getWheelSize());
+    Assert.assertEquals(8, new HashedTimingWheel("t", 10, 8).getWheelSize());
+    Assert.assertEquals(1, new HashedTimingWheel("t", 10, 1).getWheelSize());
+  }
+
+  @Test
+  public void testSchedule() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel("t", 10, 4);
+    wheel.start();
+    try {
+      CountDownLatch latch = new CountDownLatch(3);
+      Task now = new Task(latch);
+      Task soon = new Task(latch);
+      // longer than a wheel round
+      Task later = new Task(latch);
+      wheel.schedule(now, 0);
+      wheel.schedule(soon, 30);
+      wheel.schedule(later, 150);
+      Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+      Assert.assertEquals(0, wheel.size());
+      Assert.assertTrue(now.ran - now.scheduled < 50);
+      Assert.assertTrue(soon.ran - soon.scheduled >= 30);
+      Assert.assertTrue(soon.ran - soon.scheduled < 100);
+      Assert.assertTrue(later.ran - later.scheduled >= 150);
+      Assert.assertTrue(later.ran - later.scheduled < 250);
+    } finally {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel("t", 10, 8);
+    wheel.start();
+    try {
+      final List<Integer> order =
+          Collections.synchronizedList(new ArrayList<Integer>());
+      final CountDownLatch latch = new CountDownLatch(3);
+      for (final int delay : new int[]{200, 20, 100}) {
+        wheel.schedule(new Runnable() {
+          @Override
+          public void run() {
+            order.add(delay);
+            latch.countDown();
+          }
+        }, delay);
+      }
+      Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+      Assert.assertEquals(Arrays.asList(20, 100, 200), order);
+    } finally {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel("t", 10, 8);
+    wheel.start();
+    try {
+      CountDownLatch latch = new CountDownLatch(1);
+      Task task = new Task(latch);
+      HashedTimingWheel.Timeout timeout = wheel.schedule(task, 50);
+      Assert.assertEquals(1, wheel.size());
+      timeout.cancel();
+      Assert.assertTrue(timeout.isCancelled());
+      Assert.assertFalse(latch.await(150, TimeUnit.MILLISECONDS));
+      Assert.assertEquals(0, wheel.size());
+    } finally {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  public void testTaskErrorDoesNotStopWheel() throws Exception {
+    HashedTimingWheel wheel = new HashedTimingWheel("t", 10, 8);
+    wheel.start();
+    try {
+      wheel.schedule(new Runnable() {
+        @Override
+        public void run() {
+          throw new RuntimeException("error");
+        }
+      }, 0);
+      CountDownLatch latch = new CountDownLatch(1);
+      wheel.schedule(new Task(latch), 20);
+      Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+    } finally {
+      wheel.stop();
+    }
+  }
+
+}
@@ -21,6 +21,8 @@ import junit.framework.Assert;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
 
 public class TestUUID {
 
@@ -65,4 +67,65 @@ public class TestUUID {
     Assert.assertEquals(str, uuid.toString());
 
   }
+
+  @Test
+  public void testInvalidStrings() throws Exception {
+    String[] invalids = {"1", ":1", "1:", "g:1", "1:-1",
+        "11111111111111111:1", "1:11111111111111111"};
+    for (String invalid : invalids) {
+      try {
+        UUID.fromString(invalid);
+        Assert.fail(invalid);
+      } catch (IllegalArgumentException ex) {
+        //NOP
+      }
+    }
+    Assert.assertEquals(UUID.fromString("ab:cd"), UUID.fromString("AB:CD"));
+  }
+
+  private void testGenerator(UUID.Generator generator) {
+    UUID.Generator current = UUID.getGenerator();
+    UUID.setGenerator(generator);
+    try {
+      Set<UUID> ids = new HashSet<UUID>();
+      for (int i = 0; i < 1000; i++) {
+        UUID id = UUID.randomUUID();
+        Assert.assertTrue(ids.add(id));
+        Assert.assertEquals(id, UUID.fromString(id.toString()));
+      }
+    } finally {
+      UUID.setGenerator(current);
+    }
+  }
+
+  @Test
+  public void testGenerators() throws Exception {
+    testGenerator(UUID.SECURE);
+    testGenerator(UUID.THREAD_RANDOM);
+    testGenerator(new UUID.SequenceGenerator(1, 2));
+  }
+
+  @Test
+  public void testSequenceGenerator() throws Exception {
+    UUID.Generator generator = new UUID.SequenceGenerator(1, 2);
+    UUID id = generator.next();
+    Assert.assertEquals("10000000002:1", id.toString());
+    Assert.assertEquals("10000000002:2", generator.next().toString());
+    // a different epoch, i.e. after a failover, does not collide
+    Assert.assertFalse(id.equals(new UUID.SequenceGenerator(1, 3).next()));
+  }
+
+  @Test
+  public void testSecureUUIDIgnoresGenerator() throws Exception {
+    UUID.Generator current = UUID.getGenerator();
+    UUID.setGenerator(new UUID.SequenceGenerator(1, 2));
+    try {
+      Assert.assertEquals("10000000002:1", UUID.randomUUID().toString());
+      UUID id = UUID.secureUUID();
+      Assert.assertFalse(id.toString().startsWith("10000000002:"));
+      Assert.assertEquals("10000000002:2", UUID.randomUUID().toString());
+    } finally {
+      UUID.setGenerator(current);
+    }
+  }
 }
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import com.cloudera.llama.util.FastFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Open-loop arrival process, produces the times at which reservations are
+ * placed regardless of how fast Llama responds.
+ */
+public abstract class ArrivalProcess {
+
+  public enum Type {POISSON, BURSTY, TRACE}
+
+  /**
+   * Returns the offset, in milliseconds from the start of the run, of the
+   * next arrival, or <code>-1</code> if there are no more arrivals.
+   */
+  public abstract long next();
+
+  private static double exponential(Random random, double ratePerMs) {
+    return -Math.log(1 - random.nextDouble()) / ratePerMs;
+  }
+
+  /**
+   * Poisson arrivals, exponentially distributed inter-arrival times.
+   */
+  static class Poisson extends ArrivalProcess {
+    private final Random random;
+    private final double ratePerMs;
+    private final long duration;
+    private double time;
+
+    Poisson(double ratePerSec, long duration, long seed) {
+      random = new Random(seed);
+      ratePerMs = ratePerSec / 1000;
+      this.duration = duration;
+    }
+
+    @Override
+    public long next() {
+      time += exponential(random, ratePerMs);
+      return (time < duration) ? (long) time : -1;
+    }
+  }
+
+  /**
+   * Poisson arrivals at the burst rate during the first burst duration
+   * milliseconds of every period and at the base rate the rest of the period,
+   * generated by thinning a Poisson process at the highest of both rates.
+   */
+  static class Bursty extends ArrivalProcess {
+    private final Random random;
+    private final double ratePerMs;
+    private final double burstRatePerMs;
+    private final long burstDuration;
+    private final long period;
+    private final long duration;
+    private final double maxRatePerMs;
+    private double time;
+
+    Bursty(double ratePerSec, double burstRatePerSec, long burstDuration,
+        long period, long duration, long seed) {
+      if (burstDuration > period) {
+        throw new IllegalArgumentException(FastFormat.format(
+            "Burst duration '{}' greater than burst period '{}'",
+            burstDuration, period));
+      }
+      random = new Random(seed);
+      ratePerMs = ratePerSec / 1000;
+      burstRatePerMs = burstRatePerSec / 1000;
+      this.burstDuration = burstDuration;
+      this.period = period;
+      this.duration = duration;
+      maxRatePerMs = Math.max(ratePerMs, burstRatePerMs);
+    }
+
+    double getRatePerMs(double time) {
+      return ((long) time % period < burstDuration) ? burstRatePerMs
+                                                    : ratePerMs;
+    }
+
+    @Override
+    public long next() {
+      do {
+        time += exponential(random, maxRatePerMs);
+      } while (time < duration &&
+          random.nextDouble() * maxRatePerMs >= getRatePerMs(time));
+      return (time < duration) ? (long) time : -1;
+    }
+  }
+
+  /**
+   * Replays recorded arrival times, one offset in milliseconds per line.
+   */
+  static class Trace extends ArrivalProcess {
+    private final List<Long> arrivals;
+    private int index;
+
+    Trace(List<Long> arrivals) {
+      this.arrivals = arrivals;
+    }
+
+    @Override
+    public long next() {
+      return (index < arrivals.size()) ? arrivals.get(index++) : -1;
+    }
+  }
+
+  public static ArrivalProcess createPoisson(double ratePerSec, long duration,
+      long seed) {
+    return new Poisson(ratePerSec, duration, seed);
+  }
+
+  public static ArrivalProcess createBursty(double ratePerSec,
+      double burstRatePerSec, long burstDuration, long period, long duration,
+      long seed) {
+    return new Bursty(ratePerSec, burstRatePerSec, burstDuration, period,
+        duration, seed);
+  }
+
+  /**
+   * Creates a trace arrival process. Empty lines and lines starting with
+   * <code>#</code> are ignored, the arrivals are sorted.
+   */
+  public static ArrivalProcess createTrace(Reader reader) throws IOException {
+    List<Long> arrivals = new ArrayList<Long>();
+    BufferedReader br = new BufferedReader(reader);
+    String line = br.readLine();
+    while (line != null) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        try {
+          arrivals.add(Long.parseLong(line.split("\\s+")[0]));
+        } catch (NumberFormatException ex) {
+          throw new IOException(FastFormat.format(
+              "Invalid trace line '{}'", line), ex);
+        }
+      }
+      line = br.readLine();
+    }
+    Collections.sort(arrivals);
+    return new Trace(arrivals);
+  }
+
+}
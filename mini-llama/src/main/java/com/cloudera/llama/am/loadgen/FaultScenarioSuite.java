@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import com.cloudera.llama.am.AMServerConfiguration;
+import com.cloudera.llama.am.LlamaAMServer;
+import com.cloudera.llama.am.LlamaHAServer;
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.impl.FaultInjectionRMConnector;
+import com.cloudera.llama.am.mock.MockLlamaAMFlags;
+import com.cloudera.llama.am.mock.MockRMConnector;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.server.ServerConfiguration;
+import com.cloudera.llama.util.FastFormat;
+import com.codahale.metrics.Snapshot;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark suite that runs the {@link LlamaLoadGenerator} against an
+ * embedded Llama AM whose RM connector is decorated with a
+ * {@link FaultInjectionRMConnector}, one fault scenario at a time.
+ * <p/>
+ * The embedded Llama uses the mock RM connector, which allocates every
+ * request, so the differences between scenarios are caused by the injected
+ * faults only. Each scenario runs the same load, faults are injected during
+ * the whole run including the drain. A scenario is reported as recovered
+ * when every reservation reached a final state before the end of the drain.
+ * <p/>
+ * The load is configured with the {@link LlamaLoadGenerator} properties, the
+ * Llama address, queue and locations are set by the suite.
+ */
+public class FaultScenarioSuite {
+
+  public static final String SCENARIOS_KEY = LlamaLoadGenerator.PREFIX_KEY +
+      "fault.scenarios";
+
+  static final String QUEUE = "root.faults";
+
+  static final String NODES = MockLlamaAMFlags.ALLOCATE + "node1," +
+      MockLlamaAMFlags.ALLOCATE + "node2";
+
+  public static class Scenario {
+    private final String name;
+    private final String description;
+    private final Map<String, String> faults;
+
+    Scenario(String name, String description, String... faults) {
+      this.name = name;
+      this.description = description;
+      this.faults = new LinkedHashMap<String, String>();
+      for (int i = 0; i < faults.length; i += 2) {
+        this.faults.put(faults[i], faults[i + 1]);
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public Map<String, String> getFaults() {
+      return Collections.unmodifiableMap(faults);
+    }
+  }
+
+  public static final String BASELINE = "baseline";
+
+  public static final List<Scenario> SCENARIOS = Collections.unmodifiableList(
+      Arrays.asList(
+          new Scenario(BASELINE, "no faults"),
+          new Scenario("slow-allocate",
+              "RM events delayed 500ms on average",
+              FaultInjectionRMConnector.EVENTS_DELAY_MS_KEY, "500"),
+          new Scenario("slow-rpc",
+              "reserve and release calls take 100ms on average",
+              FaultInjectionRMConnector.RESERVE_LATENCY_MS_KEY, "100",
+              FaultInjectionRMConnector.RELEASE_LATENCY_MS_KEY, "100"),
+          new Scenario("reserve-errors", "20% of the reserve calls fail",
+              FaultInjectionRMConnector.RESERVE_ERROR_RATE_KEY, "0.2"),
+          new Scenario("container-start-failures",
+              "20% of the allocations are LOST",
+              FaultInjectionRMConnector.ALLOCATION_LOST_RATE_KEY, "0.2"),
+          new Scenario("lost-storm",
+              "every 2s half of the allocated resources are LOST",
+              FaultInjectionRMConnector.STORM_INTERVAL_MS_KEY, "2000",
+              FaultInjectionRMConnector.STORM_STATUS_KEY, "LOST"),
+          new Scenario("preemption-storm",
+              "every 2s half of the allocated resources are PREEMPTED",
+              FaultInjectionRMConnector.STORM_INTERVAL_MS_KEY, "2000",
+              FaultInjectionRMConnector.STORM_STATUS_KEY, "PREEMPTED"),
+          new Scenario("stopped-by-rm",
+              "the RM stops the connector 10s after it starts",
+              FaultInjectionRMConnector.STOPPED_BY_RM_AFTER_MS_KEY, "10000")
+      ));
+
+  public static Scenario getScenario(String name) {
+    for (Scenario scenario : SCENARIOS) {
+      if (scenario.getName().equals(name)) {
+        return scenario;
+      }
+    }
+    throw new IllegalArgumentException(FastFormat.format(
+        "Unknown fault scenario '{}'", name));
+  }
+
+  private final Configuration loadConf;
+
+  public FaultScenarioSuite(Configuration loadConf) {
+    this.loadConf = loadConf;
+  }
+
+  Configuration createLlamaConf(Scenario scenario) {
+    ServerConfiguration sConf =
+        new AMServerConfiguration(new Configuration(false));
+    Configuration conf = new Configuration(false);
+    conf.set(ServerConfiguration.CONFIG_DIR_KEY, "");
+    conf.set(sConf.getPropertyName(ServerConfiguration.SERVER_ADDRESS_KEY),
+        "localhost:0");
+    conf.set(sConf.getPropertyName(
+        ServerConfiguration.SERVER_ADMIN_ADDRESS_KEY), "localhost:0");
+    conf.set(sConf.getPropertyName(ServerConfiguration.HTTP_ADDRESS_KEY),
+        "localhost:0");
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MockRMConnector.class,
+        RMConnector.class);
+    conf.set(LlamaAM.CORE_QUEUES_KEY, QUEUE);
+    conf.set(MockRMConnector.QUEUES_KEY, QUEUE);
+    conf.set(MockRMConnector.NODES_KEY, NODES);
+    conf.setInt(MockRMConnector.EVENTS_MIN_WAIT_KEY, 5);
+    conf.setInt(MockRMConnector.EVENTS_MAX_WAIT_KEY, 20);
+    conf.setBoolean(LlamaAM.FAULT_INJECTION_ENABLED_KEY, true);
+    for (Map.Entry<String, String> entry : scenario.getFaults().entrySet()) {
+      conf.set(entry.getKey(), entry.getValue());
+    }
+    return conf;
+  }
+
+  public LlamaLoadGenerator.Report run(Scenario scenario) throws Exception {
+    LlamaAMServer server = new LlamaHAServer();
+    try {
+      server.setConf(createLlamaConf(scenario));
+      server.start();
+      Configuration conf = new Configuration(loadConf);
+      conf.set(LlamaLoadGenerator.LLAMA_ADDRESS_KEY, server.getAddressHost() +
+          ":" + server.getAddressPort());
+      conf.setIfUnset(LlamaLoadGenerator.CALLBACK_HOST_KEY, "localhost");
+      conf.set(LlamaLoadGenerator.QUEUE_KEY, QUEUE);
+      conf.set(LlamaLoadGenerator.LOCATIONS_KEY, NODES);
+      return new LlamaLoadGenerator(conf).run();
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Runs the scenarios set in {@link #SCENARIOS_KEY}, all if not set.
+   */
+  public Map<String, LlamaLoadGenerator.Report> run() throws Exception {
+    Collection<String> names =
+        loadConf.getTrimmedStringCollection(SCENARIOS_KEY);
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+    if (names.isEmpty()) {
+      scenarios.addAll(SCENARIOS);
+    } else {
+      for (String name : names) {
+        scenarios.add(getScenario(name));
+      }
+    }
+    Map<String, LlamaLoadGenerator.Report> reports =
+        new LinkedHashMap<String, LlamaLoadGenerator.Report>();
+    for (Scenario scenario : scenarios) {
+      reports.put(scenario.getName(), run(scenario));
+    }
+    return reports;
+  }
+
+  public static boolean isRecovered(LlamaLoadGenerator.Report report) {
+    return report.getCounter(LlamaLoadGenerator.UNFINISHED) == 0;
+  }
+
+  private static final String[] COUNTERS = {LlamaLoadGenerator.RESERVATIONS,
+      LlamaLoadGenerator.ALLOCATED, LlamaLoadGenerator.REJECTED,
+      LlamaLoadGenerator.PREEMPTED, LlamaLoadGenerator.LOST,
+      LlamaLoadGenerator.TIMED_OUT, LlamaLoadGenerator.ERRORS,
+      LlamaLoadGenerator.UNFINISHED};
+
+  private static final String[] HEADERS = {"reservations", "allocated",
+      "rejected", "preempted", "lost", "timeouts", "errors", "unfinished"};
+
+  public static void print(Map<String, LlamaLoadGenerator.Report> reports,
+      PrintStream out) {
+    out.println();
+    out.println("Llama fault scenarios:");
+    out.println();
+    for (String name : reports.keySet()) {
+      Scenario scenario = getScenario(name);
+      out.println(FastFormat.format("  {} : {}", pad(name),
+          scenario.getDescription()));
+    }
+    out.println();
+    StringBuilder sb = new StringBuilder("  ").append(pad("scenario"));
+    for (String header : HEADERS) {
+      sb.append(' ').append(col(header));
+    }
+    sb.append(' ').append(col("alloc p50"));
+    sb.append(' ').append(col("alloc p99"));
+    sb.append(' ').append(col("alloc max"));
+    sb.append(' ').append(col("recovered"));
+    out.println(sb);
+    for (Map.Entry<String, LlamaLoadGenerator.Report> entry :
+        reports.entrySet()) {
+      LlamaLoadGenerator.Report report = entry.getValue();
+      Snapshot snapshot = report.getLatency(LlamaLoadGenerator.ALLOCATION);
+      sb = new StringBuilder("  ").append(pad(entry.getKey()));
+      for (String counter : COUNTERS) {
+        sb.append(' ').append(col(Long.toString(report.getCounter(counter))));
+      }
+      sb.append(' ').append(col(toMs(snapshot.getMedian())));
+      sb.append(' ').append(col(toMs(snapshot.get99thPercentile())));
+      sb.append(' ').append(col(toMs(snapshot.getMax())));
+      sb.append(' ').append(col((isRecovered(report)) ? "yes" : "NO"));
+      out.println(sb);
+    }
+    out.println();
+    out.println("  latencies in ms, from the intended arrival to the " +
+        "allocation notification");
+    out.println();
+  }
+
+  private static String toMs(double micros) {
+    return String.format("%.1f", micros / 1000);
+  }
+
+  private static String pad(String s) {
+    return String.format("%-26s", s);
+  }
+
+  private static String col(String s) {
+    return String.format("%12s", s);
+  }
+
+}
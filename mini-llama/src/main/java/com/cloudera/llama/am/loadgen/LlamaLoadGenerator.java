@@ -0,0 +1,1024 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.server.HdrReservoir;
+import com.cloudera.llama.server.Security;
+import com.cloudera.llama.server.ServerConfiguration;
+import com.cloudera.llama.server.TypeUtils;
+import com.cloudera.llama.thrift.LlamaAMService;
+import com.cloudera.llama.thrift.TLlamaAMRegisterRequest;
+import com.cloudera.llama.thrift.TLlamaAMRegisterResponse;
+import com.cloudera.llama.thrift.TLlamaAMReleaseRequest;
+import com.cloudera.llama.thrift.TLlamaAMReleaseResponse;
+import com.cloudera.llama.thrift.TLlamaAMReservationExpansionRequest;
+import com.cloudera.llama.thrift.TLlamaAMReservationExpansionResponse;
+import com.cloudera.llama.thrift.TLlamaAMReservationRequest;
+import com.cloudera.llama.thrift.TLlamaAMReservationResponse;
+import com.cloudera.llama.thrift.TLlamaAMUnregisterRequest;
+import com.cloudera.llama.thrift.TLlamaServiceVersion;
+import com.cloudera.llama.thrift.TLocationEnforcement;
+import com.cloudera.llama.thrift.TNetworkAddress;
+import com.cloudera.llama.thrift.TNotificationProtocol;
+import com.cloudera.llama.thrift.TResource;
+import com.cloudera.llama.thrift.TStatus;
+import com.cloudera.llama.thrift.TStatusCode;
+import com.cloudera.llama.thrift.TUniqueId;
+import com.cloudera.llama.util.CLIParser;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.NamedThreadFactory;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TSaslClientTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.Subject;
+import javax.security.sasl.Sasl;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open-loop load generator for a Llama AM server.
+ * <p/>
+ * Reservations are placed following an {@link ArrivalProcess}, independently
+ * of how fast Llama responds: the arrival thread only schedules, the Thrift
+ * calls run in a pool of worker threads. All latencies are measured from the
+ * intended arrival time, so time spent waiting for a worker or for a slow
+ * Llama is accounted for instead of silently delaying the next arrival
+ * (coordinated omission).
+ * <p/>
+ * Each reservation is gang or non-gang based on {@link #GANG_RATIO_KEY}, has
+ * between one and {@link #RESOURCES_MAX_KEY} resources, is held for an
+ * exponentially distributed time once allocated, may be expanded before
+ * being released ({@link #EXPAND_RATIO_KEY}) and may be cancelled before
+ * being allocated ({@link #CANCEL_RATIO_KEY}). Notifications are received by
+ * an embedded {@link LoadGenCallback} server.
+ * <p/>
+ * The recorded latencies, in HDR histograms, are:
+ * <ul>
+ * <li>reserve RPC: intended arrival to the Reserve call response.</li>
+ * <li>allocation: intended arrival to the allocation notification.</li>
+ * <li>notification: Reserve call response to the allocation notification.
+ * </li>
+ * <li>expansion allocation: intended expansion to its allocation
+ * notification.</li>
+ * <li>release RPC: Release call duration.</li>
+ * </ul>
+ */
+public class LlamaLoadGenerator implements LoadGenCallback.Listener {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(LlamaLoadGenerator.class);
+
+  public static final String PREFIX_KEY = "llama.loadgen.";
+
+  public static final String LLAMA_ADDRESS_KEY = PREFIX_KEY + "llama.address";
+
+  public static final String SECURE_KEY = PREFIX_KEY + "secure";
+  public static final boolean SECURE_DEFAULT = false;
+
+  public static final String CALLBACK_HOST_KEY = PREFIX_KEY + "callback.host";
+
+  public static final String CALLBACK_COMPACT_FRAMED_KEY = PREFIX_KEY +
+      "callback.compact.framed";
+  public static final boolean CALLBACK_COMPACT_FRAMED_DEFAULT = false;
+
+  public static final String CLIENTS_KEY = PREFIX_KEY + "clients";
+  public static final int CLIENTS_DEFAULT = 1;
+
+  public static final String THREADS_KEY = PREFIX_KEY + "threads";
+  public static final int THREADS_DEFAULT = 16;
+
+  public static final String USER_KEY = PREFIX_KEY + "user";
+
+  public static final String QUEUE_KEY = PREFIX_KEY + "queue";
+
+  public static final String LOCATIONS_KEY = PREFIX_KEY + "locations";
+
+  public static final String RELAX_LOCALITY_KEY = PREFIX_KEY +
+      "relax.locality";
+  public static final boolean RELAX_LOCALITY_DEFAULT = false;
+
+  public static final String CPUS_KEY = PREFIX_KEY + "cpus";
+  public static final int CPUS_DEFAULT = 1;
+
+  public static final String MEMORY_MB_KEY = PREFIX_KEY + "memory.mb";
+  public static final int MEMORY_MB_DEFAULT = 1024;
+
+  public static final String RESOURCES_MAX_KEY = PREFIX_KEY + "resources.max";
+  public static final int RESOURCES_MAX_DEFAULT = 1;
+
+  public static final String GANG_RATIO_KEY = PREFIX_KEY + "gang.ratio";
+  public static final float GANG_RATIO_DEFAULT = 0.5f;
+
+  public static final String EXPAND_RATIO_KEY = PREFIX_KEY + "expand.ratio";
+  public static final float EXPAND_RATIO_DEFAULT = 0;
+
+  public static final String CANCEL_RATIO_KEY = PREFIX_KEY + "cancel.ratio";
+  public static final float CANCEL_RATIO_DEFAULT = 0;
+
+  public static final String HOLD_MS_KEY = PREFIX_KEY + "hold.ms";
+  public static final long HOLD_MS_DEFAULT = 1000;
+
+  public static final String ALLOCATION_TIMEOUT_MS_KEY = PREFIX_KEY +
+      "allocation.timeout.ms";
+  public static final long ALLOCATION_TIMEOUT_MS_DEFAULT = 30000;
+
+  public static final String ARRIVAL_KEY = PREFIX_KEY + "arrival";
+  public static final String ARRIVAL_DEFAULT = "POISSON";
+
+  public static final String RATE_KEY = PREFIX_KEY + "rate";
+  public static final float RATE_DEFAULT = 10;
+
+  public static final String BURST_RATE_KEY = PREFIX_KEY + "burst.rate";
+  public static final float BURST_RATE_DEFAULT = 100;
+
+  public static final String BURST_DURATION_MS_KEY = PREFIX_KEY +
+      "burst.duration.ms";
+  public static final long BURST_DURATION_MS_DEFAULT = 1000;
+
+  public static final String BURST_PERIOD_MS_KEY = PREFIX_KEY +
+      "burst.period.ms";
+  public static final long BURST_PERIOD_MS_DEFAULT = 10000;
+
+  public static final String TRACE_FILE_KEY = PREFIX_KEY + "trace.file";
+
+  public static final String DURATION_MS_KEY = PREFIX_KEY + "duration.ms";
+  public static final long DURATION_MS_DEFAULT = 60000;
+
+  public static final String DRAIN_MS_KEY = PREFIX_KEY + "drain.ms";
+  public static final long DRAIN_MS_DEFAULT = 30000;
+
+  public static final String SEED_KEY = PREFIX_KEY + "seed";
+  public static final long SEED_DEFAULT = 0;
+
+  private static final long NANOS_IN_MS = 1000 * 1000;
+
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+  /**
+   * A reservation or expansion placed by the load generator.
+   */
+  private static class Outstanding {
+    private final UUID id;
+    private final UUID handle;
+    private final Outstanding expansionOf;
+    private final long intendedNanos;
+    private volatile long rpcNanos;
+    private boolean allocated;
+    private boolean expanded;
+
+    Outstanding(UUID id, UUID handle, Outstanding expansionOf,
+        long intendedNanos) {
+      this.id = id;
+      this.handle = handle;
+      this.expansionOf = expansionOf;
+      this.intendedNanos = intendedNanos;
+    }
+
+    synchronized boolean setAllocated() {
+      boolean first = !allocated;
+      allocated = true;
+      return first;
+    }
+
+    synchronized boolean isAllocated() {
+      return allocated;
+    }
+
+    synchronized boolean setExpanded() {
+      boolean first = !expanded;
+      expanded = true;
+      return first;
+    }
+  }
+
+  /**
+   * Outcome of a load generator run.
+   */
+  public static class Report {
+    private final Map<String, Histogram> histograms;
+    private final Map<String, Long> counters;
+    private final long wallTime;
+
+    Report(Map<String, Histogram> histograms, Map<String, Long> counters,
+        long wallTime) {
+      this.histograms = histograms;
+      this.counters = counters;
+      this.wallTime = wallTime;
+    }
+
+    public long getCounter(String name) {
+      Long value = counters.get(name);
+      return (value != null) ? value : 0;
+    }
+
+    /**
+     * Returns the number of latencies recorded in a histogram.
+     */
+    public long getCount(String name) {
+      return histograms.get(name).getCount();
+    }
+
+    /**
+     * Returns the snapshot of a latency histogram, in microseconds.
+     */
+    public Snapshot getLatency(String name) {
+      return histograms.get(name).getSnapshot();
+    }
+
+    public long getWallTime() {
+      return wallTime;
+    }
+
+    public void print(PrintStream out) {
+      out.println();
+      out.println("Llama load generator run:");
+      out.println();
+      out.println(FastFormat.format("  {} : {} ms", pad("wall time"),
+          wallTime));
+      for (Map.Entry<String, Long> entry : counters.entrySet()) {
+        out.println(FastFormat.format("  {} : {}", pad(entry.getKey()),
+            entry.getValue()));
+      }
+      out.println();
+      out.println(FastFormat.format("  {} : {} {} {} {} {} {}",
+          pad("latency (ms)"), col("count"), col("p50"), col("p90"),
+          col("p99"), col("p99.9"), col("max")));
+      for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+        Snapshot snapshot = entry.getValue().getSnapshot();
+        StringBuilder sb = new StringBuilder();
+        sb.append("  ").append(pad(entry.getKey())).append(" : ");
+        sb.append(col(Long.toString(entry.getValue().getCount())));
+        for (double percentile : PERCENTILES) {
+          sb.append(' ').append(col(toMs(snapshot.getValue(percentile))));
+        }
+        sb.append(' ').append(col(toMs(snapshot.getMax())));
+        out.println(sb);
+      }
+      out.println();
+    }
+
+    private static String toMs(double micros) {
+      return String.format("%.3f", micros / 1000);
+    }
+
+    private static String pad(String s) {
+      return String.format("%-24s", s);
+    }
+
+    private static String col(String s) {
+      return String.format("%10s", s);
+    }
+  }
+
+  public static final String RESERVE_RPC = "reserve RPC";
+  public static final String ALLOCATION = "allocation";
+  public static final String NOTIFICATION = "notification";
+  public static final String EXPANSION_ALLOCATION = "expansion allocation";
+  public static final String RELEASE_RPC = "release RPC";
+
+  public static final String ARRIVALS = "arrivals";
+  public static final String RESERVATIONS = "reservations";
+  public static final String GANG_RESERVATIONS = "gang reservations";
+  public static final String EXPANSIONS = "expansions";
+  public static final String ALLOCATED = "allocated";
+  public static final String REJECTED = "rejected";
+  public static final String PREEMPTED = "preempted";
+  public static final String LOST = "lost";
+  public static final String ADMIN_RELEASED = "admin released";
+  public static final String CANCELLED = "cancelled";
+  public static final String TIMED_OUT = "allocation timeouts";
+  public static final String RELEASES = "releases";
+  public static final String ERRORS = "errors";
+  public static final String NOTIFICATIONS = "notifications";
+  public static final String HEARTBEATS = "heartbeats";
+  public static final String UNFINISHED = "unfinished";
+
+  private final Configuration conf;
+  private final String llamaHost;
+  private final int llamaPort;
+  private final boolean secure;
+  private final TNotificationProtocol callbackProtocol;
+  private final String user;
+  private final String queue;
+  private final List<String> locations;
+  private final boolean relaxLocality;
+  private final int cpus;
+  private final int memory;
+  private final int resourcesMax;
+  private final float gangRatio;
+  private final float expandRatio;
+  private final float cancelRatio;
+  private final long holdMs;
+  private final long allocationTimeoutMs;
+  private final Random random;
+  private final Map<UUID, Outstanding> outstanding;
+  private final Map<String, Histogram> histograms;
+  private final Map<String, AtomicLong> counters;
+  private final List<TTransport> transports;
+  private final ThreadLocal<LlamaAMService.Client> clients;
+  private final List<UUID> handles;
+  private ThreadPoolExecutor workers;
+  private ScheduledExecutorService timers;
+  private LoadGenCallback callback;
+
+  public LlamaLoadGenerator(Configuration conf) {
+    this.conf = conf;
+    String address = conf.get(LLAMA_ADDRESS_KEY);
+    if (address == null || address.indexOf(':') == -1) {
+      throw new IllegalArgumentException(FastFormat.format(
+          "'{}' must be set to <HOST>:<PORT>", LLAMA_ADDRESS_KEY));
+    }
+    llamaHost = address.substring(0, address.indexOf(':'));
+    llamaPort = Integer.parseInt(address.substring(address.indexOf(':') + 1));
+    secure = conf.getBoolean(SECURE_KEY, SECURE_DEFAULT);
+    callbackProtocol = (conf.getBoolean(CALLBACK_COMPACT_FRAMED_KEY,
+        CALLBACK_COMPACT_FRAMED_DEFAULT)) ? TNotificationProtocol.COMPACT_FRAMED
+                                          : TNotificationProtocol.BINARY;
+    user = conf.get(USER_KEY, System.getProperty("user.name"));
+    queue = conf.get(QUEUE_KEY);
+    locations = new ArrayList<String>(
+        conf.getTrimmedStringCollection(LOCATIONS_KEY));
+    if (locations.isEmpty()) {
+      throw new IllegalArgumentException(FastFormat.format("'{}' must be set",
+          LOCATIONS_KEY));
+    }
+    relaxLocality = conf.getBoolean(RELAX_LOCALITY_KEY,
+        RELAX_LOCALITY_DEFAULT);
+    cpus = conf.getInt(CPUS_KEY, CPUS_DEFAULT);
+    memory = conf.getInt(MEMORY_MB_KEY, MEMORY_MB_DEFAULT);
+    resourcesMax = Math.max(1, conf.getInt(RESOURCES_MAX_KEY,
+        RESOURCES_MAX_DEFAULT));
+    gangRatio = conf.getFloat(GANG_RATIO_KEY, GANG_RATIO_DEFAULT);
+    expandRatio = conf.getFloat(EXPAND_RATIO_KEY, EXPAND_RATIO_DEFAULT);
+    cancelRatio = conf.getFloat(CANCEL_RATIO_KEY, CANCEL_RATIO_DEFAULT);
+    holdMs = conf.getLong(HOLD_MS_KEY, HOLD_MS_DEFAULT);
+    allocationTimeoutMs = conf.getLong(ALLOCATION_TIMEOUT_MS_KEY,
+        ALLOCATION_TIMEOUT_MS_DEFAULT);
+    random = new Random(conf.getLong(SEED_KEY, SEED_DEFAULT));
+    outstanding = new ConcurrentHashMap<UUID, Outstanding>();
+    histograms = new LinkedHashMap<String, Histogram>();
+    for (String name : new String[]{RESERVE_RPC, ALLOCATION, NOTIFICATION,
+        EXPANSION_ALLOCATION, RELEASE_RPC}) {
+      histograms.put(name, new Histogram(new HdrReservoir(Long.MAX_VALUE)));
+    }
+    counters = new LinkedHashMap<String, AtomicLong>();
+    for (String name : new String[]{ARRIVALS, RESERVATIONS, GANG_RESERVATIONS,
+        EXPANSIONS, ALLOCATED, REJECTED, PREEMPTED, LOST, ADMIN_RELEASED,
+        CANCELLED, TIMED_OUT, RELEASES, ERRORS}) {
+      counters.put(name, new AtomicLong());
+    }
+    transports = Collections.synchronizedList(new ArrayList<TTransport>());
+    clients = new ThreadLocal<LlamaAMService.Client>();
+    handles = new ArrayList<UUID>();
+  }
+
+  ArrivalProcess createArrivalProcess() throws Exception {
+    long duration = conf.getLong(DURATION_MS_KEY, DURATION_MS_DEFAULT);
+    long seed = conf.getLong(SEED_KEY, SEED_DEFAULT);
+    ArrivalProcess.Type type = ArrivalProcess.Type.valueOf(
+        conf.get(ARRIVAL_KEY, ARRIVAL_DEFAULT).trim().toUpperCase());
+    switch (type) {
+      case POISSON:
+        return ArrivalProcess.createPoisson(
+            conf.getFloat(RATE_KEY, RATE_DEFAULT), duration, seed);
+      case BURSTY:
+        return ArrivalProcess.createBursty(
+            conf.getFloat(RATE_KEY, RATE_DEFAULT),
+            conf.getFloat(BURST_RATE_KEY, BURST_RATE_DEFAULT),
+            conf.getLong(BURST_DURATION_MS_KEY, BURST_DURATION_MS_DEFAULT),
+            conf.getLong(BURST_PERIOD_MS_KEY, BURST_PERIOD_MS_DEFAULT),
+            duration, seed);
+      default:
+        String file = conf.get(TRACE_FILE_KEY);
+        if (file == null) {
+          throw new IllegalArgumentException(FastFormat.format(
+              "'{}' must be set", TRACE_FILE_KEY));
+        }
+        Reader reader = new FileReader(file);
+        try {
+          return ArrivalProcess.createTrace(reader);
+        } finally {
+          reader.close();
+        }
+    }
+  }
+
+  private void increment(String counter) {
+    counters.get(counter).incrementAndGet();
+  }
+
+  private void record(String histogram, long nanos) {
+    histograms.get(histogram).update(Math.max(0,
+        TimeUnit.NANOSECONDS.toMicros(nanos)));
+  }
+
+  private synchronized double nextRandom() {
+    return random.nextDouble();
+  }
+
+  private synchronized int nextInt(int n) {
+    return random.nextInt(n);
+  }
+
+  private long nextHold() {
+    return (holdMs <= 0) ? 0
+                         : (long) (-Math.log(1 - nextRandom()) * holdMs);
+  }
+
+  private LlamaAMService.Client createClient() throws Exception {
+    TTransport transport = new TSocket(llamaHost, llamaPort);
+    if (secure) {
+      Map<String, String> saslProperties = new HashMap<String, String>();
+      saslProperties.put(Sasl.QOP, "auth-conf,auth-int,auth");
+      transport = new TSaslClientTransport("GSSAPI", null, "llama", llamaHost,
+          saslProperties, null, transport);
+    }
+    transport.open();
+    transports.add(transport);
+    return new LlamaAMService.Client(new TBinaryProtocol(transport));
+  }
+
+  private LlamaAMService.Client getClient() throws Exception {
+    LlamaAMService.Client client = clients.get();
+    if (client == null) {
+      client = createClient();
+      clients.set(client);
+    }
+    return client;
+  }
+
+  private void discardClient() {
+    LlamaAMService.Client client = clients.get();
+    if (client != null) {
+      clients.remove();
+      TTransport transport = client.getInputProtocol().getTransport();
+      transports.remove(transport);
+      transport.close();
+    }
+  }
+
+  private static void checkStatus(TStatus status) {
+    if (status.getStatus_code() != TStatusCode.OK) {
+      throw new RuntimeException(FastFormat.format("{} - {} - {}",
+          status.getStatus_code(), status.getError_code(),
+          status.getError_msgs()));
+    }
+  }
+
+  private TResource createResource(String location) {
+    TResource resource = new TResource();
+    resource.setClient_resource_id(TypeUtils.toTUniqueId(UUID.randomUUID()));
+    resource.setAskedLocation(location);
+    resource.setV_cpu_cores((short) cpus);
+    resource.setMemory_mb(memory);
+    resource.setEnforcement((relaxLocality) ? TLocationEnforcement.PREFERRED
+                                            : TLocationEnforcement.MUST);
+    return resource;
+  }
+
+  private UUID register(UUID clientId) throws Exception {
+    TLlamaAMRegisterRequest req = new TLlamaAMRegisterRequest();
+    req.setVersion(TLlamaServiceVersion.V1);
+    req.setClient_id(TypeUtils.toTUniqueId(clientId));
+    TNetworkAddress address = new TNetworkAddress();
+    address.setHostname(conf.get(CALLBACK_HOST_KEY,
+        InetAddress.getLocalHost().getCanonicalHostName()));
+    address.setPort(callback.getAddressPort());
+    req.setNotification_callback_service(address);
+    if (callbackProtocol != TNotificationProtocol.BINARY) {
+      req.setNotification_protocol(callbackProtocol);
+    }
+    TLlamaAMRegisterResponse res = getClient().Register(req);
+    checkStatus(res.getStatus());
+    if (callbackProtocol != TNotificationProtocol.BINARY &&
+        res.getNotification_protocol() != callbackProtocol) {
+      throw new RuntimeException(FastFormat.format(
+          "Llama does not support '{}' callbacks", callbackProtocol));
+    }
+    return TypeUtils.toUUID(res.getAm_handle());
+  }
+
+  private void unregister(UUID handle) throws Exception {
+    TLlamaAMUnregisterRequest req = new TLlamaAMUnregisterRequest();
+    req.setVersion(TLlamaServiceVersion.V1);
+    req.setAm_handle(TypeUtils.toTUniqueId(handle));
+    checkStatus(getClient().Unregister(req).getStatus());
+  }
+
+  private void reserve(long intendedNanos) {
+    UUID handle = handles.get(nextInt(handles.size()));
+    boolean gang = nextRandom() < gangRatio;
+    int count = 1 + nextInt(resourcesMax);
+    List<String> shuffled = new ArrayList<String>(locations);
+    synchronized (this) {
+      Collections.shuffle(shuffled, random);
+    }
+    List<TResource> resources = new ArrayList<TResource>(count);
+    for (int i = 0; i < count; i++) {
+      resources.add(createResource(shuffled.get(i % shuffled.size())));
+    }
+    TLlamaAMReservationRequest req = new TLlamaAMReservationRequest();
+    req.setVersion(TLlamaServiceVersion.V1);
+    req.setAm_handle(TypeUtils.toTUniqueId(handle));
+    req.setUser(user);
+    req.setQueue(queue);
+    req.setGang(gang);
+    req.setResources(resources);
+    Outstanding reservation = new Outstanding(UUID.randomUUID(), handle, null,
+        intendedNanos);
+    req.setReservation_id(TypeUtils.toTUniqueId(reservation.id));
+    place(reservation, new Placer<TLlamaAMReservationRequest>() {
+      @Override
+      public TStatus place(LlamaAMService.Client client,
+          TLlamaAMReservationRequest req) throws Exception {
+        TLlamaAMReservationResponse res = client.Reserve(req);
+        return res.getStatus();
+      }
+    }, req, RESERVE_RPC);
+    increment(RESERVATIONS);
+    if (gang) {
+      increment(GANG_RESERVATIONS);
+    }
+  }
+
+  private void expand(Outstanding reservation, long intendedNanos) {
+    TLlamaAMReservationExpansionRequest req =
+        new TLlamaAMReservationExpansionRequest();
+    req.setVersion(TLlamaServiceVersion.V1);
+    req.setAm_handle(TypeUtils.toTUniqueId(reservation.handle));
+    req.setExpansion_of(TypeUtils.toTUniqueId(reservation.id));
+    req.setResource(createResource(locations.get(nextInt(locations.size()))));
+    Outstanding expansion = new Outstanding(UUID.randomUUID(),
+        reservation.handle, reservation, intendedNanos);
+    req.setExpansion_id(TypeUtils.toTUniqueId(expansion.id));
+    place(expansion, new Placer<TLlamaAMReservationExpansionRequest>() {
+      @Override
+      public TStatus place(LlamaAMService.Client client,
+          TLlamaAMReservationExpansionRequest req) throws Exception {
+        TLlamaAMReservationExpansionResponse res = client.Expand(req);
+        return res.getStatus();
+      }
+    }, req, null);
+    increment(EXPANSIONS);
+  }
+
+  private interface Placer<R> {
+    public TStatus place(LlamaAMService.Client client, R req)
+        throws Exception;
+  }
+
+  private <R> void place(final Outstanding placed, Placer<R> placer, R req,
+      String histogram) {
+    // registered before the call, the notification may beat the response
+    outstanding.put(placed.id, placed);
+    try {
+      TStatus status = placer.place(getClient(), req);
+      long now = System.nanoTime();
+      if (histogram != null) {
+        record(histogram, now - placed.intendedNanos);
+      }
+      checkStatus(status);
+      placed.rpcNanos = now;
+    } catch (Exception ex) {
+      LOG.debug("Could not place '{}': {}", placed.id, ex.toString());
+      if (!(ex instanceof RuntimeException)) {
+        discardClient();
+      }
+      increment(ERRORS);
+      outstanding.remove(placed.id);
+      if (placed.expansionOf != null) {
+        scheduleRelease(placed.expansionOf, 0);
+      }
+      return;
+    }
+    if (placed.expansionOf == null && nextRandom() < cancelRatio) {
+      timers.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (!placed.isAllocated() && outstanding.containsKey(placed.id)) {
+            increment(CANCELLED);
+            scheduleRelease(placed, 0);
+          }
+        }
+      }, nextHold() / 2, TimeUnit.MILLISECONDS);
+    }
+    timers.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (!placed.isAllocated() && outstanding.containsKey(placed.id)) {
+          increment(TIMED_OUT);
+          scheduleRelease(placed, 0);
+        }
+      }
+    }, allocationTimeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void scheduleRelease(final Outstanding placed, long delay) {
+    final Runnable release = new Runnable() {
+      @Override
+      public void run() {
+        release(placed);
+      }
+    };
+    timers.schedule(new Runnable() {
+      @Override
+      public void run() {
+        workers.execute(release);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void release(Outstanding placed) {
+    if (outstanding.remove(placed.id) != null) {
+      TLlamaAMReleaseRequest req = new TLlamaAMReleaseRequest();
+      req.setVersion(TLlamaServiceVersion.V1);
+      req.setAm_handle(TypeUtils.toTUniqueId(placed.handle));
+      req.setReservation_id(TypeUtils.toTUniqueId(placed.id));
+      long start = System.nanoTime();
+      try {
+        TLlamaAMReleaseResponse res = getClient().Release(req);
+        record(RELEASE_RPC, System.nanoTime() - start);
+        checkStatus(res.getStatus());
+        increment(RELEASES);
+      } catch (Exception ex) {
+        LOG.debug("Could not release '{}': {}", placed.id, ex.toString());
+        if (!(ex instanceof RuntimeException)) {
+          discardClient();
+        }
+        increment(ERRORS);
+      }
+    }
+    if (placed.expansionOf != null) {
+      release(placed.expansionOf);
+    }
+  }
+
+  private void held(final Outstanding placed) {
+    if (placed.expansionOf == null && nextRandom() < expandRatio &&
+        placed.setExpanded()) {
+      final long intended = System.nanoTime();
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          expand(placed, intended);
+        }
+      });
+    } else {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          release(placed);
+        }
+      });
+    }
+  }
+
+  @Override
+  public void onStatusChange(List<TUniqueId> ids,
+      PlacedReservation.Status status, long nanoTime) {
+    for (TUniqueId tId : ids) {
+      final Outstanding placed = outstanding.get(TypeUtils.toUUID(tId));
+      if (placed == null || timers.isShutdown()) {
+        continue;
+      }
+      switch (status) {
+        case ALLOCATED:
+          if (placed.setAllocated()) {
+            increment(ALLOCATED);
+            record((placed.expansionOf == null) ? ALLOCATION
+                                                : EXPANSION_ALLOCATION,
+                nanoTime - placed.intendedNanos);
+            if (placed.rpcNanos > 0) {
+              record(NOTIFICATION, nanoTime - placed.rpcNanos);
+            }
+            timers.schedule(new Runnable() {
+              @Override
+              public void run() {
+                held(placed);
+              }
+            }, nextHold(), TimeUnit.MILLISECONDS);
+          }
+          break;
+        default:
+          increment((status == PlacedReservation.Status.REJECTED) ? REJECTED
+              : (status == PlacedReservation.Status.PREEMPTED) ? PREEMPTED
+              : (status == PlacedReservation.Status.LOST) ? LOST
+              : ADMIN_RELEASED);
+          outstanding.remove(placed.id);
+          if (placed.expansionOf != null) {
+            scheduleRelease(placed.expansionOf, 0);
+          }
+          break;
+      }
+    }
+  }
+
+  private Configuration createCallbackConf() {
+    Configuration cConf = new Configuration(false);
+    String confDir = conf.get(ServerConfiguration.CONFIG_DIR_KEY,
+        System.getProperty(ServerConfiguration.CONFIG_DIR_KEY));
+    if (confDir == null) {
+      confDir = new File(System.getProperty("java.io.tmpdir"))
+          .getAbsolutePath();
+    }
+    cConf.set(ServerConfiguration.CONFIG_DIR_KEY, confDir);
+    ServerConfiguration sConf =
+        new LoadGenCallback.LoadGenServerConfiguration();
+    cConf.set(sConf.getPropertyName(ServerConfiguration.SERVER_ADDRESS_KEY),
+        "0.0.0.0:0");
+    cConf.set(sConf.getPropertyName(ServerConfiguration.HTTP_ADDRESS_KEY),
+        "0.0.0.0:0");
+    cConf.setBoolean(sConf.getPropertyName(
+        ServerConfiguration.SECURITY_ENABLED_KEY), secure);
+    cConf.setInt(sConf.getPropertyName(
+        ServerConfiguration.SERVER_MAX_THREADS_KEY),
+        Math.max(50, conf.getInt(CLIENTS_KEY, CLIENTS_DEFAULT) * 2));
+    return cConf;
+  }
+
+  /**
+   * Runs the load and returns its outcome once all the arrivals have been
+   * placed and the outstanding reservations drained or released.
+   */
+  public Report run() throws Exception {
+    if (!secure) {
+      return runInternal();
+    }
+    return Subject.doAs(Security.loginClientFromKinit(),
+        new PrivilegedExceptionAction<Report>() {
+          @Override
+          public Report run() throws Exception {
+            return runInternal();
+          }
+        });
+  }
+
+  private Report runInternal() throws Exception {
+    ArrivalProcess arrivals = createArrivalProcess();
+    callback = new LoadGenCallback(this, callbackProtocol);
+    callback.setConf(createCallbackConf());
+    callback.start();
+    int threads = conf.getInt(THREADS_KEY, THREADS_DEFAULT);
+    workers = new ThreadPoolExecutor(threads, threads, 0,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory("llama-loadgen"));
+    timers = Executors.newSingleThreadScheduledExecutor(
+        new NamedThreadFactory("llama-loadgen-timer"));
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < conf.getInt(CLIENTS_KEY, CLIENTS_DEFAULT); i++) {
+        handles.add(register(UUID.randomUUID()));
+      }
+      start = System.nanoTime();
+      long offset = arrivals.next();
+      while (offset >= 0) {
+        final long intended = start + offset * NANOS_IN_MS;
+        long wait = intended - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        workers.execute(new Runnable() {
+          @Override
+          public void run() {
+            reserve(intended);
+          }
+        });
+        increment(ARRIVALS);
+        offset = arrivals.next();
+      }
+      long drainEnd = System.currentTimeMillis() +
+          conf.getLong(DRAIN_MS_KEY, DRAIN_MS_DEFAULT);
+      while ((!outstanding.isEmpty() || hasPendingWork()) &&
+          System.currentTimeMillis() < drainEnd) {
+        Thread.sleep(100);
+      }
+      long wallTime = (System.nanoTime() - start) / NANOS_IN_MS;
+      Map<String, Long> values = new LinkedHashMap<String, Long>();
+      for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+        values.put(entry.getKey(), entry.getValue().get());
+      }
+      values.put(NOTIFICATIONS, callback.getNotifications());
+      values.put(HEARTBEATS, callback.getHeartbeats());
+      values.put(UNFINISHED, (long) outstanding.size());
+      return new Report(histograms, values, wallTime);
+    } finally {
+      timers.shutdownNow();
+      workers.shutdown();
+      workers.awaitTermination(10, TimeUnit.SECONDS);
+      workers.shutdownNow();
+      for (UUID handle : handles) {
+        try {
+          // releases whatever is still outstanding
+          unregister(handle);
+        } catch (Exception ex) {
+          LOG.warn("Could not unregister '{}': {}", handle, ex.toString());
+        }
+      }
+      discardClient();
+      synchronized (transports) {
+        for (TTransport transport : transports) {
+          transport.close();
+        }
+      }
+      callback.stop();
+    }
+  }
+
+  private boolean hasPendingWork() {
+    return workers.getActiveCount() + workers.getQueue().size() > 0;
+  }
+
+  private static final String HELP_CMD = "help";
+  private static final String RUN_CMD = "run";
+  private static final String FAULTS_CMD = "faults";
+  private static final String SCENARIOS = "scenarios";
+  private static final String NO_LOG = "nolog";
+
+  // option name, configuration property, help, has argument
+  private static final String[][] OPTIONS = {
+      {"llama", LLAMA_ADDRESS_KEY, "<HOST>:<PORT> of llama", "true"},
+      {"secure", SECURE_KEY, "uses kerberos", "false"},
+      {"compactframed", CALLBACK_COMPACT_FRAMED_KEY,
+          "callbacks use the compact protocol over a framed transport",
+          "false"},
+      {"callbackhost", CALLBACK_HOST_KEY,
+          "host of the embedded callback server given to llama " +
+              "(default local hostname)", "true"},
+      {"clients", CLIENTS_KEY, "number of registered clients (default 1)",
+          "true"},
+      {"threads", THREADS_KEY, "worker threads (default 16)", "true"},
+      {"user", USER_KEY, "reservation user (default current user)", "true"},
+      {"queue", QUEUE_KEY, "reservation queue", "true"},
+      {"locations", LOCATIONS_KEY, "locations for resources, comma separated",
+          "true"},
+      {"relaxlocality", RELAX_LOCALITY_KEY, "relax locality", "false"},
+      {"cpus", CPUS_KEY, "cpus per resource (default 1)", "true"},
+      {"memory", MEMORY_MB_KEY, "memory (MB) per resource (default 1024)",
+          "true"},
+      {"resources", RESOURCES_MAX_KEY,
+          "maximum resources per reservation (default 1)", "true"},
+      {"gangratio", GANG_RATIO_KEY,
+          "fraction of gang reservations (default 0.5)", "true"},
+      {"expandratio", EXPAND_RATIO_KEY,
+          "fraction of reservations expanded before release (default 0)",
+          "true"},
+      {"cancelratio", CANCEL_RATIO_KEY,
+          "fraction of reservations released before allocation (default 0)",
+          "true"},
+      {"holdtime", HOLD_MS_KEY,
+          "mean time to hold allocations, millisecs (default 1000)", "true"},
+      {"allocationtimeout", ALLOCATION_TIMEOUT_MS_KEY,
+          "allocation timeout, millisecs (default 30000)", "true"},
+      {"arrival", ARRIVAL_KEY,
+          "arrival process, POISSON, BURSTY or TRACE (default POISSON)",
+          "true"},
+      {"rate", RATE_KEY, "arrivals per sec (default 10)", "true"},
+      {"burstrate", BURST_RATE_KEY,
+          "arrivals per sec during bursts (default 100)", "true"},
+      {"burstduration", BURST_DURATION_MS_KEY,
+          "burst duration, millisecs (default 1000)", "true"},
+      {"burstperiod", BURST_PERIOD_MS_KEY,
+          "time between burst starts, millisecs (default 10000)", "true"},
+      {"trace", TRACE_FILE_KEY,
+          "trace file with an arrival offset in millisecs per line", "true"},
+      {"duration", DURATION_MS_KEY,
+          "duration of the arrivals, millisecs (default 60000)", "true"},
+      {"drain", DRAIN_MS_KEY,
+          "maximum wait for outstanding reservations after the arrivals, " +
+              "millisecs (default 30000)", "true"},
+      {"seed", SEED_KEY, "random seed (default 0)", "true"},
+  };
+
+  private static CLIParser createParser() {
+    CLIParser parser = new CLIParser("llamaloadgen", new String[0]);
+    Options options = new Options();
+    parser.addCommand(HELP_CMD, "",
+        "display usage for all commands or specified command", options, false);
+
+    options = new Options();
+    options.addOption(new Option(NO_LOG, false, "no logging"));
+    for (String[] option : OPTIONS) {
+      options.addOption(new Option(option[0], Boolean.parseBoolean(option[3]),
+          option[2]));
+    }
+    options.getOption("llama").setRequired(true);
+    options.getOption("locations").setRequired(true);
+    parser.addCommand(RUN_CMD, "", "run an open-loop load", options, false);
+
+    options = new Options();
+    options.addOption(new Option(NO_LOG, false, "no logging"));
+    options.addOption(new Option(SCENARIOS, true,
+        "fault scenarios to run, comma separated (default all)"));
+    for (String[] option : OPTIONS) {
+      if (!isSetBySuite(option[1])) {
+        options.addOption(new Option(option[0],
+            Boolean.parseBoolean(option[3]), option[2]));
+      }
+    }
+    parser.addCommand(FAULTS_CMD, "",
+        "run an open-loop load against an embedded Llama for each fault " +
+            "scenario", options, false);
+    return parser;
+  }
+
+  private static boolean isSetBySuite(String key) {
+    return key.equals(LLAMA_ADDRESS_KEY) || key.equals(LOCATIONS_KEY) ||
+        key.equals(QUEUE_KEY) || key.equals(SECURE_KEY);
+  }
+
+  private static Configuration createConf(CommandLine cl) {
+    Configuration conf = new Configuration(false);
+    for (String[] option : OPTIONS) {
+      if (cl.hasOption(option[0])) {
+        conf.set(option[1], (Boolean.parseBoolean(option[3]))
+                            ? cl.getOptionValue(option[0]) : "true");
+      }
+    }
+    return conf;
+  }
+
+  public static void main(String[] args) throws Exception {
+    CLIParser parser = createParser();
+    try {
+      CLIParser.Command command = parser.parse(args);
+      CommandLine cl = command.getCommandLine();
+      if (cl.hasOption(NO_LOG)) {
+        System.setProperty("log4j.configuration", "log4j-null.properties");
+      }
+      if (command.getName().equals(HELP_CMD)) {
+        parser.showHelp(command.getCommandLine());
+      } else if (command.getName().equals(RUN_CMD)) {
+        new LlamaLoadGenerator(createConf(cl)).run().print(System.out);
+      } else if (command.getName().equals(FAULTS_CMD)) {
+        Configuration conf = createConf(cl);
+        if (cl.hasOption(SCENARIOS)) {
+          conf.set(FaultScenarioSuite.SCENARIOS_KEY,
+              cl.getOptionValue(SCENARIOS));
+        }
+        FaultScenarioSuite.print(new FaultScenarioSuite(conf).run(),
+            System.out);
+      } else {
+        System.err.println("Missing sub-command");
+        System.err.println();
+        System.err.println(parser.shortHelp());
+        System.exit(1);
+      }
+      System.exit(0);
+    } catch (ParseException ex) {
+      System.err.println("Invalid invocation: " + ex.getMessage());
+      System.err.println();
+      System.err.println(parser.shortHelp());
+      System.exit(1);
+    } catch (Throwable ex) {
+      System.err.println("Error: " + ex.getMessage());
+      ex.printStackTrace(System.err);
+      System.exit(2);
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.server.ServerConfiguration;
+import com.cloudera.llama.server.ThriftServer;
+import com.cloudera.llama.server.TypeUtils;
+import com.cloudera.llama.thrift.LlamaNotificationService;
+import com.cloudera.llama.thrift.TLlamaAMNotificationRequest;
+import com.cloudera.llama.thrift.TLlamaAMNotificationResponse;
+import com.cloudera.llama.thrift.TLlamaNMNotificationRequest;
+import com.cloudera.llama.thrift.TLlamaNMNotificationResponse;
+import com.cloudera.llama.thrift.TNotificationProtocol;
+import com.cloudera.llama.thrift.TUniqueId;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notification callback server embedded in the load generator, it hands the
+ * reservation status changes to a {@link Listener} as they arrive.
+ */
+public class LoadGenCallback extends
+    ThriftServer<LlamaNotificationService.Processor, TProcessor> {
+
+  public static class LoadGenServerConfiguration extends ServerConfiguration {
+
+    public LoadGenServerConfiguration() {
+      super("loadgen");
+    }
+
+    @Override
+    public int getThriftDefaultPort() {
+      return 0;
+    }
+
+    @Override
+    public int getHttpDefaultPort() {
+      return 0;
+    }
+  }
+
+  public interface Listener {
+
+    /**
+     * Invoked with the reservations, or expansions, of a notification that
+     * changed to the given status. It must not block.
+     *
+     * @param nanoTime {@link System#nanoTime()} of the notification arrival.
+     */
+    public void onStatusChange(List<TUniqueId> reservationIds,
+        PlacedReservation.Status status, long nanoTime);
+
+  }
+
+  private final Listener listener;
+  private final TNotificationProtocol protocol;
+  private final AtomicLong notifications = new AtomicLong();
+  private final AtomicLong heartbeats = new AtomicLong();
+
+  public LoadGenCallback(Listener listener) {
+    this(listener, TNotificationProtocol.BINARY);
+  }
+
+  public LoadGenCallback(Listener listener, TNotificationProtocol protocol) {
+    super("llama.loadgen-callback", LoadGenServerConfiguration.class);
+    this.listener = listener;
+    this.protocol = protocol;
+  }
+
+  @Override
+  protected TNotificationProtocol getServiceProtocol() {
+    return protocol;
+  }
+
+  public long getNotifications() {
+    return notifications.get();
+  }
+
+  public long getHeartbeats() {
+    return heartbeats.get();
+  }
+
+  private class NotificationHandler
+      implements LlamaNotificationService.Iface {
+
+    private void dispatch(List<TUniqueId> ids,
+        PlacedReservation.Status status, long nanoTime) {
+      if (ids != null && !ids.isEmpty()) {
+        listener.onStatusChange(ids, status, nanoTime);
+      }
+    }
+
+    @Override
+    public TLlamaAMNotificationResponse AMNotification(
+        TLlamaAMNotificationRequest request) throws TException {
+      long nanoTime = System.nanoTime();
+      notifications.incrementAndGet();
+      if (request.isHeartbeat()) {
+        heartbeats.incrementAndGet();
+      }
+      dispatch(request.getAllocated_reservation_ids(),
+          PlacedReservation.Status.ALLOCATED, nanoTime);
+      dispatch(request.getRejected_reservation_ids(),
+          PlacedReservation.Status.REJECTED, nanoTime);
+      dispatch(request.getPreempted_reservation_ids(),
+          PlacedReservation.Status.PREEMPTED, nanoTime);
+      dispatch(request.getLost_reservation_ids(),
+          PlacedReservation.Status.LOST, nanoTime);
+      dispatch(request.getAdmin_released_reservation_ids(),
+          PlacedReservation.Status.RELEASED, nanoTime);
+      return new TLlamaAMNotificationResponse().setStatus(TypeUtils.OK);
+    }
+
+    @Override
+    public TLlamaNMNotificationResponse NMNotification(
+        TLlamaNMNotificationRequest request) throws TException {
+      return new TLlamaNMNotificationResponse().setStatus(TypeUtils.OK);
+    }
+  }
+
+  @Override
+  protected LlamaNotificationService.Processor createServiceProcessor() {
+    return new LlamaNotificationService.Processor<LlamaNotificationService
+        .Iface>(new NotificationHandler());
+  }
+
+  @Override
+  protected void startService() {
+  }
+
+  @Override
+  protected void stopService() {
+  }
+
+}
@@ -0,0 +1,824 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.sim;
+
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.NamedThreadFactory;
+import com.cloudera.llama.util.UUID;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capacity model of a Yarn cluster running on virtual time.
+ * <p/>
+ * The cluster has nodes with vcores and memory capacity. Requests are queued
+ * per queue and, on every heartbeat, each live node (in a random order) gets
+ * up to {@link #MAX_ASSIGN_PER_HEARTBEAT_KEY} containers:
+ * <ul>
+ * <li>FIFO policy: the oldest request fitting the node.</li>
+ * <li>FAIR policy: the oldest request fitting the node of the queue with the
+ * lowest memory usage to weight ratio.</li>
+ * </ul>
+ * A request with MUST locality only goes to its node, one with PREFERRED
+ * locality goes to any node after {@link #LOCALITY_DELAY_KEY} heartbeats,
+ * one with DONT_CARE locality goes to any node. Queues can have a maximum
+ * memory. With preemption enabled, containers of queues over their fair
+ * share are preempted, newest first, for queues starved under their fair
+ * share for longer than {@link #PREEMPTION_TIMEOUT_MS_KEY}. Nodes fail
+ * randomly at the {@link #NODE_FAILURE_RATE_KEY} rate, losing their
+ * containers, and come back after {@link #NODE_RECOVERY_MS_KEY}.
+ * <p/>
+ * All randomness comes from the {@link #SEED_KEY} seed and time only moves
+ * with {@link #advance(long)}, so a given sequence of calls always produces
+ * the same events. Events are delivered to the request listeners from the
+ * thread advancing the time, after each heartbeat, never while a request is
+ * being submitted or released.
+ * <p/>
+ * If {@link #TIME_SCALE_KEY} is greater than zero, the cluster advances
+ * itself while it has users, one heartbeat every heartbeat interval divided
+ * by the scale in real time.
+ */
+public class SimulatedCluster {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(SimulatedCluster.class);
+
+  public static final String PREFIX_KEY = LlamaAM.PREFIX_KEY + "simulator.";
+
+  public static final String CLUSTER_NAME_KEY = PREFIX_KEY + "cluster.name";
+  public static final String CLUSTER_NAME_DEFAULT = "default";
+
+  public static final String NODES_KEY = PREFIX_KEY + "nodes";
+
+  public static final String NODE_COUNT_KEY = PREFIX_KEY + "node.count";
+  public static final int NODE_COUNT_DEFAULT = 10;
+
+  public static final String NODE_VCORES_KEY = PREFIX_KEY + "node.vcores";
+  public static final int NODE_VCORES_DEFAULT = 8;
+
+  public static final String NODE_MEMORY_MB_KEY = PREFIX_KEY +
+      "node.memory.mb";
+  public static final int NODE_MEMORY_MB_DEFAULT = 8192;
+
+  public static final String POLICY_KEY = PREFIX_KEY + "policy";
+  public static final String POLICY_DEFAULT = "FAIR";
+
+  public static final String QUEUE_WEIGHT_KEY = PREFIX_KEY + "queue.weight.";
+
+  public static final String QUEUE_MAX_MEMORY_MB_KEY = PREFIX_KEY +
+      "queue.max.memory.mb.";
+
+  public static final String HEARTBEAT_MS_KEY = PREFIX_KEY + "heartbeat.ms";
+  public static final long HEARTBEAT_MS_DEFAULT = 1000;
+
+  public static final String MAX_ASSIGN_PER_HEARTBEAT_KEY = PREFIX_KEY +
+      "max.assign.per.heartbeat";
+  public static final int MAX_ASSIGN_PER_HEARTBEAT_DEFAULT = 1;
+
+  public static final String LOCALITY_DELAY_KEY = PREFIX_KEY +
+      "locality.delay.heartbeats";
+  public static final int LOCALITY_DELAY_DEFAULT = 3;
+
+  public static final String PREEMPTION_ENABLED_KEY = PREFIX_KEY +
+      "preemption.enabled";
+  public static final boolean PREEMPTION_ENABLED_DEFAULT = false;
+
+  public static final String PREEMPTION_TIMEOUT_MS_KEY = PREFIX_KEY +
+      "preemption.timeout.ms";
+  public static final long PREEMPTION_TIMEOUT_MS_DEFAULT = 15000;
+
+  public static final String NODE_FAILURE_RATE_KEY = PREFIX_KEY +
+      "node.failure.rate";
+  public static final float NODE_FAILURE_RATE_DEFAULT = 0;
+
+  public static final String NODE_RECOVERY_MS_KEY = PREFIX_KEY +
+      "node.recovery.ms";
+  public static final long NODE_RECOVERY_MS_DEFAULT = 60000;
+
+  public static final String SEED_KEY = PREFIX_KEY + "seed";
+  public static final long SEED_DEFAULT = 0;
+
+  public static final String TIME_SCALE_KEY = PREFIX_KEY + "time.scale";
+  public static final float TIME_SCALE_DEFAULT = 1;
+
+  public enum Policy {FIFO, FAIR}
+
+  /**
+   * Receives the status changes of requests.
+   */
+  public interface Listener {
+
+    public void onAllocation(Request request, Container container);
+
+    /**
+     * REJECTED, PREEMPTED or LOST status change, the request is gone.
+     */
+    public void onStatusChange(Request request, PlacedResource.Status status);
+  }
+
+  public static class Request {
+    private final UUID resourceId;
+    private final String queue;
+    private final String location;
+    private final Resource.Locality locality;
+    private final int vcores;
+    private final int memoryMb;
+    private final Listener listener;
+    private long sequence;
+    private long submitTime;
+    private int missedHeartbeats;
+
+    public Request(UUID resourceId, String queue, String location,
+        Resource.Locality locality, int vcores, int memoryMb,
+        Listener listener) {
+      this.resourceId = resourceId;
+      this.queue = queue;
+      this.location = location;
+      this.locality = locality;
+      this.vcores = vcores;
+      this.memoryMb = memoryMb;
+      this.listener = listener;
+    }
+
+    public UUID getResourceId() {
+      return resourceId;
+    }
+
+    public String getQueue() {
+      return queue;
+    }
+
+    public String getLocation() {
+      return location;
+    }
+
+    public Resource.Locality getLocality() {
+      return locality;
+    }
+
+    public int getVCores() {
+      return vcores;
+    }
+
+    public int getMemoryMb() {
+      return memoryMb;
+    }
+
+    public Listener getListener() {
+      return listener;
+    }
+
+    public long getSubmitTime() {
+      return submitTime;
+    }
+  }
+
+  public static class Container {
+    private final String id;
+    private final Node node;
+    private final Request request;
+    private final long startTime;
+
+    private Container(String id, Node node, Request request, long startTime) {
+      this.id = id;
+      this.node = node;
+      this.request = request;
+      this.startTime = startTime;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getNode() {
+      return node.name;
+    }
+
+    public Request getRequest() {
+      return request;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+  }
+
+  public static class Node {
+    private final String name;
+    private final int vcores;
+    private final int memoryMb;
+    private int usedVCores;
+    private int usedMemoryMb;
+    private boolean alive = true;
+    private long recoveryTime;
+    private final List<Container> containers = new ArrayList<Container>();
+
+    Node(String name, int vcores, int memoryMb) {
+      this.name = name;
+      this.vcores = vcores;
+      this.memoryMb = memoryMb;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getVCores() {
+      return vcores;
+    }
+
+    public int getMemoryMb() {
+      return memoryMb;
+    }
+
+    boolean fits(Request request) {
+      return alive && usedVCores + request.vcores <= vcores &&
+          usedMemoryMb + request.memoryMb <= memoryMb;
+    }
+  }
+
+  private static class QueueState {
+    private final String name;
+    private final float weight;
+    private final long maxMemoryMb;
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    private long usedMemoryMb;
+    private long starvedSince = -1;
+
+    QueueState(String name, float weight, long maxMemoryMb) {
+      this.name = name;
+      this.weight = weight;
+      this.maxMemoryMb = maxMemoryMb;
+    }
+
+    double getRatio() {
+      return usedMemoryMb / weight;
+    }
+  }
+
+  private static class Event {
+    private final Request request;
+    private final Container container;
+    private final PlacedResource.Status status;
+
+    Event(Request request, Container container, PlacedResource.Status status) {
+      this.request = request;
+      this.container = container;
+      this.status = status;
+    }
+  }
+
+  private static final Map<String, SimulatedCluster> CLUSTERS =
+      new HashMap<String, SimulatedCluster>();
+
+  /**
+   * Returns the cluster named in the configuration, creating it if it does
+   * not exist. All the connectors using the same name share the cluster.
+   */
+  public static SimulatedCluster get(Configuration conf) {
+    String name = conf.get(CLUSTER_NAME_KEY, CLUSTER_NAME_DEFAULT);
+    synchronized (CLUSTERS) {
+      SimulatedCluster cluster = CLUSTERS.get(name);
+      if (cluster == null) {
+        cluster = new SimulatedCluster(conf);
+        CLUSTERS.put(name, cluster);
+      }
+      return cluster;
+    }
+  }
+
+  /**
+   * Discards a cluster, the next {@link #get(Configuration)} for the name
+   * creates a new one.
+   */
+  public static void remove(String name) {
+    SimulatedCluster cluster;
+    synchronized (CLUSTERS) {
+      cluster = CLUSTERS.remove(name);
+    }
+    if (cluster != null) {
+      cluster.stopDriver();
+    }
+  }
+
+  private final Policy policy;
+  private final Configuration conf;
+  private final List<Node> nodes;
+  private final Map<String, Node> nodesByName;
+  private final Map<String, QueueState> queues;
+  private final Map<UUID, Request> pendingRequests;
+  private final Map<String, Container> containers;
+  private final long heartbeatMs;
+  private final int maxAssignPerHeartbeat;
+  private final int localityDelay;
+  private final boolean preemption;
+  private final long preemptionTimeoutMs;
+  private final float nodeFailureRate;
+  private final long nodeRecoveryMs;
+  private final float timeScale;
+  private final Random random;
+  private final List<Event> events;
+  private long now;
+  private long sequence;
+  private long containerCounter;
+  private int users;
+  private ScheduledExecutorService driver;
+
+  private long allocatedCount;
+  private long rejectedCount;
+  private long preemptedCount;
+  private long lostCount;
+
+  public SimulatedCluster(Configuration conf) {
+    this.conf = conf;
+    policy = Policy.valueOf(conf.get(POLICY_KEY, POLICY_DEFAULT).trim()
+        .toUpperCase());
+    heartbeatMs = conf.getLong(HEARTBEAT_MS_KEY, HEARTBEAT_MS_DEFAULT);
+    maxAssignPerHeartbeat = conf.getInt(MAX_ASSIGN_PER_HEARTBEAT_KEY,
+        MAX_ASSIGN_PER_HEARTBEAT_DEFAULT);
+    localityDelay = conf.getInt(LOCALITY_DELAY_KEY, LOCALITY_DELAY_DEFAULT);
+    preemption = conf.getBoolean(PREEMPTION_ENABLED_KEY,
+        PREEMPTION_ENABLED_DEFAULT);
+    preemptionTimeoutMs = conf.getLong(PREEMPTION_TIMEOUT_MS_KEY,
+        PREEMPTION_TIMEOUT_MS_DEFAULT);
+    nodeFailureRate = conf.getFloat(NODE_FAILURE_RATE_KEY,
+        NODE_FAILURE_RATE_DEFAULT);
+    nodeRecoveryMs = conf.getLong(NODE_RECOVERY_MS_KEY,
+        NODE_RECOVERY_MS_DEFAULT);
+    timeScale = conf.getFloat(TIME_SCALE_KEY, TIME_SCALE_DEFAULT);
+    random = new Random(conf.getLong(SEED_KEY, SEED_DEFAULT));
+    nodes = new ArrayList<Node>();
+    nodesByName = new HashMap<String, Node>();
+    int vcores = conf.getInt(NODE_VCORES_KEY, NODE_VCORES_DEFAULT);
+    int memory = conf.getInt(NODE_MEMORY_MB_KEY, NODE_MEMORY_MB_DEFAULT);
+    Collection<String> names = conf.getTrimmedStringCollection(NODES_KEY);
+    if (names.isEmpty()) {
+      int count = conf.getInt(NODE_COUNT_KEY, NODE_COUNT_DEFAULT);
+      names = new ArrayList<String>();
+      for (int i = 0; i < count; i++) {
+        names.add("node" + i);
+      }
+    }
+    for (String name : names) {
+      Node node = new Node(name, vcores, memory);
+      nodes.add(node);
+      nodesByName.put(name, node);
+    }
+    queues = new LinkedHashMap<String, QueueState>();
+    pendingRequests = new HashMap<UUID, Request>();
+    containers = new LinkedHashMap<String, Container>();
+    events = new ArrayList<Event>();
+    LOG.info("Simulated cluster with {} nodes ({} vcores, {} MB), policy {}",
+        nodes.size(), vcores, memory, policy);
+  }
+
+  public synchronized long getTime() {
+    return now;
+  }
+
+  public long getHeartbeatMs() {
+    return heartbeatMs;
+  }
+
+  public synchronized List<Node> getLiveNodes() {
+    List<Node> list = new ArrayList<Node>();
+    for (Node node : nodes) {
+      if (node.alive) {
+        list.add(node);
+      }
+    }
+    return list;
+  }
+
+  private QueueState getQueue(String name) {
+    QueueState queue = queues.get(name);
+    if (queue == null) {
+      queue = new QueueState(name,
+          conf.getFloat(QUEUE_WEIGHT_KEY + name, 1),
+          conf.getLong(QUEUE_MAX_MEMORY_MB_KEY + name, Long.MAX_VALUE));
+      queues.put(name, queue);
+    }
+    return queue;
+  }
+
+  public synchronized void submit(Request request) {
+    request.sequence = sequence++;
+    request.submitTime = now;
+    boolean fits = false;
+    for (Node node : nodes) {
+      if (request.vcores <= node.vcores && request.memoryMb <= node.memoryMb &&
+          (request.locality != Resource.Locality.MUST ||
+              node.name.equals(request.location))) {
+        fits = true;
+        break;
+      }
+    }
+    if (fits) {
+      getQueue(request.queue).pending.add(request);
+      pendingRequests.put(request.resourceId, request);
+    } else {
+      rejectedCount++;
+      events.add(new Event(request, null, PlacedResource.Status.REJECTED));
+    }
+  }
+
+  /**
+   * Cancels a pending request or releases the container of an allocated one.
+   *
+   * @param resourceId the ID of a pending request.
+   * @param containerId the container ID of an allocated request, or
+   * <code>NULL</code>.
+   */
+  public synchronized void release(UUID resourceId, String containerId) {
+    Request request = pendingRequests.remove(resourceId);
+    if (request != null) {
+      getQueue(request.queue).pending.remove(request);
+    }
+    if (containerId != null) {
+      Container container = containers.get(containerId);
+      if (container != null) {
+        freeContainer(container);
+      }
+    }
+  }
+
+  /**
+   * Moves an allocated container to a different resource ID and listener.
+   */
+  public synchronized boolean reassign(String containerId, UUID resourceId,
+      Listener listener) {
+    Container container = containers.get(containerId);
+    if (container == null) {
+      return false;
+    }
+    Request original = container.request;
+    Request request = new Request(resourceId, original.queue,
+        original.location, original.locality, original.vcores,
+        original.memoryMb, listener);
+    request.sequence = original.sequence;
+    request.submitTime = original.submitTime;
+    Container moved = new Container(container.id, container.node, request,
+        container.startTime);
+    containers.put(container.id, moved);
+    container.node.containers.set(container.node.containers.indexOf(container),
+        moved);
+    return true;
+  }
+
+  /**
+   * Releases all the pending requests and containers of a listener.
+   */
+  public synchronized void releaseAll(Listener listener) {
+    for (Request request : new ArrayList<Request>(pendingRequests.values())) {
+      if (request.listener == listener) {
+        release(request.resourceId, null);
+      }
+    }
+    for (Container container : new ArrayList<Container>(containers.values())) {
+      if (container.request.listener == listener) {
+        freeContainer(container);
+      }
+    }
+  }
+
+  public synchronized boolean hasResources(Listener listener) {
+    for (Request request : pendingRequests.values()) {
+      if (request.listener == listener) {
+        return true;
+      }
+    }
+    for (Container container : containers.values()) {
+      if (container.request.listener == listener) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void freeContainer(Container container) {
+    containers.remove(container.id);
+    container.node.containers.remove(container);
+    container.node.usedVCores -= container.request.vcores;
+    container.node.usedMemoryMb -= container.request.memoryMb;
+    getQueue(container.request.queue).usedMemoryMb -=
+        container.request.memoryMb;
+  }
+
+  /**
+   * Fails a node, its containers are lost.
+   */
+  public synchronized void failNode(String name) {
+    Node node = nodesByName.get(name);
+    if (node != null && node.alive) {
+      LOG.debug("Node '{}' failed at {}", name, now);
+      node.alive = false;
+      node.recoveryTime = now + nodeRecoveryMs;
+      for (Container container : new ArrayList<Container>(node.containers)) {
+        freeContainer(container);
+        lostCount++;
+        events.add(new Event(container.request, container,
+            PlacedResource.Status.LOST));
+      }
+    }
+  }
+
+  public synchronized void recoverNode(String name) {
+    Node node = nodesByName.get(name);
+    if (node != null) {
+      node.alive = true;
+    }
+  }
+
+  /**
+   * Advances the virtual time, running all the heartbeats in between.
+   */
+  public void advance(long ms) {
+    long end;
+    synchronized (this) {
+      end = now + ms;
+    }
+    while (true) {
+      List<Event> batch;
+      synchronized (this) {
+        if (now + heartbeatMs > end) {
+          now = end;
+          batch = drainEvents();
+        } else {
+          now += heartbeatMs;
+          heartbeat();
+          batch = drainEvents();
+        }
+      }
+      dispatch(batch);
+      synchronized (this) {
+        if (now >= end) {
+          break;
+        }
+      }
+    }
+  }
+
+  private List<Event> drainEvents() {
+    List<Event> batch = new ArrayList<Event>(events);
+    events.clear();
+    return batch;
+  }
+
+  private void dispatch(List<Event> batch) {
+    for (Event event : batch) {
+      try {
+        if (event.status == PlacedResource.Status.ALLOCATED) {
+          event.request.listener.onAllocation(event.request, event.container);
+        } else {
+          event.request.listener.onStatusChange(event.request, event.status);
+        }
+      } catch (Throwable ex) {
+        LOG.warn("Listener error: {}", ex.toString(), ex);
+      }
+    }
+  }
+
+  private void heartbeat() {
+    for (Node node : nodes) {
+      if (!node.alive && now >= node.recoveryTime) {
+        LOG.debug("Node '{}' recovered at {}", node.name, now);
+        node.alive = true;
+      } else if (node.alive && nodeFailureRate > 0 &&
+          random.nextFloat() < nodeFailureRate) {
+        failNode(node.name);
+      }
+    }
+    List<Node> order = new ArrayList<Node>(nodes);
+    Collections.shuffle(order, random);
+    for (Node node : order) {
+      for (int i = 0; node.alive && i < maxAssignPerHeartbeat; i++) {
+        if (!assign(node)) {
+          break;
+        }
+      }
+    }
+    for (QueueState queue : queues.values()) {
+      for (Request request : queue.pending) {
+        request.missedHeartbeats++;
+      }
+    }
+    if (preemption) {
+      preempt();
+    }
+  }
+
+  private boolean canGo(Request request, Node node) {
+    boolean local = node.name.equals(request.location);
+    switch (request.locality) {
+      case MUST:
+        return local;
+      case PREFERRED:
+        return local || request.missedHeartbeats >= localityDelay;
+      default:
+        return true;
+    }
+  }
+
+  private Request getCandidate(QueueState queue, Node node) {
+    if (queue.usedMemoryMb >= queue.maxMemoryMb) {
+      return null;
+    }
+    for (Request request : queue.pending) {
+      if (node.fits(request) && canGo(request, node) &&
+          queue.usedMemoryMb + request.memoryMb <= queue.maxMemoryMb) {
+        return request;
+      }
+    }
+    return null;
+  }
+
+  private boolean assign(Node node) {
+    Request selected = null;
+    QueueState selectedQueue = null;
+    for (QueueState queue : queues.values()) {
+      Request candidate = getCandidate(queue, node);
+      if (candidate != null) {
+        boolean better;
+        if (selected == null) {
+          better = true;
+        } else if (policy == Policy.FIFO) {
+          better = candidate.sequence < selected.sequence;
+        } else {
+          better = queue.getRatio() < selectedQueue.getRatio();
+        }
+        if (better) {
+          selected = candidate;
+          selectedQueue = queue;
+        }
+      }
+    }
+    if (selected != null) {
+      selectedQueue.pending.remove(selected);
+      pendingRequests.remove(selected.resourceId);
+      allocate(node, selected);
+    }
+    return selected != null;
+  }
+
+  private void allocate(Node node, Request request) {
+    Container container = new Container(FastFormat.format(
+        "container_sim_{}", ++containerCounter), node, request, now);
+    containers.put(container.id, container);
+    node.containers.add(container);
+    node.usedVCores += request.vcores;
+    node.usedMemoryMb += request.memoryMb;
+    getQueue(request.queue).usedMemoryMb += request.memoryMb;
+    allocatedCount++;
+    events.add(new Event(request, container, PlacedResource.Status.ALLOCATED));
+  }
+
+  private long getTotalMemoryMb() {
+    long total = 0;
+    for (Node node : nodes) {
+      if (node.alive) {
+        total += node.memoryMb;
+      }
+    }
+    return total;
+  }
+
+  private double getFairShare(QueueState queue) {
+    float weights = 0;
+    for (QueueState q : queues.values()) {
+      if (q.usedMemoryMb > 0 || !q.pending.isEmpty()) {
+        weights += q.weight;
+      }
+    }
+    return (weights == 0) ? 0 : getTotalMemoryMb() * queue.weight / weights;
+  }
+
+  private void preempt() {
+    for (QueueState starved : queues.values()) {
+      double share = getFairShare(starved);
+      if (starved.pending.isEmpty() || starved.usedMemoryMb >= share) {
+        starved.starvedSince = -1;
+        continue;
+      }
+      if (starved.starvedSince < 0) {
+        starved.starvedSince = now;
+      }
+      if (now - starved.starvedSince < preemptionTimeoutMs) {
+        continue;
+      }
+      long demand = 0;
+      for (Request request : starved.pending) {
+        demand += request.memoryMb;
+      }
+      long need = (long) Math.min(share - starved.usedMemoryMb, demand);
+      // newest containers of the queues over their fair share first
+      List<Container> candidates =
+          new ArrayList<Container>(containers.values());
+      Collections.reverse(candidates);
+      Iterator<Container> it = candidates.iterator();
+      while (need > 0 && it.hasNext()) {
+        Container container = it.next();
+        QueueState victim = getQueue(container.request.queue);
+        if (victim != starved && victim.usedMemoryMb -
+            container.request.memoryMb >= getFairShare(victim)) {
+          freeContainer(container);
+          need -= container.request.memoryMb;
+          preemptedCount++;
+          events.add(new Event(container.request, container,
+              PlacedResource.Status.PREEMPTED));
+        }
+      }
+      starved.starvedSince = now;
+    }
+  }
+
+  public synchronized long getAllocatedCount() {
+    return allocatedCount;
+  }
+
+  public synchronized long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  public synchronized long getPreemptedCount() {
+    return preemptedCount;
+  }
+
+  public synchronized long getLostCount() {
+    return lostCount;
+  }
+
+  public synchronized int getPendingCount() {
+    return pendingRequests.size();
+  }
+
+  public synchronized long getUsedMemoryMb(String queue) {
+    QueueState state = queues.get(queue);
+    return (state != null) ? state.usedMemoryMb : 0;
+  }
+
+  /**
+   * Registers a user of the cluster, if the time is scaled to real time the
+   * first user starts advancing it.
+   */
+  public synchronized void addUser() {
+    users++;
+    if (users == 1 && timeScale > 0) {
+      long period = Math.max(1, (long) (heartbeatMs / timeScale));
+      driver = Executors.newSingleThreadScheduledExecutor(
+          new NamedThreadFactory("llama-simulator"));
+      driver.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          advance(heartbeatMs);
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void removeUser() {
+    users--;
+    if (users == 0) {
+      stopDriver();
+    }
+  }
+
+  private synchronized void stopDriver() {
+    if (driver != null) {
+      driver.shutdownNow();
+      driver = null;
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.sim;
+
+import com.cloudera.llama.am.api.NodeInfo;
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.am.spi.RMEvent;
+import com.cloudera.llama.am.spi.RMListener;
+import com.cloudera.llama.am.spi.RMResource;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.UUID;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link RMConnector} backed by a {@link SimulatedCluster}, for scale and
+ * scheduling policy testing without a Yarn cluster.
+ * <p/>
+ * All the connectors of a Llama configured with the same
+ * {@link SimulatedCluster#CLUSTER_NAME_KEY} share the simulated cluster, so
+ * the queues compete for its capacity as they would in Yarn.
+ */
+public class SimulatorRMConnector implements RMConnector, Configurable {
+  public static final String DEFAULT_QUEUE = "default";
+
+  private Configuration conf;
+  private SimulatedCluster cluster;
+  private RMListener callback;
+  private String queue;
+  private boolean user;
+
+  private final SimulatedCluster.Listener listener =
+      new SimulatedCluster.Listener() {
+    @Override
+    public void onAllocation(SimulatedCluster.Request request,
+        SimulatedCluster.Container container) {
+      dispatch(RMEvent.createAllocationEvent(request.getResourceId(),
+          container.getNode(), request.getVCores(), request.getMemoryMb(),
+          container.getId(), new HashMap<String, Object>()));
+    }
+
+    @Override
+    public void onStatusChange(SimulatedCluster.Request request,
+        PlacedResource.Status status) {
+      dispatch(RMEvent.createStatusChangeEvent(request.getResourceId(),
+          status));
+    }
+  };
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  public SimulatedCluster getCluster() {
+    return cluster;
+  }
+
+  private void dispatch(RMEvent event) {
+    RMListener callback = this.callback;
+    if (callback != null) {
+      callback.onEvent(Arrays.asList(event));
+    }
+  }
+
+  @Override
+  public void setRMListener(RMListener listener) {
+    callback = listener;
+  }
+
+  @Override
+  public void start() throws LlamaException {
+    cluster = SimulatedCluster.get(getConf());
+  }
+
+  @Override
+  public void stop() {
+  }
+
+  @Override
+  public synchronized void register(String queue) throws LlamaException {
+    this.queue = (queue != null) ? queue : DEFAULT_QUEUE;
+    if (!user) {
+      cluster.addUser();
+      user = true;
+    }
+  }
+
+  @Override
+  public synchronized void unregister() {
+    if (cluster != null) {
+      cluster.releaseAll(listener);
+      if (user) {
+        cluster.removeUser();
+        user = false;
+      }
+    }
+  }
+
+  @Override
+  public List<NodeInfo> getNodes() throws LlamaException {
+    List<SimulatedCluster.Node> live = cluster.getLiveNodes();
+    List<NodeInfo> nodes = new ArrayList<NodeInfo>(live.size());
+    for (SimulatedCluster.Node node : live) {
+      nodes.add(new NodeInfo(node.getName(), node.getVCores(),
+          node.getMemoryMb()));
+    }
+    return nodes;
+  }
+
+  private SimulatedCluster.Request toRequest(UUID resourceId,
+      RMResource resource) {
+    return new SimulatedCluster.Request(resourceId, queue,
+        resource.getLocationAsk(), resource.getLocalityAsk(),
+        resource.getCpuVCoresAsk(), resource.getMemoryMbsAsk(), listener);
+  }
+
+  @Override
+  public void reserve(Collection<RMResource> resources)
+      throws LlamaException {
+    for (RMResource resource : resources) {
+      cluster.submit(toRequest(resource.getResourceId(), resource));
+    }
+  }
+
+  @Override
+  public void release(Collection<RMResource> resources, boolean doNotCache)
+      throws LlamaException {
+    for (RMResource resource : resources) {
+      Object rmResourceId = resource.getRmResourceId();
+      cluster.release(resource.getResourceId(),
+          (rmResourceId != null) ? rmResourceId.toString() : null);
+    }
+  }
+
+  @Override
+  public boolean reassignResource(Object rmResourceId, UUID resourceId) {
+    return cluster.reassign(rmResourceId.toString(), resourceId, listener);
+  }
+
+  @Override
+  public void emptyCache() throws LlamaException {
+  }
+
+  @Override
+  public void setMetricRegistry(MetricRegistry registry) {
+  }
+
+  @Override
+  public boolean hasResources() {
+    return cluster != null && cluster.hasResources(listener);
+  }
+
+  @Override
+  public void deleteAllReservations() throws LlamaException {
+    cluster.releaseAll(listener);
+  }
+
+}
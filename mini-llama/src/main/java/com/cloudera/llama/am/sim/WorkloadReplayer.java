@@ -0,0 +1,405 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.sim;
+
+import com.cloudera.llama.am.api.Builders;
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.api.LlamaAMEvent;
+import com.cloudera.llama.am.api.LlamaAMListener;
+import com.cloudera.llama.am.api.PlacedReservation;
+import com.cloudera.llama.am.api.Reservation;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.util.Clock;
+import com.cloudera.llama.util.FastFormat;
+import com.cloudera.llama.util.LlamaException;
+import com.cloudera.llama.util.UUID;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a recorded workload against a Llama running on a
+ * {@link SimulatedCluster}, in virtual time.
+ * <p/>
+ * The workload is a text file with one reservation per line:
+ * <pre>
+ * ARRIVAL_MS QUEUE HOLD_MS GANG LOCATION:VCORES:MB:LOCALITY[;...]
+ * </pre>
+ * For example:
+ * <code>1500 root.q1 30000 true node1:1:1024:MUST;node2:1:512:DONT_CARE</code>.
+ * Empty lines and lines starting with <code>#</code> are ignored. Each
+ * reservation is placed at its arrival time and released after being
+ * allocated for its hold time.
+ * <p/>
+ * While replaying, the Llama {@link Clock} follows the virtual time of the
+ * simulated cluster and throttling is disabled, so reservations reach the
+ * cluster and allocations reach the replayer synchronously and a replay is
+ * reproducible for a given seed. The gang anti-deadlock thread wakes up in
+ * real time, workloads relying on its backoffs may vary between runs.
+ */
+public class WorkloadReplayer {
+
+  public static final String USER = "simulator";
+
+  public static class Entry {
+    private final long arrival;
+    private final String queue;
+    private final long hold;
+    private final boolean gang;
+    private final List<Resource> resources;
+
+    public Entry(long arrival, String queue, long hold, boolean gang,
+        List<Resource> resources) {
+      this.arrival = arrival;
+      this.queue = queue;
+      this.hold = hold;
+      this.gang = gang;
+      this.resources = resources;
+    }
+
+    public long getArrival() {
+      return arrival;
+    }
+  }
+
+  public static class Report {
+    private int submitted;
+    private int allocated;
+    private int rejected;
+    private int preempted;
+    private int lost;
+    private int unfinished;
+    private long virtualTime;
+    private final List<Long> latencies = new ArrayList<Long>();
+
+    public int getSubmitted() {
+      return submitted;
+    }
+
+    public int getAllocated() {
+      return allocated;
+    }
+
+    public int getRejected() {
+      return rejected;
+    }
+
+    public int getPreempted() {
+      return preempted;
+    }
+
+    public int getLost() {
+      return lost;
+    }
+
+    public int getUnfinished() {
+      return unfinished;
+    }
+
+    public long getVirtualTime() {
+      return virtualTime;
+    }
+
+    /**
+     * Returns the given percentile of the virtual milliseconds between
+     * placing and the allocation of the reservations, <code>-1</code> if
+     * none was allocated.
+     */
+    public long getLatency(double percentile) {
+      if (latencies.isEmpty()) {
+        return -1;
+      }
+      List<Long> sorted = new ArrayList<Long>(latencies);
+      Collections.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+      return sorted.get(Math.max(0, index));
+    }
+
+    @Override
+    public String toString() {
+      return FastFormat.format("submitted={} allocated={} rejected={} " +
+          "preempted={} lost={} unfinished={} virtualTimeMs={} " +
+          "latencyMs[p50={} p95={} max={}]", submitted, allocated, rejected,
+          preempted, lost, unfinished, virtualTime, getLatency(50),
+          getLatency(95), getLatency(100));
+    }
+  }
+
+  /**
+   * {@link Clock} following the virtual time of the simulated cluster,
+   * sleepers wake up as the time advances.
+   */
+  static class VirtualClock implements Clock.Impl {
+    private long time;
+
+    synchronized void set(long time) {
+      this.time = time;
+      notifyAll();
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+      return time;
+    }
+
+    @Override
+    public synchronized void sleep(long millis) throws InterruptedException {
+      long wakeUp = time + millis;
+      while (time < wakeUp) {
+        wait();
+      }
+    }
+  }
+
+  private static class Tracked {
+    private final Entry entry;
+    private final long placedOn;
+    private long releaseOn = -1;
+
+    Tracked(Entry entry, long placedOn) {
+      this.entry = entry;
+      this.placedOn = placedOn;
+    }
+  }
+
+  public static List<Entry> parse(Reader reader) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    BufferedReader br = new BufferedReader(reader);
+    String line = br.readLine();
+    int lineNumber = 1;
+    while (line != null) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        String[] fields = line.split("\\s+");
+        try {
+          if (fields.length != 5) {
+            throw new IllegalArgumentException("expected 5 fields");
+          }
+          List<Resource> resources = new ArrayList<Resource>();
+          for (String resource : fields[4].split(";")) {
+            String[] values = resource.split(":");
+            if (values.length != 4) {
+              throw new IllegalArgumentException(FastFormat.format(
+                  "invalid resource '{}'", resource));
+            }
+            resources.add(Builders.createResourceBuilder()
+                .setResourceId(UUID.randomUUID())
+                .setLocationAsk(values[0])
+                .setCpuVCoresAsk(Integer.parseInt(values[1]))
+                .setMemoryMbsAsk(Integer.parseInt(values[2]))
+                .setLocalityAsk(Resource.Locality.valueOf(values[3]))
+                .build());
+          }
+          entries.add(new Entry(Long.parseLong(fields[0]), fields[1],
+              Long.parseLong(fields[2]), Boolean.parseBoolean(fields[3]),
+              resources));
+        } catch (IllegalArgumentException ex) {
+          throw new IOException(FastFormat.format(
+              "Invalid workload line {}, {}: {}", lineNumber, ex.getMessage(),
+              line), ex);
+        }
+      }
+      line = br.readLine();
+      lineNumber++;
+    }
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        return Long.compare(e1.arrival, e2.arrival);
+      }
+    });
+    return entries;
+  }
+
+  private final Configuration conf;
+  private final long maxTime;
+  private final Map<UUID, Tracked> tracked;
+  private final Report report;
+  private VirtualClock clock;
+
+  /**
+   * Creates a replayer.
+   *
+   * @param conf the Llama and simulated cluster configuration, the RM
+   * connector is always a {@link SimulatorRMConnector} advanced by the
+   * replayer and throttling is always disabled.
+   * @param maxTime the virtual time at which the replay stops even if there
+   * are reservations still placed.
+   */
+  public WorkloadReplayer(Configuration conf, long maxTime) {
+    this.conf = new Configuration(conf);
+    this.conf.set(LlamaAM.RM_CONNECTOR_CLASS_KEY,
+        SimulatorRMConnector.class.getName());
+    this.conf.setFloat(SimulatedCluster.TIME_SCALE_KEY, 0);
+    this.conf.setBoolean(LlamaAM.THROTTLING_ENABLED_KEY, false);
+    this.maxTime = maxTime;
+    tracked = new HashMap<UUID, Tracked>();
+    report = new Report();
+  }
+
+  private void onEvent(LlamaAMEvent event) {
+    synchronized (tracked) {
+      for (PlacedReservation reservation : event.getReservationChanges()) {
+        Tracked t = tracked.get(reservation.getReservationId());
+        if (t != null) {
+          switch (reservation.getStatus()) {
+            case ALLOCATED:
+              if (t.releaseOn < 0) {
+                long now = clock.currentTimeMillis();
+                report.allocated++;
+                report.latencies.add(now - t.placedOn);
+                t.releaseOn = now + t.entry.hold;
+              }
+              break;
+            case REJECTED:
+              report.rejected++;
+              tracked.remove(reservation.getReservationId());
+              break;
+            case PREEMPTED:
+              report.preempted++;
+              tracked.remove(reservation.getReservationId());
+              break;
+            case LOST:
+              report.lost++;
+              tracked.remove(reservation.getReservationId());
+              break;
+          }
+        }
+      }
+    }
+  }
+
+  private List<UUID> getReleasable(long now) {
+    List<UUID> list = new ArrayList<UUID>();
+    synchronized (tracked) {
+      Iterator<Map.Entry<UUID, Tracked>> it = tracked.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<UUID, Tracked> entry = it.next();
+        if (entry.getValue().releaseOn >= 0 &&
+            entry.getValue().releaseOn <= now) {
+          list.add(entry.getKey());
+          it.remove();
+        }
+      }
+    }
+    return list;
+  }
+
+  private boolean hasTracked() {
+    synchronized (tracked) {
+      return !tracked.isEmpty();
+    }
+  }
+
+  /**
+   * Replays the workload and returns the outcome, the simulated cluster is
+   * discarded at the end.
+   */
+  public Report replay(List<Entry> workload) throws LlamaException {
+    LinkedList<Entry> pending = new LinkedList<Entry>(workload);
+    UUID handle = UUID.randomUUID();
+    clock = new VirtualClock();
+    Clock.setClock(clock);
+    LlamaAM llama = LlamaAM.create(conf);
+    try {
+      llama.addListener(new LlamaAMListener() {
+        @Override
+        public void onEvent(LlamaAMEvent event) {
+          WorkloadReplayer.this.onEvent(event);
+        }
+      });
+      llama.start();
+      SimulatedCluster cluster = SimulatedCluster.get(conf);
+      long now = cluster.getTime();
+      while ((!pending.isEmpty() || hasTracked()) && now <= maxTime) {
+        while (!pending.isEmpty() && pending.getFirst().arrival <= now) {
+          Entry entry = pending.removeFirst();
+          Reservation reservation = Builders.createReservationBuilder()
+              .setHandle(handle).setUser(USER).setQueue(entry.queue)
+              .addResources(entry.resources).setGang(entry.gang).build();
+          UUID id = UUID.randomUUID();
+          synchronized (tracked) {
+            tracked.put(id, new Tracked(entry, now));
+            report.submitted++;
+          }
+          try {
+            llama.reserve(id, reservation);
+          } catch (LlamaException ex) {
+            synchronized (tracked) {
+              tracked.remove(id);
+              report.rejected++;
+            }
+          }
+        }
+        List<UUID> releasable = getReleasable(now);
+        if (!releasable.isEmpty()) {
+          llama.releaseReservations(handle, releasable, true);
+        }
+        cluster.advance(cluster.getHeartbeatMs());
+        now = cluster.getTime();
+        clock.set(now);
+      }
+      synchronized (tracked) {
+        report.unfinished = tracked.size() + pending.size();
+        report.virtualTime = now;
+      }
+      return report;
+    } finally {
+      llama.stop();
+      SimulatedCluster.remove(conf.get(SimulatedCluster.CLUSTER_NAME_KEY,
+          SimulatedCluster.CLUSTER_NAME_DEFAULT));
+      Clock.setClock(Clock.SYSTEM);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: WorkloadReplayer <WORKLOAD_FILE> " +
+          "<MAX_VIRTUAL_MS> [<LLAMA_SITE_XML>]");
+      System.exit(1);
+    }
+    Configuration conf = new Configuration();
+    if (args.length == 3) {
+      conf.addResource(new Path(args[2]));
+    }
+    Reader reader = new FileReader(args[0]);
+    List<Entry> workload;
+    try {
+      workload = parse(reader);
+    } finally {
+      reader.close();
+    }
+    Report report = new WorkloadReplayer(conf, Long.parseLong(args[1]))
+        .replay(workload);
+    System.out.println(report);
+    System.exit(0);
+  }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class TestArrivalProcess {
+
+  private int count(ArrivalProcess process, long from, long to) {
+    int count = 0;
+    long previous = -1;
+    long arrival = process.next();
+    while (arrival >= 0) {
+      Assert.assertTrue(arrival >= previous);
+      if (arrival >= from && arrival < to) {
+        count++;
+      }
+      previous = arrival;
+      arrival = process.next();
+    }
+    return count;
+  }
+
+  @Test
+  public void testPoisson() throws Exception {
+    int count = count(ArrivalProcess.createPoisson(100, 100000, 0), 0,
+        100000);
+    // 10000 expected, 5 standard deviations
+    Assert.assertTrue(count > 9500 && count < 10500);
+    Assert.assertEquals(count, count(ArrivalProcess.createPoisson(100, 100000,
+        0), 0, 100000));
+  }
+
+  @Test
+  public void testBursty() throws Exception {
+    ArrivalProcess process = ArrivalProcess.createBursty(10, 1000, 1000,
+        100000, 100000, 0);
+    ArrivalProcess same = ArrivalProcess.createBursty(10, 1000, 1000,
+        100000, 100000, 0);
+    int burst = count(process, 0, 1000);
+    int quiet = count(same, 1000, 100000);
+    // 1000 expected in the burst and 990 in the rest of the period
+    Assert.assertTrue(burst > 850 && burst < 1150);
+    Assert.assertTrue(quiet > 840 && quiet < 1140);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBurstyInvalid() throws Exception {
+    ArrivalProcess.createBursty(10, 100, 2000, 1000, 10000, 0);
+  }
+
+  @Test
+  public void testTrace() throws Exception {
+    ArrivalProcess process = ArrivalProcess.createTrace(new StringReader(
+        "# arrivals\n200\n\n0 extra\n100\n"));
+    Assert.assertEquals(0, process.next());
+    Assert.assertEquals(100, process.next());
+    Assert.assertEquals(200, process.next());
+    Assert.assertEquals(-1, process.next());
+  }
+
+  @Test(expected = IOException.class)
+  public void testTraceInvalid() throws Exception {
+    ArrivalProcess.createTrace(new StringReader("1s\n"));
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+public class TestFaultScenarioSuite {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownScenario() throws Exception {
+    FaultScenarioSuite.getScenario("foo");
+  }
+
+  @Test
+  public void testRun() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(FaultScenarioSuite.SCENARIOS_KEY, FaultScenarioSuite.BASELINE +
+        ",reserve-errors,container-start-failures");
+    conf.setInt(LlamaLoadGenerator.CLIENTS_KEY, 2);
+    conf.setInt(LlamaLoadGenerator.RESOURCES_MAX_KEY, 1);
+    conf.setLong(LlamaLoadGenerator.HOLD_MS_KEY, 50);
+    conf.setFloat(LlamaLoadGenerator.RATE_KEY, 50);
+    conf.setLong(LlamaLoadGenerator.DURATION_MS_KEY, 2000);
+    conf.setLong(LlamaLoadGenerator.DRAIN_MS_KEY, 30000);
+    Map<String, LlamaLoadGenerator.Report> reports =
+        new FaultScenarioSuite(conf).run();
+    Assert.assertEquals(3, reports.size());
+    for (LlamaLoadGenerator.Report report : reports.values()) {
+      Assert.assertTrue(report.getCounter(LlamaLoadGenerator.RESERVATIONS) > 0);
+      Assert.assertTrue(FaultScenarioSuite.isRecovered(report));
+    }
+    LlamaLoadGenerator.Report baseline =
+        reports.get(FaultScenarioSuite.BASELINE);
+    Assert.assertEquals(0, baseline.getCounter(LlamaLoadGenerator.REJECTED));
+    Assert.assertEquals(0, baseline.getCounter(LlamaLoadGenerator.LOST));
+    Assert.assertTrue(reports.get("reserve-errors").getCounter(
+        LlamaLoadGenerator.REJECTED) > 0);
+    Assert.assertTrue(reports.get("container-start-failures").getCounter(
+        LlamaLoadGenerator.LOST) > 0);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FaultScenarioSuite.print(reports, new PrintStream(out));
+    Assert.assertTrue(out.toString().contains("container-start-failures"));
+  }
+
+}
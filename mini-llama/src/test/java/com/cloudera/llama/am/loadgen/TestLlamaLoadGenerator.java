@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.loadgen;
+
+import com.cloudera.llama.am.AMServerConfiguration;
+import com.cloudera.llama.am.LlamaAMServer;
+import com.cloudera.llama.am.LlamaHAServer;
+import com.cloudera.llama.am.api.LlamaAM;
+import com.cloudera.llama.am.mock.MockLlamaAMFlags;
+import com.cloudera.llama.am.mock.MockRMConnector;
+import com.cloudera.llama.am.spi.RMConnector;
+import com.cloudera.llama.server.ServerConfiguration;
+import com.cloudera.llama.server.TestAbstractMain;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestLlamaLoadGenerator {
+  private static final String NODE = MockLlamaAMFlags.ALLOCATE + "n1";
+
+  private Configuration createLlamaConfiguration() throws Exception {
+    ServerConfiguration sConf =
+        new AMServerConfiguration(new Configuration(false));
+    Configuration conf = new Configuration(false);
+    conf.set(ServerConfiguration.CONFIG_DIR_KEY,
+        TestAbstractMain.createTestDir());
+    conf.setClass(LlamaAM.RM_CONNECTOR_CLASS_KEY, MockRMConnector.class,
+        RMConnector.class);
+    conf.set(LlamaAM.CORE_QUEUES_KEY, "root.q1");
+    conf.set(MockRMConnector.QUEUES_KEY, "root.q1");
+    conf.set(MockRMConnector.NODES_KEY, NODE);
+    conf.setInt(MockRMConnector.EVENTS_MIN_WAIT_KEY, 5);
+    conf.setInt(MockRMConnector.EVENTS_MAX_WAIT_KEY, 10);
+    conf.set(sConf.getPropertyName(ServerConfiguration.SERVER_ADDRESS_KEY),
+        "localhost:0");
+    conf.set(sConf.getPropertyName(
+        ServerConfiguration.SERVER_ADMIN_ADDRESS_KEY), "localhost:0");
+    conf.set(sConf.getPropertyName(ServerConfiguration.HTTP_ADDRESS_KEY),
+        "localhost:0");
+    return conf;
+  }
+
+  @Test
+  public void testRun() throws Exception {
+    LlamaAMServer server = new LlamaHAServer();
+    try {
+      server.setConf(createLlamaConfiguration());
+      server.start();
+
+      Configuration conf = new Configuration(false);
+      conf.set(ServerConfiguration.CONFIG_DIR_KEY,
+          TestAbstractMain.createTestDir());
+      conf.set(LlamaLoadGenerator.LLAMA_ADDRESS_KEY, server.getAddressHost() +
+          ":" + server.getAddressPort());
+      conf.set(LlamaLoadGenerator.CALLBACK_HOST_KEY, "localhost");
+      conf.set(LlamaLoadGenerator.QUEUE_KEY, "root.q1");
+      conf.set(LlamaLoadGenerator.LOCATIONS_KEY, NODE);
+      conf.setInt(LlamaLoadGenerator.CLIENTS_KEY, 2);
+      conf.setInt(LlamaLoadGenerator.RESOURCES_MAX_KEY, 2);
+      conf.setFloat(LlamaLoadGenerator.EXPAND_RATIO_KEY, 0.5f);
+      conf.setLong(LlamaLoadGenerator.HOLD_MS_KEY, 50);
+      conf.setFloat(LlamaLoadGenerator.RATE_KEY, 50);
+      conf.setLong(LlamaLoadGenerator.DURATION_MS_KEY, 2000);
+      conf.setLong(LlamaLoadGenerator.DRAIN_MS_KEY, 30000);
+      LlamaLoadGenerator.Report report =
+          new LlamaLoadGenerator(conf).run();
+
+      long reservations = report.getCounter(LlamaLoadGenerator.RESERVATIONS);
+      long expansions = report.getCounter(LlamaLoadGenerator.EXPANSIONS);
+      Assert.assertTrue(reservations > 0);
+      Assert.assertEquals(report.getCounter(LlamaLoadGenerator.ARRIVALS),
+          reservations);
+      Assert.assertEquals(0, report.getCounter(LlamaLoadGenerator.ERRORS));
+      Assert.assertEquals(0, report.getCounter(LlamaLoadGenerator.UNFINISHED));
+      Assert.assertEquals(reservations + expansions,
+          report.getCounter(LlamaLoadGenerator.ALLOCATED));
+      Assert.assertEquals(reservations + expansions,
+          report.getCounter(LlamaLoadGenerator.RELEASES));
+      Assert.assertEquals(reservations,
+          report.getCount(LlamaLoadGenerator.ALLOCATION));
+      Assert.assertEquals(expansions,
+          report.getCount(LlamaLoadGenerator.EXPANSION_ALLOCATION));
+      Assert.assertTrue(report.getLatency(LlamaLoadGenerator.ALLOCATION)
+          .getMax() > 0);
+    } finally {
+      server.stop();
+    }
+  }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.sim;
+
+import com.cloudera.llama.am.api.PlacedResource;
+import com.cloudera.llama.am.api.Resource;
+import com.cloudera.llama.util.UUID;
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSimulatedCluster {
+
+  private static class MyListener implements SimulatedCluster.Listener {
+    private final List<String> events = new ArrayList<String>();
+    private final List<SimulatedCluster.Container> containers =
+        new ArrayList<SimulatedCluster.Container>();
+
+    @Override
+    public synchronized void onAllocation(SimulatedCluster.Request request,
+        SimulatedCluster.Container container) {
+      containers.add(container);
+      events.add(request.getResourceId() + ":" + container.getNode());
+    }
+
+    @Override
+    public synchronized void onStatusChange(SimulatedCluster.Request request,
+        PlacedResource.Status status) {
+      events.add(request.getResourceId() + ":" + status);
+    }
+
+    synchronized int count(PlacedResource.Status status) {
+      int count = 0;
+      for (String event : events) {
+        if (event.endsWith(":" + status)) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  private Configuration createConf(String nodes, int vcores, int memoryMb) {
+    Configuration conf = new Configuration(false);
+    conf.set(SimulatedCluster.NODES_KEY, nodes);
+    conf.setInt(SimulatedCluster.NODE_VCORES_KEY, vcores);
+    conf.setInt(SimulatedCluster.NODE_MEMORY_MB_KEY, memoryMb);
+    conf.setLong(SimulatedCluster.HEARTBEAT_MS_KEY, 1000);
+    return conf;
+  }
+
+  private SimulatedCluster.Request createRequest(String queue,
+      String location, Resource.Locality locality, int memoryMb,
+      MyListener listener) {
+    return new SimulatedCluster.Request(UUID.randomUUID(), queue, location,
+        locality, 1, memoryMb, listener);
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    Configuration conf = createConf("n1,n2", 2, 2048);
+    conf.setInt(SimulatedCluster.MAX_ASSIGN_PER_HEARTBEAT_KEY, 4);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    MyListener listener = new MyListener();
+    for (int i = 0; i < 5; i++) {
+      cluster.submit(createRequest("q", "n1", Resource.Locality.DONT_CARE,
+          1024, listener));
+    }
+    cluster.advance(1000);
+    Assert.assertEquals(4, listener.containers.size());
+    Assert.assertEquals(1, cluster.getPendingCount());
+    Assert.assertEquals(4096, cluster.getUsedMemoryMb("q"));
+
+    cluster.release(null, listener.containers.get(0).getId());
+    cluster.advance(1000);
+    Assert.assertEquals(5, listener.containers.size());
+    Assert.assertEquals(0, cluster.getPendingCount());
+    Assert.assertEquals(1000 * 2, cluster.getTime());
+  }
+
+  @Test
+  public void testReject() throws Exception {
+    SimulatedCluster cluster = new SimulatedCluster(createConf("n1", 2, 2048));
+    MyListener listener = new MyListener();
+    cluster.submit(createRequest("q", "n1", Resource.Locality.MUST, 4096,
+        listener));
+    cluster.submit(createRequest("q", "n2", Resource.Locality.MUST, 1024,
+        listener));
+    cluster.submit(createRequest("q", "n2", Resource.Locality.PREFERRED,
+        1024, listener));
+    cluster.advance(0);
+    Assert.assertEquals(2, listener.count(PlacedResource.Status.REJECTED));
+    Assert.assertEquals(1, cluster.getPendingCount());
+  }
+
+  @Test
+  public void testLocalityDelay() throws Exception {
+    Configuration conf = createConf("n1", 2, 2048);
+    conf.setInt(SimulatedCluster.LOCALITY_DELAY_KEY, 3);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    MyListener listener = new MyListener();
+    cluster.submit(createRequest("q", "n2", Resource.Locality.PREFERRED,
+        1024, listener));
+    cluster.advance(3000);
+    Assert.assertTrue(listener.containers.isEmpty());
+    cluster.advance(1000);
+    Assert.assertEquals(1, listener.containers.size());
+    Assert.assertEquals("n1", listener.containers.get(0).getNode());
+  }
+
+  private void submitTwoQueues(SimulatedCluster cluster, MyListener listener) {
+    for (int i = 0; i < 4; i++) {
+      cluster.submit(createRequest("a", "n1", Resource.Locality.DONT_CARE,
+          1024, listener));
+    }
+    for (int i = 0; i < 2; i++) {
+      cluster.submit(createRequest("b", "n1", Resource.Locality.DONT_CARE,
+          1024, listener));
+    }
+  }
+
+  @Test
+  public void testFifo() throws Exception {
+    Configuration conf = createConf("n1", 4, 4096);
+    conf.set(SimulatedCluster.POLICY_KEY, "FIFO");
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    submitTwoQueues(cluster, new MyListener());
+    cluster.advance(4000);
+    Assert.assertEquals(4096, cluster.getUsedMemoryMb("a"));
+    Assert.assertEquals(0, cluster.getUsedMemoryMb("b"));
+  }
+
+  @Test
+  public void testFair() throws Exception {
+    Configuration conf = createConf("n1", 4, 4096);
+    conf.set(SimulatedCluster.POLICY_KEY, "FAIR");
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    submitTwoQueues(cluster, new MyListener());
+    cluster.advance(4000);
+    Assert.assertEquals(2048, cluster.getUsedMemoryMb("a"));
+    Assert.assertEquals(2048, cluster.getUsedMemoryMb("b"));
+  }
+
+  @Test
+  public void testQueueMaxMemory() throws Exception {
+    Configuration conf = createConf("n1", 4, 4096);
+    conf.setLong(SimulatedCluster.QUEUE_MAX_MEMORY_MB_KEY + "a", 1024);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    submitTwoQueues(cluster, new MyListener());
+    cluster.advance(10000);
+    Assert.assertEquals(1024, cluster.getUsedMemoryMb("a"));
+    Assert.assertEquals(2048, cluster.getUsedMemoryMb("b"));
+  }
+
+  @Test
+  public void testPreemption() throws Exception {
+    Configuration conf = createConf("n1", 4, 4096);
+    conf.setBoolean(SimulatedCluster.PREEMPTION_ENABLED_KEY, true);
+    conf.setLong(SimulatedCluster.PREEMPTION_TIMEOUT_MS_KEY, 2000);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    MyListener listener = new MyListener();
+    for (int i = 0; i < 4; i++) {
+      cluster.submit(createRequest("a", "n1", Resource.Locality.DONT_CARE,
+          1024, listener));
+    }
+    cluster.advance(4000);
+    Assert.assertEquals(4096, cluster.getUsedMemoryMb("a"));
+    for (int i = 0; i < 2; i++) {
+      cluster.submit(createRequest("b", "n1", Resource.Locality.DONT_CARE,
+          1024, listener));
+    }
+    cluster.advance(1000);
+    Assert.assertEquals(0, listener.count(PlacedResource.Status.PREEMPTED));
+    cluster.advance(10000);
+    Assert.assertEquals(2, listener.count(PlacedResource.Status.PREEMPTED));
+    Assert.assertEquals(2, cluster.getPreemptedCount());
+    Assert.assertEquals(2048, cluster.getUsedMemoryMb("a"));
+    Assert.assertEquals(2048, cluster.getUsedMemoryMb("b"));
+  }
+
+  @Test
+  public void testNodeFailure() throws Exception {
+    Configuration conf = createConf("n1,n2", 2, 2048);
+    conf.setLong(SimulatedCluster.NODE_RECOVERY_MS_KEY, 5000);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    MyListener listener = new MyListener();
+    cluster.submit(createRequest("q", "n1", Resource.Locality.MUST, 1024,
+        listener));
+    cluster.advance(1000);
+    Assert.assertEquals(1, listener.containers.size());
+    cluster.failNode("n1");
+    Assert.assertEquals(1, cluster.getLiveNodes().size());
+    cluster.advance(0);
+    Assert.assertEquals(1, listener.count(PlacedResource.Status.LOST));
+    Assert.assertEquals(0, cluster.getUsedMemoryMb("q"));
+    cluster.advance(5000);
+    Assert.assertEquals(2, cluster.getLiveNodes().size());
+  }
+
+  private List<String> run(List<UUID> ids, long seed) {
+    Configuration conf = createConf("n1,n2,n3,n4", 2, 2048);
+    conf.setFloat(SimulatedCluster.NODE_FAILURE_RATE_KEY, 0.05f);
+    conf.setLong(SimulatedCluster.NODE_RECOVERY_MS_KEY, 3000);
+    conf.setLong(SimulatedCluster.SEED_KEY, seed);
+    SimulatedCluster cluster = new SimulatedCluster(conf);
+    MyListener listener = new MyListener();
+    for (UUID id : ids) {
+      cluster.submit(new SimulatedCluster.Request(id, "q", "n1",
+          Resource.Locality.PREFERRED, 1, 512, listener));
+    }
+    cluster.advance(60000);
+    return listener.events;
+  }
+
+  @Test
+  public void testDeterminism() throws Exception {
+    List<UUID> ids = new ArrayList<UUID>();
+    for (int i = 0; i < 20; i++) {
+      ids.add(UUID.randomUUID());
+    }
+    List<String> events = run(ids, 1);
+    Assert.assertFalse(events.isEmpty());
+    Assert.assertEquals(events, run(ids, 1));
+  }
+
+}
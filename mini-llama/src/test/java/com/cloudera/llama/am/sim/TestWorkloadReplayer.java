@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudera.llama.am.sim;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+public class TestWorkloadReplayer {
+
+  private static final String WORKLOAD =
+      "# arrival queue hold gang resources\n" +
+      "2000 q1 5000 false n1:1:1024:MUST\n" +
+      "0 q1 5000 true n1:1:1024:PREFERRED;n2:1:1024:PREFERRED\n" +
+      "\n" +
+      "1000 q2 5000 false n3:1:1024:MUST\n" +
+      "1000 q2 5000 false n1:1:1024:DONT_CARE\n";
+
+  @Test
+  public void testParse() throws Exception {
+    List<WorkloadReplayer.Entry> entries =
+        WorkloadReplayer.parse(new StringReader(WORKLOAD));
+    Assert.assertEquals(4, entries.size());
+    Assert.assertEquals(0, entries.get(0).getArrival());
+    Assert.assertEquals(2000, entries.get(3).getArrival());
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseInvalid() throws Exception {
+    WorkloadReplayer.parse(new StringReader("0 q1 5000 false n1:1:MUST\n"));
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(SimulatedCluster.CLUSTER_NAME_KEY, "testReplay");
+    conf.set(SimulatedCluster.NODES_KEY, "n1,n2");
+    conf.setInt(SimulatedCluster.NODE_VCORES_KEY, 2);
+    conf.setInt(SimulatedCluster.NODE_MEMORY_MB_KEY, 2048);
+    WorkloadReplayer replayer = new WorkloadReplayer(conf, 60000);
+    WorkloadReplayer.Report report = replayer.replay(
+        WorkloadReplayer.parse(new StringReader(WORKLOAD)));
+    Assert.assertEquals(4, report.getSubmitted());
+    Assert.assertEquals(3, report.getAllocated());
+    Assert.assertEquals(1, report.getRejected());
+    Assert.assertEquals(0, report.getUnfinished());
+    Assert.assertTrue(report.getLatency(100) >= 1000);
+    Assert.assertTrue(report.getVirtualTime() < 60000);
+  }
+
+}